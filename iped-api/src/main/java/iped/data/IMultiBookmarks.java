@@ -52,6 +52,11 @@ public interface IMultiBookmarks extends Serializable {
 
     List<String> getBookmarkList(IItemId item);
 
+    /**
+     * Same as getBookmarkList(item), without creating an item id.
+     */
+    List<String> getBookmarkList(int sourceId, int id);
+
     Collection<IBookmarks> getSingleBookmarks();
 
     int getTotalChecked();
@@ -66,6 +71,11 @@ public interface IMultiBookmarks extends Serializable {
 
     boolean isChecked(IItemId item);
 
+    /**
+     * Same as isChecked(item), without creating an item id.
+     */
+    boolean isChecked(int sourceId, int id);
+
     void loadState();
 
     void loadState(File file) throws ClassNotFoundException, IOException;
@@ -6,9 +6,14 @@
 package iped.search;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import iped.data.IItemReader;
+import iped.properties.BasicProps;
 
 /**
  *
@@ -22,4 +27,58 @@ public interface IItemSearcher extends Closeable {
 
     String escapeQuery(String string);
 
+    /**
+     * Searches items by exact name, ignoring case. Implementations may use faster
+     * indexes than a lucene query.
+     */
+    default List<IItemReader> searchByName(String name) {
+        return filter(search(BasicProps.NAME + ":\"" + escapeQuery(name) + "\""), //$NON-NLS-1$ //$NON-NLS-2$
+                item -> name.equalsIgnoreCase(item.getName()));
+    }
+
+    /**
+     * Searches items by exact path, ignoring case.
+     */
+    default List<IItemReader> searchByPath(String path) {
+        return filter(search(BasicProps.PATH + ":\"" + escapeQuery(path) + "\""), //$NON-NLS-1$ //$NON-NLS-2$
+                item -> path.equalsIgnoreCase(item.getPath()));
+    }
+
+    /**
+     * Searches items by the hash computed with the default hash algorithm.
+     */
+    default List<IItemReader> searchByHash(String hash) {
+        return filter(search(BasicProps.HASH + ":" + escapeQuery(hash)), //$NON-NLS-1$
+                item -> hash.equalsIgnoreCase(item.getHash()));
+    }
+
+    /**
+     * Searches file system items with any of the meta addresses (e.g. MFT entry
+     * numbers).
+     */
+    default List<IItemReader> searchByMetaAddress(String evidenceUUID, String fileSystemId,
+            Collection<Long> metaAddresses) {
+        if (metaAddresses.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String query = BasicProps.EVIDENCE_UUID + ":" + escapeQuery(evidenceUUID) + " && " //$NON-NLS-1$ //$NON-NLS-2$
+                + BasicProps.FILESYSTEM_ID + ":" + escapeQuery(fileSystemId) + " && (" //$NON-NLS-1$ //$NON-NLS-2$
+                + metaAddresses.stream().map(m -> BasicProps.META_ADDRESS + ":" + m) //$NON-NLS-1$
+                        .collect(Collectors.joining(" OR ")) //$NON-NLS-1$
+                + ")"; //$NON-NLS-1$
+        return search(query);
+    }
+
+    /**
+     * Searches the children (subitems, carved items or files in a folder) of an
+     * item.
+     */
+    default List<IItemReader> searchChildren(int parentId) {
+        return search(BasicProps.PARENTID + ":" + parentId); //$NON-NLS-1$
+    }
+
+    private static List<IItemReader> filter(List<IItemReader> items, Predicate<IItemReader> predicate) {
+        return items.stream().filter(predicate).collect(Collectors.toList());
+    }
+
 }
@@ -16,6 +16,21 @@ public interface IMultiSearchResult {
 
     IItemId getItem(int i);
 
+    /**
+     * Same as getItem(i).getSourceId(), implementations may avoid creating the
+     * item id.
+     */
+    default int getSourceId(int i) {
+        return getItem(i).getSourceId();
+    }
+
+    /**
+     * Same as getItem(i).getId(), implementations may avoid creating the item id.
+     */
+    default int getId(int i) {
+        return getItem(i).getId();
+    }
+
     IIPEDSource getIPEDSource();
 
     Iterable<IItemId> getIterator();
@@ -301,8 +301,6 @@ private long[] getEventOrdsFromEventSet(SortedSetDocValues eventDocValues, Strin
     }
 
     public ArrayList<ValueCount> countValues(String field) throws IOException {
-        reader = App.get().appCase.getLeafReader();
-
         field = LocalizedProperties.getNonLocalizedField(field.trim());
 
         loadDocValues(field);
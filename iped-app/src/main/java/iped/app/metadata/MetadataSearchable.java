@@ -3,13 +3,13 @@
 import java.io.IOException;
 import java.util.HashMap;
 
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
 
 import iped.app.ui.App;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.task.index.IndexItem;
 import iped.properties.BasicProps;
 import iped.properties.ExtraProperties;
@@ -22,8 +22,6 @@ public class MetadataSearchable {
     protected volatile SortedSetDocValues eventDocValuesSet;
     protected volatile HashMap<String, long[]> eventSetToOrdsCache = new HashMap<>();
 
-    protected volatile static LeafReader reader;
-
     volatile boolean isCategory = false;
 
     public MetadataSearchable() {
@@ -34,7 +32,8 @@ public MetadataSearchable(String field) throws IOException {
     }
 
     protected void loadDocValues(String field) throws IOException {
-        reader = App.get().appCase.getLeafReader();
+        // global ordinal maps are built once per field and cached by case doc values
+        SegmentDocValues reader = App.get().appCase.getDocValues();
         // System.out.println("getDocValues");
         numValues = reader.getNumericDocValues(field);
         numValuesSet = reader.getSortedNumericDocValues(field);
@@ -38,6 +38,7 @@
 import java.nio.file.Files;
 import java.text.NumberFormat;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -55,6 +56,11 @@
 import iped.app.ui.AppMain;
 import iped.data.IItem;
 import iped.engine.Version;
+import iped.engine.core.Manager;
+import iped.engine.core.ProcessingProfiler;
+import iped.engine.core.ProcessingProfiler.SlowItem;
+import iped.engine.core.ProcessingProfiler.TaskProfile;
+import iped.engine.core.ProcessingQueues;
 import iped.engine.core.Statistics;
 import iped.engine.core.Worker;
 import iped.engine.core.Worker.STATE;
@@ -63,6 +69,7 @@
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.ParsingTask;
 import iped.engine.task.carver.BaseCarveTask;
+import iped.engine.util.LatencyHistogram;
 import iped.engine.util.UIPropertyListenerProvider;
 import iped.engine.util.Util;
 import iped.parsers.standard.StandardParser;
@@ -345,7 +352,7 @@ private String getTaskTimes() {
         }
         StringBuilder msg = new StringBuilder();
         startTable(msg);
-        addTitle(msg, 3, Messages.getString("ProgressFrame.TaskTimes"));
+        addTitle(msg, 7, Messages.getString("ProgressFrame.TaskTimes"));
 
         long totalTime = 0;
         long[] taskTimes = new long[workers[0].tasks.size()];
@@ -366,12 +373,25 @@ private String getTaskTimes() {
                 long sec = time / (1000000 * workers.length);
                 int pct = (int) ((100 * time + totalTime / 2) / totalTime);  // Round percentage
 
+                TaskProfile profile = ProcessingProfiler.get().getTaskProfile(task.getName());
+                LatencyHistogram histogram = profile.getHistogram();
+                List<SlowItem> slowest = profile.getSlowestItems();
+
                 startRow(msg, task.getName(), pct);
                 addCell(msg, nf.format(sec) + "s", Align.RIGHT);
+                addCell(msg, "p50 " + formatMillis(histogram.getValueAtPercentile(50)), Align.RIGHT);
+                addCell(msg, "p99 " + formatMillis(histogram.getValueAtPercentile(99)), Align.RIGHT);
+                addCell(msg, formatMB(profile.getBytesPerSecond()) + "/s", Align.RIGHT);
+                // the full list of slowest items is logged and saved in the processing profile
+                addCell(msg, slowest.isEmpty() ? "-" : getSlowItemDesc(slowest.get(0)), Align.LEFT);
                 finishRow(msg, pct + "%", Align.RIGHT);
             } else {
                 startRow(msg, task.getName(), false);
                 addCell(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
                 finishRow(msg, "-", Align.CENTER);
             }
         }
@@ -470,6 +490,17 @@ private String getStats() {
         startRow(msg, Messages.getString("ProgressFrame.Timeouts"));
         finishRow(msg, nf.format(Statistics.get().getTimeouts()), Align.RIGHT);
 
+        Manager manager = Manager.getInstance();
+        if (manager != null && manager.getProcessingQueues() != null) {
+            ProcessingQueues queues = manager.getProcessingQueues();
+            startRow(msg, Messages.getString("ProgressFrame.QueuedItems"));
+            finishRow(msg, nf.format(queues.getCurrentQueueSize()), Align.RIGHT);
+
+            startRow(msg, Messages.getString("ProgressFrame.QueuedMemory"));
+            finishRow(msg, formatMB(queues.getCurrentQueueMemorySize()) + " / " + formatMB(queues.getMaxQueueMemorySize()),
+                    Align.RIGHT);
+        }
+
         // Some environment information
         skipRow(msg, 2);
         addTitle(msg, 2, Messages.getString("ProgressFrame.Environment"));
@@ -699,6 +730,19 @@ private void updateTaskBar(int totalVolume, int processedVolume, boolean discove
         }
     }
 
+    private String getSlowItemDesc(SlowItem item) {
+        String path = item.getPath();
+        String name = path != null ? path.substring(path.lastIndexOf('/') + 1) : String.valueOf(item.getId());
+        if (name.length() > 40) {
+            name = name.substring(0, 37) + "...";
+        }
+        return "max " + formatMillis(item.getTime()) + " " + clean(name);
+    }
+
+    private static String formatMillis(long micros) {
+        return nf.format(micros / 1000) + "ms";
+    }
+
     private static String formatMB(long value) {
         return nf.format(value >>> 20) + " MB";
     }
@@ -61,7 +61,6 @@
 import javax.swing.event.ListSelectionListener;
 
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -83,6 +82,7 @@
 import iped.engine.data.IPEDSource;
 import iped.engine.data.ItemId;
 import iped.engine.lucene.DocValuesUtil;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.search.IPEDSearcher;
 import iped.engine.search.MultiSearchResult;
 import iped.engine.task.index.IndexItem;
@@ -328,7 +328,7 @@ private void includeDuplicates(ArrayList<IItemId> uniqueSelectedIds) {
         progress.setNote(Messages.getString("BookmarksManager.SearchingDuplicates")); //$NON-NLS-1$
         try {
             IPEDMultiSource ipedCase = App.get().appCase;
-            LeafReader reader = ipedCase.getLeafReader();
+            SegmentDocValues reader = ipedCase.getDocValues();
 
             int duplicates = 0;
             boolean searchUsed;
@@ -39,7 +39,6 @@
 
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.data.IPEDSource;
-import iped.engine.data.ItemId;
 import iped.engine.search.IPEDSearcher;
 import iped.engine.search.MultiSearchResult;
 import iped.engine.search.QueryBuilder;
@@ -241,7 +240,7 @@ public MultiSearchResult doInBackground() {
                 if (!(e instanceof CancellationException)) {
                     e.printStackTrace();
                 }
-                return new MultiSearchResult(new ItemId[0], new float[0]);
+                return new MultiSearchResult();
 
             }
 
@@ -5,12 +5,12 @@
 import java.util.BitSet;
 
 import org.apache.commons.lang.ArrayUtils;
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
 
 import iped.data.IItemId;
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.lucene.DocValuesUtil;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.search.MultiSearchResult;
 import iped.engine.task.index.IndexItem;
 import iped.search.IMultiSearchResult;
@@ -29,7 +29,7 @@ public DynamicDuplicateFilter(IPEDMultiSource ipedSource) {
 
     public MultiSearchResult filter(IMultiSearchResult result) throws IOException {
 
-        LeafReader reader = ipedCase.getLeafReader();
+        SegmentDocValues reader = ipedCase.getDocValues();
         SortedDocValues docValues = reader.getSortedDocValues(IndexItem.HASH);
 
         ArrayList<IItemId> filteredItems = new ArrayList<IItemId>();
@@ -4,10 +4,9 @@
 
 import javax.swing.SwingUtilities;
 
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.NumericDocValues;
 
-import iped.data.IItemId;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.task.index.IndexItem;
 import iped.search.IMultiSearchResult;
 
@@ -32,10 +31,10 @@ public void run() {
                 });
                 long volume = 0;
                 try {
-                    LeafReader atomicReader = App.get().appCase.getAtomicReader();
-                    NumericDocValues ndv = atomicReader.getNumericDocValues(IndexItem.LENGTH);
-                    for (IItemId item : result.getIterator()) {
-                        int doc = App.get().appCase.getLuceneId(item);
+                    SegmentDocValues docValues = App.get().appCase.getDocValues();
+                    NumericDocValues ndv = docValues.getNumericDocValues(IndexItem.LENGTH);
+                    for (int i = 0; i < result.getLength(); i++) {
+                        int doc = App.get().appCase.getLuceneId(result.getSourceId(i), result.getId(i));
                         if (ndv.advanceExact(doc)) {
                             volume += ndv.longValue();
                         }
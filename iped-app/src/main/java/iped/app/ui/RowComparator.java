@@ -26,16 +26,17 @@
 import java.util.HashSet;
 
 import org.apache.lucene.document.Document;
-import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.NumericDocValues;
-import org.apache.lucene.index.SortedDocValues;
-import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped.data.IItemId;
+import iped.data.IMultiBookmarks;
 import iped.engine.localization.CategoryLocalization;
+import iped.engine.lucene.SegmentDocValues;
+import iped.engine.lucene.SortKeyCache;
+import iped.engine.lucene.SortKeyColumn;
+import iped.engine.search.MultiSearchResult;
 import iped.engine.search.TimelineResults.TimeItemId;
 import iped.engine.task.index.IndexItem;
 import iped.engine.util.Util;
@@ -50,7 +51,7 @@ public class RowComparator implements Comparator<Integer> {
     private boolean bookmarkCol = false;
     private boolean scoreCol = false;
 
-    private volatile static LeafReader atomicReader;
+    private volatile static SegmentDocValues docValues;
     private static boolean loadDocValues = true;
 
     private App app = App.get();
@@ -65,10 +66,10 @@ public class RowComparator implements Comparator<Integer> {
 
     private int[] localizedCategoryOrds;
 
-    private int[] sdvOrds;
-    private long[] ndvOrds;
-    private int[][] ssdvOrds;
-    private long[][] sndvOrds;
+    private SortKeyColumn sdvOrds;
+    private SortKeyColumn ndvOrds;
+    private SortKeyColumn ssdvOrds;
+    private SortKeyColumn sndvOrds;
 
     public static void setLoadDocValues(boolean load) {
         loadDocValues = load;
@@ -116,94 +117,33 @@ private void loadDocValues(String indexedField) {
             return;
 
         try {
-            atomicReader = App.get().appCase.getLeafReader();
-
-            SortedDocValues sdv = null;
-            SortedSetDocValues ssdv = null;
-            NumericDocValues ndv = null;
-            SortedNumericDocValues sndv = null;
+            docValues = App.get().appCase.getDocValues();
+            SortKeyCache sortKeys = docValues.getSortKeyCache();
 
+            // packed sort key columns are built in parallel or reused from case folder,
+            // global ordinals are built just for string fields of multi segment indexes
             if (IndexItem.getMetadataTypes().get(indexedField) == null || !IndexItem.getMetadataTypes().get(indexedField).equals(String.class)) {
-                ndv = atomicReader.getNumericDocValues(indexedField);
-                if (ndv == null) {
-                    sndv = atomicReader.getSortedNumericDocValues(indexedField);
+                ndvOrds = sortKeys.getNumeric(indexedField, Long.MIN_VALUE);
+                if (ndvOrds == null) {
+                    sndvOrds = sortKeys.getSortedNumeric(indexedField);
                 }
             }
-            if (ndv == null && sndv == null) {
+            if (ndvOrds == null && sndvOrds == null) {
                 String prefix = ExtraProperties.LOCATIONS.equals(field) ? IndexItem.GEO_SSDV_PREFIX : "";
-                ssdv = atomicReader.getSortedSetDocValues(prefix + indexedField);
-                if (isCategory) {
-                    localizedCategoryOrds = getLocalizedCategoryOrd(ssdv);
+                ssdvOrds = sortKeys.getSortedSetOrds(prefix + indexedField);
+                if (isCategory && ssdvOrds != null) {
+                    localizedCategoryOrds = getLocalizedCategoryOrd(docValues.getSortedSetDocValues(prefix + indexedField));
                 }
             }
-            if (ndv == null && sndv == null && ssdv == null) {
-                sdv = atomicReader.getSortedDocValues(indexedField);
+            if (ndvOrds == null && sndvOrds == null && ssdvOrds == null) {
+                sdvOrds = sortKeys.getSortedOrds(indexedField);
             }
 
-            loadOrds(sdv, ssdv, ndv, sndv);
-
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private void loadOrds(SortedDocValues sdv, SortedSetDocValues ssdv, NumericDocValues ndv, SortedNumericDocValues sndv) throws IOException {
-        int maxDoc = App.get().appCase.getLeafReader().maxDoc();
-        if (sdv != null) {
-            sdvOrds = new int[maxDoc];
-            for (int i = 0; i < maxDoc; i++) {
-                if (sdv.advanceExact(i)) {
-                    sdvOrds[i] = sdv.ordValue();
-                } else {
-                    sdvOrds[i] = -1;
-                }
-            }
-        }
-        if (ndv != null) {
-            ndvOrds = new long[maxDoc];
-            for (int i = 0; i < maxDoc; i++) {
-                if (ndv.advanceExact(i)) {
-                    ndvOrds[i] = ndv.longValue();
-                } else {
-                    ndvOrds[i] = Long.MIN_VALUE;
-                }
-            }
-        }
-        if (ssdv != null) {
-            int[] empty = new int[0];
-            ssdvOrds = new int[maxDoc][];
-            for (int i = 0; i < maxDoc; i++) {
-                if (ssdv.advanceExact(i)) {
-                    ArrayList<Integer> ords = new ArrayList<>();
-                    int ord;
-                    while ((ord = (int) ssdv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
-                        ords.add(ord);
-                    }
-                    ssdvOrds[i] = new int[ords.size()];
-                    for (int j = 0; j < ords.size(); j++) {
-                        ssdvOrds[i][j] = ords.get(j);
-                    }
-                } else {
-                    ssdvOrds[i] = empty;
-                }
-            }
-        }
-        if (sndv != null) {
-            long[] empty = new long[0];
-            sndvOrds = new long[maxDoc][];
-            for (int i = 0; i < maxDoc; i++) {
-                if (sndv.advanceExact(i)) {
-                    sndvOrds[i] = new long[sndv.docValueCount()];
-                    for (int j = 0; j < sndv.docValueCount(); j++) {
-                        sndvOrds[i][j] = sndv.nextValue();
-                    }
-                } else {
-                    sndvOrds[i] = empty;
-                }
-            }
-        }
-    }
-
     public static int[] getLocalizedCategoryOrd(SortedSetDocValues ssdv) throws IOException {
         int[] localizedOrds = new int[(int) ssdv.getValueCount()];
         ArrayList<String> localizedVals = new ArrayList<>();
@@ -223,7 +163,7 @@ public static int[] getLocalizedCategoryOrd(SortedSetDocValues ssdv) throws IOEx
     }
 
     public static boolean isNewIndexReader() {
-        return atomicReader != App.get().appCase.getLeafReader();
+        return docValues != App.get().appCase.getDocValues();
     }
 
     public boolean isStringComparator() {
@@ -239,41 +179,56 @@ public final int compare(Integer a, Integer b) {
         if (scoreCol)
             return Float.compare(app.ipedResult.getScore(a), app.ipedResult.getScore(b));
 
-        IItemId itemA = app.ipedResult.getItem(a);
-        IItemId itemB = app.ipedResult.getItem(b);
-
-        a = app.appCase.getLuceneId(itemA);
-        b = app.appCase.getLuceneId(itemB);
+        if (col == 1 || bookmarkCol) {
+            // avoids creating item ids for each comparison
+            IMultiBookmarks bookmarks = app.appCase.getMultiBookmarks();
+            int sourceA = app.ipedResult.getSourceId(a), idA = app.ipedResult.getId(a);
+            int sourceB = app.ipedResult.getSourceId(b), idB = app.ipedResult.getId(b);
 
-        if (col == 1) {
-            if (app.appCase.getMultiBookmarks().isChecked(itemA) == app.appCase.getMultiBookmarks().isChecked(itemB))
-                return 0;
-            else if (app.appCase.getMultiBookmarks().isChecked(itemA) == true)
-                return -1;
-            else
-                return 1;
+            if (col == 1) {
+                if (bookmarks.isChecked(sourceA, idA) == bookmarks.isChecked(sourceB, idB))
+                    return 0;
+                else if (bookmarks.isChecked(sourceA, idA) == true)
+                    return -1;
+                else
+                    return 1;
 
-        } else if (bookmarkCol) {
-            return Util.concatStrings(app.appCase.getMultiBookmarks().getBookmarkList(itemA)).compareTo(Util.concatStrings(app.appCase.getMultiBookmarks().getBookmarkList(itemB)));
+            } else {
+                return Util.concatStrings(bookmarks.getBookmarkList(sourceA, idA)).compareTo(Util.concatStrings(bookmarks.getBookmarkList(sourceB, idB)));
+            }
+        }
 
-        } else if (isTimeStamp && itemA instanceof TimeItemId) {
-            int ordA = ((TimeItemId) itemA).getTimeStampOrd();
-            int ordB = ((TimeItemId) itemB).getTimeStampOrd();
-            return Integer.compare(ordA, ordB);
+        // time item ids are kept by timeline results, so they are not created here
+        if ((isTimeStamp || isTimeEvent) && app.ipedResult instanceof MultiSearchResult
+                && ((MultiSearchResult) app.ipedResult).keepsItemIds()) {
+            IItemId itemA = app.ipedResult.getItem(a);
+            IItemId itemB = app.ipedResult.getItem(b);
+
+            if (isTimeStamp && itemA instanceof TimeItemId) {
+                int ordA = ((TimeItemId) itemA).getTimeStampOrd();
+                int ordB = ((TimeItemId) itemB).getTimeStampOrd();
+                return Integer.compare(ordA, ordB);
+
+            } else if (isTimeEvent && itemA instanceof TimeItemId) {
+                int ordA = ((TimeItemId) itemA).getTimeEventOrd();
+                int ordB = ((TimeItemId) itemB).getTimeEventOrd();
+                return Integer.compare(ordA, ordB);
+            }
+        }
 
-        } else if (isTimeEvent && itemA instanceof TimeItemId) {
-            int ordA = ((TimeItemId) itemA).getTimeEventOrd();
-            int ordB = ((TimeItemId) itemB).getTimeEventOrd();
-            return Integer.compare(ordA, ordB);
+        // avoids creating item ids for each comparison
+        a = app.appCase.getLuceneId(app.ipedResult.getSourceId(a), app.ipedResult.getId(a));
+        b = app.appCase.getLuceneId(app.ipedResult.getSourceId(b), app.ipedResult.getId(b));
 
-        } else if (sdvOrds != null) {
-            return sdvOrds[a] - sdvOrds[b];
+        if (sdvOrds != null) {
+            return Long.compare(sdvOrds.getValue(a), sdvOrds.getValue(b));
 
         } else if (ssdvOrds != null) {
             int result, k = 0, ordA = -1, ordB = -1;
+            int countA = ssdvOrds.getValueCount(a), countB = ssdvOrds.getValueCount(b);
             do {
-                ordA = k < ssdvOrds[a].length ? ssdvOrds[a][k] : -1;
-                ordB = k < ssdvOrds[b].length ? ssdvOrds[b][k] : -1;
+                ordA = k < countA ? (int) ssdvOrds.getValue(a, k) : -1;
+                ordB = k < countB ? (int) ssdvOrds.getValue(b, k) : -1;
 
                 if (isCategory) {
                     if (ordA > -1) {
@@ -291,10 +246,10 @@ else if (app.appCase.getMultiBookmarks().isChecked(itemA) == true)
             return result;
 
         } else if (sndvOrds != null) {
-            int result, k = 0, countA = sndvOrds[a].length, countB = sndvOrds[b].length;
+            int result, k = 0, countA = sndvOrds.getValueCount(a), countB = sndvOrds.getValueCount(b);
             do {
-                long ordA = k < countA ? sndvOrds[a][k] : Long.MIN_VALUE;
-                long ordB = k < countB ? sndvOrds[b][k] : Long.MIN_VALUE;
+                long ordA = k < countA ? sndvOrds.getValue(a, k) : Long.MIN_VALUE;
+                long ordB = k < countB ? sndvOrds.getValue(b, k) : Long.MIN_VALUE;
                 result = Long.compare(ordA, ordB);
                 k++;
 
@@ -303,7 +258,7 @@ else if (app.appCase.getMultiBookmarks().isChecked(itemA) == true)
             return result;
 
         } else if (ndvOrds != null) {
-            return Long.compare(ndvOrds[a], ndvOrds[b]);
+            return Long.compare(ndvOrds.getValue(a), ndvOrds.getValue(b));
         }
 
         // On demand sorting if DocValues does not exist for this field (much slower)
@@ -94,6 +94,16 @@ public void prepare() {
         this.prepared = true;
     }
 
+    /**
+     * Compiles the prepared automaton into a {@link CompiledAhoCorasick}, with
+     * flat transition tables, much faster to scan big amounts of data.
+     */
+    public CompiledAhoCorasick compile() {
+        if (!this.prepared)
+            throw new IllegalStateException("can't compile until prepare()");
+        return new CompiledAhoCorasick(this.root);
+    }
+
     /**
      * Starts a new search, and returns an Iterator of SearchResults.
      */
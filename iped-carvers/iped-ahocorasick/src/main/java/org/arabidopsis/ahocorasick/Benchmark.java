@@ -29,58 +29,121 @@
  */
 package org.arabidopsis.ahocorasick;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the scanning throughput of the original tree searcher with
+ * {@link CompiledAhoCorasick}, sequential (heap and direct buffers) and
+ * parallel, on random data with embedded carving like signatures.
+ *
+ * Usage: Benchmark [dataSizeMB] [iterations] [threads]
+ */
 public class Benchmark {
-    public static void main(String[] args) throws IOException, InterruptedException {
-        String[] words = { "Christmas", "Cains", "Marley", "spectre", "Ebenezer", "double-ironed", "supernatural",
-                "SPIRITS", "Ding", "Ali Baba" };
-
-        long t0 = System.currentTimeMillis();
-
-        BufferedReader fr = new BufferedReader(
-                new InputStreamReader(Benchmark.class.getResourceAsStream("christmas.txt")));
-        String text = "";
-        String line = fr.readLine();
-        while (line != null) {
-            text += line + "\n";
-            line = fr.readLine();
-        }
 
-        System.out.println("Starting benchmark");
-        long t1 = System.currentTimeMillis();
+    private static final String[] SIGNATURES = { "\\xFF\\xD8\\xFF", "\\xFF\\xD9", "%PDF-", "%%EOF", "PK\\x03\\x04",
+            "PK\\x05\\x06", "\\x89PNG\\x0D\\x0A\\x1A\\x0A", "IEND\\xAE\\x42\\x60\\x82", "GIF89a", "GIF87a", "RIFF",
+            "SQLite format 3\\x00", "<?xml", "BM", "\\xD0\\xCF\\x11\\xE0\\xA1\\xB1\\x1A\\xE1", "ftypisom", "ftypmp42",
+            "regf", "\\x4C\\x00\\x00\\x00\\x01\\x14\\x02\\x00", "MSCF\\x00\\x00\\x00\\x00" };
 
-        AhoCorasick finder = new AhoCorasick();
-        for (String word : words)
-            finder.add(word.getBytes("windows-1252"), word.getBytes("windows-1252"));
-        finder.prepare();
+    private static final int BUFFER_SIZE = 1 << 20;
 
-        Iterator<SearchResult> it = finder.search(text.getBytes("windows-1252"));
-        while (it.hasNext())
-            it.next();
+    public static void main(String[] args) throws Exception {
+        int sizeMB = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
 
-        long t2 = System.currentTimeMillis();
+        byte[][] keywords = new byte[SIGNATURES.length][];
+        AhoCorasick tree = new AhoCorasick();
+        for (int i = 0; i < SIGNATURES.length; i++) {
+            keywords[i] = decode(SIGNATURES[i]);
+            tree.add(keywords[i], i);
+        }
+        tree.prepare();
+        CompiledAhoCorasick compiled = tree.compile();
+        System.out.println("States: " + compiled.getNumStates());
+
+        byte[] data = createData(sizeMB << 20, keywords);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int it = 0; it < iterations; it++) {
+            long t = System.nanoTime();
+            long treeHits = scanTree(tree, data);
+            long treeTime = (System.nanoTime() - t) / 1000000;
+
+            long[] hits = new long[1];
+            t = System.nanoTime();
+            int state = CompiledAhoCorasick.INITIAL_STATE;
+            for (int off = 0; off < data.length; off += BUFFER_SIZE) {
+                int len = Math.min(BUFFER_SIZE, data.length - off);
+                state = compiled.scan(data, off, len, state, off, (output, end) -> hits[0]++);
+            }
+            long compiledTime = (System.nanoTime() - t) / 1000000;
+            long compiledHits = hits[0];
+
+            hits[0] = 0;
+            t = System.nanoTime();
+            compiled.scan(direct, CompiledAhoCorasick.INITIAL_STATE, 0, (output, end) -> hits[0]++);
+            long directTime = (System.nanoTime() - t) / 1000000;
+
+            t = System.nanoTime();
+            int parallelHits = compiled.scanParallel(data, 0, data.length, 0, 0, executor, threads).size();
+            long parallelTime = (System.nanoTime() - t) / 1000000;
+
+            System.out.println("Iteration " + it + ": tree " + treeTime + "ms (" + treeHits + " hits), compiled "
+                    + compiledTime + "ms (" + compiledHits + " hits), direct buffer " + directTime + "ms ("
+                    + hits[0] + " hits), parallel " + parallelTime + "ms (" + parallelHits + " hits)");
+        }
+        executor.shutdown();
+    }
 
-        String pattern = "";
-        for (String word : words) {
-            if (!pattern.equals(""))
-                pattern += "|";
-            pattern += word;
+    /**
+     * Same loop used by CarverTask before the compiled automaton.
+     */
+    private static long scanTree(AhoCorasick tree, byte[] data) {
+        long hits = 0;
+        SearchResult lastResult = new SearchResult(tree.root, null, 0);
+        for (int off = 0; off < data.length; off += BUFFER_SIZE) {
+            byte[] cBuf = new byte[Math.min(BUFFER_SIZE, data.length - off)];
+            System.arraycopy(data, off, cBuf, 0, cBuf.length);
+            lastResult = new SearchResult(lastResult.lastMatchedState, cBuf, 0);
+            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
+            while (searcher.hasNext()) {
+                lastResult = searcher.next();
+                hits += lastResult.getOutputs().size();
+            }
         }
-        Pattern p = Pattern.compile(pattern);
-        Matcher m = p.matcher(text);
-        while (m.find())
-            continue;
+        return hits;
+    }
 
-        long t3 = System.currentTimeMillis();
+    private static byte[] createData(int len, byte[][] keywords) {
+        Random random = new Random(0);
+        byte[] data = new byte[len];
+        random.nextBytes(data);
+        for (int i = 0; i < len / 4096; i++) {
+            byte[] keyword = keywords[random.nextInt(keywords.length)];
+            int pos = random.nextInt(len - keyword.length);
+            System.arraycopy(keyword, 0, data, pos, keyword.length);
+        }
+        return data;
+    }
 
-        System.out.println("File reading: " + Long.toString(t1 - t0) + "ms");
-        System.out.println("Aho-Corasick: " + Long.toString(t2 - t1) + "ms");
-        System.out.println("Java-regexp: " + Long.toString(t3 - t2) + "ms");
+    private static byte[] decode(String sig) {
+        ByteBuffer buf = ByteBuffer.allocate(sig.length());
+        for (int i = 0; i < sig.length(); i++) {
+            if (sig.charAt(i) == '\\' && sig.charAt(i + 1) == 'x') {
+                buf.put((byte) Integer.parseInt(sig.substring(i + 2, i + 4), 16));
+                i += 3;
+            } else {
+                buf.put((byte) sig.charAt(i));
+            }
+        }
+        return Arrays.copyOf(buf.array(), buf.position());
     }
 }
@@ -0,0 +1,298 @@
+package org.arabidopsis.ahocorasick;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Compiled form of a prepared {@link AhoCorasick} tree, for fast scanning of
+ * big amounts of data.
+ *
+ * Failure links are folded into a full DFA, kept in a single int[] transition
+ * table indexed by state row and byte class (bytes used by no keyword share the
+ * same class), so each scanned byte costs two array reads. Outputs are kept in
+ * primitive arrays, referencing the output objects by index, so no objects are
+ * allocated while scanning.
+ *
+ * Instances are immutable and may be shared by multiple threads. The scan state
+ * is kept by the caller, so scanning can be continued across buffers.
+ */
+public class CompiledAhoCorasick {
+
+    /**
+     * Receives the matches found while scanning.
+     */
+    public interface MatchListener {
+
+        /**
+         * @param output
+         *            index of the matched keyword output, see
+         *            {@link CompiledAhoCorasick#getOutput(int)}
+         * @param end
+         *            offset just after the last matched byte
+         */
+        void match(int output, long end);
+    }
+
+    /**
+     * Matches collected by a parallel scan, ordered by end offset.
+     */
+    public static class Matches {
+
+        private int[] outputs = new int[64];
+        private long[] ends = new long[64];
+        private int size;
+
+        private void add(int output, long end) {
+            if (size == outputs.length) {
+                outputs = Arrays.copyOf(outputs, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            outputs[size] = output;
+            ends[size++] = end;
+        }
+
+        private void addAll(Matches other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.outputs[i], other.ends[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getOutput(int i) {
+            return outputs[i];
+        }
+
+        public long getEnd(int i) {
+            return ends[i];
+        }
+    }
+
+    public static final int INITIAL_STATE = 0;
+
+    private final char[] byteClasses = new char[256];
+    private final int numClasses;
+
+    /**
+     * Transitions of each state row (state * numClasses). Rows of states with
+     * outputs are stored negated.
+     */
+    private final int[] transitions;
+
+    private final int[] outputStarts;
+    private final int[] outputIds;
+    private final Object[] outputs;
+    private final int maxKeywordLength;
+
+    CompiledAhoCorasick(State root) {
+        // states numbered in breadth first order of the trie
+        IdentityHashMap<State, Integer> ids = new IdentityHashMap<>();
+        List<State> states = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        ids.put(root, 0);
+        states.add(root);
+        depths.add(0);
+        boolean[] usedBytes = new boolean[256];
+        for (int i = 0; i < states.size(); i++) {
+            State state = states.get(i);
+            for (int b = 0; b < 256; b++) {
+                State next = state.edgeList.array[b];
+                if (next != null && next != root && !ids.containsKey(next)) {
+                    ids.put(next, states.size());
+                    states.add(next);
+                    depths.add(depths.get(i) + 1);
+                    usedBytes[b] = true;
+                }
+            }
+        }
+        int maxDepth = 0;
+        for (int depth : depths) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        this.maxKeywordLength = maxDepth;
+
+        // class 0 is used by bytes not present in any keyword
+        int classes = 1;
+        int[] classBytes = new int[257];
+        classBytes[0] = -1;
+        for (int b = 0; b < 256; b++) {
+            if (usedBytes[b]) {
+                classBytes[classes] = b;
+                byteClasses[b] = (char) classes++;
+            } else if (classBytes[0] == -1) {
+                classBytes[0] = b;
+            }
+        }
+        this.numClasses = classes;
+
+        IdentityHashMap<Object, Integer> outputIndexes = new IdentityHashMap<>();
+        List<Object> outputList = new ArrayList<>();
+        outputStarts = new int[states.size() + 1];
+        int[] outIds = new int[16];
+        int numOutIds = 0;
+        transitions = new int[states.size() * numClasses];
+        for (int i = 0; i < states.size(); i++) {
+            State state = states.get(i);
+            for (int c = 0; c < numClasses; c++) {
+                int b = classBytes[c];
+                if (b == -1) {
+                    // all bytes are used by keywords, class 0 is never used
+                    continue;
+                }
+                State next = step(state, (byte) b);
+                int nextId = ids.get(next);
+                int row = nextId * numClasses;
+                transitions[i * numClasses + c] = next.outputs != null ? -row : row;
+            }
+            outputStarts[i] = numOutIds;
+            if (state.outputs != null) {
+                for (Object out : state.outputs) {
+                    Integer idx = outputIndexes.get(out);
+                    if (idx == null) {
+                        idx = outputList.size();
+                        outputIndexes.put(out, idx);
+                        outputList.add(out);
+                    }
+                    if (numOutIds == outIds.length) {
+                        outIds = Arrays.copyOf(outIds, numOutIds * 2);
+                    }
+                    outIds[numOutIds++] = idx;
+                }
+            }
+        }
+        outputStarts[states.size()] = numOutIds;
+        outputIds = Arrays.copyOf(outIds, numOutIds);
+        outputs = outputList.toArray();
+    }
+
+    private static State step(State state, byte b) {
+        State next;
+        while ((next = state.get(b)) == null) {
+            state = state.getFail();
+        }
+        return next;
+    }
+
+    /**
+     * @return the output object with the index received by
+     *         {@link MatchListener#match(int, long)}
+     */
+    public Object getOutput(int index) {
+        return outputs[index];
+    }
+
+    public int getNumStates() {
+        return outputStarts.length - 1;
+    }
+
+    public int getMaxKeywordLength() {
+        return maxKeywordLength;
+    }
+
+    private void notifyOutputs(int row, long end, MatchListener listener) {
+        int state = row / numClasses;
+        for (int i = outputStarts[state]; i < outputStarts[state + 1]; i++) {
+            listener.match(outputIds[i], end);
+        }
+    }
+
+    /**
+     * Scans len bytes of buf starting at off.
+     *
+     * @param state
+     *            {@link #INITIAL_STATE} or the state returned by the previous
+     *            scan, to continue it
+     * @param offset
+     *            offset of buf[off] in the whole data, used to report match ends
+     * @return the state to continue scanning the following bytes
+     */
+    public int scan(byte[] buf, int off, int len, int state, long offset, MatchListener listener) {
+        final int[] transitions = this.transitions;
+        final char[] byteClasses = this.byteClasses;
+        final int end = off + len;
+        for (int i = off; i < end; i++) {
+            state = transitions[state + byteClasses[buf[i] & 0xFF]];
+            if (state < 0) {
+                state = -state;
+                notifyOutputs(state, offset + i + 1 - off, listener);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Scans the remaining bytes of buf, without changing its position. Direct
+     * buffers are read directly, without copying to heap.
+     *
+     * @see #scan(byte[], int, int, int, long, MatchListener)
+     */
+    public int scan(ByteBuffer buf, int state, long offset, MatchListener listener) {
+        if (buf.hasArray()) {
+            return scan(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), state, offset, listener);
+        }
+        final int[] transitions = this.transitions;
+        final char[] byteClasses = this.byteClasses;
+        final int start = buf.position();
+        final int end = buf.limit();
+        for (int i = start; i < end; i++) {
+            state = transitions[state + byteClasses[buf.get(i) & 0xFF]];
+            if (state < 0) {
+                state = -state;
+                notifyOutputs(state, offset + i + 1 - start, listener);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Scans buf in parallel chunks. Each chunk is scanned from the initial state,
+     * starting maxKeywordLength - 1 bytes before it, so matches crossing chunk
+     * boundaries are found, and reports only matches ending inside it.
+     *
+     * @param context
+     *            number of bytes at off already scanned as the end of previous
+     *            data, used just to find matches crossing into the new bytes.
+     *            Should be maxKeywordLength - 1 when continuing a scan.
+     * @param offset
+     *            offset of buf[off] in the whole data
+     * @return the matches ending after the context bytes, in the same order of a
+     *         sequential scan
+     */
+    public Matches scanParallel(byte[] buf, int off, int len, int context, long offset, ExecutorService executor,
+            int numChunks) throws InterruptedException, ExecutionException {
+        int reportStart = off + context;
+        int end = off + len;
+        int chunkSize = Math.max(maxKeywordLength, (end - reportStart + numChunks - 1) / Math.max(1, numChunks));
+        List<Future<Matches>> futures = new ArrayList<>();
+        for (int chunkStart = reportStart; chunkStart < end; chunkStart += chunkSize) {
+            int cs = chunkStart;
+            int ce = Math.min(end, chunkStart + chunkSize);
+            futures.add(executor.submit(() -> {
+                Matches matches = new Matches();
+                int scanStart = Math.max(off, cs - maxKeywordLength + 1);
+                long scanOffset = offset + scanStart - off;
+                long minEnd = offset + cs - off;
+                scan(buf, scanStart, ce - scanStart, INITIAL_STATE, scanOffset, (output, matchEnd) -> {
+                    if (matchEnd > minEnd) {
+                        matches.add(output, matchEnd);
+                    }
+                });
+                return matches;
+            }));
+        }
+        Matches result = new Matches();
+        for (Future<Matches> future : futures) {
+            result.addAll(future.get());
+        }
+        return result;
+    }
+
+}
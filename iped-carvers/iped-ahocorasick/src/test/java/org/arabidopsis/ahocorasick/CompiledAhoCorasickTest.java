@@ -0,0 +1,124 @@
+package org.arabidopsis.ahocorasick;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class CompiledAhoCorasickTest {
+
+    private static final String[] KEYWORDS = { "abc", "bc", "c", "abcd", "cab", "aaa", "\u00ff\u00fe" };
+
+    private static AhoCorasick createTree() {
+        AhoCorasick tree = new AhoCorasick();
+        for (String keyword : KEYWORDS) {
+            tree.add(bytes(keyword), keyword);
+        }
+        tree.prepare();
+        return tree;
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    private static byte[] createData() {
+        Random random = new Random(0);
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            // small alphabet to have many overlapping matches
+            data[i] = (byte) (random.nextInt(10) == 0 ? 0xff - random.nextInt(2) : 'a' + random.nextInt(4));
+        }
+        return data;
+    }
+
+    private static List<String> treeMatches(AhoCorasick tree, byte[] data) {
+        List<String> matches = new ArrayList<>();
+        Iterator<SearchResult> it = tree.search(data);
+        while (it.hasNext()) {
+            SearchResult result = it.next();
+            for (Object out : result.getOutputs()) {
+                matches.add(out + "@" + result.getLastIndex());
+            }
+        }
+        return matches;
+    }
+
+    @Test
+    public void testSameMatchesOfTree() {
+        AhoCorasick tree = createTree();
+        CompiledAhoCorasick compiled = tree.compile();
+        byte[] data = createData();
+        List<String> expected = treeMatches(tree, data);
+
+        // scanning in pieces, continuing the state
+        for (int bufSize : new int[] { 1, 7, 1000, data.length }) {
+            List<String> matches = new ArrayList<>();
+            int state = CompiledAhoCorasick.INITIAL_STATE;
+            for (int off = 0; off < data.length; off += bufSize) {
+                int len = Math.min(bufSize, data.length - off);
+                state = compiled.scan(data, off, len, state, off,
+                        (output, end) -> matches.add(compiled.getOutput(output) + "@" + end));
+            }
+            assertEquals(expected, matches);
+        }
+
+        List<String> matches = new ArrayList<>();
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        compiled.scan(direct, CompiledAhoCorasick.INITIAL_STATE, 0,
+                (output, end) -> matches.add(compiled.getOutput(output) + "@" + end));
+        assertEquals(expected, matches);
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        AhoCorasick tree = createTree();
+        CompiledAhoCorasick compiled = tree.compile();
+        byte[] data = createData();
+        List<String> expected = treeMatches(tree, data);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int chunks : new int[] { 1, 3, 16, 1000 }) {
+                CompiledAhoCorasick.Matches result = compiled.scanParallel(data, 0, data.length, 0, 0, executor,
+                        chunks);
+                List<String> matches = new ArrayList<>();
+                for (int i = 0; i < result.size(); i++) {
+                    matches.add(compiled.getOutput(result.getOutput(i)) + "@" + result.getEnd(i));
+                }
+                assertEquals(expected, matches);
+            }
+
+            // continuing after context bytes already scanned
+            int context = compiled.getMaxKeywordLength() - 1;
+            int split = 5000;
+            CompiledAhoCorasick.Matches result = compiled.scanParallel(data, split - context,
+                    data.length - split + context, context, split - context, executor, 8);
+            List<String> matches = new ArrayList<>();
+            for (int i = 0; i < result.size(); i++) {
+                matches.add(compiled.getOutput(result.getOutput(i)) + "@" + result.getEnd(i));
+            }
+            List<String> expectedAfterSplit = new ArrayList<>();
+            for (String match : expected) {
+                if (Integer.parseInt(match.substring(match.indexOf('@') + 1)) > split) {
+                    expectedAfterSplit.add(match);
+                }
+            }
+            assertEquals(expectedAfterSplit, matches);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -5,6 +5,7 @@
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 
 public interface CarverConfiguration {
     /* returns the configured carverTypes */
@@ -25,6 +26,9 @@ public interface CarverConfiguration {
     /* Returns the populated state machine tree */
     public AhoCorasick getPopulatedTree();
 
+    /* Returns the populated state machine compiled for fast scanning */
+    public CompiledAhoCorasick getCompiledTree();
+
     /* Returns the populated state machine tree */
     public HashMap<CarverType, Carver> getRegisteredCarvers();
 
@@ -26,6 +26,10 @@ public class IndexTaskConfig extends AbstractTaskPropertiesConfig {
     private int maxTokenLength = 255;
     private int[] extraCharsToIndexArray;
     private int commitIntervalSeconds = 1800;
+    private int indexRAMBufferMB = 0;
+    private int indexMergeThreads = 0;
+    private boolean backgroundIndexFlush = true;
+    private boolean perWorkerIndexWriters = false;
 
     @Override
     public String getTaskEnableProperty() {
@@ -95,6 +99,26 @@ public void processProperties(UTF8Properties properties) {
             commitIntervalSeconds = Integer.parseInt(value.trim());
         }
 
+        value = properties.getProperty("indexRAMBufferMB"); //$NON-NLS-1$
+        if (value != null && !value.trim().equalsIgnoreCase("auto")) { //$NON-NLS-1$
+            indexRAMBufferMB = Integer.parseInt(value.trim());
+        }
+
+        value = properties.getProperty("indexMergeThreads"); //$NON-NLS-1$
+        if (value != null && !value.trim().equalsIgnoreCase("auto")) { //$NON-NLS-1$
+            indexMergeThreads = Integer.parseInt(value.trim());
+        }
+
+        value = properties.getProperty("backgroundIndexFlush"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            backgroundIndexFlush = Boolean.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("perWorkerIndexWriters"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            perWorkerIndexWriters = Boolean.valueOf(value.trim());
+        }
+
     }
 
     private int[] convertExtraCharsToIndex(String chars) {
@@ -173,4 +197,26 @@ public int getCommitIntervalSeconds() {
         return commitIntervalSeconds;
     }
 
+    /**
+     * @return configured RAM buffer size in MB or 0 if it should be computed.
+     */
+    public int getIndexRAMBufferMB() {
+        return indexRAMBufferMB;
+    }
+
+    /**
+     * @return configured number of merge threads or 0 if it should be computed.
+     */
+    public int getIndexMergeThreads() {
+        return indexMergeThreads;
+    }
+
+    public boolean isBackgroundIndexFlush() {
+        return backgroundIndexFlush;
+    }
+
+    public boolean isPerWorkerIndexWriters() {
+        return perWorkerIndexWriters;
+    }
+
 }
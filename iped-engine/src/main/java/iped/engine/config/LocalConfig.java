@@ -7,7 +7,9 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.slf4j.Logger;
@@ -35,8 +37,30 @@ public class LocalConfig extends AbstractPropertiesConfigurable {
 
     private static final String OUTPUT_ON_SSD = "outputOnSSD";
 
+    private static final String MAX_QUEUE_MEMORY = "maxQueueMemoryMB";
+
+    private static final String MAX_QUEUE_ITEMS = "maxQueueItems";
+
+    private static final String SPILL_QUEUED_ITEMS = "spillQueuedItemsOffHeap";
+
+    private static final String MAX_SPILL_MEMORY = "maxSpillMemoryMB";
+
+    private static final String AUTO_SCALE_WORKERS = "autoScaleWorkers";
+
+    private static final String MAX_THREADS = "maxThreads";
+
+    private static final String TASK_CONCURRENCY_LIMITS = "taskConcurrencyLimits";
+
+    private static final String ITEM_LOOKUP_INDEX = "itemLookupIndex";
+
+    private static final String MAX_PARALLEL_DATASOURCES = "maxParallelDataSources";
+
     private static final String DEFAULT_VAL = "default";
 
+    private static final int DEFAULT_MAX_QUEUE_ITEMS = 100000;
+
+    private static final int DEFAULT_MAX_PARALLEL_DATASOURCES = 4;
+
     public static final DirectoryStream.Filter<Path> filter = new Filter<Path>() {
         @Override
         public boolean accept(Path entry) throws IOException {
@@ -49,6 +73,15 @@ public boolean accept(Path entry) throws IOException {
     private File ipedTemp, indexTemp;
     private int numThreads;
     private File hashDbFile;
+    private long maxQueueMemory;
+    private int maxQueueItems;
+    private boolean spillQueuedItems = false;
+    private long maxSpillMemory;
+    private boolean autoScaleWorkers = false;
+    private int maxThreads;
+    private Map<String, Integer> taskConcurrencyLimits = new HashMap<>();
+    private boolean itemLookupIndex = true;
+    private int maxParallelDataSources;
 
     @Override
     public Filter<Path> getResourceLookupFilter() {
@@ -129,6 +162,91 @@ public void processProperties(UTF8Properties properties) {
         if (outputOnSSD || !indexTempOnSSD || Boolean.valueOf(System.getProperty(SYS_PROP_APPEND)))
             indexTemp = null;
 
+        value = properties.getProperty(MAX_QUEUE_MEMORY);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty() && !value.equalsIgnoreCase(DEFAULT_VAL)) {
+            maxQueueMemory = Long.parseLong(value) << 20;
+        } else {
+            // 5% of java heap, at least 64MB
+            maxQueueMemory = Math.max(64L << 20, Runtime.getRuntime().maxMemory() / 20);
+        }
+
+        value = properties.getProperty(MAX_QUEUE_ITEMS);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty() && !value.equalsIgnoreCase(DEFAULT_VAL)) {
+            maxQueueItems = Integer.parseInt(value);
+        } else {
+            maxQueueItems = DEFAULT_MAX_QUEUE_ITEMS;
+        }
+
+        value = properties.getProperty(SPILL_QUEUED_ITEMS);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty()) {
+            spillQueuedItems = Boolean.valueOf(value);
+        }
+
+        value = properties.getProperty(MAX_SPILL_MEMORY);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty() && !value.equalsIgnoreCase(DEFAULT_VAL)) {
+            maxSpillMemory = Long.parseLong(value) << 20;
+        } else {
+            maxSpillMemory = maxQueueMemory;
+        }
+
+        value = properties.getProperty(AUTO_SCALE_WORKERS);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty()) {
+            autoScaleWorkers = Boolean.valueOf(value);
+        }
+
+        value = properties.getProperty(MAX_THREADS);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty() && !value.equalsIgnoreCase(DEFAULT_VAL)) {
+            maxThreads = Math.max(numThreads, Integer.parseInt(value));
+        } else {
+            maxThreads = numThreads;
+        }
+
+        value = properties.getProperty(TASK_CONCURRENCY_LIMITS);
+        if (value != null) {
+            for (String limit : value.split(";")) { //$NON-NLS-1$
+                String[] pair = limit.split(":"); //$NON-NLS-1$
+                if (pair.length == 2 && !pair[0].trim().isEmpty()) {
+                    taskConcurrencyLimits.put(pair[0].trim(), Integer.parseInt(pair[1].trim()));
+                }
+            }
+        }
+
+        value = properties.getProperty(ITEM_LOOKUP_INDEX);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty()) {
+            itemLookupIndex = Boolean.valueOf(value);
+        }
+
+        value = properties.getProperty(MAX_PARALLEL_DATASOURCES);
+        if (value != null) {
+            value = value.trim();
+        }
+        if (value != null && !value.isEmpty() && !value.equalsIgnoreCase(DEFAULT_VAL)) {
+            maxParallelDataSources = Math.max(1, Integer.parseInt(value));
+        } else {
+            maxParallelDataSources = DEFAULT_MAX_PARALLEL_DATASOURCES;
+        }
+
         value = properties.getProperty(HASH_DB);
         if (value != null) {
             setHashDbFile(new File(value.trim()));
@@ -161,6 +279,79 @@ public int getNumThreads() {
         return numThreads;
     }
 
+    /**
+     * @return if processing workers should be parked or unparked at runtime, based
+     *         on CPU usage, I/O stalls, memory pressure and queue size.
+     */
+    public boolean isAutoScaleWorkers() {
+        return autoScaleWorkers;
+    }
+
+    /**
+     * @return number of workers to create. With auto scaling, workers beyond
+     *         numThreads start parked and are used when workers are stalled on
+     *         I/O.
+     */
+    public int getMaxThreads() {
+        return autoScaleWorkers ? maxThreads : numThreads;
+    }
+
+    /**
+     * @return max number of workers running concurrently in each limited task,
+     *         by task class simple name.
+     */
+    public Map<String, Integer> getTaskConcurrencyLimits() {
+        return taskConcurrencyLimits;
+    }
+
+    /**
+     * @return if processed items should be kept in in-memory hash indexes, used
+     *         by parsers to look up related items without lucene queries.
+     */
+    public boolean isItemLookupIndex() {
+        return itemLookupIndex;
+    }
+
+    /**
+     * @return max number of data sources read at the same time by the item
+     *         producer.
+     */
+    public int getMaxParallelDataSources() {
+        return maxParallelDataSources;
+    }
+
+    /**
+     * @return max estimated heap bytes of items waiting in the processing queue
+     *         before item producers are blocked.
+     */
+    public long getMaxQueueMemory() {
+        return maxQueueMemory;
+    }
+
+    /**
+     * @return max number of items waiting in the processing queue before item
+     *         producers are blocked.
+     */
+    public int getMaxQueueItems() {
+        return maxQueueItems;
+    }
+
+    /**
+     * @return if attributes and metadata of items waiting in the processing queue
+     *         should be moved to off-heap memory.
+     */
+    public boolean isSpillQueuedItems() {
+        return spillQueuedItems;
+    }
+
+    /**
+     * @return max off-heap bytes used by attributes and metadata of queued items,
+     *         when they are spilled.
+     */
+    public long getMaxSpillMemory() {
+        return maxSpillMemory;
+    }
+
     public File getHashDbFile() {
         return hashDbFile;
     }
@@ -184,6 +375,8 @@ public static void clearLocalParameters(File localConfig) throws IOException {
                 line = "#" + line;
             } else if (line.startsWith(OUTPUT_ON_SSD)) {
                 line = OUTPUT_ON_SSD + " = false";
+            } else if (line.startsWith(MAX_QUEUE_MEMORY)) {
+                line = MAX_QUEUE_MEMORY + " = " + DEFAULT_VAL;
             }
             newLines.add(line);
         }
@@ -29,6 +29,10 @@ public class OCRConfig extends AbstractPropertiesConfigurable {
     private String maxPdfTextSize2OCR;
     private String processNonStandard;
     private String maxConvImageSize;
+    private String numOCRProcesses;
+    private String timeoutPerPage;
+    private String batchPages;
+    private String sharedOCRCacheDb;
 
     public static final DirectoryStream.Filter<Path> filter = new Filter<Path>() {
         @Override
@@ -116,6 +120,26 @@ public void processProperties(UTF8Properties properties) {
             maxConvImageSize = value.trim();
         }
 
+        value = properties.getProperty("numOCRProcesses"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty() && !value.trim().equalsIgnoreCase("default")) { //$NON-NLS-1$
+            numOCRProcesses = value.trim();
+        }
+
+        value = properties.getProperty("timeoutPerPage"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            timeoutPerPage = value.trim();
+        }
+
+        value = properties.getProperty("batchPages"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            batchPages = value.trim();
+        }
+
+        value = properties.getProperty("sharedOCRCacheDb"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            sharedOCRCacheDb = value.trim();
+        }
+
     }
 
     public Boolean isOCREnabled() {
@@ -170,4 +194,27 @@ public String getMaxConvImageSize() {
         return maxConvImageSize;
     }
 
+    /**
+     * @return max concurrent tesseract processes, null to use the number of
+     *         processors
+     */
+    public String getNumOCRProcesses() {
+        return numOCRProcesses;
+    }
+
+    public String getTimeoutPerPage() {
+        return timeoutPerPage;
+    }
+
+    public String getBatchPages() {
+        return batchPages;
+    }
+
+    /**
+     * @return path of OCR results db shared by different cases, null if not used
+     */
+    public String getSharedOCRCacheDb() {
+        return sharedOCRCacheDb;
+    }
+
 }
@@ -26,6 +26,10 @@ public class ParsingTaskConfig extends AbstractTaskPropertiesConfig {
     private boolean sortPDFChars;
     private boolean processImagesInPDFs = false;
     private String phoneParsersToUse;
+    private boolean enableContentResultCache = true;
+    private long contentResultCacheMemory = Math.max(32L << 20, Runtime.getRuntime().maxMemory() / 32);
+    private long contentResultCacheDiskSize = 4096L << 20;
+    private int contentResultCacheMaxTextChars = 1000000;
 
     @Override
     public String getTaskEnableProperty() {
@@ -108,6 +112,26 @@ public void processProperties(UTF8Properties properties) {
             phoneParsersToUse = value.trim();
         }
 
+        value = properties.getProperty("enableContentResultCache"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            enableContentResultCache = Boolean.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("contentResultCacheMemoryMB"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty() && !value.trim().equalsIgnoreCase("auto")) { //$NON-NLS-1$
+            contentResultCacheMemory = Long.valueOf(value.trim()) << 20;
+        }
+
+        value = properties.getProperty("contentResultCacheDiskMB"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            contentResultCacheDiskSize = Long.valueOf(value.trim()) << 20;
+        }
+
+        value = properties.getProperty("contentResultCacheMaxTextChars"); //$NON-NLS-1$
+        if (value != null && !value.trim().isEmpty()) {
+            contentResultCacheMaxTextChars = Integer.valueOf(value.trim());
+        }
+
     }
 
     public boolean isEnableExternalParsing() {
@@ -158,4 +182,20 @@ public int getMinRawStringSize() {
         return minRawStringSize;
     }
 
+    public boolean isEnableContentResultCache() {
+        return enableContentResultCache;
+    }
+
+    public long getContentResultCacheMemory() {
+        return contentResultCacheMemory;
+    }
+
+    public long getContentResultCacheDiskSize() {
+        return contentResultCacheDiskSize;
+    }
+
+    public int getContentResultCacheMaxTextChars() {
+        return contentResultCacheMaxTextChars;
+    }
+
 }
@@ -63,8 +63,10 @@
 import iped.engine.config.SplashScreenConfig;
 import iped.engine.data.Bookmarks;
 import iped.engine.data.CaseData;
+import iped.engine.data.CommittedTrackIDs;
 import iped.engine.data.IPEDSource;
 import iped.engine.data.Item;
+import iped.engine.data.LuceneIdMap;
 import iped.engine.datasource.ItemProducer;
 import iped.engine.datasource.SleuthkitReader;
 import iped.engine.graph.GraphFileWriter;
@@ -75,9 +77,11 @@
 import iped.engine.localization.Messages;
 import iped.engine.lucene.ConfiguredFSDirectory;
 import iped.engine.lucene.CustomIndexDeletionPolicy;
+import iped.engine.lucene.IndexWriterPool;
 import iped.engine.lucene.analysis.AppAnalyzer;
 import iped.engine.search.IPEDSearcher;
 import iped.engine.search.IndexerSimilarity;
+import iped.engine.search.ItemLookupIndex;
 import iped.engine.search.ItemSearcher;
 import iped.engine.search.LuceneSearchResult;
 import iped.engine.sleuthkit.SleuthkitClient;
@@ -98,15 +102,18 @@
 
 /**
  * Classe responsável pela preparação do processamento, inicialização do
- * contador, produtor e consumidores (workers) dos itens, monitoramento do
+ * decodificador, produtor e consumidores (workers) dos itens, monitoramento do
  * processamento e pelas etapas pós-processamento.
  *
- * O contador apenas enumera e soma o tamanho dos itens que serão processados,
- * permitindo que seja estimado o progresso e término do processamento.
+ * O decodificador executa a passada preliminar das fontes de dados que precisam
+ * dela (ex: imagens adicionadas ao banco do sleuthkit), à frente do produtor.
  *
  * O produtor obtém os itens a partir de uma fonte de dados específica
  * (relatório do UFED, diretório, imagem), inserindo-os numa fila de
- * processamento com tamanho limitado (para limitar o uso de memória).
+ * processamento com tamanho limitado (para limitar o uso de memória). Os itens
+ * são contados e têm o tamanho somado ao serem enumerados, permitindo que seja
+ * estimado o progresso e término do processamento sem percorrer as fontes de
+ * dados duas vezes.
  *
  * Os consumidores (workers) retiram os itens da fila e são responsáveis pelo
  * seu processamento. Cada worker executa em uma thread diferente, permitindo o
@@ -135,9 +142,11 @@ public class Manager {
     private List<File> sources;
     private File output, finalIndexDir, indexDir, palavrasChave;
 
-    private ItemProducer counter, producer;
+    private ItemProducer decoder, producer;
     private Worker[] workers;
+    private WorkerScheduler workerScheduler;
     private IndexWriter writer;
+    private IndexWriterPool indexWriterPool;
 
     public Statistics stats;
     public volatile Exception exception;
@@ -183,6 +192,7 @@ public ICaseData getCaseData() {
 
     public void addItemToQueue(IItem item) throws InterruptedException {
         this.processingQueues.addItem(item);
+        ItemProducer.itemAdded();
     }
 
     public ProcessingQueues getProcessingQueues() {
@@ -241,6 +251,10 @@ public IndexWriter getIndexWriter() {
         return this.writer;
     }
 
+    public IndexWriterPool getIndexWriterPool() {
+        return this.indexWriterPool;
+    }
+
     public void process() throws Exception {
 
         stats.printSystemInfo();
@@ -287,9 +301,9 @@ public void process() throws Exception {
             status.addProcessingEvidences(args);
             status.save();
 
-            // apenas conta o número de arquivos a indexar
-            counter = new ItemProducer(this, caseData, true, sources, output);
-            counter.start();
+            // decodifica previamente as fontes de dados que precisam (ex: imagens)
+            decoder = new ItemProducer(this, caseData, true, sources, output);
+            decoder.start();
 
             // produz lista de arquivos e propriedades a indexar
             producer = new ItemProducer(this, caseData, false, sources, output);
@@ -318,6 +332,10 @@ public void process() throws Exception {
 
         updateImagePaths();
 
+        saveLuceneIdMap();
+
+        saveCommittedTrackIDs();
+
         shutDownSleuthkitServers();
 
         deleteTempDir();
@@ -330,9 +348,9 @@ public void process() throws Exception {
     }
 
     private void closeItemProducers() {
-        if (counter != null) {
+        if (decoder != null) {
             try {
-                counter.close();
+                decoder.close();
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -347,6 +365,9 @@ private void closeItemProducers() {
     }
 
     private void interruptProcessing() {
+        if (workerScheduler != null) {
+            workerScheduler.interrupt();
+        }
         if (workers != null) {
             for (int k = 0; k < workers.length; k++) {
                 if (workers[k] != null) {
@@ -356,6 +377,9 @@ private void interruptProcessing() {
             }
         }
         ParsingReader.shutdownTasks();
+        if (indexWriterPool != null) {
+            indexWriterPool.rollback();
+        }
         if (writer != null) {
             try {
                 writer.rollback();
@@ -364,9 +388,9 @@ private void interruptProcessing() {
             }
         }
 
-        if (counter != null) {
-            counter.interrupt();
-            // contador.join(5000);
+        if (decoder != null) {
+            decoder.interrupt();
+            // decoder.join(5000);
         }
         if (producer != null) {
             producer.interrupt();
@@ -423,13 +447,16 @@ private IndexWriterConfig getIndexWriterConfig() {
 
         conf.setCommitOnClose(true);
         conf.setSimilarity(new IndexerSimilarity());
-        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+        ConcurrentMergeScheduler mergeScheduler = IndexWriterPool.createMergeScheduler();
         mergeScheduler.disableAutoIOThrottle();
-        if ((localConfig.isIndexTempOnSSD() && indexDir != finalIndexDir) || localConfig.isOutputOnSSD()) {
-            mergeScheduler.setMaxMergesAndThreads(8, 4);
+        if ((localConfig.isIndexTempOnSSD() && indexDir != finalIndexDir) || localConfig.isOutputOnSSD()
+                || indexConfig.getIndexMergeThreads() > 0) {
+            int mergeThreads = IndexWriterPool.getMergeThreads(indexConfig.getIndexMergeThreads());
+            mergeScheduler.setMaxMergesAndThreads(2 * mergeThreads, mergeThreads);
         }
         conf.setMergeScheduler(mergeScheduler);
-        conf.setRAMBufferSizeMB(64);
+        conf.setRAMBufferSizeMB(
+                IndexWriterPool.getRAMBufferSizeMB(indexConfig.getIndexRAMBufferMB(), localConfig.getNumThreads()));
         TieredMergePolicy tieredPolicy = new TieredMergePolicy();
         /*
          * Seta tamanho máximo dos subíndices. Padrão é 5GB. Poucos subíndices grandes
@@ -556,17 +583,45 @@ private void openIndex() throws IOException {
 
     private void initWorkers() throws Exception {
 
-        workers = new Worker[localConfig.getNumThreads()];
+        workers = new Worker[localConfig.getMaxThreads()];
+        processingQueues.setNumWorkers(workers.length);
+        TaskConcurrencyLimit.configure(localConfig.getTaskConcurrencyLimits());
+        for (TaskConcurrencyLimit limit : TaskConcurrencyLimit.getLimits().values()) {
+            LOGGER.info("Max concurrency of {}: {} workers", limit.getTaskName(), limit.getMaxConcurrency()); //$NON-NLS-1$
+        }
+
+        // items of existing cases are not in the lookup index, so lucene is used
+        if (localConfig.isItemLookupIndex() && !args.isAppendIndex() && !args.isContinue() && !args.isRestart()) {
+            caseData.putCaseObject(ItemLookupIndex.class.getName(), new ItemLookupIndex());
+        }
+
+        File privateIndexesDir = null;
+        if (indexConfig.isPerWorkerIndexWriters()) {
+            privateIndexesDir = new File(localConfig.getIndexerTemp(), "workerIndexes"); //$NON-NLS-1$
+        }
+        LOGGER.info("Index RAM buffer size: {}MB", writer.getConfig().getRAMBufferSizeMB()); //$NON-NLS-1$
+        indexWriterPool = new IndexWriterPool(writer, this::getIndexWriterConfig, privateIndexesDir, workers.length,
+                indexConfig.isBackgroundIndexFlush());
+
         for (int k = 0; k < workers.length; k++) {
             workers[k] = new Worker(k, caseData, writer, output, this);
         }
 
         // Execução dos workers após todos terem sido instanciados e terem inicializado
         // suas tarefas
+        if (localConfig.isAutoScaleWorkers()) {
+            // parks workers beyond numThreads before they are started
+            workerScheduler = new WorkerScheduler(workers, processingQueues, localConfig.getNumThreads());
+        }
+
         for (int k = 0; k < workers.length; k++) {
             workers[k].start();
         }
 
+        if (workerScheduler != null) {
+            workerScheduler.start();
+        }
+
         UIPropertyListenerProvider.getInstance().firePropertyChange("workers", 0, workers); //$NON-NLS-1$
     }
 
@@ -586,8 +641,8 @@ private void monitorProcessing() throws Exception {
                 exception = new IPEDException("Processing canceled!"); //$NON-NLS-1$
             }
 
-            String currentDir = counter.currentDirectory();
-            if (counter.isAlive() && currentDir != null && !currentDir.trim().isEmpty()) {
+            String currentDir = decoder.currentDirectory();
+            if (decoder.isAlive() && currentDir != null && !currentDir.trim().isEmpty()) {
                 UIPropertyListenerProvider.getInstance().firePropertyChange("decodingDir", 0, //$NON-NLS-1$
                         Messages.getString("Manager.Adding") + currentDir.trim() + "\""); //$NON-NLS-1$ //$NON-NLS-2$
             }
@@ -616,15 +671,24 @@ private void monitorProcessing() throws Exception {
                     throw new IPEDException("Tried to get queue end from queue, but failed! Please warn the dev team.");
                 }
                 if (processingQueues.changeToNextQueue() != null) {
+                    // items of previous queues must be visible to searches
+                    indexWriterPool.mergePrivateIndexes();
                     LOGGER.info(
                             "Changed to processing queue with priority " + processingQueues.getCurrentQueuePriority()); //$NON-NLS-1$
+                    ItemLookupIndex lookupIndex = (ItemLookupIndex) caseData
+                            .getCaseObject(ItemLookupIndex.class.getName());
+                    if (lookupIndex != null) {
+                        LOGGER.info("Item lookup index size: {}MB", lookupIndex.getSizeInBytes() >> 20); //$NON-NLS-1$
+                    }
                     caseData.putCaseObject(IItemSearcher.class.getName(),
-                            new ItemSearcher(output.getParentFile(), writer));
+                            new ItemSearcher(output.getParentFile(), writer, lookupIndex));
                     processingQueues.addLastToCurrentQueue(queueEnd);
                     for (int k = 0; k < workers.length; k++) {
                         workers[k].processNextQueue();
                     }
                 } else {
+                    // items of the last queue must be visible to task finish() searches
+                    indexWriterPool.mergePrivateIndexes();
                     someWorkerAlive = false;
                 }
             }
@@ -649,6 +713,7 @@ public void run() {
                     long start = System.currentTimeMillis() / 1000;
                     UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.CommitStarted"));
                     LOGGER.info("Prepare commit started...");
+                    indexWriterPool.mergePrivateIndexes();
                     writer.prepareCommit();
 
                     // commit other control data
@@ -702,10 +767,16 @@ private void finishProcessing() throws Exception {
             }
         }
 
+        if (workerScheduler != null) {
+            workerScheduler.interrupt();
+        }
+
         for (int k = 0; k < workers.length; k++) {
             workers[k].finish();
         }
 
+        indexWriterPool.close();
+
         if (indexConfig.isForceMerge()) {
             UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.Optimizing")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             LOGGER.info("Optimizing Index..."); //$NON-NLS-1$
@@ -750,6 +821,33 @@ private void updateImagePaths() {
         }
     }
 
+    /**
+     * Saves the id mappings of the final index, so the case is opened faster.
+     */
+    private void saveLuceneIdMap() {
+        try (Directory directory = ConfiguredFSDirectory.open(finalIndexDir);
+                IndexReader reader = DirectoryReader.open(directory)) {
+            LuceneIdMap.load(output, reader, true);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error saving LuceneId to ID mapping", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Saves committed trackIDs of the final index, so they don't need to be loaded
+     * from index if processing is continued. It is done just once, interrupted
+     * processings build them when continued.
+     */
+    private void saveCommittedTrackIDs() {
+        try (Directory directory = ConfiguredFSDirectory.open(finalIndexDir)) {
+            CommittedTrackIDs.save(output, directory);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error saving committed trackIDs", e); //$NON-NLS-1$
+        }
+    }
+
     public void deleteTempDir() {
         LOGGER.info("Deleting temp folder {}", localConfig.getIndexerTemp()); //$NON-NLS-1$
         IOUtil.deleteDirectory(localConfig.getIndexerTemp());
@@ -0,0 +1,309 @@
+package iped.engine.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.tika.mime.MediaType;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.data.IItem;
+import iped.engine.util.LatencyHistogram;
+import iped.engine.util.Util;
+
+/**
+ * Collects processing times of each task, aggregated across all workers:
+ * latency histograms per task and per task/media type, processed bytes and the
+ * slowest items of each task. Recording is allocation free in the common path,
+ * so it can be always enabled.
+ */
+public class ProcessingProfiler {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ProcessingProfiler.class);
+
+    public static final String STATS_FILE = "data/processingProfile.json"; //$NON-NLS-1$
+
+    private static final int TOP_SLOWEST_ITEMS = 10;
+
+    private static final MediaType UNKNOWN_TYPE = MediaType.OCTET_STREAM;
+
+    private static final ProcessingProfiler instance = new ProcessingProfiler();
+
+    private final Map<String, TaskProfile> taskProfiles = new ConcurrentHashMap<>();
+
+    public static ProcessingProfiler get() {
+        return instance;
+    }
+
+    private ProcessingProfiler() {
+    }
+
+    public TaskProfile getTaskProfile(String taskName) {
+        TaskProfile profile = taskProfiles.get(taskName);
+        if (profile == null) {
+            profile = taskProfiles.computeIfAbsent(taskName, TaskProfile::new);
+        }
+        return profile;
+    }
+
+    public Collection<TaskProfile> getTaskProfiles() {
+        return taskProfiles.values();
+    }
+
+    public static class SlowItem {
+
+        private final int id;
+        private final String path;
+        private final String mediaType;
+        private final long length;
+        private final long time;
+
+        private SlowItem(int id, String path, String mediaType, long length, long time) {
+            this.id = id;
+            this.path = path;
+            this.mediaType = mediaType;
+            this.length = length;
+            this.time = time;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    public static class TaskProfile {
+
+        private final String name;
+
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private final Map<MediaType, LatencyHistogram> histogramPerType = new ConcurrentHashMap<>();
+
+        private final LongAdder bytes = new LongAdder();
+
+        private final SlowItem[] slowest = new SlowItem[TOP_SLOWEST_ITEMS];
+
+        /**
+         * Min time to enter the slowest items list, read without locking to discard
+         * most items fast.
+         */
+        private volatile long minSlowTime = 0;
+
+        private TaskProfile(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Records the processing time of an item by the task.
+         *
+         * @param item
+         *            processed item
+         * @param micros
+         *            processing time in microseconds, without subitems processing
+         *            time
+         */
+        public void record(IItem item, long micros) {
+            histogram.record(micros);
+
+            MediaType type = item.getMediaType();
+            if (type == null) {
+                type = UNKNOWN_TYPE;
+            }
+            LatencyHistogram typeHistogram = histogramPerType.get(type);
+            if (typeHistogram == null) {
+                typeHistogram = histogramPerType.computeIfAbsent(type, t -> new LatencyHistogram());
+            }
+            typeHistogram.record(micros);
+
+            Long len = item.getLength();
+            if (len != null && len > 0) {
+                bytes.add(len);
+            }
+
+            if (micros > minSlowTime) {
+                addSlowItem(item, micros);
+            }
+        }
+
+        private synchronized void addSlowItem(IItem item, long micros) {
+            int minIdx = 0;
+            for (int i = 0; i < slowest.length; i++) {
+                if (slowest[i] == null) {
+                    minIdx = i;
+                    break;
+                }
+                if (slowest[i].time < slowest[minIdx].time) {
+                    minIdx = i;
+                }
+            }
+            if (slowest[minIdx] != null && slowest[minIdx].time >= micros) {
+                return;
+            }
+            MediaType type = item.getMediaType();
+            Long len = item.getLength();
+            slowest[minIdx] = new SlowItem(item.getId(), item.getPath(), type != null ? type.toString() : null,
+                    len != null ? len : -1, micros);
+
+            long min = Long.MAX_VALUE;
+            for (SlowItem slowItem : slowest) {
+                if (slowItem == null) {
+                    min = 0;
+                    break;
+                }
+                min = Math.min(min, slowItem.time);
+            }
+            minSlowTime = min;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public Map<MediaType, LatencyHistogram> getHistogramsPerMediaType() {
+            return histogramPerType;
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        /**
+         * @return processed bytes per second of task time, considering times summed
+         *         from all workers.
+         */
+        public long getBytesPerSecond() {
+            long sum = histogram.getSum();
+            return sum == 0 ? 0 : getBytes() * 1000000 / sum;
+        }
+
+        public synchronized List<SlowItem> getSlowestItems() {
+            List<SlowItem> list = new ArrayList<>();
+            for (SlowItem item : slowest) {
+                if (item != null) {
+                    list.add(item);
+                }
+            }
+            list.sort(Comparator.comparingLong(SlowItem::getTime).reversed());
+            return list;
+        }
+    }
+
+    private List<TaskProfile> getSortedProfiles() {
+        TaskProfile[] profiles = taskProfiles.values().toArray(new TaskProfile[0]);
+        Arrays.sort(profiles, Comparator.comparingLong((TaskProfile p) -> p.getHistogram().getSum()).reversed());
+        return Arrays.asList(profiles);
+    }
+
+    public void logStatistics() {
+        LOGGER.info("Processing Time Percentiles per Task (ms):"); //$NON-NLS-1$
+        LOGGER.info(String.format("%-30s %10s %8s %8s %8s %10s %10s", "TASK", "ITEMS", "P50", "P90", "P99", "MAX", //$NON-NLS-1$
+                "MB/s"));
+        for (TaskProfile profile : getSortedProfiles()) {
+            LatencyHistogram h = profile.getHistogram();
+            if (h.getCount() == 0) {
+                continue;
+            }
+            LOGGER.info(String.format("%-30s %10d %8.1f %8.1f %8.1f %10.1f %10.1f", profile.getName(), h.getCount(), //$NON-NLS-1$
+                    h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                    h.getValueAtPercentile(99) / 1000.0, h.getMax() / 1000.0,
+                    profile.getBytesPerSecond() / (1024.0 * 1024)));
+            for (SlowItem item : profile.getSlowestItems()) {
+                LOGGER.debug("{} slow item: {}ms id={} type={} length={} path={}", profile.getName(), //$NON-NLS-1$
+                        item.getTime() / 1000, item.getId(), item.getMediaType(), item.getLength(), item.getPath());
+            }
+        }
+    }
+
+    private static JSONObject toJson(LatencyHistogram h) {
+        JSONObject json = new JSONObject();
+        json.put("count", h.getCount()); //$NON-NLS-1$
+        json.put("totalMicros", h.getSum()); //$NON-NLS-1$
+        json.put("meanMicros", h.getMean()); //$NON-NLS-1$
+        json.put("p50Micros", h.getValueAtPercentile(50)); //$NON-NLS-1$
+        json.put("p90Micros", h.getValueAtPercentile(90)); //$NON-NLS-1$
+        json.put("p99Micros", h.getValueAtPercentile(99)); //$NON-NLS-1$
+        json.put("maxMicros", h.getMax()); //$NON-NLS-1$
+        return json;
+    }
+
+    /**
+     * Saves the collected profile as a json file in the case folder.
+     */
+    public void save(File moduleDir) throws IOException {
+        JSONArray tasks = new JSONArray();
+        for (TaskProfile profile : getSortedProfiles()) {
+            JSONObject task = toJson(profile.getHistogram());
+            task.put("task", profile.getName()); //$NON-NLS-1$
+            task.put("bytes", profile.getBytes()); //$NON-NLS-1$
+            task.put("bytesPerSecond", profile.getBytesPerSecond()); //$NON-NLS-1$
+
+            JSONObject types = new JSONObject();
+            Map<String, LatencyHistogram> sortedTypes = new LinkedHashMap<>();
+            profile.getHistogramsPerMediaType().entrySet().stream()
+                    .sorted(Comparator.comparingLong(
+                            (Map.Entry<MediaType, LatencyHistogram> e) -> e.getValue().getSum()).reversed())
+                    .forEach(e -> sortedTypes.put(e.getKey().toString(), e.getValue()));
+            for (Map.Entry<String, LatencyHistogram> entry : sortedTypes.entrySet()) {
+                types.put(entry.getKey(), toJson(entry.getValue()));
+            }
+            task.put("mediaTypes", types); //$NON-NLS-1$
+
+            JSONArray slowItems = new JSONArray();
+            for (SlowItem item : profile.getSlowestItems()) {
+                JSONObject slow = new JSONObject();
+                slow.put("id", item.getId()); //$NON-NLS-1$
+                slow.put("path", item.getPath()); //$NON-NLS-1$
+                slow.put("mediaType", item.getMediaType()); //$NON-NLS-1$
+                slow.put("length", item.getLength()); //$NON-NLS-1$
+                slow.put("micros", item.getTime()); //$NON-NLS-1$
+                slowItems.add(slow);
+            }
+            task.put("slowestItems", slowItems); //$NON-NLS-1$
+            tasks.add(task);
+        }
+        JSONObject json = new JSONObject();
+        json.put("tasks", tasks); //$NON-NLS-1$
+
+        File file = new File(moduleDir, STATS_FILE);
+        file.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            json.writeJSONString(writer);
+        }
+        Util.fsync(file.toPath());
+    }
+
+}
@@ -1,36 +1,223 @@
 package iped.engine.core;
 
-import java.util.LinkedList;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import iped.data.IItem;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.config.LocalConfig;
 import iped.engine.data.CaseData;
+import iped.engine.data.Item;
+import iped.engine.data.SpillArena;
 import iped.engine.util.Util;
 
+/**
+ * Processing queues, one per priority defined by {@link QueuesProcessingOrder}.
+ *
+ * Each priority queue has a shared deque plus one local deque per Worker. Items
+ * created by a Worker (subitems) with addItemFirst() are pushed to that Worker
+ * local deque, so they are processed first, like before, without contending
+ * with other Workers. Local deques are bounded by {@link #MAX_LOCAL_ITEMS}, more
+ * subitems go to the head of the shared deque, so a busy Worker does not sit on
+ * a large backlog and subitems are still taken before new items by all Workers.
+ * Idle Workers steal the oldest items from other Workers local deques. The
+ * queue-end sentinel is always kept in the shared deque.
+ *
+ * No global lock is used to poll items. Adding items only takes the read lock
+ * of {@link #queueSwitchLock}, so the pending items accounting can not race
+ * with the change to the next queue. Workers without items to process block on
+ * a condition signaled when new items are added, instead of sleeping.
+ *
+ * Item producers (data source readers) are blocked while the estimated memory
+ * retained by queued items or the number of queued items exceeds the limits
+ * configured in {@link LocalConfig}. They are woken up by a signal when workers
+ * consume enough items. Blocked producers (data sources read in parallel) are
+ * admitted in turns, through a fair lock, so a fast reader does not starve the
+ * others. Optionally, attributes of items queued while the queue is more than
+ * half full are moved off-heap until they are polled.
+ */
 public class ProcessingQueues {
 
-    private static final int QUEUE_SIZE = 100000;
+    private static Logger LOGGER = LoggerFactory.getLogger(ProcessingQueues.class);
+
+    private static final long DEFAULT_ITEM_MEMORY_SIZE = 1024;
+
+    private static final long LOG_BLOCKED_PRODUCER_INTERVAL = 60000;
+
+    private static final long MAX_IDLE_WAIT_MILLIS = 100;
+
+    /**
+     * Max subitems kept in the local deque of a Worker, the others go to the
+     * shared deque where any Worker can take them.
+     */
+    static final int MAX_LOCAL_ITEMS = 32;
 
-    private TreeMap<Integer, LinkedList<IItem>> queues;
+    private TreeMap<Integer, ItemQueue> queues;
 
     private volatile Integer currentQueuePriority = 0;
-    
+
     private CaseData caseData;
 
-    private int maxQueueSize = QUEUE_SIZE;
+    private int maxQueueSize;
+
+    private long maxQueueMemory;
+
+    private boolean spillQueuedItems;
+
+    private volatile int numWorkers = 0;
+
+    /**
+     * Items waiting in current queue (excluding the queue-end) plus items being
+     * processed by workers. Kept in a single counter, so checking if there is no
+     * pending work is atomic.
+     */
+    private final AtomicLong pendingItems = new AtomicLong();
+
+    private final AtomicInteger itemsBeingProcessed = new AtomicInteger();
+
+    /**
+     * Held exclusively while changing to the next queue, so added items are
+     * accounted either in the size snapshot of the next queue or as pending
+     * items of the new current queue, exactly once.
+     */
+    private final ReentrantReadWriteLock queueSwitchLock = new ReentrantReadWriteLock();
+
+    private final ReentrantLock idleLock = new ReentrantLock();
+    private final Condition workAvailable = idleLock.newCondition();
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+
+    private final ReentrantLock admissionLock = new ReentrantLock(true);
+    private final Condition queueNotFull = admissionLock.newCondition();
+    private final AtomicInteger blockedProducers = new AtomicInteger();
 
-    private int totalItemsBeingProcessed = 0;
+    // metrics
+    private final AtomicLong addedItems = new AtomicLong();
+    private final AtomicLong localPolls = new AtomicLong();
+    private final AtomicLong sharedPolls = new AtomicLong();
+    private final AtomicLong stolenItems = new AtomicLong();
+    private final AtomicLong emptyPolls = new AtomicLong();
+    private final AtomicLong idleWaits = new AtomicLong();
+    private final AtomicLong idleWaitNanos = new AtomicLong();
+    private final AtomicLong producerBlocks = new AtomicLong();
+    private final AtomicLong producerBlockNanos = new AtomicLong();
+    private final AtomicLong peakQueueMemory = new AtomicLong();
+    private final AtomicLong spilledItems = new AtomicLong();
+    private volatile long lastBlockedLogTime = 0;
+
+    private static class ItemQueue {
+
+        private final ConcurrentLinkedDeque<IItem> shared = new ConcurrentLinkedDeque<>();
+
+        private volatile LocalDeque[] local = new LocalDeque[0];
+
+        /**
+         * Total items in shared and local deques, including the queue-end. Updated
+         * before items are inserted and after they are removed, so it never
+         * underestimates the real size.
+         */
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * Estimated heap bytes retained by items in this queue.
+         */
+        private final AtomicLong memorySize = new AtomicLong();
+
+        private void setNumWorkers(int numWorkers) {
+            LocalDeque[] newLocal = new LocalDeque[numWorkers];
+            for (int i = 0; i < numWorkers; i++) {
+                newLocal[i] = i < local.length ? local[i] : new LocalDeque();
+            }
+            local = newLocal;
+        }
+    }
+
+    /**
+     * Deque of subitems created by a Worker. Only the owner adds items, so the
+     * size is checked against the bound without races.
+     */
+    private static class LocalDeque {
+
+        private final ConcurrentLinkedDeque<IItem> items = new ConcurrentLinkedDeque<>();
+
+        private final AtomicInteger size = new AtomicInteger();
+
+        private boolean offerFirst(IItem item) {
+            if (size.get() >= MAX_LOCAL_ITEMS) {
+                return false;
+            }
+            size.incrementAndGet();
+            items.addFirst(item);
+            return true;
+        }
+
+        private IItem pollFirst() {
+            IItem item = items.pollFirst();
+            if (item != null) {
+                size.decrementAndGet();
+            }
+            return item;
+        }
+
+        private IItem pollLast() {
+            IItem item = items.pollLast();
+            if (item != null) {
+                size.decrementAndGet();
+            }
+            return item;
+        }
+
+        private IItem peekFirst() {
+            return items.peekFirst();
+        }
+    }
 
     public ProcessingQueues(CaseData caseData) {
+        this(caseData, ConfigurationManager.get().findObject(LocalConfig.class));
+    }
+
+    private ProcessingQueues(CaseData caseData, LocalConfig localConfig) {
+        this(caseData, localConfig.getMaxQueueItems(), localConfig.getMaxQueueMemory(),
+                localConfig.isSpillQueuedItems());
+        if (spillQueuedItems) {
+            SpillArena.init(localConfig.getMaxSpillMemory());
+        }
+    }
+
+    ProcessingQueues(CaseData caseData, int maxQueueSize, long maxQueueMemory, boolean spillQueuedItems) {
         this.caseData = caseData;
+        this.maxQueueSize = maxQueueSize;
+        this.maxQueueMemory = maxQueueMemory;
+        this.spillQueuedItems = spillQueuedItems;
         initQueues();
     }
 
     private void initQueues() {
-        queues = new TreeMap<Integer, LinkedList<IItem>>();
-        queues.put(0, new LinkedList<IItem>());
+        queues = new TreeMap<Integer, ItemQueue>();
+        queues.put(0, new ItemQueue());
         for (Integer priority : QueuesProcessingOrder.getProcessingQueues())
-            queues.put(priority, new LinkedList<IItem>());
+            queues.put(priority, new ItemQueue());
+    }
+
+    /**
+     * Creates the local deques of workers. Must be called before workers start.
+     *
+     * @param numWorkers
+     *            number of workers which will poll items from the queues.
+     */
+    public void setNumWorkers(int numWorkers) {
+        this.numWorkers = numWorkers;
+        for (ItemQueue queue : queues.values()) {
+            queue.setNumWorkers(numWorkers);
+        }
     }
 
     public void addItem(IItem item) throws InterruptedException {
@@ -66,77 +253,368 @@ private void addItemToQueue(IItem item, int queuePriority, boolean addFirst, boo
 
         Util.calctrackIDAndUpdateID(caseData, item);
 
-        LinkedList<IItem> queue = queues.get(queuePriority);
-        boolean sleep = false;
-        while (true) {
-            if (sleep) {
-                sleep = false;
-                Thread.sleep(1000);
-            }
-            synchronized (this) {
-                if (blockIfFull && queuePriority == 0 && queue.size() >= maxQueueSize) {
-                    sleep = true;
-                    continue;
-                } else {
-                    if (addFirst) {
-                        queue.addFirst(item);
-                    } else {
-                        queue.addLast(item);
-                    }
-                    break;
+        ItemQueue queue = queues.get(queuePriority);
+        if (blockIfFull && queuePriority == 0 && isFull(queue)) {
+            waitForSpace(queue);
+        }
+
+        boolean isCurrentQueue;
+        queueSwitchLock.readLock().lock();
+        try {
+            // current priority is null after the last queue was processed
+            Integer currentPriority = currentQueuePriority;
+            isCurrentQueue = currentPriority != null && queuePriority == currentPriority;
+            if (isCurrentQueue && !item.isQueueEnd()) {
+                pendingItems.incrementAndGet();
+            }
+            queue.size.incrementAndGet();
+        } finally {
+            queueSwitchLock.readLock().unlock();
+        }
+        if (spillQueuedItems && item instanceof Item && queue.memorySize.get() > maxQueueMemory / 2) {
+            // must be done before estimating size, the estimate is subtracted when polled
+            if (((Item) item).spillAttributes()) {
+                spilledItems.incrementAndGet();
+            }
+        }
+        long memorySize = queue.memorySize.addAndGet(estimateMemorySize(item));
+        if (memorySize > peakQueueMemory.get()) {
+            peakQueueMemory.accumulateAndGet(memorySize, Math::max);
+        }
+
+        int workerId = getCurrentWorkerId();
+        LocalDeque[] local = queue.local;
+        boolean addedToLocal = addFirst && isCurrentQueue && workerId != -1 && workerId < local.length
+                && !item.isQueueEnd() && local[workerId].offerFirst(item);
+        if (!addedToLocal) {
+            if (addFirst) {
+                queue.shared.addFirst(item);
+            } else {
+                queue.shared.addLast(item);
+            }
+        }
+        addedItems.incrementAndGet();
+
+        if (isCurrentQueue) {
+            signalWorkers();
+        }
+    }
+
+    private boolean isFull(ItemQueue queue) {
+        return queue.size.get() >= maxQueueSize || queue.memorySize.get() >= maxQueueMemory;
+    }
+
+    /**
+     * Blocks the producer until workers consume enough items to bring the queue
+     * below the configured limits. At least one item is always admitted if the
+     * queue is empty, so a single big item can not block producers forever.
+     */
+    private void waitForSpace(ItemQueue queue) throws InterruptedException {
+        long t = System.nanoTime();
+        producerBlocks.incrementAndGet();
+        admissionLock.lock();
+        try {
+            blockedProducers.incrementAndGet();
+            try {
+                while (isFull(queue) && queue.size.get() > 0) {
+                    // timeout just for safety, producers are signaled when items are polled
+                    queueNotFull.await(1, TimeUnit.SECONDS);
+                }
+            } finally {
+                blockedProducers.decrementAndGet();
+            }
+        } finally {
+            admissionLock.unlock();
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastBlockedLogTime >= LOG_BLOCKED_PRODUCER_INTERVAL) {
+            lastBlockedLogTime = now;
+            LOGGER.info("Item producer was blocked {}ms by full processing queue: {} items, {}MB estimated memory", //$NON-NLS-1$
+                    (System.nanoTime() - t) / 1000000, queue.size.get(), queue.memorySize.get() >> 20);
+        }
+        producerBlockNanos.addAndGet(System.nanoTime() - t);
+    }
+
+    private void signalProducers(ItemQueue queue) {
+        if (blockedProducers.get() > 0 && !isFull(queue)) {
+            admissionLock.lock();
+            try {
+                queueNotFull.signalAll();
+            } finally {
+                admissionLock.unlock();
+            }
+        }
+    }
+
+    private static long estimateMemorySize(IItem item) {
+        if (item instanceof Item) {
+            return ((Item) item).estimateMemorySize();
+        }
+        return DEFAULT_ITEM_MEMORY_SIZE;
+    }
+
+    private static long getEstimatedMemorySize(IItem item) {
+        if (item instanceof Item) {
+            return ((Item) item).getEstimatedMemorySize();
+        }
+        return DEFAULT_ITEM_MEMORY_SIZE;
+    }
+
+    int getCurrentWorkerId() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            return ((Worker) thread).id;
+        }
+        return -1;
+    }
+
+    private void signalWorkers() {
+        if (idleWorkers.get() > 0) {
+            idleLock.lock();
+            try {
+                workAvailable.signalAll();
+            } finally {
+                idleLock.unlock();
+            }
+        }
+    }
+
+    public int getItemsBeingProcessed() {
+        return itemsBeingProcessed.get();
+    }
+
+    public void incItemsBeingProcessed() {
+        itemsBeingProcessed.incrementAndGet();
+        pendingItems.incrementAndGet();
+    }
+
+    public void decItemsBeingProcessed() {
+        itemsBeingProcessed.decrementAndGet();
+        if (pendingItems.decrementAndGet() == 0) {
+            signalWorkers();
+        }
+    }
+
+    public boolean isNoItemInQueueOrBeingProcessed() {
+        return pendingItems.get() == 0;
+    }
+
+    /**
+     * Polls the next item from current queue. If the item is not the queue-end,
+     * it is accounted as being processed, so there is no window where it is not
+     * seen as pending work.
+     */
+    public IItem pollFirstFromCurrentQueue() throws InterruptedException {
+        ItemQueue queue = getItemQueue();
+        int workerId = getCurrentWorkerId();
+        LocalDeque[] local = queue.local;
+
+        IItem item = null;
+        if (workerId != -1 && workerId < local.length) {
+            item = local[workerId].pollFirst();
+            if (item != null) {
+                localPolls.incrementAndGet();
+            }
+        }
+        if (item == null) {
+            item = queue.shared.pollFirst();
+            if (item != null && item.isQueueEnd()) {
+                // give priority to items waiting in other workers before queue-end
+                IItem stolen = steal(local, workerId);
+                if (stolen != null) {
+                    queue.shared.addLast(item);
+                    item = stolen;
                 }
+            } else if (item != null) {
+                sharedPolls.incrementAndGet();
             }
         }
+        if (item == null) {
+            item = steal(local, workerId);
+        }
+        if (item == null) {
+            emptyPolls.incrementAndGet();
+            return null;
+        }
+        if (!item.isQueueEnd()) {
+            itemsBeingProcessed.incrementAndGet();
+        }
+        queue.size.decrementAndGet();
+        queue.memorySize.addAndGet(-getEstimatedMemorySize(item));
+        signalProducers(queue);
+        if (spillQueuedItems && item instanceof Item) {
+            ((Item) item).restoreAttributes();
+        }
+        return item;
+    }
 
+    private IItem steal(LocalDeque[] local, int workerId) {
+        int n = local.length;
+        int start = workerId == -1 ? 0 : workerId + 1;
+        for (int i = 0; i < n; i++) {
+            int victim = (start + i) % n;
+            if (victim == workerId) {
+                continue;
+            }
+            IItem item = local[victim].pollLast();
+            if (item != null) {
+                stolenItems.incrementAndGet();
+                return item;
+            }
+        }
+        return null;
     }
 
-    public synchronized int getItemsBeingProcessed() {
-        return totalItemsBeingProcessed;
+    /**
+     * Polls the next item from current queue, blocking until some item is
+     * available.
+     */
+    public IItem takeFirstFromCurrentQueue() throws InterruptedException {
+        IItem item;
+        while ((item = pollFirstFromCurrentQueue()) == null) {
+            await(MAX_IDLE_WAIT_MILLIS, false);
+        }
+        return item;
     }
 
-    public synchronized void incItemsBeingProcessed() {
-        totalItemsBeingProcessed++;
+    /**
+     * Blocks the calling worker, which just put back the queue-end, until new
+     * items are added to the current queue, the pending work finishes or the
+     * timeout elapses. Avoids busy polling the queue-end while other workers are
+     * still processing items.
+     */
+    public void awaitWork(long timeoutMillis) throws InterruptedException {
+        await(timeoutMillis, true);
     }
 
-    public synchronized void decItemsBeingProcessed() {
-        totalItemsBeingProcessed--;
+    private void await(long timeoutMillis, boolean queueEndOnly) throws InterruptedException {
+        long t = System.nanoTime();
+        idleLock.lock();
+        try {
+            idleWorkers.incrementAndGet();
+            try {
+                // re-check after registering as idle to not lose a signal
+                int size = getItemQueue().size.get();
+                if (queueEndOnly ? size <= 1 && pendingItems.get() != 0 : size == 0) {
+                    workAvailable.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                idleWorkers.decrementAndGet();
+            }
+        } finally {
+            idleLock.unlock();
+        }
+        idleWaits.incrementAndGet();
+        idleWaitNanos.addAndGet(System.nanoTime() - t);
     }
 
-    public synchronized boolean isNoItemInQueueOrBeingProcessed() {
-        return totalItemsBeingProcessed == 0 && getItemQueue().size() == 0;
+    public void addLastToCurrentQueue(IItem item) throws InterruptedException {
+        ItemQueue queue;
+        queueSwitchLock.readLock().lock();
+        try {
+            queue = getItemQueue();
+            if (!item.isQueueEnd()) {
+                pendingItems.incrementAndGet();
+            }
+            queue.size.incrementAndGet();
+        } finally {
+            queueSwitchLock.readLock().unlock();
+        }
+        queue.memorySize.addAndGet(estimateMemorySize(item));
+        queue.shared.addLast(item);
+        signalWorkers();
     }
 
-    public synchronized IItem pollFirstFromCurrentQueue() throws InterruptedException {
-        return getItemQueue().pollFirst();
+    public IItem peekItemFromCurrentQueue() {
+        ItemQueue queue = getItemQueue();
+        IItem item = queue.shared.peekFirst();
+        if (item == null) {
+            for (LocalDeque local : queue.local) {
+                if ((item = local.peekFirst()) != null) {
+                    break;
+                }
+            }
+        }
+        return item;
     }
 
-    public synchronized void addLastToCurrentQueue(IItem item) throws InterruptedException {
-        getItemQueue().addLast(item);
+    /**
+     * @return items waiting in current queue, 0 after the last queue was
+     *         processed.
+     */
+    public int getCurrentQueueSize() {
+        Integer priority = currentQueuePriority;
+        return priority == null ? 0 : queues.get(priority).size.get();
     }
 
-    public synchronized IItem peekItemFromCurrentQueue() {
-        return getItemQueue().peek();
+    /**
+     * @return estimated heap bytes retained by items waiting in current queue, 0
+     *         after the last queue was processed.
+     */
+    public long getCurrentQueueMemorySize() {
+        Integer priority = currentQueuePriority;
+        return priority == null ? 0 : queues.get(priority).memorySize.get();
     }
 
-    public synchronized int getCurrentQueueSize() {
-        return getItemQueue().size();
+    public long getMaxQueueMemorySize() {
+        return maxQueueMemory;
     }
 
+    /**
+     * Changes to the next priority queue. Must be called only when all workers are
+     * waiting and there is no pending work in current queue.
+     */
     public Integer changeToNextQueue() {
-        currentQueuePriority = queues.ceilingKey(currentQueuePriority + 1);
-        return currentQueuePriority;
+        queueSwitchLock.writeLock().lock();
+        try {
+            Integer next = queues.ceilingKey(currentQueuePriority + 1);
+            if (next != null) {
+                // items added to this queue while it was not the current one
+                pendingItems.set(queues.get(next).size.get());
+            }
+            currentQueuePriority = next;
+            return next;
+        } finally {
+            queueSwitchLock.writeLock().unlock();
+        }
     }
 
     public Integer getCurrentQueuePriority() {
         return currentQueuePriority;
     }
 
+    public long getStolenItems() {
+        return stolenItems.get();
+    }
+
+    public long getIdleWaitMillis() {
+        return idleWaitNanos.get() / 1000000;
+    }
+
+    public long getProducerBlockedMillis() {
+        return producerBlockNanos.get() / 1000000;
+    }
+
+    public void logStatistics() {
+        LOGGER.info("Processing queues: workers={} addedItems={} localPolls={} sharedPolls={} stolenItems={} emptyPolls={}", //$NON-NLS-1$
+                numWorkers, addedItems.get(), localPolls.get(), sharedPolls.get(), stolenItems.get(), emptyPolls.get());
+        LOGGER.info("Processing queues: workers idle waits={} ({}s), producer blocks={} ({}s)", idleWaits.get(), //$NON-NLS-1$
+                getIdleWaitMillis() / 1000, producerBlocks.get(), getProducerBlockedMillis() / 1000);
+        LOGGER.info("Processing queues: peak estimated memory={}MB, limit={}MB, max items={}, spilled items={}", //$NON-NLS-1$
+                peakQueueMemory.get() >> 20, maxQueueMemory >> 20, maxQueueSize, spilledItems.get());
+        SpillArena arena = SpillArena.get();
+        if (arena != null) {
+            LOGGER.info("Processing queues: off-heap memory allocated for spilled items={}MB", //$NON-NLS-1$
+                    arena.getAllocatedBytes() >> 20);
+        }
+    }
+
     /**
      * Obtém fila de arquivos de evidência do caso.
      *
      * @return fila de arquivos.
      */
-    private LinkedList<IItem> getItemQueue() {
+    private ItemQueue getItemQueue() {
         return queues.get(currentQueuePriority);
     }
 
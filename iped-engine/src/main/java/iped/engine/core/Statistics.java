@@ -34,6 +34,7 @@
 import iped.engine.config.PluginConfig;
 import iped.engine.localization.Messages;
 import iped.engine.lucene.ConfiguredFSDirectory;
+import iped.engine.task.ContentResultCache;
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.ParsingTask;
 import iped.engine.task.carver.BaseCarveTask;
@@ -139,6 +140,8 @@ public void commit() throws IOException {
             }
         }
         Util.fsync(file.toPath());
+
+        ProcessingProfiler.get().save(indexDir.getParentFile());
     }
 
     synchronized public int getSplits() {
@@ -307,6 +310,19 @@ public void logStatistics(Manager manager) throws Exception {
             numDocs = reader.numDocs();
         }
 
+        ProcessingProfiler.get().logStatistics();
+
+        manager.getProcessingQueues().logStatistics();
+
+        if (manager.getIndexWriterPool() != null) {
+            manager.getIndexWriterPool().logStatistics();
+        }
+
+        ContentResultCache contentCache = ContentResultCache.get();
+        if (contentCache != null) {
+            contentCache.logStatistics();
+        }
+
         LOGGER.info("Partial commits took {} seconds", manager.partialCommitsTime.get());
         LOGGER.info("Index internal docs: {}", numDocs); //$NON-NLS-1$
         LOGGER.info("Text Splits: {}", getSplits()); //$NON-NLS-1$
@@ -0,0 +1,138 @@
+package iped.engine.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.task.AbstractTask;
+
+/**
+ * Limits the number of workers running a heavy task (e.g. video thumbnails) at
+ * the same time, so it can't use all CPUs or memory. Workers wait for a permit
+ * before processing an item in the task.
+ *
+ * Permits are reentrant per thread, because subitems may be processed by the
+ * same worker while it is running the task for the parent item.
+ *
+ * A worker holding a permit of a task which processes subitems inline may wait
+ * for a permit of another limited task. If that other task also processed
+ * subitems inline, two workers could wait for each other forever, so just one
+ * of those tasks can be limited.
+ */
+public class TaskConcurrencyLimit {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(TaskConcurrencyLimit.class);
+
+    /**
+     * Tasks that may process new subitems in the current worker.
+     */
+    private static final Set<String> INLINE_SUBITEM_TASKS = new HashSet<>(Arrays.asList("ParsingTask", //$NON-NLS-1$
+            "VideoThumbTask", "CarverTask", "LedCarveTask", "KnownMetCarveTask", "FragmentLargeBinaryTask")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
+    private static Map<String, TaskConcurrencyLimit> limits = Collections.emptyMap();
+
+    private static final AtomicInteger waitingWorkers = new AtomicInteger();
+
+    private final String taskName;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final ThreadLocal<int[]> holdCount = ThreadLocal.withInitial(() -> new int[1]);
+
+    private TaskConcurrencyLimit(String taskName, int maxConcurrency) {
+        this.taskName = taskName;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Configures the limits, by task class simple name. Limits of more than one
+     * task processing subitems inline could deadlock, so just the first one (by
+     * name) is kept.
+     */
+    public static void configure(Map<String, Integer> maxConcurrencyByTask) {
+        Map<String, TaskConcurrencyLimit> map = new HashMap<>();
+        String inlineTask = null;
+        for (Map.Entry<String, Integer> entry : new TreeMap<>(maxConcurrencyByTask).entrySet()) {
+            if (entry.getValue() > 0 && INLINE_SUBITEM_TASKS.contains(entry.getKey())) {
+                if (inlineTask != null) {
+                    LOGGER.warn("Ignoring concurrency limit of {}: just one task processing subitems inline can be " //$NON-NLS-1$
+                            + "limited, {} is already.", entry.getKey(), inlineTask); //$NON-NLS-1$
+                    continue;
+                }
+                inlineTask = entry.getKey();
+            }
+            if (entry.getValue() > 0) {
+                map.put(entry.getKey(), new TaskConcurrencyLimit(entry.getKey(), entry.getValue()));
+            }
+        }
+        limits = map;
+    }
+
+    /**
+     * @return the limit of the task or null if it is not limited
+     */
+    public static TaskConcurrencyLimit get(AbstractTask task) {
+        if (limits.isEmpty()) {
+            return null;
+        }
+        return limits.get(task.getClass().getSimpleName());
+    }
+
+    public static Map<String, TaskConcurrencyLimit> getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return number of workers currently waiting for a permit of any task
+     */
+    public static int getWaitingWorkers() {
+        return waitingWorkers.get();
+    }
+
+    public void acquire() throws InterruptedException {
+        int[] count = holdCount.get();
+        if (count[0] == 0) {
+            if (!permits.tryAcquire()) {
+                waitingWorkers.incrementAndGet();
+                try {
+                    permits.acquire();
+                } finally {
+                    waitingWorkers.decrementAndGet();
+                }
+            }
+        }
+        count[0]++;
+    }
+
+    public void release() {
+        int[] count = holdCount.get();
+        if (--count[0] == 0) {
+            permits.release();
+        }
+    }
+
+    public String getTaskName() {
+        return taskName;
+    }
+
+    /**
+     * @return number of workers running the task
+     */
+    public int getRunning() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+}
@@ -80,6 +80,8 @@ public enum STATE {
 
     private boolean waiting = false;
 
+    private volatile boolean parked = false;
+
     private void incItemsBeingProcessed() {
         itemsBeingProcessed++;
         manager.getProcessingQueues().incItemsBeingProcessed();
@@ -150,6 +152,39 @@ public synchronized boolean isWaiting() {
         return this.waiting;
     }
 
+    /**
+     * Parks or unparks this worker. A parked worker finishes its current item and
+     * then waits, without taking new items, until unparked. While its tasks still
+     * hold items (e.g. batched to be processed later), it keeps running, so it
+     * takes the queue end and flushes them.
+     */
+    public void setParked(boolean parked) {
+        synchronized (this) {
+            this.parked = parked;
+            if (!parked) {
+                this.notifyAll();
+            }
+        }
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+
+    private void waitWhileParked() throws InterruptedException {
+        synchronized (this) {
+            // parked workers don't block queue changes
+            while (parked && itemsBeingProcessed == 0) {
+                try {
+                    waiting = true;
+                    this.wait();
+                } finally {
+                    waiting = false;
+                }
+            }
+        }
+    }
+
     public void processNextQueue() {
         synchronized(this) {
             this.notifyAll();
@@ -239,23 +274,13 @@ public void run() {
 
             try {
                 evidence = null;
-                boolean sleep = false;
-                while (evidence == null) {
-                    if (sleep) {
-                        // this should be very rare
-                        sleep = false;
-                        Thread.sleep(100);
-                    }
-                    synchronized (manager.getProcessingQueues()) {
-                        evidence = manager.getProcessingQueues().pollFirstFromCurrentQueue();
-                        if (evidence == null) {
-                            sleep = true;
-                            continue;
-                        }
-                        if (!evidence.isQueueEnd()) {
-                            incItemsBeingProcessed();
-                        }
-                    }
+                waitWhileParked();
+
+                // blocks until some item is available, polled items are already accounted
+                // as being processed by the queues
+                evidence = manager.getProcessingQueues().takeFirstFromCurrentQueue();
+                if (!evidence.isQueueEnd()) {
+                    itemsBeingProcessed++;
                 }
 
 
@@ -290,6 +315,9 @@ public void run() {
                                             + manager.getProcessingQueues().getItemsBeingProcessed());
                             process(queueEnd);
 
+                        } else {
+                            // avoid busy polling the queue-end while other workers finish their items
+                            manager.getProcessingQueues().awaitWork(MIN_WAIT_TIME_TO_SEND_QUEUE_END / 10);
                         }
                     }
                 }
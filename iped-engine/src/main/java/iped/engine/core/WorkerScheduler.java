@@ -0,0 +1,223 @@
+package iped.engine.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parks and unparks processing workers at runtime, based on measured resource
+ * usage. Processing has I/O bound phases (e.g. file system enumeration and
+ * reading), CPU bound ones (parsing) and memory hungry ones, so a fixed number
+ * of workers may starve the CPU or exhaust the heap.
+ *
+ * Every sampling interval it measures system CPU load, the fraction of wall
+ * time running workers spent on CPU (a low fraction means they are stalled on
+ * I/O or locks), the fraction of time spent in GC, old generation usage after
+ * the last GC and the queue size. Then it takes at most one decision:
+ * <ul>
+ * <li>under memory pressure, parks a worker, keeping at least half of
+ * numThreads running;</li>
+ * <li>if CPU is saturated, parks workers beyond numThreads;</li>
+ * <li>if there are queued items, CPU is not saturated and running workers are
+ * stalled, unparks a worker, up to maxThreads;</li>
+ * <li>otherwise, unparks workers until numThreads are running.</li>
+ * </ul>
+ * Workers are parked only between items and when their tasks don't hold items
+ * waiting to be processed, so they don't retain item resources and still flush
+ * batched items at the queue end. Items left in their local queues are stolen
+ * by other workers.
+ */
+public class WorkerScheduler extends Thread {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(WorkerScheduler.class);
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 10000;
+
+    private static final double HIGH_GC_TIME_RATIO = 0.15;
+    private static final double HIGH_OLD_GEN_USAGE = 0.85;
+    private static final double HIGH_CPU_LOAD = 0.95;
+    private static final double LOW_CPU_LOAD = 0.75;
+    private static final double STALLED_WORKER_CPU = 0.5;
+
+    // consecutive samples without memory pressure before unparking workers parked
+    // because of it
+    private static final int CALM_SAMPLES_TO_RECOVER = 3;
+
+    private final Worker[] workers;
+    private final ProcessingQueues queues;
+    private final int baseWorkers;
+    private final int minWorkers;
+
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final long[] lastWorkerCpuTime;
+    private long lastGcTime;
+    private long lastSampleTime;
+    private int calmSamples = 0;
+
+    /**
+     * @param workers
+     *            all workers, the ones beyond baseWorkers start parked
+     * @param baseWorkers
+     *            number of workers running normally (numThreads)
+     */
+    public WorkerScheduler(Worker[] workers, ProcessingQueues queues, int baseWorkers) {
+        super("WorkerScheduler"); //$NON-NLS-1$
+        this.setDaemon(true);
+        this.workers = workers;
+        this.queues = queues;
+        this.baseWorkers = Math.min(baseWorkers, workers.length);
+        this.minWorkers = Math.max(1, this.baseWorkers / 2);
+        this.lastWorkerCpuTime = new long[workers.length];
+        for (int i = this.baseWorkers; i < workers.length; i++) {
+            workers[i].setParked(true);
+        }
+        LOGGER.info("Worker auto scaling enabled: {} workers running, {} max, {} min", this.baseWorkers, //$NON-NLS-1$
+                workers.length, minWorkers);
+    }
+
+    @Override
+    public void run() {
+        if (threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+        sample();
+        while (!isInterrupted()) {
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                schedule(sample());
+            } catch (Exception e) {
+                LOGGER.warn("Error in worker scheduler", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static class Sample {
+        double cpuLoad;
+        double workerCpu;
+        double gcTimeRatio;
+        double oldGenUsage;
+        int running;
+        int busy;
+        int queueSize;
+    }
+
+    private Sample sample() {
+        Sample s = new Sample();
+        long now = System.nanoTime();
+        long elapsed = Math.max(1, now - lastSampleTime);
+
+        s.cpuLoad = getSystemCpuLoad();
+
+        // cpu fraction of workers busy processing items, except the ones waiting for
+        // limited tasks
+        double cpuSum = 0;
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            long cpu = threadBean.isThreadCpuTimeSupported() ? threadBean.getThreadCpuTime(worker.getId()) : -1;
+            if (!worker.isParked()) {
+                s.running++;
+                if (worker.evidence != null && cpu >= 0 && lastWorkerCpuTime[i] > 0) {
+                    s.busy++;
+                    cpuSum += (double) (cpu - lastWorkerCpuTime[i]) / elapsed;
+                }
+            }
+            lastWorkerCpuTime[i] = cpu;
+        }
+        int busy = s.busy - TaskConcurrencyLimit.getWaitingWorkers();
+        s.workerCpu = busy > 0 ? cpuSum / busy : 1;
+
+        long gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+        s.gcTimeRatio = lastSampleTime > 0 ? (gcTime - lastGcTime) * 1000000.0 / elapsed : 0;
+        lastGcTime = gcTime;
+
+        // usage after last GC of heap pools supporting it, the old generation ones
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    ? pool.getCollectionUsage()
+                    : null;
+            if (usage != null && usage.getMax() > 0) {
+                s.oldGenUsage = Math.max(s.oldGenUsage, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+
+        s.queueSize = queues.getCurrentQueueSize();
+        lastSampleTime = now;
+        return s;
+    }
+
+    private double getSystemCpuLoad() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            double load = ((com.sun.management.OperatingSystemMXBean) osBean).getSystemCpuLoad();
+            if (load >= 0) {
+                return load;
+            }
+        }
+        double load = osBean.getSystemLoadAverage() / osBean.getAvailableProcessors();
+        return load >= 0 ? Math.min(1, load) : 0;
+    }
+
+    private void schedule(Sample s) {
+        boolean memoryPressure = s.gcTimeRatio > HIGH_GC_TIME_RATIO || s.oldGenUsage > HIGH_OLD_GEN_USAGE;
+        calmSamples = memoryPressure ? 0 : calmSamples + 1;
+
+        if (memoryPressure) {
+            if (s.running > minWorkers) {
+                parkOne(s, "memory pressure"); //$NON-NLS-1$
+            }
+        } else if (s.cpuLoad > HIGH_CPU_LOAD) {
+            if (s.running > baseWorkers) {
+                parkOne(s, "CPU saturated"); //$NON-NLS-1$
+            }
+        } else if (s.queueSize > s.running && s.cpuLoad < LOW_CPU_LOAD && s.workerCpu < STALLED_WORKER_CPU
+                && s.running < workers.length && calmSamples >= CALM_SAMPLES_TO_RECOVER) {
+            unparkOne(s, "workers stalled on I/O"); //$NON-NLS-1$
+
+        } else if (s.running < baseWorkers && calmSamples >= CALM_SAMPLES_TO_RECOVER) {
+            unparkOne(s, "memory pressure relieved"); //$NON-NLS-1$
+        }
+    }
+
+    private void parkOne(Sample s, String reason) {
+        for (int i = workers.length - 1; i >= 0; i--) {
+            if (!workers[i].isParked()) {
+                workers[i].setParked(true);
+                log("Parking", workers[i], s, reason); //$NON-NLS-1$
+                return;
+            }
+        }
+    }
+
+    private void unparkOne(Sample s, String reason) {
+        for (int i = 0; i < workers.length; i++) {
+            if (workers[i].isParked()) {
+                workers[i].setParked(false);
+                log("Unparking", workers[i], s, reason); //$NON-NLS-1$
+                return;
+            }
+        }
+    }
+
+    private static void log(String action, Worker worker, Sample s, String reason) {
+        LOGGER.info(
+                "{} {} ({}): running={} busy={} cpuLoad={}% workerCpu={}% gcTime={}% oldGenUsage={}% queueSize={}", //$NON-NLS-1$
+                action, worker.getName(), reason, s.running, s.busy, Math.round(s.cpuLoad * 100),
+                Math.round(s.workerCpu * 100), Math.round(s.gcTimeRatio * 100), Math.round(s.oldGenUsage * 100),
+                s.queueSize);
+    }
+
+}
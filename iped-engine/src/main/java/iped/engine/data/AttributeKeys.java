@@ -0,0 +1,81 @@
+package iped.engine.data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary of attribute keys. The same key names are used by millions
+ * of items, so items keep just the int index of their keys and share a single
+ * String instance of each name.
+ *
+ * Names are never removed, so the dictionary is limited to {@link #MAX_KEYS}
+ * names: dynamic names (e.g. raw email headers) seen after it is full are not
+ * added and must be kept by the caller.
+ */
+public class AttributeKeys {
+
+    public static final int MAX_KEYS = 1 << 16;
+
+    private static final ConcurrentHashMap<String, Integer> keyToIndex = new ConcurrentHashMap<>();
+
+    private static volatile String[] keys = new String[256];
+
+    private static int numKeys = 0;
+
+    private AttributeKeys() {
+    }
+
+    /**
+     * @return the index of the key, or -1 if it is not in the dictionary
+     */
+    public static int findIndex(String key) {
+        Integer index = keyToIndex.get(key);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @return the index of the key, adding it to the dictionary if needed, or -1
+     *         if it is not in the dictionary and the dictionary is full
+     */
+    public static int getIndex(String key) {
+        Integer index = keyToIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        synchronized (keyToIndex) {
+            index = keyToIndex.get(key);
+            if (index == null) {
+                if (numKeys == MAX_KEYS) {
+                    return -1;
+                }
+                if (numKeys == keys.length) {
+                    keys = Arrays.copyOf(keys, numKeys * 2);
+                }
+                index = numKeys;
+                // publishes the key before its index can be seen by other threads
+                String[] newKeys = keys;
+                newKeys[numKeys++] = key;
+                keys = newKeys;
+                keyToIndex.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    public static String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return the dictionary instance of the name, adding it if needed, or the
+     *         name itself if the dictionary is full
+     */
+    public static String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        int index = getIndex(name);
+        return index != -1 ? keys[index] : name;
+    }
+
+}
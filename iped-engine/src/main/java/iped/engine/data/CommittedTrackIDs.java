@@ -0,0 +1,324 @@
+package iped.engine.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.task.index.IndexItem;
+import iped.engine.task.index.IndexTask;
+
+/**
+ * TrackIDs of items committed into the index, and the previous ids to be
+ * reused by items processed again when resuming an interrupted processing with
+ * --continue.
+ *
+ * Previous ids are kept for committed containers (with children, directories,
+ * roots and items with splitted text) and for not committed parents referenced
+ * by committed items.
+ *
+ * The maps are saved into the case data folder at the end of processing, or
+ * built from the index and saved when resuming an interrupted processing, and
+ * are memory mapped when resuming, so they don't need to be rebuilt from the
+ * index again nor kept in heap.
+ */
+public class CommittedTrackIDs {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(CommittedTrackIDs.class);
+
+    private static final String FILE_PREFIX = "trackIDMap_"; //$NON-NLS-1$
+    private static final String FILE_SUFFIX = ".dat"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x54524B49;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 1024;
+
+    // committed items not mapped to a previous id
+    private static final int NO_PREVIOUS_ID = -1;
+
+    /**
+     * Committed trackIDs. Value is the previous id of committed containers or
+     * NO_PREVIOUS_ID.
+     */
+    private final TrackIDMap committed;
+
+    /**
+     * Not committed parents of committed items, value is the parent id.
+     */
+    private final TrackIDMap lostParents;
+
+    private CommittedTrackIDs(TrackIDMap committed, TrackIDMap lostParents) {
+        this.committed = committed;
+        this.lostParents = lostParents;
+    }
+
+    public static CommittedTrackIDs empty() {
+        return new CommittedTrackIDs(new TrackIDMap(0), new TrackIDMap(0));
+    }
+
+    public boolean isCommitted(String trackID) {
+        return committed.get(trackID) != TrackIDMap.MISSING;
+    }
+
+    /**
+     * @return the id of the item in the resumed processing, or -1 if it must not
+     *         be changed.
+     */
+    public int getPreviousId(String trackID) {
+        int id = committed.get(trackID);
+        if (id == TrackIDMap.MISSING) {
+            id = lostParents.get(trackID);
+        }
+        return id == TrackIDMap.MISSING ? -1 : id;
+    }
+
+    /**
+     * @return number of committed trackIDs
+     */
+    public int size() {
+        return committed.size();
+    }
+
+    /**
+     * Loads the trackIDs of the index being resumed, from the saved file if it is
+     * up to date, otherwise building and saving it.
+     *
+     * @param moduleDir
+     *            case module dir, where the file is kept
+     * @param reader
+     *            reader of the index being resumed
+     * @param directory
+     *            index directory
+     */
+    public static CommittedTrackIDs load(File moduleDir, IndexReader reader, Directory directory) throws IOException {
+        IndexCommit commit = getLastCommit(directory);
+        String key = getKey(commit, reader);
+        File file = getFile(moduleDir, commit);
+        if (file.exists()) {
+            try {
+                CommittedTrackIDs trackIDs = map(file, key);
+                if (trackIDs != null) {
+                    LOGGER.info("Committed trackIDs loaded from {}", file.getAbsolutePath()); //$NON-NLS-1$
+                    return trackIDs;
+                }
+                LOGGER.info("Committed trackIDs file out of date, rebuilding it..."); //$NON-NLS-1$
+            } catch (IOException e) {
+                LOGGER.warn("Error reading {}, rebuilding it: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            }
+        }
+        try {
+            return buildFile(reader, file, key);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            return build(reader);
+        }
+    }
+
+    /**
+     * Saves the trackIDs of the last commit of the index, if they were not saved
+     * yet. Called once after the final commit, because building the file reads
+     * the doc values of all committed documents. Files of previous commits are
+     * deleted.
+     */
+    public static void save(File moduleDir, Directory directory) throws IOException {
+        IndexCommit commit = getLastCommit(directory);
+        File file = getFile(moduleDir, commit);
+        try (DirectoryReader reader = DirectoryReader.open(commit)) {
+            String key = getKey(commit, reader);
+            if (!file.exists() || map(file, key) == null) {
+                long t = System.currentTimeMillis();
+                buildFile(reader, file, key);
+                LOGGER.info("Committed trackIDs saved in {}ms", System.currentTimeMillis() - t); //$NON-NLS-1$
+            }
+        }
+        File[] files = file.getParentFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(FILE_PREFIX) && !f.equals(file)) {
+                    // may fail if still mapped, it will be retried after next commit
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    private static IndexCommit getLastCommit(Directory directory) throws IOException {
+        List<IndexCommit> commits = DirectoryReader.listCommits(directory);
+        return commits.get(commits.size() - 1);
+    }
+
+    private static String getKey(IndexCommit commit, IndexReader reader) {
+        return commit.getSegmentsFileName() + "/" + reader.maxDoc() + "/" + reader.numDocs(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static File getFile(File moduleDir, IndexCommit commit) {
+        return new File(new File(moduleDir, IPEDSource.DATA_DIR), FILE_PREFIX + commit.getSegmentsFileName() + FILE_SUFFIX);
+    }
+
+    private static long countTrackIDs(IndexReader reader) throws IOException {
+        long count = 0;
+        for (LeafReaderContext context : reader.leaves()) {
+            SortedDocValues trackIDs = context.reader().getSortedDocValues(IndexItem.TRACK_ID);
+            if (trackIDs != null) {
+                count += trackIDs.getValueCount();
+            }
+        }
+        return count;
+    }
+
+    private static CommittedTrackIDs build(IndexReader reader) throws IOException {
+        TrackIDMap committed = new TrackIDMap((int) Math.min(countTrackIDs(reader), Integer.MAX_VALUE));
+        TrackIDMap lostParents = new TrackIDMap(1024);
+        fill(reader, committed, lostParents);
+        return new CommittedTrackIDs(committed, lostParents);
+    }
+
+    /**
+     * Builds the committed map directly into the memory mapped file, so it does
+     * not use heap. The header is written last, so partially written files are
+     * not loaded.
+     */
+    private static CommittedTrackIDs buildFile(IndexReader reader, File file, String key) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.deleteIfExists(file.toPath());
+        long capacity = TrackIDMap.getCapacity(countTrackIDs(reader));
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            TrackIDMap committed = TrackIDMap.map(fc, HEADER_BYTES, capacity, 0, TrackIDMap.MISSING,
+                    MapMode.READ_WRITE);
+            TrackIDMap lostParents = new TrackIDMap(1024);
+            fill(reader, committed, lostParents);
+            committed.force();
+
+            fc.position(HEADER_BYTES + TrackIDMap.getSlotsBytes(capacity));
+            lostParents.writeSlots(fc);
+
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION);
+            putMapHeader(header, committed);
+            putMapHeader(header, lostParents);
+            header.putInt(keyBytes.length).put(keyBytes);
+            header.flip();
+            long pos = 0;
+            while (header.hasRemaining()) {
+                pos += fc.write(header, pos);
+            }
+            fc.force(true);
+            return new CommittedTrackIDs(committed, lostParents);
+        }
+    }
+
+    private static void putMapHeader(ByteBuffer header, TrackIDMap map) {
+        header.putLong(map.getCapacity()).putInt(map.size()).putInt(map.getZeroKeyValue());
+    }
+
+    /**
+     * @return the memory mapped trackIDs or null if the file is out of date
+     */
+    private static CommittedTrackIDs map(File file, String key) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (fc.size() < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && fc.read(header, header.position()) != -1) {
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            long capacity1 = header.getLong();
+            int size1 = header.getInt();
+            int zero1 = header.getInt();
+            long capacity2 = header.getLong();
+            int size2 = header.getInt();
+            int zero2 = header.getInt();
+            byte[] keyBytes = new byte[header.getInt()];
+            header.get(keyBytes);
+            if (!key.equals(new String(keyBytes, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            long pos = HEADER_BYTES;
+            if (fc.size() != pos + TrackIDMap.getSlotsBytes(capacity1) + TrackIDMap.getSlotsBytes(capacity2)) {
+                return null;
+            }
+            TrackIDMap committed = TrackIDMap.map(fc, pos, capacity1, size1, zero1, MapMode.READ_ONLY);
+            pos += TrackIDMap.getSlotsBytes(capacity1);
+            TrackIDMap lostParents = TrackIDMap.map(fc, pos, capacity2, size2, zero2, MapMode.READ_ONLY);
+            return new CommittedTrackIDs(committed, lostParents);
+        }
+    }
+
+    private static void fill(IndexReader reader, TrackIDMap committed, TrackIDMap lostParents) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            SortedDocValues trackIDs = context.reader().getSortedDocValues(IndexItem.TRACK_ID);
+            if (trackIDs != null) {
+                TermsEnum te = trackIDs.termsEnum();
+                BytesRef trackID;
+                while ((trackID = te.next()) != null) {
+                    committed.put(trackID, NO_PREVIOUS_ID);
+                }
+            }
+        }
+        // committed map must be complete to find not committed parents
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            SortedDocValues trackIDs = leaf.getSortedDocValues(IndexItem.TRACK_ID);
+            NumericDocValues ids = leaf.getNumericDocValues(IndexItem.ID);
+            SortedDocValues parentTrackIDs = leaf.getSortedDocValues(IndexItem.PARENT_TRACK_ID);
+            NumericDocValues parentIds = leaf.getNumericDocValues(IndexItem.PARENTID);
+            SortedDocValues hasChild = leaf.getSortedDocValues(IndexItem.HASCHILD);
+            SortedDocValues isDir = leaf.getSortedDocValues(IndexItem.ISDIR);
+            SortedDocValues isRoot = leaf.getSortedDocValues(IndexItem.ISROOT);
+            SortedDocValues textSplitted = leaf.getSortedDocValues(IndexTask.TEXT_SPLITTED);
+            int hasChildTrue = getTrueOrd(hasChild);
+            int isDirTrue = getTrueOrd(isDir);
+            int isRootTrue = getTrueOrd(isRoot);
+            int textSplittedTrue = getTrueOrd(textSplitted);
+
+            for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                if (parentTrackIDs != null && parentIds != null && parentTrackIDs.advanceExact(doc)) {
+                    BytesRef parent = parentTrackIDs.lookupOrd(parentTrackIDs.ordValue());
+                    if (parent.length > 0 && committed.get(parent) == TrackIDMap.MISSING
+                            && parentIds.advanceExact(doc)) {
+                        lostParents.put(parent, (int) parentIds.longValue());
+                    }
+                }
+                if (ids != null && trackIDs != null
+                        && (isTrue(hasChild, hasChildTrue, doc) || isTrue(isDir, isDirTrue, doc)
+                                || isTrue(isRoot, isRootTrue, doc) || isTrue(textSplitted, textSplittedTrue, doc))
+                        && trackIDs.advanceExact(doc) && ids.advanceExact(doc)) {
+                    committed.put(trackIDs.lookupOrd(trackIDs.ordValue()), (int) ids.longValue());
+                }
+            }
+        }
+    }
+
+    private static int getTrueOrd(SortedDocValues values) throws IOException {
+        return values == null ? -1 : values.lookupTerm(new BytesRef(Boolean.TRUE.toString()));
+    }
+
+    private static boolean isTrue(SortedDocValues values, int trueOrd, int doc) throws IOException {
+        return trueOrd >= 0 && values.advanceExact(doc) && values.ordValue() == trueOrd;
+    }
+
+}
@@ -0,0 +1,449 @@
+package iped.engine.data;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact map of item attributes. Keys are kept as indexes of the global
+ * {@link AttributeKeys} dictionary and primitive wrapper values (Integer, Long,
+ * Double, Float and Boolean) are kept in a long array, so no entry or boxed
+ * objects are retained per attribute.
+ *
+ * Like the ConcurrentHashMap used before, it is thread safe, does not accept
+ * null keys or values and its iterators do not throw
+ * ConcurrentModificationException, they iterate over a snapshot of the entries.
+ *
+ * The attributes can be moved to the off-heap {@link SpillArena} with
+ * {@link #spill()} while the item is waiting to be processed. They are loaded
+ * back on first access.
+ *
+ * Keys not in the dictionary are just looked up, not added. Keys which can't
+ * be added because the dictionary is full are kept in a small side map, whose
+ * attributes are not spilled.
+ */
+public class CompactAttributeMap extends AbstractMap<String, Object> {
+
+    private static final int[] NO_KEYS = new int[0];
+    private static final byte[] NO_TYPES = new byte[0];
+    private static final long[] NO_PRIMS = new long[0];
+    private static final Object[] NO_REFS = new Object[0];
+
+    private static final byte REF = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte BOOLEAN = 5;
+
+    // serialized types of REF values
+    private static final byte STRING = 16;
+    private static final byte DATE = 17;
+    private static final byte BYTES = 18;
+    private static final byte STRING_LIST = 19;
+
+    private int[] keys = NO_KEYS;
+    private byte[] types = NO_TYPES;
+    private long[] prims = NO_PRIMS;
+    private Object[] refs = NO_REFS;
+    private int size = 0;
+
+    // keys not in the global dictionary, because it is full
+    private HashMap<String, Object> rareKeys;
+
+    private SpillArena.Block spilled;
+
+    private int indexOf(int key) {
+        if (key == -1) {
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity() {
+        if (size == keys.length) {
+            int newLen = Math.max(4, size + (size >> 1));
+            keys = Arrays.copyOf(keys, newLen);
+            types = Arrays.copyOf(types, newLen);
+            prims = Arrays.copyOf(prims, newLen);
+            refs = Arrays.copyOf(refs, newLen);
+        }
+    }
+
+    private Object getValue(int i) {
+        long bits = prims[i];
+        switch (types[i]) {
+            case INT:
+                return (int) bits;
+            case LONG:
+                return bits;
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case BOOLEAN:
+                return bits != 0;
+            default:
+                return refs[i];
+        }
+    }
+
+    private void setValue(int i, Object value) {
+        byte type;
+        long bits = 0;
+        Class<?> c = value.getClass();
+        if (c == Integer.class) {
+            type = INT;
+            bits = (Integer) value;
+        } else if (c == Long.class) {
+            type = LONG;
+            bits = (Long) value;
+        } else if (c == Double.class) {
+            type = DOUBLE;
+            bits = Double.doubleToRawLongBits((Double) value);
+        } else if (c == Float.class) {
+            type = FLOAT;
+            bits = Float.floatToRawIntBits((Float) value);
+        } else if (c == Boolean.class) {
+            type = BOOLEAN;
+            bits = ((Boolean) value) ? 1 : 0;
+        } else {
+            type = REF;
+        }
+        types[i] = type;
+        prims[i] = bits;
+        refs[i] = type == REF ? value : null;
+    }
+
+    @Override
+    public synchronized Object get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        load();
+        int i = indexOf(AttributeKeys.findIndex((String) key));
+        if (i == -1) {
+            return rareKeys != null ? rareKeys.get(key) : null;
+        }
+        return getValue(i);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+        load();
+        int k = AttributeKeys.getIndex(key);
+        if (k == -1) {
+            if (rareKeys == null) {
+                rareKeys = new HashMap<>();
+            }
+            return rareKeys.put(key, value);
+        }
+        int i = indexOf(k);
+        Object old = null;
+        if (i == -1) {
+            ensureCapacity();
+            i = size++;
+            keys[i] = k;
+        } else {
+            old = getValue(i);
+        }
+        setValue(i, value);
+        return old;
+    }
+
+    @Override
+    public synchronized Object remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        load();
+        int i = indexOf(AttributeKeys.findIndex((String) key));
+        if (i == -1) {
+            return rareKeys != null ? rareKeys.remove(key) : null;
+        }
+        Object old = getValue(i);
+        int last = --size;
+        keys[i] = keys[last];
+        types[i] = types[last];
+        prims[i] = prims[last];
+        refs[i] = refs[last];
+        refs[last] = null;
+        return old;
+    }
+
+    @Override
+    public synchronized int size() {
+        load();
+        return size + (rareKeys != null ? rareKeys.size() : 0);
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (spilled != null) {
+            SpillArena.get().free(spilled);
+            spilled = null;
+        }
+        keys = NO_KEYS;
+        types = NO_TYPES;
+        prims = NO_PRIMS;
+        refs = NO_REFS;
+        size = 0;
+        rareKeys = null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return snapshotIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactAttributeMap.this.size();
+            }
+        };
+    }
+
+    private synchronized Iterator<Map.Entry<String, Object>> snapshotIterator() {
+        load();
+        final int len = size();
+        final String[] snapshotKeys = new String[len];
+        final Object[] snapshotValues = new Object[len];
+        for (int i = 0; i < size; i++) {
+            snapshotKeys[i] = AttributeKeys.getKey(keys[i]);
+            snapshotValues[i] = getValue(i);
+        }
+        if (rareKeys != null) {
+            int i = size;
+            for (Map.Entry<String, Object> entry : rareKeys.entrySet()) {
+                snapshotKeys[i] = entry.getKey();
+                snapshotValues[i++] = entry.getValue();
+            }
+        }
+        return new Iterator<Map.Entry<String, Object>>() {
+            int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                return pos < len;
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+                if (pos >= len) {
+                    throw new NoSuchElementException();
+                }
+                final int i = pos++;
+                return new SimpleEntry<String, Object>(snapshotKeys[i], snapshotValues[i]) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    public Object setValue(Object value) {
+                        put(snapshotKeys[i], value);
+                        return super.setValue(value);
+                    }
+                };
+            }
+
+            @Override
+            public void remove() {
+                if (pos == 0) {
+                    throw new IllegalStateException();
+                }
+                CompactAttributeMap.this.remove(snapshotKeys[pos - 1]);
+            }
+        };
+    }
+
+    /**
+     * @return if the attributes are in the off-heap buffer
+     */
+    public synchronized boolean isSpilled() {
+        return spilled != null;
+    }
+
+    /**
+     * Loads back the attributes, if they were spilled.
+     */
+    public synchronized void restore() {
+        load();
+    }
+
+    /**
+     * Moves the attributes to the {@link SpillArena}, if it was enabled and is not
+     * full, all values are of supported types: primitive wrappers, String, Date,
+     * byte[] and collections of Strings, and all keys are in the global
+     * dictionary.
+     *
+     * @return true if the attributes were moved
+     */
+    public synchronized boolean spill() {
+        if (spilled != null || size == 0) {
+            return spilled != null;
+        }
+        SpillArena arena = SpillArena.get();
+        if (arena == null || (rareKeys != null && !rareKeys.isEmpty())) {
+            return false;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(64 + 32 * size);
+        try {
+            while (true) {
+                try {
+                    if (!serialize(buf)) {
+                        return false;
+                    }
+                    break;
+                } catch (BufferOverflowException e) {
+                    buf = ByteBuffer.allocate(buf.capacity() * 2);
+                }
+            }
+            SpillArena.Block block = arena.allocate(buf.array(), 0, buf.position());
+            if (block == null) {
+                // arena is full
+                return false;
+            }
+            spilled = block;
+            keys = NO_KEYS;
+            types = NO_TYPES;
+            prims = NO_PRIMS;
+            refs = NO_REFS;
+            return true;
+
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean serialize(ByteBuffer buf) throws IOException {
+        buf.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buf.putInt(keys[i]);
+            byte type = types[i];
+            if (type != REF) {
+                buf.put(type);
+                buf.putLong(prims[i]);
+                continue;
+            }
+            Object value = refs[i];
+            if (value instanceof String) {
+                buf.put(STRING);
+                putString(buf, (String) value);
+            } else if (value.getClass() == Date.class) {
+                buf.put(DATE);
+                buf.putLong(((Date) value).getTime());
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                buf.put(BYTES);
+                buf.putInt(bytes.length);
+                buf.put(bytes);
+            } else if (value.getClass() == ArrayList.class && isStringCollection((Collection<?>) value)) {
+                Collection<?> list = (Collection<?>) value;
+                buf.put(STRING_LIST);
+                buf.putInt(list.size());
+                for (Object o : list) {
+                    putString(buf, (String) o);
+                }
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isStringCollection(Collection<?> collection) {
+        for (Object o : collection) {
+            if (!(o instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void putString(ByteBuffer buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buf.putInt(bytes.length);
+        buf.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Loads spilled attributes back into heap.
+     */
+    private void load() {
+        SpillArena.Block block = spilled;
+        if (block == null) {
+            return;
+        }
+        spilled = null;
+        ByteBuffer buf = block.getBuffer();
+        int len = buf.getInt();
+        keys = new int[len];
+        types = new byte[len];
+        prims = new long[len];
+        refs = new Object[len];
+        size = len;
+        for (int i = 0; i < len; i++) {
+            keys[i] = buf.getInt();
+            byte type = buf.get();
+            switch (type) {
+                case STRING:
+                    refs[i] = getString(buf);
+                    break;
+                case DATE:
+                    refs[i] = new Date(buf.getLong());
+                    break;
+                case BYTES:
+                    byte[] bytes = new byte[buf.getInt()];
+                    buf.get(bytes);
+                    refs[i] = bytes;
+                    break;
+                case STRING_LIST:
+                    int n = buf.getInt();
+                    List<String> list = new ArrayList<>(n);
+                    for (int j = 0; j < n; j++) {
+                        list.add(getString(buf));
+                    }
+                    refs[i] = list;
+                    break;
+                default:
+                    types[i] = type;
+                    prims[i] = buf.getLong();
+            }
+        }
+        SpillArena.get().free(block);
+    }
+
+}
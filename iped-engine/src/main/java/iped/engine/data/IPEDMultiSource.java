@@ -23,7 +23,7 @@
 import iped.data.IIPEDSource;
 import iped.data.IItem;
 import iped.data.IItemId;
-import iped.engine.lucene.SlowCompositeReaderWrapper;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.lucene.analysis.AppAnalyzer;
 import iped.engine.search.LuceneSearchResult;
 import iped.exception.IPEDException;
@@ -185,8 +185,8 @@ private void openIndex() throws IOException {
 
         reader = new MultiReader(readers, false);
 
-        // TODO get rid of deprecated SlowCompositeReaderWrapper
-        atomicReader = SlowCompositeReaderWrapper.wrap(reader);
+        docValues = new SegmentDocValues(reader);
+        resetLeafReader();
 
         LOGGER.info("MultiReader opened"); //$NON-NLS-1$
 
@@ -285,10 +285,13 @@ final public int getLuceneId(int id) {
     }
 
     final public int getLuceneId(IItemId id) {
-        int sourceid = id.getSourceId();
-        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceid);
-        int baseDoc = baseDocCache.get(sourceid);
-        return atomicCase.getLuceneId(id.getId()) + baseDoc;
+        return getLuceneId(id.getSourceId(), id.getId());
+    }
+
+    final public int getLuceneId(int sourceId, int id) {
+        IIPEDSource atomicCase = getAtomicSourceBySourceId(sourceId);
+        int baseDoc = baseDocCache.get(sourceId);
+        return atomicCase.getLuceneId(id) + baseDoc;
     }
     
     @SuppressWarnings("resource")
@@ -22,7 +22,6 @@
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -40,15 +39,13 @@
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.LeafReader;
-import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanQuery;
-import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.util.Bits;
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.slf4j.Logger;
@@ -66,6 +63,7 @@
 import iped.engine.datasource.SleuthkitReader;
 import iped.engine.localization.Messages;
 import iped.engine.lucene.ConfiguredFSDirectory;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.lucene.SlowCompositeReaderWrapper;
 import iped.engine.lucene.analysis.AppAnalyzer;
 import iped.engine.search.IPEDSearcher;
@@ -90,6 +88,7 @@ public class IPEDSource implements IIPEDSource {
     public static final String LIB_DIR = "lib"; //$NON-NLS-1$
     public static final String SLEUTH_DB = "sleuth.db"; //$NON-NLS-1$
     public static final String PREV_TEMP_INFO_PATH = DATA_DIR + "/prevTempDir.txt"; //$NON-NLS-1$
+    public static final String SORT_KEYS_DIR = DATA_DIR + "/sortkeys"; //$NON-NLS-1$
 
     /**
      * workaround para JVM não coletar objeto, nesse caso Sleuthkit perde referencia
@@ -103,7 +102,8 @@ public class IPEDSource implements IIPEDSource {
 
     SleuthkitCase sleuthCase;
     IndexReader reader;
-    LeafReader atomicReader;
+    SegmentDocValues docValues;
+    private volatile LeafReader atomicReader;
     IndexWriter iw;
     IndexSearcher searcher;
     Analyzer analyzer;
@@ -116,8 +116,7 @@ public class IPEDSource implements IIPEDSource {
     private IBookmarks bookmarks;
     IMultiBookmarks multiBookmarks;
 
-    private int[] ids, docs;
-    private BitSet parentDocs;
+    private LuceneIdMap idMap;
 
     protected int sourceId = -1;
 
@@ -222,7 +221,6 @@ public IPEDSource(File casePath, IndexWriter iw, boolean askImagePathIfNotFound)
             analyzer = AppAnalyzer.get();
 
             populateLuceneIdToIdMap();
-            invertIdToLuceneIdArray();
             populateEvidenceUUIDs();
             countTotalItems();
 
@@ -259,7 +257,7 @@ public IPEDSource(File casePath, IndexWriter iw, boolean askImagePathIfNotFound)
     public void clearOldBookmarks() {
         ArrayList<Integer> idsToRemove = new ArrayList<>();
         for (int id = 0; id <= lastId; id++) {
-            if (docs[id] == -1) {
+            if (idMap.getLuceneId(id) == -1) {
                 idsToRemove.add(id);
             }
         }
@@ -276,53 +274,18 @@ public void clearOldBookmarks() {
     }
 
     public void populateLuceneIdToIdMap() throws IOException {
-
-        LOGGER.info("Creating LuceneId to ID mapping..."); //$NON-NLS-1$
-        ids = new int[reader.maxDoc()];
-        for (int i = 0; i < ids.length; i++) {
-            ids[i] = -1;
-        }
-        
-        parentDocs = new BitSet(ids.length);
-
-        NumericDocValues ndv = atomicReader.getNumericDocValues(IndexItem.ID);
-        if (ndv == null) {
-            // no items in index
-            return;
-        }
-
-        Bits liveDocs = atomicReader.getLiveDocs();
-
-        int i;
-        while ((i = ndv.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-            if (liveDocs != null && !liveDocs.get(i)) {
-                continue;
-            }
-            ids[i] = (int) ndv.longValue();
-            parentDocs.set(i);
-            if (ids[i] > lastId)
-                lastId = ids[i];
-        }
-    }
-
-    protected void invertIdToLuceneIdArray() {
-        docs = new int[lastId + 1];
-        for (int i = 0; i < docs.length; i++) {
-            docs[i] = -1;
-        }
-        for (int i = 0; i < ids.length; i++) {
-            if (ids[i] > -1) {
-                docs[ids[i]] = i;
-            }
-        }
+        idMap = LuceneIdMap.load(moduleDir, reader, iw == null);
+        lastId = idMap.getLastId();
     }
 
     private void populateEvidenceUUIDs() throws IOException {
-        SortedDocValues sdv = atomicReader.getSortedDocValues(BasicProps.EVIDENCE_UUID);
-        if (sdv == null)
-            return;
-        for (int i = 0; i < sdv.getValueCount(); i++) {
-            evidenceUUIDs.add(sdv.lookupOrd(i).utf8ToString());
+        for (LeafReaderContext context : reader.leaves()) {
+            SortedDocValues sdv = context.reader().getSortedDocValues(BasicProps.EVIDENCE_UUID);
+            if (sdv == null)
+                continue;
+            for (int i = 0; i < sdv.getValueCount(); i++) {
+                evidenceUUIDs.add(sdv.lookupOrd(i).utf8ToString());
+            }
         }
     }
 
@@ -353,7 +316,7 @@ private void countTotalItems() {
     }
 
     private void loadLeafCategories() throws IOException {
-        Terms terms = atomicReader.terms(IndexItem.CATEGORY);
+        Terms terms = docValues.terms(IndexItem.CATEGORY);
         if (terms == null)
             return;
         TermsEnum termsEnum = terms.iterator();
@@ -467,8 +430,9 @@ private void openIndex(File index, IndexWriter iw) throws IOException {
             reader = DirectoryReader.open(iw, true, false);
         }
 
-        // TODO get rid of deprecated SlowCompositeReaderWrapper
-        atomicReader = SlowCompositeReaderWrapper.wrap(reader);
+        // sort keys of near real time readers are not persisted, they change often
+        docValues = new SegmentDocValues(reader, iw == null ? new File(moduleDir, SORT_KEYS_DIR) : null);
+        resetLeafReader();
 
         openSearcher();
 
@@ -515,7 +479,7 @@ public IItem getItemByLuceneID(int docID) {
     }
 
     public IItem getItemByID(int id) {
-        return getItemByLuceneID(docs[id]);
+        return getItemByLuceneID(idMap.getLuceneId(id));
     }
 
     public void reopen() throws IOException {
@@ -676,33 +640,23 @@ public File getCaseDir() {
     }
 
     public int getId(int luceneId) {
-        return ids[luceneId];
+        return idMap.getId(luceneId);
     }
-    
+
     public IntStream getLuceneIdStream() {
-    	return parentDocs.stream();
+        return idMap.getLuceneIdStream();
     }
 
     public int getLuceneId(IItemId itemId) {
-        return docs[itemId.getId()];
+        return idMap.getLuceneId(itemId.getId());
     }
 
     public int getLuceneId(int id) {
-        return docs[id];
+        return idMap.getLuceneId(id);
     }
 
     public int getParentId(int id) {
-        try {
-            Set<String> field = Collections.singleton(BasicProps.PARENTID);
-            Document doc = searcher.doc(getLuceneId(id), field);
-            String parent = doc.get(BasicProps.PARENTID);
-            if (parent != null && !parent.isEmpty()) {
-                return Integer.valueOf(parent);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return -1;
+        return idMap.getParentId(id);
     }
 
     public List<String> getLeafCategories() {
@@ -733,12 +687,42 @@ public IndexReader getReader() {
         return reader;
     }
 
+    protected void resetLeafReader() {
+        atomicReader = null;
+    }
+
+    /**
+     * @return per segment doc values access of current reader, prefer it over
+     *         {@link #getLeafReader()}
+     */
+    public SegmentDocValues getDocValues() {
+        return docValues;
+    }
+
     public LeafReader getAtomicReader() {
-        return this.atomicReader;
+        return getLeafReader();
     }
 
+    /**
+     * Composite view of the index as a single segment, created on demand. It is
+     * slow and memory hungry with many segments, use {@link #getDocValues()} or
+     * the reader leaves when possible.
+     */
     public LeafReader getLeafReader() {
-        return this.atomicReader;
+        LeafReader leafReader = atomicReader;
+        if (leafReader == null) {
+            synchronized (this) {
+                leafReader = atomicReader;
+                if (leafReader == null) {
+                    try {
+                        atomicReader = leafReader = SlowCompositeReaderWrapper.wrap(reader);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+        return leafReader;
     }
 
     public IndexSearcher getSearcher() {
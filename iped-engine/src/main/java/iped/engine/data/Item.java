@@ -2,16 +2,21 @@
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -19,7 +24,6 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
@@ -37,8 +41,10 @@
 import iped.data.IItem;
 import iped.datasource.IDataSource;
 import iped.engine.core.Statistics;
+import iped.engine.io.HeadCachedInputStream;
 import iped.engine.io.ReferencedFile;
 import iped.engine.lucene.analysis.CategoryTokenizer;
+import iped.engine.task.ContentConsumer;
 import iped.engine.task.index.IndexItem;
 import iped.engine.tika.SyncMetadata;
 import iped.engine.util.ParentInfo;
@@ -128,12 +134,13 @@ public static void setStartID(int start) {
 
     private List<Integer> parentIds = new ArrayList<Integer>();
 
-    private Map<String, Object> extraAttributes = new ConcurrentHashMap<String, Object>();
+    private CompactAttributeMap extraAttributes = new CompactAttributeMap();
 
     /**
-     * Temporaty attributes present only during processing flow.
+     * Temporaty attributes present only during processing flow. Created on first
+     * use.
      */
-    private Map<String, Object> tempAttributes = new HashMap<>();
+    private Map<String, Object> tempAttributes;
 
     /**
      * Data de criação do arquivo.
@@ -171,6 +178,11 @@ public static void setStartID(int start) {
 
     private Metadata metadata;
 
+    /**
+     * Metadata names and values moved off-heap while the item waits in a queue.
+     */
+    private volatile SpillArena.Block spilledMetadata;
+
     private boolean timeOut = false;
 
     private boolean isSubItem = false, hasChildren = false;
@@ -207,6 +219,8 @@ public static void setStartID(int start) {
 
     private ISeekableInputStreamFactory inputStreamFactory;
 
+    private long estimatedMemorySize = -1;
+
     private static final int BUF_LEN = 8 * 1024 * 1024;
     
     private static final int maxImageLength = 128 << 20;
@@ -218,7 +232,7 @@ public static void setStartID(int start) {
      *            categoria a qual o item será adicionado
      */
     public void addCategory(String category) {
-        this.categories.add(category);
+        this.categories.add(AttributeKeys.intern(category));
     }
 
     /**
@@ -746,7 +760,16 @@ public TikaInputStream getTikaStream() throws IOException {
                 tis = TikaInputStream.get(data);
             }
             if (tis == null) {
-                tis = TikaInputStream.get(getBufferedInputStream());
+                // first bytes may have been kept when content was hashed
+                byte[] head = (byte[]) getTempAttribute(ContentConsumer.CONTENT_HEAD);
+                if (head != null) {
+                    boolean complete = head.length < ContentConsumer.Head.HEAD_SIZE
+                            || (length != null && head.length >= length);
+                    tis = TikaInputStream.get(new BufferedInputStream(new HeadCachedInputStream(head, complete, this),
+                            getBestBufferSize()));
+                } else {
+                    tis = TikaInputStream.get(getBufferedInputStream());
+                }
             }
         }
         addTmpResource(tis);
@@ -912,7 +935,7 @@ public void setCarved(boolean carved) {
     public void setCategory(String category) {
         categories = new HashSet<String>();
         if (category != null)
-            categories.add(category);
+            categories.add(AttributeKeys.intern(category));
     }
 
     /**
@@ -1254,17 +1277,209 @@ public void setParentOffset(long parentOffset) {
     }
 
     public Metadata getMetadata() {
+        if (spilledMetadata != null) {
+            restoreMetadata();
+        }
         if (metadata == null) {
             metadata = new SyncMetadata();
         }
         return metadata;
     }
 
+    /**
+     * Moves extra attributes and metadata to the off-heap {@link SpillArena},
+     * while the item waits to be processed. They are loaded back into heap on
+     * first access. Items with values of types not supported by
+     * {@link CompactAttributeMap} keep their attributes in heap.
+     *
+     * @return true if some attributes were moved
+     */
+    public boolean spillAttributes() {
+        boolean spilled = extraAttributes.spill();
+        return spillMetadata() || spilled;
+    }
+
+    /**
+     * Loads back attributes moved off-heap by {@link #spillAttributes()}.
+     */
+    public void restoreAttributes() {
+        extraAttributes.restore();
+        if (spilledMetadata != null) {
+            restoreMetadata();
+        }
+    }
+
+    private synchronized boolean spillMetadata() {
+        SpillArena arena = SpillArena.get();
+        if (arena == null || !(metadata instanceof SyncMetadata) || spilledMetadata != null) {
+            return false;
+        }
+        SyncMetadata syncMetadata = (SyncMetadata) metadata;
+        synchronized (syncMetadata) {
+            String[] names = syncMetadata.names();
+            if (names.length == 0 || syncMetadata.isReadOnly()) {
+                return false;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (DataOutputStream dos = new DataOutputStream(baos)) {
+                dos.writeInt(names.length);
+                for (String name : names) {
+                    String[] values = syncMetadata.getValues(name);
+                    int index = AttributeKeys.getIndex(name);
+                    dos.writeInt(index);
+                    if (index == -1) {
+                        // dictionary is full
+                        writeString(dos, name);
+                    }
+                    dos.writeInt(values.length);
+                    for (String value : values) {
+                        writeString(dos, value);
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            SpillArena.Block block = arena.allocate(baos.toByteArray(), 0, baos.size());
+            if (block == null) {
+                // arena is full
+                return false;
+            }
+            for (String name : names) {
+                syncMetadata.remove(name);
+            }
+            spilledMetadata = block;
+            return true;
+        }
+    }
+
+    private synchronized void restoreMetadata() {
+        SpillArena.Block block = spilledMetadata;
+        if (block == null) {
+            return;
+        }
+        // refills the same instance, references to it remain valid
+        Metadata metadata = this.metadata;
+        synchronized (metadata) {
+            ByteBuffer buffer = block.getBuffer();
+            int numNames = buffer.getInt();
+            for (int i = 0; i < numNames; i++) {
+                int index = buffer.getInt();
+                String name = index != -1 ? AttributeKeys.getKey(index) : readString(buffer);
+                int numValues = buffer.getInt();
+                for (int j = 0; j < numValues; j++) {
+                    metadata.add(name, readString(buffer));
+                }
+            }
+        }
+        spilledMetadata = null;
+        SpillArena.get().free(block);
+    }
+
+    private static void writeString(DataOutputStream dos, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Estimates the heap bytes retained by this item (fields, attributes,
+     * metadata, cached text and data). It is a rough estimate, used to limit the
+     * memory of items waiting in processing queues. The result is cached and
+     * returned by {@link #getEstimatedMemorySize()}.
+     *
+     * @return estimated bytes retained by this item
+     */
+    public long estimateMemorySize() {
+        long size = 256;
+        size += estimateSize(name) + estimateSize(path) + estimateSize(extension) + estimateSize(type);
+        size += estimateSize(hash) + estimateSize(idInDataSource);
+        size += 16L * parentIds.size();
+        // spilled attributes are off-heap, keys are shared by the AttributeKeys dictionary
+        if (!extraAttributes.isSpilled()) {
+            for (Map.Entry<String, Object> entry : extraAttributes.entrySet()) {
+                size += 24 + estimateSize(entry.getValue());
+            }
+        }
+        Map<String, Object> tempAttributes = this.tempAttributes;
+        if (tempAttributes != null) {
+            for (Map.Entry<String, Object> entry : tempAttributes.entrySet()) {
+                size += 48 + estimateSize(entry.getValue());
+            }
+        }
+        size += 32L * categories.size();
+        for (String label : labels) {
+            size += 8 + estimateSize(label);
+        }
+        Metadata metadata = this.metadata;
+        if (metadata != null && spilledMetadata == null) {
+            for (String key : metadata.names()) {
+                size += 48;
+                for (String value : metadata.getValues(key)) {
+                    size += 8 + estimateSize(value);
+                }
+            }
+        }
+        TextCache textCache = this.textCache;
+        if (textCache != null) {
+            size += textCache.getMemorySize();
+        }
+        byte[] data = this.data;
+        if (data != null) {
+            size += data.length;
+        }
+        byte[] thumb = this.thumb;
+        if (thumb != null) {
+            size += thumb.length;
+        }
+        estimatedMemorySize = size;
+        return size;
+    }
+
+    private static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof Collection) {
+            long size = 32;
+            for (Object o : (Collection<?>) value) {
+                size += 8 + estimateSize(o);
+            }
+            return size;
+        }
+        return 24;
+    }
+
+    /**
+     * @return the last value computed by {@link #estimateMemorySize()}.
+     */
+    public long getEstimatedMemorySize() {
+        if (estimatedMemorySize == -1) {
+            return estimateMemorySize();
+        }
+        return estimatedMemorySize;
+    }
+
     public void setMetadata(Metadata metadata) {
-        if (metadata instanceof SyncMetadata)
-            this.metadata = metadata;
-        else
+        if (metadata instanceof SyncMetadata) {
+            synchronized (this) {
+                this.metadata = metadata;
+                if (spilledMetadata != null) {
+                    SpillArena.get().free(spilledMetadata);
+                    spilledMetadata = null;
+                }
+            }
+        } else {
             throw new IllegalArgumentException("Just SyncMetadata instances should be set in Item metadata.");
+        }
     }
 
     public IDataSource getDataSource() {
@@ -1310,10 +1525,14 @@ public IItem createChildItem() {
     }
 
     public Object getTempAttribute(String key) {
-        return tempAttributes.get(key);
+        Map<String, Object> tempAttributes = this.tempAttributes;
+        return tempAttributes != null ? tempAttributes.get(key) : null;
     }
 
     public void setTempAttribute(String key, Object value) {
+        if (tempAttributes == null) {
+            tempAttributes = new HashMap<>();
+        }
         tempAttributes.put(key, value);
     }
 }
@@ -0,0 +1,252 @@
+package iped.engine.data;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.properties.BasicProps;
+
+/**
+ * Maps lucene doc ids to item ids, item ids to lucene doc ids and item ids to
+ * parent ids of a case index.
+ *
+ * Maps of committed indexes are saved into the case data folder and memory
+ * mapped when the case is opened again, so opening large or many cases does not
+ * need to scan doc values nor allocate heap for them. The saved map is rebuilt
+ * if the index commit changed. Maps of near real time readers, opened while
+ * processing, are built in heap.
+ */
+public class LuceneIdMap {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(LuceneIdMap.class);
+
+    public static final String MAP_FILE = IPEDSource.DATA_DIR + "/luceneIdMap.dat"; //$NON-NLS-1$
+
+    private static final int MAGIC = 0x49444D50;
+    private static final int VERSION = 1;
+
+    private static final int WRITE_BUFFER_INTS = 1 << 18;
+
+    private final IntBuffer ids, docs, parents;
+    private final int lastId;
+
+    private LuceneIdMap(IntBuffer ids, IntBuffer docs, IntBuffer parents, int lastId) {
+        this.ids = ids;
+        this.docs = docs;
+        this.parents = parents;
+        this.lastId = lastId;
+    }
+
+    /**
+     * Loads the map of the index, from the saved map file if it is up to date.
+     *
+     * @param moduleDir
+     *            case module dir, where the map file is kept
+     * @param reader
+     *            index reader
+     * @param persist
+     *            if the map can be saved, false for near real time readers
+     */
+    public static LuceneIdMap load(File moduleDir, IndexReader reader, boolean persist) throws IOException {
+        String key = persist ? getIndexKey(reader) : null;
+        if (key == null) {
+            return build(reader);
+        }
+        File file = new File(moduleDir, MAP_FILE);
+        if (file.exists()) {
+            try {
+                LuceneIdMap map = map(file, key, reader.maxDoc());
+                if (map != null) {
+                    return map;
+                }
+                LOGGER.info("LuceneId to ID mapping out of date, rebuilding it..."); //$NON-NLS-1$
+            } catch (IOException e) {
+                LOGGER.warn("Error reading {}, rebuilding it: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+            }
+        }
+        LuceneIdMap map = build(reader);
+        try {
+            map.save(file, key);
+            LuceneIdMap mapped = map(file, key, reader.maxDoc());
+            if (mapped != null) {
+                return mapped;
+            }
+        } catch (IOException e) {
+            // read only case or file mapped by other process
+            LOGGER.warn("Could not save {}: {}", file.getAbsolutePath(), e.toString()); //$NON-NLS-1$
+        }
+        return map;
+    }
+
+    private static String getIndexKey(IndexReader reader) throws IOException {
+        if (!(reader instanceof DirectoryReader)) {
+            return null;
+        }
+        DirectoryReader dirReader = (DirectoryReader) reader;
+        return dirReader.getIndexCommit().getSegmentsFileName() + "/" + dirReader.getVersion() + "/" //$NON-NLS-1$ //$NON-NLS-2$
+                + reader.maxDoc() + "/" + reader.numDocs(); //$NON-NLS-1$
+    }
+
+    private static LuceneIdMap build(IndexReader reader) throws IOException {
+
+        LOGGER.info("Creating LuceneId to ID mapping..."); //$NON-NLS-1$
+
+        int[] ids = new int[reader.maxDoc()];
+        int[] parentOfDoc = new int[reader.maxDoc()];
+        Arrays.fill(ids, -1);
+        Arrays.fill(parentOfDoc, -1);
+        int lastId = -1;
+
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            NumericDocValues ndv = leaf.getNumericDocValues(BasicProps.ID);
+            if (ndv == null) {
+                continue;
+            }
+            NumericDocValues parentNdv = leaf.getNumericDocValues(BasicProps.PARENTID);
+            Bits liveDocs = leaf.getLiveDocs();
+            int doc;
+            while ((doc = ndv.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                if (liveDocs != null && !liveDocs.get(doc)) {
+                    continue;
+                }
+                int luceneId = context.docBase + doc;
+                int id = (int) ndv.longValue();
+                ids[luceneId] = id;
+                if (id > lastId) {
+                    lastId = id;
+                }
+                if (parentNdv != null && parentNdv.advanceExact(doc)) {
+                    parentOfDoc[luceneId] = (int) parentNdv.longValue();
+                }
+            }
+        }
+
+        int[] docs = new int[lastId + 1];
+        int[] parents = new int[lastId + 1];
+        Arrays.fill(docs, -1);
+        Arrays.fill(parents, -1);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] > -1) {
+                docs[ids[i]] = i;
+                parents[ids[i]] = parentOfDoc[i];
+            }
+        }
+
+        return new LuceneIdMap(IntBuffer.wrap(ids), IntBuffer.wrap(docs), IntBuffer.wrap(parents), lastId);
+    }
+
+    private void save(File file, String key) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile("luceneIdMap", ".tmp", file.getParentFile()); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                OutputStream os = Channels.newOutputStream(fc);
+                DataOutputStream dos = new DataOutputStream(os);
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeUTF(key);
+                dos.writeInt(ids.limit());
+                dos.writeInt(lastId);
+                dos.flush();
+
+                ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER_INTS * Integer.BYTES);
+                for (IntBuffer ints : new IntBuffer[] { ids, docs, parents }) {
+                    for (int i = 0; i < ints.limit(); i += WRITE_BUFFER_INTS) {
+                        buf.clear();
+                        int len = Math.min(WRITE_BUFFER_INTS, ints.limit() - i);
+                        buf.asIntBuffer().put(ints.array(), i, len);
+                        buf.limit(len * Integer.BYTES);
+                        while (buf.hasRemaining()) {
+                            fc.write(buf);
+                        }
+                    }
+                }
+                fc.force(false);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return the memory mapped map or null if the file is out of date
+     */
+    private static LuceneIdMap map(File file, String key, int maxDoc) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            InputStream is = Channels.newInputStream(fc);
+            DataInputStream dis = new DataInputStream(is);
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || !key.equals(dis.readUTF())
+                    || dis.readInt() != maxDoc) {
+                return null;
+            }
+            int lastId = dis.readInt();
+            long pos = fc.position();
+            long expectedSize = pos + ((long) maxDoc + 2L * (lastId + 1)) * Integer.BYTES;
+            if (fc.size() != expectedSize) {
+                return null;
+            }
+            IntBuffer ids = mapInts(fc, pos, maxDoc);
+            pos += (long) maxDoc * Integer.BYTES;
+            IntBuffer docs = mapInts(fc, pos, lastId + 1);
+            pos += (long) (lastId + 1) * Integer.BYTES;
+            IntBuffer parents = mapInts(fc, pos, lastId + 1);
+            return new LuceneIdMap(ids, docs, parents, lastId);
+        }
+    }
+
+    private static IntBuffer mapInts(FileChannel fc, long pos, int len) throws IOException {
+        // mapping is still valid after channel is closed
+        return fc.map(MapMode.READ_ONLY, pos, (long) len * Integer.BYTES).asIntBuffer();
+    }
+
+    public int getId(int luceneId) {
+        return ids.get(luceneId);
+    }
+
+    public int getLuceneId(int id) {
+        return docs.get(id);
+    }
+
+    public int getParentId(int id) {
+        return parents.get(id);
+    }
+
+    public int getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return lucene ids of live docs with an item id
+     */
+    public IntStream getLuceneIdStream() {
+        return IntStream.range(0, ids.limit()).filter(i -> ids.get(i) != -1);
+    }
+
+}
@@ -80,6 +80,10 @@ public boolean isChecked(IItemId item) {
         return map.get(item.getSourceId()).isChecked(item.getId());
     }
 
+    public boolean isChecked(int sourceId, int id) {
+        return map.get(sourceId).isChecked(id);
+    }
+
     public void setChecked(boolean value, IItemId item) {
         map.get(item.getSourceId()).setChecked(value, item.getId());
         for (SelectionListener l : selectionListeners)
@@ -90,6 +94,10 @@ public List<String> getBookmarkList(IItemId item) {
         return map.get(item.getSourceId()).getBookmarkList(item.getId());
     }
 
+    public List<String> getBookmarkList(int sourceId, int id) {
+        return map.get(sourceId).getBookmarkList(id);
+    }
+
     public final boolean hasBookmark(IItemId item) {
         return map.get(item.getSourceId()).hasBookmark(item.getId());
     }
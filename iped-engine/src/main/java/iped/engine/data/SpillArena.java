@@ -0,0 +1,174 @@
+package iped.engine.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded off-heap memory where attributes of items waiting in processing
+ * queues are spilled by {@link CompactAttributeMap#spill()} and
+ * {@link Item#spillAttributes()}.
+ *
+ * Blocks are allocated sequentially from a few large direct slabs, instead of
+ * one direct buffer (plus its Cleaner) per item. Queued items are mostly
+ * restored in the order they were spilled, so a slab is reused as soon as all
+ * its blocks are freed. When the configured limit is reached, or direct memory
+ * can not be allocated, allocations fail and items keep their attributes in
+ * heap, without going through the JVM direct memory reservation retries.
+ */
+public class SpillArena {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(SpillArena.class);
+
+    static final int SLAB_SIZE = 4 << 20;
+
+    private static volatile SpillArena instance;
+
+    private final List<Slab> slabs = new ArrayList<>();
+
+    private int maxSlabs;
+
+    private Slab current;
+
+    private long usedBytes = 0;
+
+    private static class Slab {
+
+        private final ByteBuffer buffer;
+
+        private int position = 0;
+
+        private int liveBlocks = 0;
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Spilled bytes, kept in a slab of the arena.
+     */
+    public static class Block {
+
+        private final Slab slab;
+
+        private final ByteBuffer buffer;
+
+        private Block(Slab slab, ByteBuffer buffer) {
+            this.slab = slab;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return a new buffer over the spilled bytes, positioned at the start
+         */
+        public ByteBuffer getBuffer() {
+            return buffer.duplicate();
+        }
+    }
+
+    SpillArena(long maxBytes) {
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / SLAB_SIZE));
+    }
+
+    /**
+     * Enables spilling, limited to maxBytes of direct memory (rounded to the slab
+     * size). The first value is kept.
+     */
+    public static synchronized void init(long maxBytes) {
+        if (instance == null) {
+            instance = new SpillArena(maxBytes);
+            LOGGER.info("Max off-heap memory for spilled queued items: {}MB", //$NON-NLS-1$
+                    (long) instance.maxSlabs * SLAB_SIZE >> 20);
+        }
+    }
+
+    /**
+     * @return the arena, or null if spilling was not enabled
+     */
+    public static SpillArena get() {
+        return instance;
+    }
+
+    /**
+     * Copies the bytes to the arena.
+     *
+     * @return the block holding the bytes, or null if the arena is full
+     */
+    public Block allocate(byte[] bytes, int offset, int length) {
+        Block block;
+        synchronized (this) {
+            Slab slab = getSlab(length);
+            if (slab == null) {
+                return null;
+            }
+            ByteBuffer buffer = slab.buffer.duplicate();
+            buffer.position(slab.position).limit(slab.position + length);
+            buffer = buffer.slice();
+            slab.position += length;
+            slab.liveBlocks++;
+            usedBytes += length;
+            block = new Block(slab, buffer);
+        }
+        // slices are disjoint, copying does not need the lock
+        block.buffer.duplicate().put(bytes, offset, length);
+        return block;
+    }
+
+    private Slab getSlab(int length) {
+        if (length > SLAB_SIZE) {
+            return null;
+        }
+        if (current != null && SLAB_SIZE - current.position >= length) {
+            return current;
+        }
+        for (Slab slab : slabs) {
+            if (slab.liveBlocks == 0) {
+                slab.position = 0;
+                return current = slab;
+            }
+        }
+        if (slabs.size() >= maxSlabs) {
+            return null;
+        }
+        try {
+            current = new Slab(ByteBuffer.allocateDirect(SLAB_SIZE));
+        } catch (OutOfMemoryError e) {
+            // direct memory limit reached, do not try again
+            maxSlabs = slabs.size();
+            LOGGER.warn("Could not allocate off-heap memory, spilled items limited to {}MB", //$NON-NLS-1$
+                    (long) maxSlabs * SLAB_SIZE >> 20);
+            return null;
+        }
+        slabs.add(current);
+        return current;
+    }
+
+    /**
+     * Releases the block, its bytes must not be read anymore.
+     */
+    public synchronized void free(Block block) {
+        usedBytes -= block.buffer.capacity();
+        if (--block.slab.liveBlocks == 0) {
+            block.slab.position = 0;
+        }
+    }
+
+    /**
+     * @return bytes of blocks not freed yet
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return direct memory allocated by the arena
+     */
+    public synchronized long getAllocatedBytes() {
+        return (long) slabs.size() * SLAB_SIZE;
+    }
+
+}
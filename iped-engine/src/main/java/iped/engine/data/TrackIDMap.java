@@ -0,0 +1,356 @@
+package iped.engine.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Open addressing hash map from 128 bits trackIDs (md5) to int values, without
+ * per entry objects. Keys are kept as pairs of longs and values as ints, in
+ * pages of heap arrays or of memory mapped file regions, so maps bigger than
+ * 2GB are supported.
+ *
+ * Heap maps grow as needed. Mapped maps have fixed capacity. The all zeros key
+ * marks empty slots, so it is kept apart.
+ *
+ * Lookups don't allocate objects, trackIDs can be passed as hex strings.
+ * Concurrent reads are safe if there are no concurrent writes.
+ */
+public class TrackIDMap {
+
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    private static final int PAGE_BITS = 24;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private static final float MAX_LOAD = 0.7f;
+
+    static final int KEY_BYTES = 2 * Long.BYTES;
+    static final int SLOT_BYTES = KEY_BYTES + Integer.BYTES;
+
+    private LongBuffer[] keyPages;
+    private IntBuffer[] valuePages;
+    private long capacity;
+    private int size;
+    private int zeroKeyValue = MISSING;
+    private final boolean growable;
+    private MappedByteBuffer[] mappedRegions;
+
+    /**
+     * Creates a growable heap map.
+     */
+    public TrackIDMap(int expectedSize) {
+        this.growable = true;
+        allocate(getCapacity(expectedSize));
+    }
+
+    private TrackIDMap(LongBuffer[] keyPages, IntBuffer[] valuePages, long capacity, int size, int zeroKeyValue) {
+        this.growable = false;
+        this.keyPages = keyPages;
+        this.valuePages = valuePages;
+        this.capacity = capacity;
+        this.size = size;
+        this.zeroKeyValue = zeroKeyValue;
+    }
+
+    /**
+     * @return number of slots needed to store expectedSize entries
+     */
+    public static long getCapacity(long expectedSize) {
+        return Math.max(16, (long) (expectedSize / MAX_LOAD) + 1);
+    }
+
+    /**
+     * @return bytes used by the slots of a map with the capacity
+     */
+    public static long getSlotsBytes(long capacity) {
+        return capacity * SLOT_BYTES;
+    }
+
+    private void allocate(long capacity) {
+        int numPages = getNumPages(capacity);
+        keyPages = new LongBuffer[numPages];
+        valuePages = new IntBuffer[numPages];
+        for (int i = 0; i < numPages; i++) {
+            int len = getPageLength(capacity, i);
+            keyPages[i] = LongBuffer.wrap(new long[2 * len]);
+            valuePages[i] = IntBuffer.wrap(new int[len]);
+        }
+        this.capacity = capacity;
+    }
+
+    private static int getNumPages(long capacity) {
+        return (int) ((capacity + PAGE_SIZE - 1) >>> PAGE_BITS);
+    }
+
+    private static int getPageLength(long capacity, int page) {
+        return (int) Math.min(PAGE_SIZE, capacity - ((long) page << PAGE_BITS));
+    }
+
+    /**
+     * Maps a map with fixed capacity into a file region, of
+     * {@link #getSlotsBytes(long)} bytes. With READ_WRITE mode, an empty map is
+     * created if the region is zeroed.
+     */
+    public static TrackIDMap map(FileChannel fc, long pos, long capacity, int size, int zeroKeyValue, MapMode mode)
+            throws IOException {
+        int numPages = getNumPages(capacity);
+        LongBuffer[] keyPages = new LongBuffer[numPages];
+        IntBuffer[] valuePages = new IntBuffer[numPages];
+        MappedByteBuffer[] regions = new MappedByteBuffer[2 * numPages];
+        for (int i = 0; i < numPages; i++) {
+            int len = getPageLength(capacity, i);
+            // mapping is still valid after channel is closed
+            regions[i] = fc.map(mode, pos, (long) len * KEY_BYTES);
+            keyPages[i] = regions[i].order(ByteOrder.nativeOrder()).asLongBuffer();
+            pos += (long) len * KEY_BYTES;
+        }
+        for (int i = 0; i < numPages; i++) {
+            int len = getPageLength(capacity, i);
+            regions[numPages + i] = fc.map(mode, pos, (long) len * Integer.BYTES);
+            valuePages[i] = regions[numPages + i].order(ByteOrder.nativeOrder()).asIntBuffer();
+            pos += (long) len * Integer.BYTES;
+        }
+        TrackIDMap map = new TrackIDMap(keyPages, valuePages, capacity, size, zeroKeyValue);
+        map.mappedRegions = regions;
+        return map;
+    }
+
+    /**
+     * Writes changes of a READ_WRITE mapped map to the storage device.
+     */
+    public void force() {
+        if (mappedRegions != null) {
+            for (MappedByteBuffer region : mappedRegions) {
+                region.force();
+            }
+        }
+    }
+
+    /**
+     * Writes the slots at the current channel position, in the layout expected by
+     * {@link #map(FileChannel, long, long, int, int, MapMode)}.
+     */
+    public void writeSlots(FileChannel fc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.nativeOrder());
+        for (LongBuffer page : keyPages) {
+            for (int i = 0; i < page.limit(); i++) {
+                if (buf.remaining() < Long.BYTES) {
+                    flush(buf, fc);
+                }
+                buf.putLong(page.get(i));
+            }
+        }
+        for (IntBuffer page : valuePages) {
+            for (int i = 0; i < page.limit(); i++) {
+                if (buf.remaining() < Integer.BYTES) {
+                    flush(buf, fc);
+                }
+                buf.putInt(page.get(i));
+            }
+        }
+        flush(buf, fc);
+    }
+
+    private static void flush(ByteBuffer buf, FileChannel fc) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            fc.write(buf);
+        }
+        buf.clear();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getZeroKeyValue() {
+        return zeroKeyValue;
+    }
+
+    private long getSlot(long hi, long lo) {
+        long h = (hi ^ (lo * 0x9E3779B97F4A7C15L));
+        return (h & Long.MAX_VALUE) % capacity;
+    }
+
+    private long getKeyHi(long slot) {
+        return keyPages[(int) (slot >>> PAGE_BITS)].get(((int) slot & PAGE_MASK) << 1);
+    }
+
+    private long getKeyLo(long slot) {
+        return keyPages[(int) (slot >>> PAGE_BITS)].get((((int) slot & PAGE_MASK) << 1) + 1);
+    }
+
+    private int getValue(long slot) {
+        return valuePages[(int) (slot >>> PAGE_BITS)].get((int) slot & PAGE_MASK);
+    }
+
+    private void setSlot(long slot, long hi, long lo, int value) {
+        LongBuffer keys = keyPages[(int) (slot >>> PAGE_BITS)];
+        int idx = ((int) slot & PAGE_MASK) << 1;
+        keys.put(idx, hi);
+        keys.put(idx + 1, lo);
+        valuePages[(int) (slot >>> PAGE_BITS)].put((int) slot & PAGE_MASK, value);
+    }
+
+    /**
+     * @return the value of the key or {@link #MISSING}
+     */
+    public int get(long hi, long lo) {
+        if (hi == 0 && lo == 0) {
+            return zeroKeyValue;
+        }
+        long slot = getSlot(hi, lo);
+        while (true) {
+            long keyHi = getKeyHi(slot);
+            long keyLo = getKeyLo(slot);
+            if (keyHi == hi && keyLo == lo) {
+                return getValue(slot);
+            }
+            if (keyHi == 0 && keyLo == 0) {
+                return MISSING;
+            }
+            if (++slot == capacity) {
+                slot = 0;
+            }
+        }
+    }
+
+    public int get(String trackID) {
+        return get(parseHex(trackID, 0), parseHex(trackID, 16));
+    }
+
+    public int get(BytesRef trackID) {
+        return get(parseHex(trackID, 0), parseHex(trackID, 16));
+    }
+
+    public boolean containsKey(String trackID) {
+        return get(trackID) != MISSING;
+    }
+
+    /**
+     * Puts or replaces the value of the key.
+     *
+     * @param value
+     *            any value except {@link #MISSING}
+     */
+    public void put(long hi, long lo, int value) {
+        if (value == MISSING) {
+            throw new IllegalArgumentException("Invalid value " + value); //$NON-NLS-1$
+        }
+        if (hi == 0 && lo == 0) {
+            if (zeroKeyValue == MISSING) {
+                size++;
+            }
+            zeroKeyValue = value;
+            return;
+        }
+        long slot = getSlot(hi, lo);
+        while (true) {
+            long keyHi = getKeyHi(slot);
+            long keyLo = getKeyLo(slot);
+            if (keyHi == hi && keyLo == lo) {
+                valuePages[(int) (slot >>> PAGE_BITS)].put((int) slot & PAGE_MASK, value);
+                return;
+            }
+            if (keyHi == 0 && keyLo == 0) {
+                break;
+            }
+            if (++slot == capacity) {
+                slot = 0;
+            }
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            if (!growable) {
+                throw new IllegalStateException("TrackIDMap capacity exceeded: " + capacity); //$NON-NLS-1$
+            }
+            grow();
+            put(hi, lo, value);
+            return;
+        }
+        setSlot(slot, hi, lo, value);
+        size++;
+    }
+
+    public void put(String trackID, int value) {
+        put(parseHex(trackID, 0), parseHex(trackID, 16), value);
+    }
+
+    public void put(BytesRef trackID, int value) {
+        put(parseHex(trackID, 0), parseHex(trackID, 16), value);
+    }
+
+    private void grow() {
+        LongBuffer[] oldKeys = keyPages;
+        IntBuffer[] oldValues = valuePages;
+        long oldCapacity = capacity;
+        allocate(oldCapacity * 2);
+        size = zeroKeyValue != MISSING ? 1 : 0;
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            LongBuffer keys = oldKeys[(int) (slot >>> PAGE_BITS)];
+            int idx = ((int) slot & PAGE_MASK) << 1;
+            long hi = keys.get(idx);
+            long lo = keys.get(idx + 1);
+            if (hi != 0 || lo != 0) {
+                put(hi, lo, oldValues[(int) (slot >>> PAGE_BITS)].get((int) slot & PAGE_MASK));
+            }
+        }
+    }
+
+    /**
+     * Parses 16 hex chars of a 32 chars md5 trackID into a long.
+     */
+    static long parseHex(CharSequence hex, int start) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Invalid trackID " + hex); //$NON-NLS-1$
+        }
+        long value = 0;
+        for (int i = start; i < start + 16; i++) {
+            int v = hexValue(hex.charAt(i));
+            if (v == -1) {
+                throw new IllegalArgumentException("Invalid trackID " + hex); //$NON-NLS-1$
+            }
+            value = (value << 4) | v;
+        }
+        return value;
+    }
+
+    static long parseHex(BytesRef hex, int start) {
+        if (hex.length != 32) {
+            throw new IllegalArgumentException("Invalid trackID " + hex.utf8ToString()); //$NON-NLS-1$
+        }
+        long value = 0;
+        for (int i = start; i < start + 16; i++) {
+            int v = hexValue((char) hex.bytes[hex.offset + i]);
+            if (v == -1) {
+                throw new IllegalArgumentException("Invalid trackID " + hex.utf8ToString()); //$NON-NLS-1$
+            }
+            value = (value << 4) | v;
+        }
+        return value;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+}
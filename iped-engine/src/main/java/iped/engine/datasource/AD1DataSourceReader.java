@@ -54,10 +54,7 @@ public void read(File datasource) throws Exception {
 
     private IItem addRootItem(File root) throws InterruptedException {
 
-        if (listOnly) {
-            caseData.incDiscoveredEvidences(1);
-            return null;
-        }
+        caseData.incDiscoveredEvidences(1);
 
         String evidenceName = getEvidenceName(root);
         dataSource = new DataSource(root);
@@ -84,29 +81,25 @@ private void createAndAddItem(AD1Extractor ad1, FileHeader header, IItem parent)
 
         IItem item = new Item();
 
-        if (!listOnly) {
-            item.setDataSource(dataSource);
-            item.setParent(parent);
-            item.setIsDir(header.isDirectory());
-            item.setName(header.getFileName());
-            item.setPath(rootItem.getName() + header.getFilePath());
-            item.setLength(header.getFileSize());
-            item.setModificationDate(header.getMTime());
-            item.setAccessDate(header.getATime());
-            item.setCreationDate(header.getCTime());
-            item.setChangeDate(header.getRTime());
-            item.setDeleted(header.isDeleted());
-            item.setHasChildren(header.hasChildren());
-
-            item.setInputStreamFactory(inputStreamFactory);
-            item.setIdInDataSource(Long.toString(header.object_address));
-
-            Manager.getInstance().addItemToQueue(item);
-
-        } else {
-            caseData.incDiscoveredEvidences(1);
-            caseData.incDiscoveredVolume(header.getFileSize());
-        }
+        item.setDataSource(dataSource);
+        item.setParent(parent);
+        item.setIsDir(header.isDirectory());
+        item.setName(header.getFileName());
+        item.setPath(rootItem.getName() + header.getFilePath());
+        item.setLength(header.getFileSize());
+        item.setModificationDate(header.getMTime());
+        item.setAccessDate(header.getATime());
+        item.setCreationDate(header.getCTime());
+        item.setChangeDate(header.getRTime());
+        item.setDeleted(header.isDeleted());
+        item.setHasChildren(header.hasChildren());
+
+        item.setInputStreamFactory(inputStreamFactory);
+        item.setIdInDataSource(Long.toString(header.object_address));
+
+        caseData.incDiscoveredEvidences(1);
+        caseData.incDiscoveredVolume(header.getFileSize());
+        Manager.getInstance().addItemToQueue(item);
 
         FileHeader child = header.getChildHeader();
         if (child != null)
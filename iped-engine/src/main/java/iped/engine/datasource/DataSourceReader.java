@@ -43,8 +43,9 @@ public abstract class DataSourceReader implements Closeable {
     ICaseData caseData;
 
     /**
-     * Indica se os itens serão apenas listados (contados) ou adicionados à fila de
-     * processamento
+     * Indica se é a passada preliminar sobre a fonte de dados, executada antes da
+     * leitura dos itens apenas pelos leitores que precisam dela (ver
+     * {@link #isListOnlyPassNeeded()})
      */
     boolean listOnly;
 
@@ -66,8 +67,8 @@ public abstract class DataSourceReader implements Closeable {
      * @param output
      *            Pasta de saída do processamento
      * @param listOnly
-     *            Se os itens serão apenas listados(contados) ou adicionados à fila
-     *            de processamento
+     *            Se é a passada preliminar sobre a fonte de dados ou a leitura dos
+     *            itens para a fila de processamento
      */
     public DataSourceReader(ICaseData caseData, File output, boolean listOnly) {
         this.caseData = caseData;
@@ -84,10 +85,11 @@ public DataSourceReader(ICaseData caseData, File output, boolean listOnly) {
 
     /**
      * Lê a fonte de dados informada. Adiciona os itens na fila de processamento
-     * caso listOnly = false usando caseData.addEvidenceFile(). Ou conta e soma o
-     * volume dos itens a processar caso listOnly = true para estimar o progresso do
-     * processamento usando caseData.incDiscoveredEvidences() e
-     * caseData.incDiscoveredVolume().
+     * caso listOnly = false, contando e somando o volume dos itens ao serem
+     * adicionados com caseData.incDiscoveredEvidences() e
+     * caseData.incDiscoveredVolume() para estimar o progresso do processamento.
+     * Assim a fonte de dados é percorrida uma única vez. Caso listOnly = true,
+     * apenas executa a passada preliminar, se necessária.
      *
      * @param datasource
      *            Fonte de dados que será processada/lida.
@@ -111,6 +113,25 @@ public void read(File datasource, Item parent) throws Exception {
                 + this.getClass().getName() + ".");
     }
 
+    /**
+     * @return Se o leitor precisa de uma passada preliminar (listOnly = true) sobre
+     *         as fontes de dados suportadas, executada em paralelo e à frente da
+     *         leitura dos itens (ex: decodificação de imagens pelo sleuthkit). Não
+     *         deve ser usada apenas para contar os itens, que são contados pela
+     *         leitura.
+     */
+    public boolean isListOnlyPassNeeded() {
+        return false;
+    }
+
+    /**
+     * @return Se a fonte de dados pode ser lida em paralelo com outras fontes de
+     *         dados. Leitores que não podem são executados um de cada vez.
+     */
+    public boolean isParallelReadSupported() {
+        return true;
+    }
+
     /**
      *
      * @return diretório atualmente sendo adicionado ao caso. Útil para informar
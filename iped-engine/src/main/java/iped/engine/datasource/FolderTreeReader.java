@@ -108,36 +108,33 @@ private void transverse(File file, Item parent)
     }
 
     private IItem getEvidence(Path path, BasicFileAttributes attr) {
-        if (listOnly) {
-            caseData.incDiscoveredEvidences(1);
-            caseData.incDiscoveredVolume(attr.size());
-            return null;
-
+        // counted while walking, before blocking on a full queue
+        caseData.incDiscoveredEvidences(1);
+        caseData.incDiscoveredVolume(attr.size());
+
+        File file = path.toFile();
+        IItem item = new Item();
+        item.setDataSource(dataSource);
+        String relativePath = rootFile.toPath().relativize(path).toString();
+        item.setIdInDataSource(relativePath);
+        item.setInputStreamFactory(inputStreamFactory);
+        if (file.equals(rootFile)) {
+            item.setName(evidenceName);
         } else {
-            File file = path.toFile();
-            IItem item = new Item();
-            item.setDataSource(dataSource);
-            String relativePath = rootFile.toPath().relativize(path).toString();
-            item.setIdInDataSource(relativePath);
-            item.setInputStreamFactory(inputStreamFactory);
-            if (file.equals(rootFile)) {
-                item.setName(evidenceName);
-            } else {
-                item.setName(file.getName());
-            }
+            item.setName(file.getName());
+        }
 
-            if (args.isAddowner())
-                try {
-                    UserPrincipal owner = Files.getOwner(path);
-                    if (owner != null)
-                        item.setExtraAttribute(FS_OWNER, owner.toString());
+        if (args.isAddowner())
+            try {
+                UserPrincipal owner = Files.getOwner(path);
+                if (owner != null)
+                    item.setExtraAttribute(FS_OWNER, owner.toString());
 
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
 
-            return item;
-        }
+        return item;
     }
 
     class FolderVisitor implements FileVisitor<Path> {
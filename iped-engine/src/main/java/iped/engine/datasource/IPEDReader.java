@@ -38,7 +38,10 @@
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
@@ -115,6 +118,15 @@ public IPEDReader(ICaseData caseData, File output, boolean listOnly) {
         super(caseData, output, listOnly);
     }
 
+    /**
+     * Reports change shared case objects and task configuration, so they are read
+     * one at a time.
+     */
+    @Override
+    public boolean isParallelReadSupported() {
+        return false;
+    }
+
     public boolean isSupported(File report) {
         String name = report.getName().toLowerCase();
         return name.endsWith(Bookmarks.EXT);
@@ -183,13 +195,11 @@ private void processBookmark(IBookmarks state) throws Exception {
         selectedLabels = new HashSet<Integer>();
         indexDir = state.getIndexDir().getCanonicalFile();
         basePath = indexDir.getParentFile().getParentFile().getAbsolutePath();
-        if(!listOnly) {
-            List<File> reportingCases = (List<File>) caseData.getCaseObject(REPORTING_CASES);
-            if (reportingCases == null) {
-                caseData.putCaseObject(REPORTING_CASES, reportingCases = new ArrayList<>());
-            }
-            reportingCases.add(new File(basePath));
+        List<File> reportingCases = (List<File>) caseData.getCaseObject(REPORTING_CASES);
+        if (reportingCases == null) {
+            caseData.putCaseObject(REPORTING_CASES, reportingCases = new ArrayList<>());
         }
+        reportingCases.add(new File(basePath));
         
         ipedCase = new IPEDSource(new File(basePath));
         ipedCase.checkImagePaths();
@@ -231,9 +241,6 @@ private void processBookmark(IBookmarks state) throws Exception {
     }
 
     private void copyBookmarksToReport() throws ClassNotFoundException, IOException {
-        if (listOnly)
-            return;
-
         int lastId = -1;
         int totalItems = 0;
         for (int i = 0; i < oldToNewIdMap.length; i++) {
@@ -461,12 +468,9 @@ private void insertIntoProcessQueue(LuceneSearchResult result, boolean treeNode)
                 evidence.setSumVolume(false);
             }
 
-            if (listOnly) {
-                caseData.incDiscoveredEvidences(1);
-                if (!treeNode) {
-                    caseData.incDiscoveredVolume(len);
-                }
-                continue;
+            caseData.incDiscoveredEvidences(1);
+            if (!treeNode) {
+                caseData.incDiscoveredVolume(len);
             }
 
             // TODO obter source corretamente
@@ -706,13 +710,12 @@ private void insertIntoProcessQueue(LuceneSearchResult result, boolean treeNode)
     }
 
     private boolean isExtraAttrMultiValued(String field) throws IOException {
-        Object docValues = ipedCase.getLeafReader().getSortedSetDocValues(field);
-        if (docValues != null)
-            return true;
-        docValues = ipedCase.getLeafReader().getSortedNumericDocValues(field);
-        if (docValues != null)
-            return true;
-
+        for (LeafReaderContext context : ipedCase.getReader().leaves()) {
+            FieldInfo info = context.reader().getFieldInfos().fieldInfo(field);
+            if (info != null && (info.getDocValuesType() == DocValuesType.SORTED_SET
+                    || info.getDocValuesType() == DocValuesType.SORTED_NUMERIC))
+                return true;
+        }
         return false;
     }
 
@@ -23,13 +23,23 @@
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped.data.ICaseData;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.config.LocalConfig;
 import iped.engine.core.Manager;
 import iped.engine.data.Item;
 import iped.engine.localization.Messages;
@@ -38,24 +48,53 @@
 import iped.utils.HashValue;
 
 /**
- * Responsável por instanciar e executar o contador e o produtor de itens do
- * caso que adiciona os itens a fila de processamento. Podem obter os itens de
- * diversas fontes de dados: pastas, relatórios do UFED, imagens forenses ou
- * casos do IPED.
+ * Responsável por instanciar e executar o produtor de itens do caso que
+ * adiciona os itens a fila de processamento, contando-os ao serem adicionados.
+ * Podem obter os itens de diversas fontes de dados: pastas, relatórios do UFED,
+ * imagens forenses ou casos do IPED.
+ *
+ * Com listOnly = true, executa apenas a passada preliminar dos leitores que
+ * precisam dela (ex: decodificação de imagens pelo sleuthkit), as fontes de
+ * dados não são percorridas uma segunda vez só para contar os itens.
+ *
+ * Com listOnly = false, até maxParallelDataSources (LocalConfig) fontes de dados
+ * são lidas ao mesmo tempo, cada uma em sua thread, iniciadas na ordem em que
+ * foram informadas. Quando a fila está cheia, os leitores bloqueados são
+ * admitidos em turnos (ver ProcessingQueues).
  *
  */
 public class ItemProducer extends Thread implements Closeable {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ItemProducer.class);
 
+    private static final long LOG_PROGRESS_INTERVAL = 60000;
+
+    private static final ThreadLocal<SourceProgress> currentSource = new ThreadLocal<>();
+
     private final ICaseData caseData;
     private final boolean listOnly;
     private List<File> datasources;
     private File output;
     private Manager manager;
-    private DataSourceReader currentReader;
+    private volatile DataSourceReader currentReader;
     private ArrayList<DataSourceReader> supportedReaders = new ArrayList<DataSourceReader>();
-    private ArrayList<DataSourceReader> instantiatedReaders = new ArrayList<DataSourceReader>();
+    private List<DataSourceReader> instantiatedReaders = Collections.synchronizedList(new ArrayList<>());
+    private final Object sequentialReadLock = new Object();
+
+    /**
+     * Progresso da leitura de uma fonte de dados, os itens são contados pela
+     * thread do leitor.
+     */
+    private static class SourceProgress {
+
+        private final File source;
+        private volatile long start = 0;
+        private volatile int items = 0;
+
+        private SourceProgress(File source) {
+            this.source = source;
+        }
+    }
 
     public ItemProducer(Manager manager, ICaseData caseData, boolean listOnly, List<File> datasources, File output)
             throws Exception {
@@ -82,9 +121,21 @@ private void installDataSourceReaders() throws Exception {
         }
     }
 
+    /**
+     * Conta um item adicionado à fila de processamento na fonte de dados lida pela
+     * thread atual, se houver.
+     */
+    public static void itemAdded() {
+        SourceProgress progress = currentSource.get();
+        if (progress != null) {
+            progress.items++;
+        }
+    }
+
     public String currentDirectory() {
-        if (currentReader != null) {
-            return currentReader.currentDirectory();
+        DataSourceReader reader = currentReader;
+        if (reader != null) {
+            return reader.currentDirectory();
         } else {
             return null;
         }
@@ -92,8 +143,38 @@ public String currentDirectory() {
 
     @Override
     public void close() throws IOException {
-        for (DataSourceReader reader : instantiatedReaders) {
-            reader.close();
+        synchronized (instantiatedReaders) {
+            for (DataSourceReader reader : instantiatedReaders) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the reader prototype supporting the source. Must be called by a
+     * single thread, isSupported() of some readers keeps state.
+     */
+    private DataSourceReader getSupportedReader(File source) {
+        for (DataSourceReader srcReader : supportedReaders) {
+            if (srcReader.isSupported(source)) {
+                return srcReader;
+            }
+        }
+        return null;
+    }
+
+    private void read(DataSourceReader prototype, File source) throws Exception {
+        Constructor<? extends DataSourceReader> constr = prototype.getClass().getConstructor(ICaseData.class,
+                File.class, boolean.class);
+        DataSourceReader srcReader = constr.newInstance(caseData, output, listOnly);
+        instantiatedReaders.add(srcReader);
+        currentReader = srcReader;
+        if (srcReader.isParallelReadSupported()) {
+            srcReader.read(source);
+        } else {
+            synchronized (sequentialReadLock) {
+                srcReader.read(source);
+            }
         }
     }
 
@@ -101,61 +182,140 @@ public void close() throws IOException {
     public void run() {
         File currSource = null;
         try {
-            for (File source : datasources) {
-                currSource = source;
-                if (Thread.interrupted()) {
-                    throw new InterruptedException(Thread.currentThread().getName() + " interrupted."); //$NON-NLS-1$
-                }
-
-                if (listOnly) {
-                    UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", 0, //$NON-NLS-1$
-                            Messages.getString("ItemProducer.Adding") + source.getAbsolutePath() + "'"); //$NON-NLS-1$ //$NON-NLS-2$
-                    LOGGER.info("Adding '{}'", source.getAbsolutePath()); //$NON-NLS-1$
-                }
-
-                for (DataSourceReader srcReader : supportedReaders) {
-                    if (srcReader.isSupported(source)) {
-                        Constructor<? extends DataSourceReader> constr = srcReader.getClass()
-                                .getConstructor(ICaseData.class, File.class, boolean.class);
-                        srcReader = constr.newInstance(caseData, output, listOnly);
-                        instantiatedReaders.add(srcReader);
-                        currentReader = srcReader;
-                        srcReader.read(source);
-                        break;
+            if (listOnly) {
+                // the preliminary pass (e.g. image decoding) is serialized anyway
+                for (File source : datasources) {
+                    currSource = source;
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException(Thread.currentThread().getName() + " interrupted."); //$NON-NLS-1$
                     }
-
-                }
-
-                // executed only when restarting interrupted processing
-                Set<HashValue> parentsWithLostSubitems = (Set<HashValue>) caseData
-                        .getCaseObject(SkipCommitedTask.PARENTS_WITH_LOST_SUBITEMS);
-                if (parentsWithLostSubitems != null && parentsWithLostSubitems.size() > 0) {
-                    try (IPEDReader reader = new IPEDReader(caseData, output, listOnly)) {
-                    	reader.read(parentsWithLostSubitems, manager);	
+                    DataSourceReader srcReader = getSupportedReader(source);
+                    if (srcReader != null && srcReader.isListOnlyPassNeeded()) {
+                        read(srcReader, source);
                     }
                 }
+                return;
+            }
 
+            readInParallel();
+            if (manager.exception != null) {
+                return;
             }
-            if (!listOnly) {
-                Item evidence = new Item();
-                evidence.setPath("[queue-end]");
-                evidence.setQueueEnd(true);
-                Manager.getInstance().addItemToQueue(evidence);
-
-            } else {
-                LOGGER.info("Total items found: {}", caseData.getDiscoveredEvidences()); //$NON-NLS-1$
+
+            // executed only when restarting interrupted processing
+            Set<HashValue> parentsWithLostSubitems = (Set<HashValue>) caseData
+                    .getCaseObject(SkipCommitedTask.PARENTS_WITH_LOST_SUBITEMS);
+            if (parentsWithLostSubitems != null && parentsWithLostSubitems.size() > 0) {
+                try (IPEDReader reader = new IPEDReader(caseData, output, listOnly)) {
+                    reader.read(parentsWithLostSubitems, manager);
+                }
             }
+
+            LOGGER.info("Total items found: {}", caseData.getDiscoveredEvidences()); //$NON-NLS-1$
             UIPropertyListenerProvider.getInstance().firePropertyChange("discoverEnded", 0, 0);
 
+            Item evidence = new Item();
+            evidence.setPath("[queue-end]");
+            evidence.setQueueEnd(true);
+            Manager.getInstance().addItemToQueue(evidence);
+
         } catch (Throwable e) {
+            setException(currSource, e);
+        }
+
+    }
+
+    private void setException(File source, Throwable e) {
+        synchronized (manager) {
             if (manager.exception == null) {
-                String source = currSource != null ? currSource.getAbsolutePath() : "";
-                Exception e1 = new Exception("Error decoding datasource " + source);
+                String path = source != null ? source.getAbsolutePath() : "";
+                Exception e1 = new Exception("Error decoding datasource " + path);
                 e1.initCause(e);
                 manager.exception = e1;
             }
         }
+    }
+
+    private void readInParallel() throws InterruptedException {
+        int maxParallel = ConfigurationManager.get().findObject(LocalConfig.class).getMaxParallelDataSources();
+        int numThreads = Math.max(1, Math.min(maxParallel, datasources.size()));
+        AtomicInteger threadNum = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, "ItemProducer-" + threadNum.incrementAndGet()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        });
+        LOGGER.info("Reading up to {} evidences in parallel", numThreads); //$NON-NLS-1$
 
+        List<SourceProgress> progresses = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            // sources are submitted in the given order, so with 1 thread they are read
+            // one after another, like before
+            for (File source : datasources) {
+                DataSourceReader srcReader = getSupportedReader(source);
+                SourceProgress progress = new SourceProgress(source);
+                progresses.add(progress);
+                futures.add(executor.submit(() -> {
+                    UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", 0, //$NON-NLS-1$
+                            Messages.getString("ItemProducer.Adding") + source.getAbsolutePath() + "'"); //$NON-NLS-1$ //$NON-NLS-2$
+                    LOGGER.info("Adding '{}'", source.getAbsolutePath()); //$NON-NLS-1$
+                    progress.start = System.currentTimeMillis();
+                    currentSource.set(progress);
+                    try {
+                        if (srcReader != null) {
+                            read(srcReader, source);
+                        }
+                        LOGGER.info("Finished adding '{}': {} items in {}s", source.getAbsolutePath(), progress.items, //$NON-NLS-1$
+                                (System.currentTimeMillis() - progress.start) / 1000);
+                    } catch (Throwable e) {
+                        setException(source, e);
+                    } finally {
+                        currentSource.remove();
+                    }
+                }));
+            }
+            executor.shutdown();
+
+            long lastLog = System.currentTimeMillis();
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get(1, TimeUnit.SECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        // keep waiting
+                    } catch (ExecutionException e) {
+                        // not thrown, errors are set into manager.exception
+                        break;
+                    }
+                    if (manager.exception != null) {
+                        // stops reading other sources
+                        return;
+                    }
+                    if (System.currentTimeMillis() - lastLog >= LOG_PROGRESS_INTERVAL) {
+                        lastLog = System.currentTimeMillis();
+                        logProgress(progresses, futures);
+                    }
+                }
+                if (manager.exception != null) {
+                    return;
+                }
+            }
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void logProgress(List<SourceProgress> progresses, List<Future<?>> futures) {
+        for (int i = 0; i < progresses.size(); i++) {
+            SourceProgress progress = progresses.get(i);
+            if (progress.start != 0 && !futures.get(i).isDone()) {
+                LOGGER.info("Adding '{}': {} items in {}s", progress.source.getAbsolutePath(), progress.items, //$NON-NLS-1$
+                        (System.currentTimeMillis() - progress.start) / 1000);
+            }
+        }
     }
 
 }
@@ -136,7 +136,6 @@ public class SleuthkitReader extends DataSourceReader {
     private AddImageProcess addImage;
     private String deviceName;
     private boolean isISO9660 = false;
-    private boolean fastmode = false;
     private boolean embeddedDisk = false;
     private int itemCount = 0;
     private volatile boolean decodingError = false;
@@ -161,6 +160,16 @@ public SleuthkitReader(ICaseData caseData, File output, boolean listOnly) {
         super(caseData, output, listOnly);
     }
 
+    /**
+     * Images are decoded into the sleuthkit DB by the list only pass, so the
+     * producer can read items already added to the DB while the next image is
+     * being decoded.
+     */
+    @Override
+    public boolean isListOnlyPassNeeded() {
+        return true;
+    }
+
     public int getItemCount() {
         return itemCount;
     }
@@ -309,10 +318,6 @@ public void read(File image, Item parent) throws Exception {
         checkTSKVersion();
 
         args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
-        if (args.getProfile() != null) {
-            if (args.getProfile().equals("fastmode")) //$NON-NLS-1$ //$NON-NLS-2$
-                fastmode = true;
-        }
 
         String timezone = TimeZone.getDefault().getID();
         if (args.getTimezone() != null) {
@@ -385,7 +390,7 @@ public void read(File image, Item parent) throws Exception {
             if (range != null && args.isContinue()) {
                 synchronized (idRangeMap) {
                     idRangeMap.put(image, range);
-                    idRangeMap.notify();
+                    idRangeMap.notifyAll();
                 }
             } else if (image.getName().equals(DB_NAME)) {
                 firstId = 0L;
@@ -394,7 +399,7 @@ public void read(File image, Item parent) throws Exception {
                 synchronized (idRangeMap) {
                     Long[] ids = { firstId, lastId };
                     idRangeMap.put(image, ids);
-                    idRangeMap.notify();
+                    idRangeMap.notifyAll();
                 }
             } else {
 
@@ -417,7 +422,7 @@ public void read(File image, Item parent) throws Exception {
                 synchronized (idRangeMap) {
                     Long[] ids = { firstId, null };
                     idRangeMap.put(image, ids);
-                    idRangeMap.notify();
+                    idRangeMap.notifyAll();
                 }
 
                 addImage = sleuthCase.makeAddImageProcess(timezone, true, false, "");
@@ -429,7 +434,9 @@ public void read(File image, Item parent) throws Exception {
 
         java.util.logging.Logger.getLogger("org.sleuthkit").setLevel(java.util.logging.Level.SEVERE); //$NON-NLS-1$
 
-        if (!(listOnly && fastmode) || embeddedDisk) {
+        // the list only pass just decodes the image, items are read and counted once
+        // by the producer
+        if (!listOnly || embeddedDisk) {
             try {
                 readItensAdded(image);
 
@@ -642,7 +649,7 @@ private void addImageBlocking(AddImageProcess addImage, File image, int sectorSi
         synchronized (idRangeMap) {
             Long[] ids = { firstId, lastId };
             idRangeMap.put(image, ids);
-            idRangeMap.notify();
+            idRangeMap.notifyAll();
         }
     }
 
@@ -698,12 +705,10 @@ private void readItensAdded(File file) throws Exception {
 
     private void addItems(long start, long last) throws Exception {
 
-        if (!listOnly) {
-            long[] ids = new long[(int) (last - start + 1)];
-            for (int k = 0; k < ids.length; k++)
-                ids[k] = start + k;
-            cacheTskParentIds(ids);
-        }
+        long[] ids = new long[(int) (last - start + 1)];
+        for (int k = 0; k < ids.length; k++)
+            ids[k] = start + k;
+        cacheTskParentIds(ids);
 
         TreeSet<Integer> idSet = new TreeSet<>();
         StringBuilder where = new StringBuilder();
@@ -928,16 +933,12 @@ private IItem addItem(AbstractFile absFile, Item evidence, boolean unalloc) thro
             evidence.setLength(absFile.getSize());
         }
 
-        if (listOnly || fastmode || embeddedDisk) {
-            itemCount++;
-            caseData.incDiscoveredEvidences(1);
-            if (!embeddedDisk) {
-                caseData.incDiscoveredVolume(evidence.getLength());
-            } else {
-                evidence.setSumVolume(false);
-            }
-            if (listOnly)
-                return null;
+        itemCount++;
+        caseData.incDiscoveredEvidences(1);
+        if (!embeddedDisk) {
+            caseData.incDiscoveredVolume(evidence.getLength());
+        } else {
+            evidence.setSumVolume(false);
         }
 
         evidence.setDataSource(dataSource);
@@ -1046,12 +1047,8 @@ private IItem addEvidenceFile(Content content) throws Exception {
         if (content instanceof OsAccount) {
             return null;
         }
-        if (listOnly || fastmode || embeddedDisk) {
-            itemCount++;
-            caseData.incDiscoveredEvidences(1);
-            if (listOnly)
-                return null;
-        }
+        itemCount++;
+        caseData.incDiscoveredEvidences(1);
 
         Item evidence = new Item();
         evidence.setLength(content.getSize());
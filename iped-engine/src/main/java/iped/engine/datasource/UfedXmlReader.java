@@ -273,9 +273,6 @@ private void configureParsers(boolean isIOS) {
 
     private void addRootItem(IItem parent) throws InterruptedException {
 
-        if (listOnly)
-            return;
-
         String evidenceName = getEvidenceName(root);
         IDataSource evidenceSource = new DataSource(root);
         evidenceSource.setName(evidenceName);
@@ -310,9 +307,6 @@ private void addRootItem(IItem parent) throws InterruptedException {
 
     private void addVirtualDecodedFolder() throws InterruptedException {
 
-        if (listOnly)
-            return;
-
         decodedFolder = new Item();
         decodedFolder.setName("_DecodedData"); //$NON-NLS-1$
         decodedFolder.setParent(rootItem);
@@ -520,8 +514,7 @@ public void startElement(String uri, String localName, String qName, Attributes
             XmlNode node = new XmlNode(qName, atts);
             nodeSeq.add(node);
 
-            if (!listOnly)
-                elements.add(qName);
+            elements.add(qName);
 
             if (qName.equals("extractionInfo")) { //$NON-NLS-1$
                 String id = atts.getValue("id"); //$NON-NLS-1$
@@ -535,11 +528,8 @@ public void startElement(String uri, String localName, String qName, Attributes
                     size = Long.valueOf(len.trim());
 
 
-                if (listOnly) {
-                    caseData.incDiscoveredEvidences(1);
-                    caseData.incDiscoveredVolume(size);
-                    return;
-                }
+                caseData.incDiscoveredEvidences(1);
+                caseData.incDiscoveredVolume(size);
 
                 Item item = new Item();
                 item.setExtraAttribute(ExtraProperties.DATASOURCE_READER, UfedXmlReader.class.getSimpleName());
@@ -564,10 +554,7 @@ public void startElement(String uri, String localName, String qName, Attributes
             } else if (qName.equals("model")) { //$NON-NLS-1$
                 XmlNode prevNode = nodeSeq.get(nodeSeq.size() - 2);
                 if (prevNode.element.equals("modelType")) { //$NON-NLS-1$
-                    if (listOnly) {
-                        caseData.incDiscoveredEvidences(1);
-                        return;
-                    }
+                    caseData.incDiscoveredEvidences(1);
 
                     Item item = new Item();
                     item.setExtraAttribute(ExtraProperties.DATASOURCE_READER, UfedXmlReader.class.getSimpleName());
@@ -600,11 +587,8 @@ public void startElement(String uri, String localName, String qName, Attributes
                 } else if (prevNode.element.equals("modelField") || prevNode.element.equals("multiModelField")) { //$NON-NLS-1$ //$NON-NLS-2$
 
                     String type = atts.getValue("type"); //$NON-NLS-1$
-                    if (listOnly) {
-                        if (!mergeInParentNode.contains(type))
-                            caseData.incDiscoveredEvidences(1);
-                        return;
-                    }
+                    if (!mergeInParentNode.contains(type))
+                        caseData.incDiscoveredEvidences(1);
 
                     Item item = new Item();
                     item.setExtraAttribute(ExtraProperties.DATASOURCE_READER, UfedXmlReader.class.getSimpleName());
@@ -673,9 +657,6 @@ public void endElement(String uri, String localName, String qName) throws SAXExc
                 }
             }
 
-            if (listOnly)
-                return;
-
             String nameAttr = currentNode.atts.get("name"); //$NON-NLS-1$
             Item item = null;
             if (itemSeq.size() > 0)
@@ -1637,8 +1618,6 @@ public int compare(String[] a, String[] b) {
 
         @Override
         public void characters(char[] ch, int start, int length) throws SAXException {
-            if (listOnly)
-                return;
             chars.append(ch, start, length);
         }
 
@@ -3,6 +3,7 @@
 import static iped.engine.hashdb.HashDB.hashTypes;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -16,7 +17,10 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteConfig.Encoding;
 import org.sqlite.SQLiteConfig.JournalMode;
@@ -24,11 +28,19 @@
 
 import iped.utils.HashValue;
 
+/**
+ * Read only access to a hash database, safe to be used by multiple threads.
+ * Each thread uses a read only connection taken from a pool, so lookups are
+ * not serialized. Hashes not present in the index created by HashDBTool, if it
+ * exists, are not searched in the database.
+ */
 public class HashDBDataSource {
-    private Connection connection;
-    private PreparedStatement[] stmtSelectHash;
-    private PreparedStatement stmtSelectHashProperties;
-    private PreparedStatement stmtSelectMD5;
+    private static final Logger logger = LoggerFactory.getLogger(HashDBDataSource.class);
+
+    private final File dbFile;
+    private final ConcurrentLinkedDeque<DBConnection> pool = new ConcurrentLinkedDeque<DBConnection>();
+    private volatile boolean closed;
+    private HashDBIndex index;
     private boolean[] presentHashes;
     private final Map<Integer, String> propertyIdToName = new HashMap<Integer, String>();
 
@@ -44,33 +56,150 @@ public class HashDBDataSource {
     private static final String propertyStatus = "status";
     private static final String pedoStatus = "pedo";
 
+    /**
+     * Connection with its prepared statements, used by one thread at a time.
+     */
+    private class DBConnection {
+        private final Connection connection;
+        private final PreparedStatement[] stmtSelectHash;
+        private final PreparedStatement stmtSelectHashProperties;
+        private final PreparedStatement stmtSelectMD5;
+
+        private DBConnection() throws Exception {
+            connection = connect(dbFile);
+            stmtSelectHash = new PreparedStatement[1 << hashTypes.length];
+            StringBuilder sb = new StringBuilder();
+            sb.append("select HASH_ID from HASHES where ");
+            NEXT: for (int i = 1; i < stmtSelectHash.length; i++) {
+                StringBuilder sb1 = new StringBuilder(sb);
+                boolean first = true;
+                for (int j = 0; j < hashTypes.length; j++) {
+                    if (((1 << j) & i) != 0) {
+                        if (!presentHashes[j])
+                            continue NEXT;
+                        if (first)
+                            first = false;
+                        else
+                            sb1.append(" OR ");
+                        sb1.append(hashTypes[j]).append("=?");
+                    }
+                }
+                stmtSelectHash[i] = connection.prepareStatement(sb1.toString());
+                stmtSelectHash[i].setFetchSize(hashTypes.length);
+            }
+
+            stmtSelectHashProperties = connection
+                    .prepareStatement("select PROPERTY_ID, VALUE from HASHES_PROPERTIES where HASH_ID=?");
+            stmtSelectHashProperties.setFetchSize(64);
+
+            stmtSelectMD5 = connection.prepareStatement("select MD5 from HASHES where HASH_ID=?");
+        }
+
+        private void close() {
+            try {
+                stmtSelectMD5.close();
+            } catch (Exception e) {
+            }
+            for (PreparedStatement stmt : stmtSelectHash) {
+                try {
+                    if (stmt != null)
+                        stmt.close();
+                } catch (Exception e) {
+                }
+            }
+            try {
+                stmtSelectHashProperties.close();
+            } catch (Exception e) {
+            }
+            try {
+                connection.close();
+            } catch (Exception e) {
+            }
+        }
+    }
+
     public HashDBDataSource(File dbFile) throws Exception {
-        connect(dbFile);
-        prepare();
-        loadProperties();
+        this(dbFile, true);
     }
 
-    public synchronized String getMD5(int hashId) {
+    /**
+     * @param useIndex
+     *            if the index created by HashDBTool should be used to skip
+     *            database queries of hashes not present.
+     */
+    public HashDBDataSource(File dbFile, boolean useIndex) throws Exception {
+        this.dbFile = dbFile;
+        try (Connection connection = connect(dbFile)) {
+            checkPresentHashes(connection);
+            loadProperties(connection);
+        }
+        if (useIndex) {
+            try {
+                index = HashDBIndex.load(dbFile);
+            } catch (IOException e) {
+                logger.warn("Error loading hash database index " + HashDBIndex.getIndexFile(dbFile), e);
+            }
+            if (index == null) {
+                logger.info("Hash database index not found or outdated, it can be created with HashDBTool: {}",
+                        HashDBIndex.getIndexFile(dbFile).getAbsolutePath());
+            } else {
+                logger.info("Hash database index loaded: {}", HashDBIndex.getIndexFile(dbFile).getAbsolutePath());
+            }
+        }
+    }
+
+    private DBConnection acquire() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("HashDBDataSource already closed.");
+        }
+        DBConnection conn = pool.pollFirst();
+        if (conn == null) {
+            conn = new DBConnection();
+        }
+        return conn;
+    }
+
+    private void release(DBConnection conn) {
+        pool.offerFirst(conn);
+        if (closed && pool.remove(conn)) {
+            conn.close();
+        }
+    }
+
+    public String getMD5(int hashId) {
         String md5 = null;
+        DBConnection conn = null;
         try {
-            stmtSelectMD5.setInt(1, hashId);
-            ResultSet rs = stmtSelectMD5.executeQuery();
-            if (rs.next()) {
-                byte[] md5Bytes = rs.getBytes(1);
-                md5 = HashDB.hashBytesToStr(md5Bytes);
-            }
-            rs.close();
+            conn = acquire();
+            md5 = getMD5(conn, hashId);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (conn != null)
+                release(conn);
+        }
+        return md5;
+    }
+
+    private String getMD5(DBConnection conn, int hashId) throws Exception {
+        String md5 = null;
+        conn.stmtSelectMD5.setInt(1, hashId);
+        ResultSet rs = conn.stmtSelectMD5.executeQuery();
+        if (rs.next()) {
+            byte[] md5Bytes = rs.getBytes(1);
+            md5 = HashDB.hashBytesToStr(md5Bytes);
         }
+        rs.close();
         return md5;
     }
 
-    public synchronized Map<String, List<String>> getProperties(int hashId) {
+    public Map<String, List<String>> getProperties(int hashId) {
         Map<String, List<String>> properties = new HashMap<String, List<String>>();
+        DBConnection conn = null;
         try {
-            stmtSelectHashProperties.setInt(1, hashId);
-            ResultSet rs = stmtSelectHashProperties.executeQuery();
+            conn = acquire();
+            conn.stmtSelectHashProperties.setInt(1, hashId);
+            ResultSet rs = conn.stmtSelectHashProperties.executeQuery();
             while (rs.next()) {
                 int propertyId = rs.getInt(1);
                 String propertyName = propertyIdToName.get(propertyId);
@@ -82,27 +211,25 @@ public synchronized Map<String, List<String>> getProperties(int hashId) {
             rs.close();
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (conn != null)
+                release(conn);
         }
         return properties;
     }
 
-    public synchronized LedItem getLedItem(int hashId) {
+    public LedItem getLedItem(int hashId) {
+        DBConnection conn = null;
         try {
-            String md5 = null;
-            stmtSelectMD5.setInt(1, hashId);
-            ResultSet rs = stmtSelectMD5.executeQuery();
-            if (rs.next()) {
-                byte[] md5Bytes = rs.getBytes(1);
-                md5 = HashDB.hashBytesToStr(md5Bytes);
-            }
-            rs.close();
+            conn = acquire();
+            String md5 = getMD5(conn, hashId);
             if (md5 == null)
                 return null;
 
             long length = -1;
             String ext = null;
-            stmtSelectHashProperties.setInt(1, hashId);
-            rs = stmtSelectHashProperties.executeQuery();
+            conn.stmtSelectHashProperties.setInt(1, hashId);
+            ResultSet rs = conn.stmtSelectHashProperties.executeQuery();
             while (rs.next()) {
                 int propertyId = rs.getInt(1);
                 String propertyName = propertyIdToName.get(propertyId);
@@ -121,11 +248,14 @@ public synchronized LedItem getLedItem(int hashId) {
             return new LedItem(length, md5, ext);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (conn != null)
+                release(conn);
         }
         return null;
     }
 
-    public synchronized ArrayList<PhotoDnaItem> readPhotoDNA(Set<String> statusFilter) throws Exception {
+    public ArrayList<PhotoDnaItem> readPhotoDNA(Set<String> statusFilter) throws Exception {
         if (statusFilter != null) {
             Set<String> statusFilterLowerCase = new HashSet<String>();
             for (String s : statusFilter) {
@@ -156,32 +286,35 @@ public synchronized ArrayList<PhotoDnaItem> readPhotoDNA(Set<String> statusFilte
             return null;
 
         ArrayList<PhotoDnaItem> photoDNAHashSet = new ArrayList<PhotoDnaItem>();
-        Statement stmt = connection.createStatement();
-        stmt.setFetchSize(1024);
-        ResultSet rs = stmt.executeQuery(sb.toString());
         Decoder decoderBase64 = Base64.getDecoder();
         Set<Integer> setHashIds = new HashSet<Integer>();
-        while (rs.next()) {
-            int hashId = rs.getInt(1);
-            int propId = rs.getInt(2);
-            String propValue = rs.getString(3);
-            if (propId == propIdPhotoDna) {
-                String[] values = propValue.split("\\|");
-                for (String photoDna : values) {
-                    if (photoDna.length() == photoDnaBase64Len) {
-                        try {
-                            byte[] bytes = decoderBase64.decode(photoDna);
-                            photoDNAHashSet.add(new PhotoDnaItem(hashId, bytes));
-                        } catch (IllegalArgumentException e) {
+        DBConnection conn = acquire();
+        try (Statement stmt = conn.connection.createStatement()) {
+            stmt.setFetchSize(1024);
+            ResultSet rs = stmt.executeQuery(sb.toString());
+            while (rs.next()) {
+                int hashId = rs.getInt(1);
+                int propId = rs.getInt(2);
+                String propValue = rs.getString(3);
+                if (propId == propIdPhotoDna) {
+                    String[] values = propValue.split("\\|");
+                    for (String photoDna : values) {
+                        if (photoDna.length() == photoDnaBase64Len) {
+                            try {
+                                byte[] bytes = decoderBase64.decode(photoDna);
+                                photoDNAHashSet.add(new PhotoDnaItem(hashId, bytes));
+                            } catch (IllegalArgumentException e) {
+                            }
                         }
                     }
+                } else if (statusFilter != null && HashDB.containsIgnoreCase(propValue, statusFilter)) {
+                    setHashIds.add(hashId);
                 }
-            } else if (statusFilter != null && HashDB.containsIgnoreCase(propValue, statusFilter)) {
-                setHashIds.add(hashId);
             }
+            rs.close();
+        } finally {
+            release(conn);
         }
-        rs.close();
-        stmt.close();
 
         if (statusFilter != null) {
             for (int i = 0; i < photoDNAHashSet.size(); i++) {
@@ -195,7 +328,7 @@ public synchronized ArrayList<PhotoDnaItem> readPhotoDNA(Set<String> statusFilte
         return photoDNAHashSet;
     }
 
-    public synchronized LedHashDB readLedHashDB() throws Exception {
+    public LedHashDB readLedHashDB() throws Exception {
         StringBuilder sb = new StringBuilder();
         sb.append("select HASH_ID, PROPERTY_ID, VALUE from HASHES_PROPERTIES where PROPERTY_ID in (");
         boolean first = true;
@@ -218,32 +351,35 @@ public synchronized LedHashDB readLedHashDB() throws Exception {
         Map<Integer, HashValue> hashIdToMd5_64k = new HashMap<Integer, HashValue>();
         Map<HashValue, Integer> md5_64kToHashId = new HashMap<HashValue, Integer>();
         Set<Integer> setHashIds = new HashSet<Integer>();
-        Statement stmt = connection.createStatement();
-        stmt.setFetchSize(1024);
-        ResultSet rs = stmt.executeQuery(sb.toString());
-        while (rs.next()) {
-            int hashId = rs.getInt(1);
-            int propId = rs.getInt(2);
-            String value = rs.getString(3);
-            String propName = propertyIdToName.get(propId);
-            if (propName.equalsIgnoreCase(propertyStatus)) {
-                if (HashDB.containsIgnoreCase(value, pedoStatus)) {
-                    setHashIds.add(hashId);
-                }
-            } else if (propName.equalsIgnoreCase(ledMd5_512)) {
-                if (value.length() == 32) {
-                    hashIdToMd5_512.put(hashId, new HashValue(value));
-                }
-            } else if (propName.equalsIgnoreCase(ledMd5_64k)) {
-                if (value.length() == 32) {
-                    HashValue hv = new HashValue(value);
-                    hashIdToMd5_64k.put(hashId, hv);
-                    md5_64kToHashId.put(hv, hashId);
+        DBConnection conn = acquire();
+        try (Statement stmt = conn.connection.createStatement()) {
+            stmt.setFetchSize(1024);
+            ResultSet rs = stmt.executeQuery(sb.toString());
+            while (rs.next()) {
+                int hashId = rs.getInt(1);
+                int propId = rs.getInt(2);
+                String value = rs.getString(3);
+                String propName = propertyIdToName.get(propId);
+                if (propName.equalsIgnoreCase(propertyStatus)) {
+                    if (HashDB.containsIgnoreCase(value, pedoStatus)) {
+                        setHashIds.add(hashId);
+                    }
+                } else if (propName.equalsIgnoreCase(ledMd5_512)) {
+                    if (value.length() == 32) {
+                        hashIdToMd5_512.put(hashId, new HashValue(value));
+                    }
+                } else if (propName.equalsIgnoreCase(ledMd5_64k)) {
+                    if (value.length() == 32) {
+                        HashValue hv = new HashValue(value);
+                        hashIdToMd5_64k.put(hashId, hv);
+                        md5_64kToHashId.put(hv, hashId);
+                    }
                 }
             }
+            rs.close();
+        } finally {
+            release(conn);
         }
-        rs.close();
-        stmt.close();
 
         hashIdToMd5_512.keySet().retainAll(setHashIds);
         if (hashIdToMd5_512.isEmpty())
@@ -292,7 +428,7 @@ public synchronized LedHashDB readLedHashDB() throws Exception {
         return ledHashDB;
     }
 
-    public synchronized List<String> lookupSets(String algorithm, String hash) throws Exception {
+    public List<String> lookupSets(String algorithm, String hash) throws Exception {
         int idx = HashDB.hashType(algorithm);
         if (idx < 0)
             return null;
@@ -319,83 +455,66 @@ public synchronized List<String> lookupSets(String algorithm, String hash) throw
         return pedo ? hashSets : null;
     }
 
-    public synchronized void lookup(byte[][] hashes, Map<String, String> properties) throws Exception {
+    public void lookup(byte[][] hashes, Map<String, String> properties) throws Exception {
         int mask = 0;
         for (int i = 0; i < hashes.length; i++) {
-            if (hashes[i] != null && presentHashes[i]) {
+            if (hashes[i] != null && presentHashes[i] && (index == null || index.mayContain(i, hashes[i]))) {
                 mask |= 1 << i;
             }
         }
         if (mask == 0)
             return;
-        PreparedStatement stmtSelect = stmtSelectHash[mask];
-        int k = 0;
-        for (int i = 0; i < hashes.length; i++) {
-            byte[] h = hashes[i];
-            if (h != null && presentHashes[i])
-                stmtSelect.setBytes(++k, h);
-        }
-        ResultSet rs1 = stmtSelect.executeQuery();
-        while (rs1.next()) {
-            int hashId = rs1.getInt(1);
-            stmtSelectHashProperties.setInt(1, hashId);
-            ResultSet rs2 = stmtSelectHashProperties.executeQuery();
-            while (rs2.next()) {
-                int propertyId = rs2.getInt(1);
-                String propertyName = propertyIdToName.get(propertyId);
-                if (propertyName != null) {
-                    String propertyValue = rs2.getString(2);
-                    String prev = properties.get(propertyName);
-                    if (prev != null) {
-                        propertyValue = HashDB.mergeProperties(propertyValue, prev);
+        DBConnection conn = acquire();
+        try {
+            PreparedStatement stmtSelect = conn.stmtSelectHash[mask];
+            int k = 0;
+            for (int i = 0; i < hashes.length; i++) {
+                if ((mask & (1 << i)) != 0)
+                    stmtSelect.setBytes(++k, hashes[i]);
+            }
+            ResultSet rs1 = stmtSelect.executeQuery();
+            while (rs1.next()) {
+                int hashId = rs1.getInt(1);
+                conn.stmtSelectHashProperties.setInt(1, hashId);
+                ResultSet rs2 = conn.stmtSelectHashProperties.executeQuery();
+                while (rs2.next()) {
+                    int propertyId = rs2.getInt(1);
+                    String propertyName = propertyIdToName.get(propertyId);
+                    if (propertyName != null) {
+                        String propertyValue = rs2.getString(2);
+                        String prev = properties.get(propertyName);
+                        if (prev != null) {
+                            propertyValue = HashDB.mergeProperties(propertyValue, prev);
+                        }
+                        properties.put(propertyName, propertyValue);
                     }
-                    properties.put(propertyName, propertyValue);
                 }
+                rs2.close();
             }
-            rs2.close();
+            rs1.close();
+        } finally {
+            release(conn);
         }
-        rs1.close();
     }
 
-    public synchronized void close() {
-        if (stmtSelectMD5 != null) {
-            try {
-                stmtSelectMD5.close();
-            } catch (Exception e) {
-            }
-        }
-        if (stmtSelectHash != null) {
-            for (PreparedStatement stmt : stmtSelectHash) {
-                try {
-                    if (stmt != null)
-                        stmt.close();
-                } catch (Exception e) {
-                }
-            }
-        }
-        if (stmtSelectHashProperties != null) {
-            try {
-                stmtSelectHashProperties.close();
-            } catch (Exception e) {
-            }
-        }
-        try {
-            if (connection != null)
-                connection.close();
-        } catch (Exception e) {
+    public void close() {
+        closed = true;
+        DBConnection conn;
+        while ((conn = pool.pollFirst()) != null) {
+            conn.close();
         }
     }
 
-    private void connect(File dbFile) throws Exception {
+    private static Connection connect(File dbFile) throws Exception {
         SQLiteConfig config = new SQLiteConfig();
         config.setEncoding(Encoding.UTF8);
         config.setSynchronous(SynchronousMode.OFF);
         config.setJournalMode(JournalMode.OFF);
         config.setReadOnly(true);
-        connection = config.createConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        return config.createConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
     }
 
-    private void prepare() throws Exception {
+    private void checkPresentHashes(Connection connection) throws Exception {
         presentHashes = new boolean[hashTypes.length];
         Statement stmt = connection.createStatement();
         for (int i = 0; i < hashTypes.length; i++) {
@@ -409,36 +528,9 @@ private void prepare() throws Exception {
             }
         }
         stmt.close();
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("select HASH_ID from HASHES where ");
-        stmtSelectHash = new PreparedStatement[1 << hashTypes.length];
-        NEXT: for (int i = 1; i < stmtSelectHash.length; i++) {
-            StringBuilder sb1 = new StringBuilder(sb);
-            boolean first = true;
-            for (int j = 0; j < hashTypes.length; j++) {
-                if (((1 << j) & i) != 0) {
-                    if (!presentHashes[j])
-                        continue NEXT;
-                    if (first)
-                        first = false;
-                    else
-                        sb1.append(" OR ");
-                    sb1.append(hashTypes[j]).append("=?");
-                }
-            }
-            stmtSelectHash[i] = connection.prepareStatement(sb1.toString());
-            stmtSelectHash[i].setFetchSize(hashTypes.length);
-        }
-
-        stmtSelectHashProperties = connection
-                .prepareStatement("select PROPERTY_ID, VALUE from HASHES_PROPERTIES where HASH_ID=?");
-        stmtSelectHashProperties.setFetchSize(64);
-
-        stmtSelectMD5 = connection.prepareStatement("select MD5 from HASHES where HASH_ID=?");
     }
 
-    private void loadProperties() throws Exception {
+    private void loadProperties(Connection connection) throws Exception {
         Statement stmt = connection.createStatement();
         stmt.execute("select PROPERTY_ID, PROPERTY_NAME from PROPERTIES");
         stmt.setFetchSize(1024);
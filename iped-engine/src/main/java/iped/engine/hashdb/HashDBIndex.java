@@ -0,0 +1,269 @@
+package iped.engine.hashdb;
+
+import static iped.engine.hashdb.HashDB.hashTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.Encoding;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.SynchronousMode;
+
+/**
+ * Memory mapped index of the hashes present in a hash database, used to avoid
+ * querying the database for hashes not present in it, which are most of the
+ * lookups.
+ *
+ * For each hash type, the first 8 bytes of all hashes are kept sorted, with a
+ * table of the start of each 16 bits bucket, so each lookup touches just a few
+ * pages of the file. A negative answer is exact, a positive one must be
+ * confirmed by the database.
+ *
+ * The index file is created by HashDBTool, next to the database file, and is
+ * ignored if the database was changed after it was created.
+ */
+public class HashDBIndex {
+
+    private static final String INDEX_EXT = ".idx";
+
+    private static final int MAGIC = 0x48444249;
+    private static final int VERSION = 1;
+
+    private static final int BUCKET_BITS = 16;
+    private static final int NUM_BUCKETS = 1 << BUCKET_BITS;
+
+    private static final int PAGE_BITS = 27;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final long[] counts = new long[hashTypes.length];
+    private final long[][] bucketStarts = new long[hashTypes.length][];
+    private final LongBuffer[][] pages = new LongBuffer[hashTypes.length][];
+
+    private HashDBIndex() {
+    }
+
+    public static File getIndexFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + INDEX_EXT);
+    }
+
+    private static int getHeaderBytes() {
+        return 3 * Integer.BYTES + 2 * Long.BYTES + hashTypes.length * 2 * Long.BYTES;
+    }
+
+    /**
+     * Loads the index of the database.
+     *
+     * @return the index or null if it does not exist or is outdated.
+     */
+    public static HashDBIndex load(File dbFile) throws IOException {
+        File indexFile = getIndexFile(dbFile);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try (FileChannel fc = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(getHeaderBytes());
+            while (header.hasRemaining() && fc.read(header) != -1) {
+            }
+            header.flip();
+            if (header.remaining() < getHeaderBytes() || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != hashTypes.length || header.getLong() != dbFile.length()
+                    || header.getLong() != dbFile.lastModified()) {
+                return null;
+            }
+            HashDBIndex index = new HashDBIndex();
+            for (int i = 0; i < hashTypes.length; i++) {
+                long count = header.getLong();
+                long pos = header.getLong();
+                index.counts[i] = count;
+                if (count == 0) {
+                    continue;
+                }
+                LongBuffer buckets = fc.map(MapMode.READ_ONLY, pos, (NUM_BUCKETS + 1L) * Long.BYTES).asLongBuffer();
+                index.bucketStarts[i] = new long[NUM_BUCKETS + 1];
+                buckets.get(index.bucketStarts[i]);
+                pos += (NUM_BUCKETS + 1L) * Long.BYTES;
+
+                int numPages = (int) ((count + PAGE_SIZE - 1) >>> PAGE_BITS);
+                index.pages[i] = new LongBuffer[numPages];
+                for (int p = 0; p < numPages; p++) {
+                    long len = Math.min(PAGE_SIZE, count - ((long) p << PAGE_BITS));
+                    index.pages[i][p] = fc.map(MapMode.READ_ONLY, pos, len * Long.BYTES).asLongBuffer();
+                    pos += len * Long.BYTES;
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @return number of distinct hash prefixes of the hash type
+     */
+    public long getCount(int hashType) {
+        return counts[hashType];
+    }
+
+    /**
+     * @return false if the hash is surely not present in the database, true if it
+     *         may be present.
+     */
+    public boolean mayContain(int hashType, byte[] hash) {
+        if (hash.length < Long.BYTES) {
+            return true;
+        }
+        if (counts[hashType] == 0) {
+            return false;
+        }
+        long key = getKey(hash);
+        long[] starts = bucketStarts[hashType];
+        int bucket = getBucket(key);
+        long lo = starts[bucket];
+        long hi = starts[bucket + 1] - 1;
+        LongBuffer[] typePages = pages[hashType];
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long val = typePages[(int) (mid >>> PAGE_BITS)].get((int) mid & PAGE_MASK);
+            if (val < key) {
+                lo = mid + 1;
+            } else if (val > key) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * First 8 bytes of the hash, with sign bit flipped so signed order is the
+     * same of unsigned bytes order.
+     */
+    private static long getKey(byte[] hash) {
+        long key = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            key = (key << 8) | (hash[i] & 0xFF);
+        }
+        return key ^ Long.MIN_VALUE;
+    }
+
+    private static int getBucket(long key) {
+        return (int) (key >> (Long.SIZE - BUCKET_BITS)) + (NUM_BUCKETS >>> 1);
+    }
+
+    /**
+     * Creates (or replaces) the index of the database. All prefixes of each hash
+     * type are sorted in memory, so big databases need enough heap.
+     */
+    public static void create(File dbFile) throws Exception {
+        File indexFile = getIndexFile(dbFile);
+        File tmp = new File(indexFile.getAbsolutePath() + ".tmp");
+        SQLiteConfig config = new SQLiteConfig();
+        config.setEncoding(Encoding.UTF8);
+        config.setSynchronous(SynchronousMode.OFF);
+        config.setJournalMode(JournalMode.OFF);
+        config.setReadOnly(true);
+        try (Connection connection = config.createConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+                FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+            ByteBuffer header = ByteBuffer.allocate(getHeaderBytes());
+            header.putInt(MAGIC).putInt(VERSION).putInt(hashTypes.length);
+            long dbLengthPos = header.position();
+            header.putLong(0).putLong(0);
+
+            long pos = getHeaderBytes();
+            for (int i = 0; i < hashTypes.length; i++) {
+                long[] keys = readKeys(connection, hashTypes[i]);
+                header.putLong(keys.length).putLong(pos);
+                if (keys.length == 0) {
+                    continue;
+                }
+                long[] starts = new long[NUM_BUCKETS + 1];
+                for (long key : keys) {
+                    starts[getBucket(key) + 1]++;
+                }
+                for (int b = 0; b < NUM_BUCKETS; b++) {
+                    starts[b + 1] += starts[b];
+                }
+                pos += write(fc, pos, starts, starts.length);
+                pos += write(fc, pos, keys, keys.length);
+            }
+            header.putLong((int) dbLengthPos, dbFile.length());
+            header.putLong((int) dbLengthPos + Long.BYTES, dbFile.lastModified());
+            header.flip();
+            long p = 0;
+            while (header.hasRemaining()) {
+                p += fc.write(header, p);
+            }
+            fc.force(true);
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static long[] readKeys(Connection connection, String hashType) throws Exception {
+        long[] keys = new long[1 << 16];
+        int size = 0;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.setFetchSize(1024);
+            ResultSet rs = stmt.executeQuery("select " + hashType + " from HASHES where " + hashType + " is not null");
+            while (rs.next()) {
+                byte[] hash = rs.getBytes(1);
+                if (hash == null || hash.length < Long.BYTES) {
+                    continue;
+                }
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, (int) Math.min(Integer.MAX_VALUE - 8, keys.length * 2L));
+                }
+                keys[size++] = getKey(hash);
+            }
+            rs.close();
+        }
+        Arrays.parallelSort(keys, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || keys[i] != keys[unique - 1]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    /**
+     * @return bytes written
+     */
+    private static long write(FileChannel fc, long pos, long[] values, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        long written = 0;
+        for (int i = 0; i < len; i++) {
+            if (!buf.hasRemaining()) {
+                written += flush(fc, pos + written, buf);
+            }
+            buf.putLong(values[i]);
+        }
+        written += flush(fc, pos + written, buf);
+        return written;
+    }
+
+    private static long flush(FileChannel fc, long pos, ByteBuffer buf) throws IOException {
+        buf.flip();
+        long written = 0;
+        while (buf.hasRemaining()) {
+            written += fc.write(buf, pos + written);
+        }
+        buf.clear();
+        return written;
+    }
+
+}
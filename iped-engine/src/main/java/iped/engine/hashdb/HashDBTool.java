@@ -113,7 +113,7 @@ public class HashDBTool {
     private Map<Integer, String> nsrlProdCodeToName;
     private ProcessMode mode = ProcessMode.UNDEFINED;
     private int totIns, totRem, totUpd, totSkip, totComb, totIgn, totNoProd, totInvHash;
-    private boolean dbExists = true, skipOpt, inputFolderUsed;
+    private boolean dbExists = true, skipOpt, inputFolderUsed, skipIndex, indexOnly;
     private String delimiter;
     private final Set<String> skipCols = new HashSet<String>();
     private final Map<String, String> renameCols = new HashMap<String, String>();
@@ -133,6 +133,8 @@ public HashDBTool() {
     public boolean run(String[] args) {
         if (!parseParameters(args))
             return false;
+        if (indexOnly)
+            return true;
         if (!checkInputFiles())
             return false;
         if (inputs.isEmpty())
@@ -1854,7 +1856,7 @@ private String endTime(long start) {
 
     void finish(boolean success) {
         try {
-            if (success) {
+            if (success && connection != null) {
                 long t = System.currentTimeMillis();
                 System.out.println("\nCommiting changes...");
                 connection.commit();
@@ -1923,6 +1925,22 @@ void finish(boolean success) {
             }
         } catch (Exception e) {
         }
+        if (success && !skipIndex) {
+            createIndex();
+        }
+    }
+
+    private void createIndex() {
+        long t = System.currentTimeMillis();
+        System.out.println("\nCreating lookup index...");
+        try {
+            HashDBIndex.create(output);
+            System.out.println("Index " + HashDBIndex.getIndexFile(output).getPath() + " created in " + endTime(t));
+        } catch (Throwable e) {
+            // may run out of memory with huge databases
+            System.out.println("ERROR: Lookup index could not be created, hash lookups will be slower.");
+            e.printStackTrace();
+        }
     }
 
     private boolean prepare() {
@@ -2117,19 +2135,34 @@ private boolean parseParameters(String[] args) {
                 mode = ProcessMode.REMOVE_ALL;
             } else if (arg.equalsIgnoreCase("-noOpt")) {
                 skipOpt = true;
+            } else if (arg.equalsIgnoreCase("-noIndex")) {
+                skipIndex = true;
+            } else if (arg.equalsIgnoreCase("-index")) {
+                indexOnly = true;
             } else {
                 System.out.println("ERROR: unknown parameter '" + arg + "'.");
                 return false;
             }
         }
-        if (inputs.isEmpty()) {
-            System.out.println("ERROR: No input file/folder defined (-d <input file or folder>).");
-            return false;
-        }
         if (output == null) {
             System.out.println("ERROR: No output file defined (-o <output database file>).");
             return false;
         }
+        if (indexOnly) {
+            if (!inputs.isEmpty() || skipIndex) {
+                System.out.println("ERROR: -index can not be combined with -d or -noIndex.");
+                return false;
+            }
+            if (!output.isFile()) {
+                System.out.println("ERROR: Database file '" + output + "' not found.");
+                return false;
+            }
+            return true;
+        }
+        if (inputs.isEmpty()) {
+            System.out.println("ERROR: No input file/folder defined (-d <input file or folder>).");
+            return false;
+        }
         if (mode == ProcessMode.UNDEFINED)
             mode = ProcessMode.MERGE;
         return true;
@@ -2146,10 +2179,11 @@ private void usage() {
         System.out.println("    imported directly.");
         System.out.println();
         System.out.println("Usage: java -jar iped-hashdb.jar -d <input file or folder> -o <output DB file>");
-        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt]");
+        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt] [-noIndex]");
         System.out.println("            [-delimiter <char>] [-addCol <column name> <fixed value>]");
         System.out.println("            [-renameCol <current name> <new name>] [-skipCol <column name>]");
         System.out.println("            [-mapValue <column name> <current value> <new value>]");
+        System.out.println("   or: java -jar iped-hashdb.jar -o <existing DB file> -index");
         System.out.println();
         System.out.println("  -d <input file or folder>");
         System.out.println("    Input files (can be used multiple times). If a folder is used, it processes");
@@ -2181,6 +2215,12 @@ private void usage() {
         System.out.println("  -noOpt");
         System.out.println("    Skip optimizations (reclaim empty space and database analisys) executed");
         System.out.println("    after processing input file(s).");
+        System.out.println("  -noIndex");
+        System.out.println("    Skip the creation of the lookup index file (<DB file>.idx), used during");
+        System.out.println("    processing to avoid querying the database for hashes not present in it.");
+        System.out.println("    Creating it for huge databases (like NSRL) needs a few GB of memory.");
+        System.out.println("  -index");
+        System.out.println("    Just (re)create the lookup index file of an existing database.");
         System.out.println("  -delimiter <char>");
         System.out.println("    Specify the column delimiter used in the CSV files to be imported. Default");
         System.out.println("    delimiter is comma (,).");
@@ -0,0 +1,238 @@
+package iped.engine.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import iped.io.SeekableInputStream;
+import iped.utils.SeekableFileInputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Encodes contents into blobs made of independently LZ4 compressed chunks, so
+ * random access to the content decompresses just the chunks being read.
+ *
+ * Blob layout: magic (3 bytes), codec (1 byte), content length (int), chunk
+ * size (int), number of chunks (int), end offset of each compressed chunk
+ * relative to the data start (int each), followed by chunks data. A chunk not
+ * reduced by compression is stored raw, identified by its stored length being
+ * equal to its decompressed length.
+ *
+ * Blobs compressed as a single gzip stream, written by older versions, are
+ * still decoded.
+ */
+public class ChunkedBlobCodec {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] MAGIC = { 'I', 'P', 'C' };
+
+    private static final byte CODEC_LZ4 = 1;
+
+    private static final int FIXED_HEADER_SIZE = MAGIC.length + 1 + 3 * Integer.BYTES;
+
+    private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+
+    private static final LZ4Compressor compressor = factory.fastCompressor();
+
+    private static final LZ4FastDecompressor decompressor = factory.fastDecompressor();
+
+    public static byte[] encode(byte[] buf, int len) {
+        int numChunks = (len + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int dataStart = FIXED_HEADER_SIZE + numChunks * Integer.BYTES;
+        int maxLen = dataStart + numChunks * compressor.maxCompressedLength(CHUNK_SIZE);
+        byte[] out = new byte[maxLen];
+
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.put(MAGIC).put(CODEC_LZ4).putInt(len).putInt(CHUNK_SIZE).putInt(numChunks);
+
+        int pos = dataStart;
+        for (int i = 0; i < numChunks; i++) {
+            int off = i * CHUNK_SIZE;
+            int chunkLen = Math.min(CHUNK_SIZE, len - off);
+            int compressed = compressor.compress(buf, off, chunkLen, out, pos, out.length - pos);
+            if (compressed >= chunkLen) {
+                System.arraycopy(buf, off, out, pos, chunkLen);
+                compressed = chunkLen;
+            }
+            pos += compressed;
+            header.putInt(pos - dataStart);
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    public static boolean isChunked(byte[] blob) {
+        if (blob == null || blob.length < FIXED_HEADER_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (blob[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a stream over the decoded content of the blob. Chunked blobs are
+     * decompressed lazily, legacy gzip blobs are fully decompressed.
+     */
+    public static SeekableInputStream decode(byte[] blob) throws IOException {
+        if (isChunked(blob)) {
+            return new ChunkedInputStream(blob);
+        }
+        try (InputStream gzippedIn = new GzipCompressorInputStream(new ByteArrayInputStream(blob))) {
+            byte[] bytes = IOUtils.toByteArray(gzippedIn);
+            return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+        }
+    }
+
+    private static class ChunkedInputStream extends SeekableInputStream {
+
+        private final byte[] blob;
+        private final long length;
+        private final int chunkSize;
+        private final int numChunks;
+        private final int dataStart;
+
+        private byte[] chunk;
+        private int chunkIdx = -1;
+        private long pos = 0;
+        private boolean closed = false;
+
+        private ChunkedInputStream(byte[] blob) throws IOException {
+            this.blob = blob;
+            ByteBuffer header = ByteBuffer.wrap(blob, MAGIC.length, FIXED_HEADER_SIZE - MAGIC.length);
+            byte codec = header.get();
+            if (codec != CODEC_LZ4) {
+                throw new IOException("Unknown storage codec " + codec); //$NON-NLS-1$
+            }
+            this.length = header.getInt();
+            this.chunkSize = header.getInt();
+            this.numChunks = header.getInt();
+            this.dataStart = FIXED_HEADER_SIZE + numChunks * Integer.BYTES;
+        }
+
+        private int getChunkEnd(int idx) {
+            if (idx < 0) {
+                return 0;
+            }
+            return ByteBuffer.wrap(blob, FIXED_HEADER_SIZE + idx * Integer.BYTES, Integer.BYTES).getInt();
+        }
+
+        private void loadChunk(int idx) throws IOException {
+            if (idx == chunkIdx) {
+                return;
+            }
+            int start = getChunkEnd(idx - 1);
+            int storedLen = getChunkEnd(idx) - start;
+            int chunkLen = (int) Math.min(chunkSize, length - (long) idx * chunkSize);
+            if (chunk == null) {
+                chunk = new byte[numChunks == 1 ? chunkLen : chunkSize];
+            }
+            try {
+                if (storedLen == chunkLen) {
+                    System.arraycopy(blob, dataStart + start, chunk, 0, chunkLen);
+                } else {
+                    decompressor.decompress(blob, dataStart + start, chunk, 0, chunkLen);
+                }
+            } catch (RuntimeException e) {
+                chunkIdx = -1;
+                throw new IOException("Corrupted storage chunk " + idx, e); //$NON-NLS-1$
+            }
+            chunkIdx = idx;
+        }
+
+        private void checkClosed() throws IOException {
+            if (closed) {
+                throw new IOException("Stream already closed."); //$NON-NLS-1$
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            if (pos >= length) {
+                return -1;
+            }
+            int idx = (int) (pos / chunkSize);
+            loadChunk(idx);
+            int b = chunk[(int) (pos - (long) idx * chunkSize)] & 0xFF;
+            pos++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= length) {
+                return -1;
+            }
+            int read = 0;
+            while (read < len && pos < length) {
+                int idx = (int) (pos / chunkSize);
+                loadChunk(idx);
+                int chunkOff = (int) (pos - (long) idx * chunkSize);
+                int chunkLen = (int) Math.min(chunkSize, length - (long) idx * chunkSize);
+                int n = Math.min(len - read, chunkLen - chunkOff);
+                System.arraycopy(chunk, chunkOff, b, off + read, n);
+                read += n;
+                pos += n;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            checkClosed();
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, length - pos);
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            checkClosed();
+            return (int) Math.min(Integer.MAX_VALUE, length - pos);
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            checkClosed();
+            this.pos = pos;
+        }
+
+        @Override
+        public long position() throws IOException {
+            checkClosed();
+            return pos;
+        }
+
+        @Override
+        public long size() throws IOException {
+            checkClosed();
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            chunk = null;
+        }
+    }
+
+}
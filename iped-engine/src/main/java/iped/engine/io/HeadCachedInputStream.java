@@ -0,0 +1,105 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import iped.io.IStreamSource;
+import iped.io.SeekableInputStream;
+
+/**
+ * Stream of item content whose first bytes were already read and kept in
+ * memory. The item stream is opened only if bytes after the head are read, so
+ * readers usually needing just the head (e.g. signature detection) don't read
+ * the item again.
+ */
+public class HeadCachedInputStream extends InputStream {
+
+    private final byte[] head;
+    private final boolean complete;
+    private final IStreamSource source;
+
+    private int pos = 0;
+    private SeekableInputStream in;
+
+    /**
+     * @param head
+     *            first bytes of content
+     * @param complete
+     *            if head is the whole content
+     * @param source
+     *            used to read bytes after the head
+     */
+    public HeadCachedInputStream(byte[] head, boolean complete, IStreamSource source) {
+        this.head = head;
+        this.complete = complete;
+        this.source = source;
+    }
+
+    private SeekableInputStream getStream() throws IOException {
+        if (in == null) {
+            in = source.getSeekableInputStream();
+            in.seek(head.length);
+        }
+        return in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos < head.length) {
+            return head[pos++] & 0xFF;
+        }
+        if (complete) {
+            return -1;
+        }
+        return getStream().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos < head.length) {
+            int n = Math.min(len, head.length - pos);
+            System.arraycopy(head, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        if (complete) {
+            return -1;
+        }
+        return getStream().read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        if (pos < head.length) {
+            int skipped = (int) Math.min(n, head.length - pos);
+            pos += skipped;
+            return skipped;
+        }
+        if (complete) {
+            return 0;
+        }
+        return getStream().skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (pos < head.length) {
+            return head.length - pos;
+        }
+        return in != null ? in.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,400 @@
+package iped.engine.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeScheduler;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.util.LatencyHistogram;
+import iped.utils.IOUtil;
+
+/**
+ * Writes documents built by workers into the case index.
+ *
+ * By default all workers share the case IndexWriter, and a background thread
+ * flushes the largest in memory segment before the RAM buffer is full, so
+ * workers rarely block writing segments to disk themselves. Optionally, each
+ * worker writes into its own private index, without any contention with other
+ * workers, and private indexes are added to the case index with
+ * {@link IndexWriter#addIndexes(Directory...)} before commits, queue changes
+ * and at the end of processing.
+ *
+ * Time spent by workers writing documents, background flushes, merges and
+ * merge stalls are measured and reported by {@link #logStatistics()}.
+ */
+public class IndexWriterPool {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(IndexWriterPool.class);
+
+    private static final String PRIVATE_INDEX_PREFIX = "worker-"; //$NON-NLS-1$
+
+    /**
+     * RAM buffer usage ratio that triggers a background flush.
+     */
+    private static final double BACKGROUND_FLUSH_RATIO = 0.75;
+
+    private static final long FLUSHER_INTERVAL_MILLIS = 50;
+
+    private static final long STALL_WARN_MILLIS = 10000;
+
+    private final IndexWriter writer;
+
+    private final Supplier<IndexWriterConfig> configSupplier;
+
+    private final File privateIndexesDir;
+
+    private final IndexWriter[] privateWriters;
+
+    private int privateIndexGeneration = 0;
+
+    /**
+     * Workers hold the read lock while adding documents to private writers, so
+     * they can be closed and added to the case index safely.
+     */
+    private final ReentrantReadWriteLock privateWritersLock = new ReentrantReadWriteLock();
+
+    private final long flushThreshold;
+
+    private volatile Thread flusher;
+
+    private final LatencyHistogram writeTimes = new LatencyHistogram();
+    private final LatencyHistogram backgroundFlushTimes = new LatencyHistogram();
+    private final LatencyHistogram mergeTimes = new LatencyHistogram();
+    private final LatencyHistogram mergeStallTimes = new LatencyHistogram();
+    private final LatencyHistogram addIndexesTimes = new LatencyHistogram();
+    private final LongAdder slowWrites = new LongAdder();
+    private final AtomicLong lastStallWarn = new AtomicLong();
+
+    /**
+     * @param writer
+     *            the case index writer
+     * @param configSupplier
+     *            creates configurations for private writers, if enabled
+     * @param privateIndexesDir
+     *            folder for private indexes of each worker, or null to share
+     *            the case index writer among workers
+     * @param numWorkers
+     *            number of workers
+     * @param backgroundFlush
+     *            if segments should be flushed by a background thread
+     */
+    public IndexWriterPool(IndexWriter writer, Supplier<IndexWriterConfig> configSupplier, File privateIndexesDir,
+            int numWorkers, boolean backgroundFlush) throws IOException {
+        this.writer = writer;
+        this.configSupplier = configSupplier;
+        this.privateIndexesDir = privateIndexesDir;
+        this.flushThreshold = (long) (writer.getConfig().getRAMBufferSizeMB() * BACKGROUND_FLUSH_RATIO * 1024
+                * 1024);
+        registerMergeScheduler(writer);
+        if (privateIndexesDir != null) {
+            // leftovers of an interrupted processing were not committed
+            IOUtil.deleteDirectory(privateIndexesDir);
+            privateWriters = new IndexWriter[numWorkers];
+            openPrivateWriters();
+            LOGGER.info("Using {} private index writers in {}", numWorkers, privateIndexesDir.getAbsolutePath()); //$NON-NLS-1$
+        } else {
+            privateWriters = null;
+        }
+        if (backgroundFlush) {
+            startFlusher();
+        }
+    }
+
+    public boolean isUsingPrivateWriters() {
+        return privateWriters != null;
+    }
+
+    /**
+     * Creates the case IndexWriter merge scheduler, which measures merge and
+     * merge stall times.
+     */
+    public static ConcurrentMergeScheduler createMergeScheduler() {
+        return new MeasuredMergeScheduler();
+    }
+
+    /**
+     * Links the case IndexWriter merge scheduler to this pool statistics.
+     */
+    private void registerMergeScheduler(IndexWriter indexWriter) {
+        MergeScheduler scheduler = indexWriter.getConfig().getMergeScheduler();
+        if (scheduler instanceof MeasuredMergeScheduler) {
+            ((MeasuredMergeScheduler) scheduler).pool = this;
+        }
+    }
+
+    /**
+     * @return RAM buffer size in MB, based on max heap and number of workers if
+     *         not configured.
+     */
+    public static double getRAMBufferSizeMB(int configured, int numWorkers) {
+        if (configured > 0) {
+            return configured;
+        }
+        long maxHeapMB = Runtime.getRuntime().maxMemory() >> 20;
+        long size = Math.min(maxHeapMB / 10, 32L * numWorkers);
+        return Math.max(64, Math.min(size, 2048));
+    }
+
+    /**
+     * @return max number of merge threads, based on the number of cores if not
+     *         configured.
+     */
+    public static int getMergeThreads(int configured) {
+        if (configured > 0) {
+            return configured;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(2, Math.min(8, cores / 4));
+    }
+
+    private void startFlusher() {
+        flusher = new Thread("IndexFlusher") { //$NON-NLS-1$
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        if (!isUsingPrivateWriters()) {
+                            flushIfNeeded(writer);
+                        } else {
+                            privateWritersLock.readLock().lock();
+                            try {
+                                for (IndexWriter privateWriter : privateWriters) {
+                                    flushIfNeeded(privateWriter);
+                                }
+                            } finally {
+                                privateWritersLock.readLock().unlock();
+                            }
+                        }
+                        Thread.sleep(FLUSHER_INTERVAL_MILLIS);
+
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Exception e) {
+                        // writer could have been closed or rolled back
+                        LOGGER.warn("Error flushing index buffer: {}", e.toString()); //$NON-NLS-1$
+                        try {
+                            Thread.sleep(1000);
+                        } catch (InterruptedException e1) {
+                            break;
+                        }
+                    }
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private void flushIfNeeded(IndexWriter indexWriter) throws IOException {
+        if (!indexWriter.isOpen()) {
+            return;
+        }
+        long threshold = indexWriter == writer ? flushThreshold : flushThreshold / privateWriters.length;
+        if (indexWriter.ramBytesUsed() >= threshold) {
+            long start = System.nanoTime();
+            if (indexWriter.flushNextBuffer()) {
+                backgroundFlushTimes.record((System.nanoTime() - start) / 1000);
+            }
+        }
+    }
+
+    private void openPrivateWriters() throws IOException {
+        privateIndexGeneration++;
+        for (int i = 0; i < privateWriters.length; i++) {
+            File dir = new File(privateIndexesDir,
+                    PRIVATE_INDEX_PREFIX + i + "-" + privateIndexGeneration); //$NON-NLS-1$
+            IndexWriterConfig config = configSupplier.get();
+            // segments are merged just in the case index
+            config.setMergePolicy(NoMergePolicy.INSTANCE);
+            config.setRAMBufferSizeMB(Math.max(16, writer.getConfig().getRAMBufferSizeMB() / privateWriters.length));
+            config.setIndexDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            config.setCommitOnClose(true);
+            privateWriters[i] = new IndexWriter(FSDirectory.open(dir.toPath()), config);
+        }
+    }
+
+    /**
+     * Adds the documents of one item to the index.
+     */
+    public void addDocuments(int workerId, Iterable<Document> docs) throws IOException {
+        long start = System.nanoTime();
+        if (!isUsingPrivateWriters()) {
+            writer.addDocuments(docs);
+        } else {
+            privateWritersLock.readLock().lock();
+            try {
+                privateWriters[workerId].addDocuments(docs);
+            } finally {
+                privateWritersLock.readLock().unlock();
+            }
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        writeTimes.record(micros);
+        if (micros / 1000 >= STALL_WARN_MILLIS) {
+            slowWrites.increment();
+            long now = System.currentTimeMillis();
+            long last = lastStallWarn.get();
+            if (now - last >= STALL_WARN_MILLIS && lastStallWarn.compareAndSet(last, now)) {
+                LOGGER.warn("{} blocked {}ms writing to index (flushing {} MB, pending merges: {})", //$NON-NLS-1$
+                        Thread.currentThread().getName(), micros / 1000, writer.getFlushingBytes() >> 20,
+                        writer.hasPendingMerges());
+            }
+        }
+    }
+
+    /**
+     * Adds documents written into private indexes to the case index, so they are
+     * visible to searches using the case IndexWriter and included in its next
+     * commit. Workers block until finished. Does nothing if private writers are
+     * not used.
+     */
+    public void mergePrivateIndexes() throws IOException {
+        addPrivateIndexes(true);
+    }
+
+    private void addPrivateIndexes(boolean reopen) throws IOException {
+        if (!isUsingPrivateWriters()) {
+            return;
+        }
+        privateWritersLock.writeLock().lock();
+        try {
+            long start = System.nanoTime();
+            List<Directory> dirs = new ArrayList<>();
+            for (IndexWriter privateWriter : privateWriters) {
+                if (privateWriter.getDocStats().maxDoc > 0) {
+                    dirs.add(privateWriter.getDirectory());
+                }
+                privateWriter.close();
+            }
+            if (!dirs.isEmpty()) {
+                writer.addIndexes(dirs.toArray(new Directory[0]));
+            }
+            for (IndexWriter privateWriter : privateWriters) {
+                privateWriter.getDirectory().close();
+            }
+            IOUtil.deleteDirectory(privateIndexesDir);
+            if (reopen) {
+                openPrivateWriters();
+            }
+            long micros = (System.nanoTime() - start) / 1000;
+            addIndexesTimes.record(micros);
+            LOGGER.info("Added {} private indexes to case index in {}ms", dirs.size(), micros / 1000); //$NON-NLS-1$
+
+        } finally {
+            privateWritersLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds remaining private indexes to the case index and stops the background
+     * flusher. The case IndexWriter is not closed.
+     */
+    public void close() throws IOException {
+        stopFlusher();
+        addPrivateIndexes(false);
+    }
+
+    private void stopFlusher() {
+        Thread t = flusher;
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(60));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flusher = null;
+        }
+    }
+
+    /**
+     * Discards documents not added to the case index yet.
+     */
+    public void rollback() {
+        stopFlusher();
+        if (isUsingPrivateWriters()) {
+            for (IndexWriter privateWriter : privateWriters) {
+                try {
+                    if (privateWriter.isOpen()) {
+                        privateWriter.rollback();
+                    }
+                    privateWriter.getDirectory().close();
+                } catch (IOException e) {
+                    LOGGER.warn("Error closing private index writer", e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+    private void logHistogram(String name, LatencyHistogram h) {
+        if (h.getCount() == 0) {
+            return;
+        }
+        LOGGER.info(String.format("%-26s count=%d total=%.1fs p50=%.1fms p99=%.1fms max=%.1fms", name, h.getCount(), //$NON-NLS-1$
+                h.getSum() / 1000000.0, h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getMax() / 1000.0));
+    }
+
+    public void logStatistics() {
+        LOGGER.info("Index writing statistics:"); //$NON-NLS-1$
+        logHistogram("Worker document writes", writeTimes); //$NON-NLS-1$
+        logHistogram("Background flushes", backgroundFlushTimes); //$NON-NLS-1$
+        logHistogram("Merges", mergeTimes); //$NON-NLS-1$
+        logHistogram("Merge stalls", mergeStallTimes); //$NON-NLS-1$
+        logHistogram("Private indexes additions", addIndexesTimes); //$NON-NLS-1$
+        LOGGER.info("Worker writes blocked for more than {}s: {}", STALL_WARN_MILLIS / 1000, slowWrites.sum()); //$NON-NLS-1$
+    }
+
+    /**
+     * Measures merge times and times indexing threads are stalled because merges
+     * are falling behind.
+     */
+    private static class MeasuredMergeScheduler extends ConcurrentMergeScheduler {
+
+        private volatile IndexWriterPool pool;
+
+        @Override
+        protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+            long start = System.nanoTime();
+            try {
+                super.doMerge(mergeSource, merge);
+            } finally {
+                IndexWriterPool p = pool;
+                if (p != null) {
+                    p.mergeTimes.record((System.nanoTime() - start) / 1000);
+                }
+            }
+        }
+
+        @Override
+        protected synchronized void doStall() {
+            long start = System.nanoTime();
+            super.doStall();
+            IndexWriterPool p = pool;
+            if (p != null) {
+                long micros = (System.nanoTime() - start) / 1000;
+                p.mergeStallTimes.record(micros);
+                LOGGER.debug("{} stalled {}ms waiting for merges", Thread.currentThread().getName(), micros / 1000); //$NON-NLS-1$
+            }
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+package iped.engine.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiDocValues.MultiSortedDocValues;
+import org.apache.lucene.index.MultiDocValues.MultiSortedSetDocValues;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.packed.PackedInts;
+
+/**
+ * Per segment access to doc values of a (possibly multi segment) index reader,
+ * addressed by global lucene doc ids.
+ *
+ * Bulk loaders iterate each segment sequentially, using segment local
+ * ordinals, which are converted to global ordinals only for fields that need
+ * them. Global ordinal maps are built lazily, once per field, and cached for the
+ * lifetime of the reader. Single segment indexes don't need ordinal maps at all.
+ * This replaces the use of {@link SlowCompositeReaderWrapper}, which merges
+ * field infos when opened and creates a global view of every field accessed.
+ */
+public class SegmentDocValues {
+
+    private final IndexReader reader;
+    private final List<LeafReaderContext> leaves;
+    private final int[] docStarts;
+
+    private final Map<String, OrdinalMap> sortedOrdMaps = new ConcurrentHashMap<>();
+    private final Map<String, OrdinalMap> sortedSetOrdMaps = new ConcurrentHashMap<>();
+
+    private final SortKeyCache sortKeyCache;
+
+    public SegmentDocValues(IndexReader reader) {
+        this(reader, null);
+    }
+
+    /**
+     * @param sortKeysDir
+     *            directory to persist sort key columns, null to keep them just in
+     *            heap
+     */
+    public SegmentDocValues(IndexReader reader, File sortKeysDir) {
+        this.reader = reader;
+        this.leaves = reader.leaves();
+        this.docStarts = new int[leaves.size() + 1];
+        for (int i = 0; i < leaves.size(); i++) {
+            docStarts[i] = leaves.get(i).docBase;
+        }
+        docStarts[leaves.size()] = reader.maxDoc();
+        this.sortKeyCache = new SortKeyCache(this, sortKeysDir);
+    }
+
+    public IndexReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return cache of packed sort key columns of this reader
+     */
+    public SortKeyCache getSortKeyCache() {
+        return sortKeyCache;
+    }
+
+    public List<LeafReaderContext> leaves() {
+        return leaves;
+    }
+
+    public int maxDoc() {
+        return reader.maxDoc();
+    }
+
+    /**
+     * @return index of the segment containing the global doc id
+     */
+    public int getLeafIndex(int doc) {
+        return ReaderUtil.subIndex(doc, leaves);
+    }
+
+    public LeafReaderContext getLeaf(int doc) {
+        return leaves.get(getLeafIndex(doc));
+    }
+
+    public Terms terms(String field) throws IOException {
+        return MultiTerms.getTerms(reader, field);
+    }
+
+    /**
+     * Global view of numeric doc values. Returned instance must be used by a
+     * single thread with increasing doc ids.
+     */
+    public NumericDocValues getNumericDocValues(String field) throws IOException {
+        if (leaves.size() == 1) {
+            return leaves.get(0).reader().getNumericDocValues(field);
+        }
+        return MultiDocValues.getNumericValues(reader, field);
+    }
+
+    public SortedNumericDocValues getSortedNumericDocValues(String field) throws IOException {
+        if (leaves.size() == 1) {
+            return leaves.get(0).reader().getSortedNumericDocValues(field);
+        }
+        return MultiDocValues.getSortedNumericValues(reader, field);
+    }
+
+    public BinaryDocValues getBinaryDocValues(String field) throws IOException {
+        if (leaves.size() == 1) {
+            return leaves.get(0).reader().getBinaryDocValues(field);
+        }
+        return MultiDocValues.getBinaryValues(reader, field);
+    }
+
+    /**
+     * Global view of sorted doc values, with global ordinals. Returned instance
+     * must be used by a single thread with increasing doc ids.
+     */
+    public SortedDocValues getSortedDocValues(String field) throws IOException {
+        if (leaves.size() == 1) {
+            return leaves.get(0).reader().getSortedDocValues(field);
+        }
+        SortedDocValues[] values = getLeafSortedDocValues(field);
+        if (values == null) {
+            return null;
+        }
+        long cost = 0;
+        for (SortedDocValues v : values) {
+            cost += v.cost();
+        }
+        return new MultiSortedDocValues(values, docStarts, getSortedOrdinalMap(field, values), cost);
+    }
+
+    /**
+     * Global view of sorted set doc values, with global ordinals. Returned
+     * instance must be used by a single thread with increasing doc ids.
+     */
+    public SortedSetDocValues getSortedSetDocValues(String field) throws IOException {
+        if (leaves.size() == 1) {
+            return leaves.get(0).reader().getSortedSetDocValues(field);
+        }
+        SortedSetDocValues[] values = getLeafSortedSetDocValues(field);
+        if (values == null) {
+            return null;
+        }
+        long cost = 0;
+        for (SortedSetDocValues v : values) {
+            cost += v.cost();
+        }
+        return new MultiSortedSetDocValues(values, docStarts, getSortedSetOrdinalMap(field, values), cost);
+    }
+
+    /**
+     * @return new segment doc values of each leaf, empty ones for leaves without
+     *         the field, or null if no leaf has the field.
+     */
+    public SortedDocValues[] getLeafSortedDocValues(String field) throws IOException {
+        SortedDocValues[] values = new SortedDocValues[leaves.size()];
+        boolean found = false;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = leaves.get(i).reader().getSortedDocValues(field);
+            if (values[i] == null) {
+                values[i] = DocValues.emptySorted();
+            } else {
+                found = true;
+            }
+        }
+        return found ? values : null;
+    }
+
+    public SortedSetDocValues[] getLeafSortedSetDocValues(String field) throws IOException {
+        SortedSetDocValues[] values = new SortedSetDocValues[leaves.size()];
+        boolean found = false;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = leaves.get(i).reader().getSortedSetDocValues(field);
+            if (values[i] == null) {
+                values[i] = DocValues.emptySortedSet();
+            } else {
+                found = true;
+            }
+        }
+        return found ? values : null;
+    }
+
+    OrdinalMap getSortedOrdinalMap(String field, SortedDocValues[] values) throws IOException {
+        OrdinalMap map = sortedOrdMaps.get(field);
+        if (map == null) {
+            synchronized (sortedOrdMaps) {
+                map = sortedOrdMaps.get(field);
+                if (map == null) {
+                    map = OrdinalMap.build(getCacheKey(), values, PackedInts.DEFAULT);
+                    sortedOrdMaps.put(field, map);
+                }
+            }
+        }
+        return map;
+    }
+
+    OrdinalMap getSortedSetOrdinalMap(String field, SortedSetDocValues[] values) throws IOException {
+        OrdinalMap map = sortedSetOrdMaps.get(field);
+        if (map == null) {
+            synchronized (sortedSetOrdMaps) {
+                map = sortedSetOrdMaps.get(field);
+                if (map == null) {
+                    map = OrdinalMap.build(getCacheKey(), values, PackedInts.DEFAULT);
+                    sortedSetOrdMaps.put(field, map);
+                }
+            }
+        }
+        return map;
+    }
+
+    private IndexReader.CacheKey getCacheKey() {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        return helper != null ? helper.getKey() : null;
+    }
+
+    /**
+     * @return segment to global ordinal mapping of a leaf, or identity if there is
+     *         just one segment
+     */
+    private static LongValues getGlobalOrds(OrdinalMap map, int leaf) {
+        return map != null ? map.getGlobalOrds(leaf) : LongValues.IDENTITY;
+    }
+
+    /**
+     * Loads the global ordinal of each doc, -1 if the doc has no value.
+     *
+     * @return the ordinals or null if the field has no sorted doc values
+     */
+    public int[] loadSortedOrds(String field) throws IOException {
+        SortedDocValues[] values = getLeafSortedDocValues(field);
+        if (values == null) {
+            return null;
+        }
+        // building the map just uses the terms enums, doc iterators are not consumed
+        OrdinalMap map = leaves.size() > 1 ? getSortedOrdinalMap(field, values) : null;
+        int[] ords = new int[maxDoc()];
+        for (int i = 0; i < values.length; i++) {
+            LongValues globalOrds = getGlobalOrds(map, i);
+            int docBase = docStarts[i];
+            int end = docStarts[i + 1];
+            for (int doc = docBase; doc < end; doc++) {
+                ords[doc] = -1;
+            }
+            SortedDocValues sdv = values[i];
+            for (int doc = sdv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = sdv.nextDoc()) {
+                ords[docBase + doc] = (int) globalOrds.get(sdv.ordValue());
+            }
+        }
+        return ords;
+    }
+
+    /**
+     * Loads the sorted global ordinals of each doc, empty if the doc has no value.
+     *
+     * @return the ordinals or null if the field has no sorted set doc values
+     */
+    public int[][] loadSortedSetOrds(String field) throws IOException {
+        SortedSetDocValues[] values = getLeafSortedSetDocValues(field);
+        if (values == null) {
+            return null;
+        }
+        OrdinalMap map = leaves.size() > 1 ? getSortedSetOrdinalMap(field, values) : null;
+        int[] empty = new int[0];
+        int[][] ords = new int[maxDoc()][];
+        int[] buf = new int[16];
+        for (int i = 0; i < values.length; i++) {
+            LongValues globalOrds = getGlobalOrds(map, i);
+            int docBase = docStarts[i];
+            SortedSetDocValues ssdv = values[i];
+            for (int doc = ssdv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = ssdv.nextDoc()) {
+                int count = 0;
+                long ord;
+                while ((ord = ssdv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    if (count == buf.length) {
+                        buf = Arrays.copyOf(buf, count * 2);
+                    }
+                    // global ordinals keep the segment order
+                    buf[count++] = (int) globalOrds.get(ord);
+                }
+                ords[docBase + doc] = Arrays.copyOf(buf, count);
+            }
+        }
+        for (int doc = 0; doc < ords.length; doc++) {
+            if (ords[doc] == null) {
+                ords[doc] = empty;
+            }
+        }
+        return ords;
+    }
+
+    /**
+     * Loads the value of each doc, missingValue if the doc has no value.
+     *
+     * @return the values or null if the field has no numeric doc values
+     */
+    public long[] loadNumeric(String field, long missingValue) throws IOException {
+        long[] result = null;
+        for (int i = 0; i < leaves.size(); i++) {
+            LeafReader leaf = leaves.get(i).reader();
+            NumericDocValues ndv = leaf.getNumericDocValues(field);
+            if (ndv == null) {
+                continue;
+            }
+            if (result == null) {
+                result = new long[maxDoc()];
+                Arrays.fill(result, missingValue);
+            }
+            int docBase = docStarts[i];
+            for (int doc = ndv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = ndv.nextDoc()) {
+                result[docBase + doc] = ndv.longValue();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the sorted values of each doc, empty if the doc has no value.
+     *
+     * @return the values or null if the field has no sorted numeric doc values
+     */
+    public long[][] loadSortedNumeric(String field) throws IOException {
+        long[][] result = null;
+        for (int i = 0; i < leaves.size(); i++) {
+            LeafReader leaf = leaves.get(i).reader();
+            SortedNumericDocValues sndv = leaf.getSortedNumericDocValues(field);
+            if (sndv == null) {
+                continue;
+            }
+            if (result == null) {
+                result = new long[maxDoc()][];
+            }
+            int docBase = docStarts[i];
+            for (int doc = sndv.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = sndv.nextDoc()) {
+                long[] vals = new long[sndv.docValueCount()];
+                for (int j = 0; j < vals.length; j++) {
+                    vals[j] = sndv.nextValue();
+                }
+                result[docBase + doc] = vals;
+            }
+        }
+        if (result != null) {
+            long[] empty = new long[0];
+            for (int doc = 0; doc < result.length; doc++) {
+                if (result[doc] == null) {
+                    result[doc] = empty;
+                }
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,491 @@
+package iped.engine.lucene;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.OrdinalMap;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.lucene.SortKeyColumn.PackedArray;
+
+/**
+ * Builds and caches the {@link SortKeyColumn}s of an index reader.
+ *
+ * Columns are built in parallel, splitting the index in ranges of docs, with
+ * two passes over doc values: the first computes value ranges and counts, used
+ * to pack the arrays, the second fills them. If a directory is configured,
+ * columns are written to memory mapped files there, identified by the index
+ * segments, so later sessions opening the same index reuse them instantly.
+ * Files of other index versions are deleted. Otherwise, or if files can't be
+ * created, columns are kept in heap.
+ *
+ * Recently used columns are kept in a LRU cache limited by size.
+ */
+public class SortKeyCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SortKeyCache.class);
+
+    private static final int MAGIC = 0x534B4331;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final String EXT = ".col"; //$NON-NLS-1$
+
+    private static final int RANGE_DOCS = 1 << 20;
+
+    private static final long MAX_CACHE_BYTES = Math.max(256 << 20, Runtime.getRuntime().maxMemory() / 4);
+
+    private enum Kind {
+        SORTED, SORTED_SET, NUMERIC, SORTED_NUMERIC
+    }
+
+    private final SegmentDocValues docValues;
+    private final File dir;
+    private final String indexKey;
+    private boolean dirCleaned = false;
+
+    private final LinkedHashMap<String, SortKeyColumn> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    /**
+     * @param dir
+     *            directory to persist columns or null to keep them just in heap.
+     */
+    public SortKeyCache(SegmentDocValues docValues, File dir) {
+        this.docValues = docValues;
+        this.indexKey = dir != null ? getIndexKey(docValues.leaves()) : null;
+        this.dir = indexKey != null ? dir : null;
+    }
+
+    /**
+     * @return key of the index segments, null if they are not known segments
+     */
+    private static String getIndexKey(List<LeafReaderContext> leaves) {
+        StringBuilder sb = new StringBuilder();
+        for (LeafReaderContext leaf : leaves) {
+            if (!(leaf.reader() instanceof SegmentReader)) {
+                return null;
+            }
+            SegmentCommitInfo info = ((SegmentReader) leaf.reader()).getSegmentInfo();
+            byte[] id = info.getId() != null ? info.getId() : info.info.getId();
+            sb.append(StringHelper.idToString(id)).append('_').append(info.getDelGen()).append('_')
+                    .append(info.getDocValuesGen()).append('_').append(leaf.reader().maxDoc()).append(';');
+        }
+        return DigestUtils.md5Hex(sb.toString()).substring(0, 16);
+    }
+
+    /**
+     * Global ordinals of each doc, -1 if the doc has no value.
+     *
+     * @return the column or null if the field has no sorted doc values
+     */
+    public SortKeyColumn getSortedOrds(String field) throws IOException {
+        return getColumn(Kind.SORTED, field, -1);
+    }
+
+    /**
+     * Sorted global ordinals of each doc.
+     *
+     * @return the column or null if the field has no sorted set doc values
+     */
+    public SortKeyColumn getSortedSetOrds(String field) throws IOException {
+        return getColumn(Kind.SORTED_SET, field, 0);
+    }
+
+    /**
+     * Value of each doc, missingValue if the doc has no value.
+     *
+     * @return the column or null if the field has no numeric doc values
+     */
+    public SortKeyColumn getNumeric(String field, long missingValue) throws IOException {
+        return getColumn(Kind.NUMERIC, field, missingValue);
+    }
+
+    /**
+     * Sorted values of each doc.
+     *
+     * @return the column or null if the field has no sorted numeric doc values
+     */
+    public SortKeyColumn getSortedNumeric(String field) throws IOException {
+        return getColumn(Kind.SORTED_NUMERIC, field, 0);
+    }
+
+    private synchronized SortKeyColumn getColumn(Kind kind, String field, long missingValue) throws IOException {
+        String key = kind + ":" + missingValue + ":" + field; //$NON-NLS-1$ //$NON-NLS-2$
+        SortKeyColumn column = cache.get(key);
+        if (column != null) {
+            return column;
+        }
+        if (!hasValues(kind, field)) {
+            return null;
+        }
+        File file = dir != null ? new File(dir, getFileName(kind, field)) : null;
+        if (file != null && file.exists()) {
+            column = load(file, kind, missingValue);
+        }
+        if (column == null) {
+            column = build(kind, field, missingValue, file);
+        }
+        cache.put(key, column);
+        cachedBytes += column.getSizeInBytes();
+        Iterator<SortKeyColumn> it = cache.values().iterator();
+        while (cachedBytes > MAX_CACHE_BYTES && cache.size() > 1) {
+            // columns still used by comparators are released by them later
+            cachedBytes -= it.next().getSizeInBytes();
+            it.remove();
+        }
+        return column;
+    }
+
+    private String getFileName(Kind kind, String field) {
+        String name = field.replaceAll("[^\\w.-]", "_"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (name.length() > 64) {
+            name = name.substring(0, 64);
+        }
+        return indexKey + "_" + kind.ordinal() + "_" + name + "_" + Integer.toHexString(field.hashCode()) + EXT; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    private boolean hasValues(Kind kind, String field) throws IOException {
+        for (LeafReaderContext leaf : docValues.leaves()) {
+            if (getIterator(kind, leaf.reader(), field) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static DocIdSetIterator getIterator(Kind kind, LeafReader reader, String field) throws IOException {
+        switch (kind) {
+            case SORTED:
+                return reader.getSortedDocValues(field);
+            case SORTED_SET:
+                return reader.getSortedSetDocValues(field);
+            case NUMERIC:
+                return reader.getNumericDocValues(field);
+            default:
+                return reader.getSortedNumericDocValues(field);
+        }
+    }
+
+    /**
+     * Range of docs of a segment, scanned by one thread.
+     */
+    private static class Range {
+
+        private final int leaf;
+        private final int docBase;
+        private final int from;
+        private final int to;
+
+        private long numValues = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private boolean hasMissing = false;
+
+        // position of first value in multi valued columns
+        private long start;
+
+        private Range(int leaf, int docBase, int from, int to) {
+            this.leaf = leaf;
+            this.docBase = docBase;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private SortKeyColumn build(Kind kind, String field, long missingValue, File file) throws IOException {
+        long t = System.currentTimeMillis();
+        List<LeafReaderContext> leaves = docValues.leaves();
+        List<Range> ranges = new ArrayList<>();
+        for (int i = 0; i < leaves.size(); i++) {
+            int leafMaxDoc = leaves.get(i).reader().maxDoc();
+            for (int from = 0; from < leafMaxDoc; from += RANGE_DOCS) {
+                ranges.add(new Range(i, leaves.get(i).docBase, from, Math.min(leafMaxDoc, from + RANGE_DOCS)));
+            }
+        }
+
+        // global ordinal maps are built before scanning in parallel
+        LongValues[] globalOrds = new LongValues[leaves.size()];
+        long valueCount = 0;
+        if (kind == Kind.SORTED) {
+            SortedDocValues[] values = docValues.getLeafSortedDocValues(field);
+            OrdinalMap map = leaves.size() > 1 ? docValues.getSortedOrdinalMap(field, values) : null;
+            valueCount = map != null ? map.getValueCount() : values[0].getValueCount();
+            for (int i = 0; i < globalOrds.length; i++) {
+                globalOrds[i] = map != null ? map.getGlobalOrds(i) : LongValues.IDENTITY;
+            }
+        } else if (kind == Kind.SORTED_SET) {
+            SortedSetDocValues[] values = docValues.getLeafSortedSetDocValues(field);
+            OrdinalMap map = leaves.size() > 1 ? docValues.getSortedSetOrdinalMap(field, values) : null;
+            valueCount = map != null ? map.getValueCount() : values[0].getValueCount();
+            for (int i = 0; i < globalOrds.length; i++) {
+                globalOrds[i] = map != null ? map.getGlobalOrds(i) : LongValues.IDENTITY;
+            }
+        }
+
+        if (kind != Kind.SORTED) {
+            scan(kind, field, ranges, globalOrds, missingValue, null, null);
+        }
+
+        int maxDoc = docValues.maxDoc();
+        long numValues = maxDoc;
+        long valuesMin, valuesMax;
+        boolean multiValued = kind == Kind.SORTED_SET || kind == Kind.SORTED_NUMERIC;
+        if (kind == Kind.SORTED || kind == Kind.SORTED_SET) {
+            valuesMin = kind == Kind.SORTED ? -1 : 0;
+            valuesMax = Math.max(0, valueCount - 1);
+        } else {
+            valuesMin = Long.MAX_VALUE;
+            valuesMax = Long.MIN_VALUE;
+            for (Range r : ranges) {
+                valuesMin = Math.min(valuesMin, r.min);
+                valuesMax = Math.max(valuesMax, r.max);
+                if (kind == Kind.NUMERIC && r.hasMissing) {
+                    valuesMin = Math.min(valuesMin, missingValue);
+                    valuesMax = Math.max(valuesMax, missingValue);
+                }
+            }
+            if (valuesMin > valuesMax) {
+                valuesMin = valuesMax = kind == Kind.NUMERIC ? missingValue : 0;
+            }
+        }
+        if (multiValued) {
+            numValues = 0;
+            for (Range r : ranges) {
+                r.start = numValues;
+                numValues += r.numValues;
+            }
+        }
+        int valuesWidth = PackedArray.getWidth(valuesMin, valuesMax);
+        int offsetsWidth = multiValued ? PackedArray.getWidth(0, numValues) : 0;
+
+        SortKeyColumn column = null;
+        if (file != null) {
+            try {
+                column = create(file, kind, field, ranges, globalOrds, maxDoc, missingValue, numValues, valuesMin,
+                        valuesWidth, offsetsWidth);
+            } catch (IOException | UncheckedIOException e) {
+                LOGGER.warn("Error writing sort keys to {}, keeping them in memory: {}", file, e.toString()); //$NON-NLS-1$
+                file.delete();
+            }
+        }
+        if (column == null) {
+            PackedArray offsets = multiValued ? PackedArray.allocate(maxDoc + 1L, 0, offsetsWidth) : null;
+            PackedArray values = PackedArray.allocate(numValues, valuesMin, valuesWidth);
+            scan(kind, field, ranges, globalOrds, missingValue, offsets, values);
+            column = new SortKeyColumn(maxDoc, offsets, values);
+        }
+        LOGGER.info("Sort keys of {} built in {}ms", field, System.currentTimeMillis() - t); //$NON-NLS-1$
+        return column;
+    }
+
+    private SortKeyColumn create(File file, Kind kind, String field, List<Range> ranges, LongValues[] globalOrds,
+            int maxDoc, long missingValue, long numValues, long valuesMin, int valuesWidth, int offsetsWidth)
+            throws IOException {
+        cleanDir();
+        dir.mkdirs();
+        Files.deleteIfExists(file.toPath());
+        long offsetsSize = offsetsWidth > 0 ? maxDoc + 1L : 0;
+        long offsetsBytes = PackedArray.getBytes(offsetsSize, offsetsWidth);
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // new mapped regions are zeroed, which is base value of arrays
+            PackedArray offsets = offsetsWidth > 0
+                    ? PackedArray.map(fc, HEADER_BYTES, offsetsSize, 0, offsetsWidth, MapMode.READ_WRITE)
+                    : null;
+            PackedArray values = PackedArray.map(fc, HEADER_BYTES + offsetsBytes, numValues, valuesMin, valuesWidth,
+                    MapMode.READ_WRITE);
+            scan(kind, field, ranges, globalOrds, missingValue, offsets, values);
+            if (offsets != null) {
+                offsets.force();
+            }
+            values.force();
+
+            // header is written last, so incomplete files are rebuilt
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            header.putInt(MAGIC).putInt(VERSION).putInt(kind.ordinal()).putInt(maxDoc);
+            header.putLong(missingValue);
+            header.putLong(numValues).putLong(valuesMin).putInt(valuesWidth);
+            header.putInt(offsetsWidth).putLong(offsetsSize);
+            header.rewind();
+            long pos = 0;
+            while (header.hasRemaining()) {
+                pos += fc.write(header, pos);
+            }
+            fc.force(true);
+            return new SortKeyColumn(maxDoc, offsets, values);
+        }
+    }
+
+    private SortKeyColumn load(File file, Kind kind, long missingValue) {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+            while (header.hasRemaining() && fc.read(header) != -1) {
+            }
+            header.flip();
+            int maxDoc = docValues.maxDoc();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != kind.ordinal() || header.getInt() != maxDoc
+                    || header.getLong() != missingValue) {
+                return null;
+            }
+            long numValues = header.getLong();
+            long valuesMin = header.getLong();
+            int valuesWidth = header.getInt();
+            int offsetsWidth = header.getInt();
+            long offsetsSize = header.getLong();
+            long offsetsBytes = PackedArray.getBytes(offsetsSize, offsetsWidth);
+            if (fc.size() < HEADER_BYTES + offsetsBytes + PackedArray.getBytes(numValues, valuesWidth)) {
+                return null;
+            }
+            PackedArray offsets = offsetsWidth > 0
+                    ? PackedArray.map(fc, HEADER_BYTES, offsetsSize, 0, offsetsWidth, MapMode.READ_ONLY)
+                    : null;
+            PackedArray values = PackedArray.map(fc, HEADER_BYTES + offsetsBytes, numValues, valuesMin, valuesWidth,
+                    MapMode.READ_ONLY);
+            return new SortKeyColumn(maxDoc, offsets, values);
+
+        } catch (IOException e) {
+            LOGGER.warn("Error loading sort keys from {}: {}", file, e.toString()); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    /**
+     * Deletes column files of other index versions.
+     */
+    private void cleanDir() {
+        if (dirCleaned) {
+            return;
+        }
+        dirCleaned = true;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().endsWith(EXT) && !f.getName().startsWith(indexKey + "_")) { //$NON-NLS-1$
+                    // may fail if still mapped on Windows, it will be retried next time
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans the doc values of all ranges in parallel. If values is null, just
+     * computes statistics of each range, otherwise fills the arrays.
+     */
+    private void scan(Kind kind, String field, List<Range> ranges, LongValues[] globalOrds, long missingValue,
+            PackedArray offsets, PackedArray values) throws IOException {
+        try {
+            ranges.parallelStream().forEach(r -> {
+                try {
+                    scan(kind, field, r, globalOrds[r.leaf], missingValue, offsets, values);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (offsets != null) {
+            offsets.set(docValues.maxDoc(), values.size());
+        }
+    }
+
+    private void scan(Kind kind, String field, Range r, LongValues globalOrds, long missingValue,
+            PackedArray offsets, PackedArray values) throws IOException {
+        LeafReader reader = docValues.leaves().get(r.leaf).reader();
+        DocIdSetIterator it = getIterator(kind, reader, field);
+        long pos = r.start;
+        // next doc of range whose offset or missing value was not set
+        int next = r.from;
+        int doc = it != null ? it.advance(r.from) : DocIdSetIterator.NO_MORE_DOCS;
+        for (; doc < r.to; doc = it.nextDoc()) {
+            if (offsets != null) {
+                for (; next <= doc; next++) {
+                    offsets.set(r.docBase + next, pos);
+                }
+            } else if (kind == Kind.NUMERIC && next < doc) {
+                r.hasMissing = true;
+                for (; values != null && next < doc; next++) {
+                    values.set(r.docBase + next, missingValue);
+                }
+            }
+            next = doc + 1;
+            switch (kind) {
+                case SORTED:
+                    if (values != null) {
+                        values.set(r.docBase + doc, globalOrds.get(((SortedDocValues) it).ordValue()));
+                    }
+                    break;
+                case SORTED_SET:
+                    SortedSetDocValues ssdv = (SortedSetDocValues) it;
+                    long ord;
+                    while ((ord = ssdv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                        if (values != null) {
+                            // global ordinals keep the segment order
+                            values.set(pos, globalOrds.get(ord));
+                        }
+                        pos++;
+                    }
+                    break;
+                case NUMERIC:
+                    long val = ((NumericDocValues) it).longValue();
+                    if (values != null) {
+                        values.set(r.docBase + doc, val);
+                    } else {
+                        r.min = Math.min(r.min, val);
+                        r.max = Math.max(r.max, val);
+                    }
+                    break;
+                default:
+                    SortedNumericDocValues sndv = (SortedNumericDocValues) it;
+                    for (int i = sndv.docValueCount(); i > 0; i--) {
+                        long v = sndv.nextValue();
+                        if (values != null) {
+                            values.set(pos, v);
+                        } else {
+                            r.min = Math.min(r.min, v);
+                            r.max = Math.max(r.max, v);
+                        }
+                        pos++;
+                    }
+            }
+        }
+        if (offsets != null) {
+            for (; next < r.to; next++) {
+                offsets.set(r.docBase + next, pos);
+            }
+        } else if (kind == Kind.NUMERIC && next < r.to) {
+            r.hasMissing = true;
+            for (; values != null && next < r.to; next++) {
+                values.set(r.docBase + next, missingValue);
+            }
+        }
+        r.numValues = pos - r.start;
+    }
+
+}
@@ -0,0 +1,226 @@
+package iped.engine.lucene;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Sort keys (ordinals or numeric values) of all docs of an index for one field,
+ * used to sort results without object allocation per doc.
+ *
+ * Single valued columns keep one value per doc. Multi valued columns use a CSR
+ * layout: values of doc d are at positions offsets[d] to offsets[d + 1] - 1 of
+ * a values array. Arrays are packed with the smallest byte width (1, 2, 4 or 8)
+ * able to keep the difference between their max and min values, in pages of
+ * heap or memory mapped buffers.
+ *
+ * Columns are created by {@link SortKeyCache}, are immutable after created and
+ * can be shared by multiple threads.
+ */
+public class SortKeyColumn {
+
+    private final int maxDoc;
+    private final PackedArray offsets;
+    private final PackedArray values;
+
+    SortKeyColumn(int maxDoc, PackedArray offsets, PackedArray values) {
+        this.maxDoc = maxDoc;
+        this.offsets = offsets;
+        this.values = values;
+    }
+
+    public int maxDoc() {
+        return maxDoc;
+    }
+
+    public boolean isMultiValued() {
+        return offsets != null;
+    }
+
+    /**
+     * @return the value of a single valued column
+     */
+    public long getValue(int doc) {
+        return values.get(doc);
+    }
+
+    /**
+     * @return number of values of the doc in a multi valued column
+     */
+    public int getValueCount(int doc) {
+        return (int) (offsets.get(doc + 1) - offsets.get(doc));
+    }
+
+    /**
+     * @return the i-th (sorted) value of the doc in a multi valued column
+     */
+    public long getValue(int doc, int i) {
+        return values.get(offsets.get(doc) + i);
+    }
+
+    /**
+     * @return bytes used by column data, in heap or mapped
+     */
+    public long getSizeInBytes() {
+        return values.getSizeInBytes() + (offsets != null ? offsets.getSizeInBytes() : 0);
+    }
+
+    /**
+     * Fixed size array of longs, stored as (value - base) with the smallest byte
+     * width able to keep the range of values. Values are never split between
+     * pages, because page size is a multiple of all widths.
+     */
+    static class PackedArray {
+
+        private static final int PAGE_BITS = 30;
+        private static final int PAGE_SIZE = 1 << PAGE_BITS;
+        private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+        private final ByteBuffer[] pages;
+        private final long size;
+        private final long base;
+        private final int width;
+
+        private PackedArray(ByteBuffer[] pages, long size, long base, int width) {
+            this.pages = pages;
+            this.size = size;
+            this.base = base;
+            this.width = width;
+        }
+
+        /**
+         * @return the byte width able to keep all values between min and max
+         */
+        static int getWidth(long min, long max) {
+            // unsigned difference is right even if the signed one overflows
+            int bits = Long.SIZE - Long.numberOfLeadingZeros(max - min);
+            if (bits <= 8) {
+                return 1;
+            } else if (bits <= 16) {
+                return 2;
+            } else if (bits <= 32) {
+                return 4;
+            }
+            return 8;
+        }
+
+        /**
+         * @return bytes used by an array, rounded up to a multiple of 8
+         */
+        static long getBytes(long size, int width) {
+            return (size * width + 7) & ~7L;
+        }
+
+        /**
+         * Allocates a heap array, initially filled with base.
+         */
+        static PackedArray allocate(long size, long base, int width) {
+            long bytes = getBytes(size, width);
+            ByteBuffer[] pages = new ByteBuffer[getNumPages(bytes)];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocate(getPageLength(bytes, i)).order(ByteOrder.nativeOrder());
+            }
+            return new PackedArray(pages, size, base, width);
+        }
+
+        /**
+         * Maps an array from a file region of {@link #getBytes(long, int)} bytes. A
+         * zeroed region is an array filled with base.
+         */
+        static PackedArray map(FileChannel fc, long pos, long size, long base, int width, MapMode mode)
+                throws IOException {
+            long bytes = getBytes(size, width);
+            ByteBuffer[] pages = new ByteBuffer[getNumPages(bytes)];
+            for (int i = 0; i < pages.length; i++) {
+                int len = getPageLength(bytes, i);
+                // mapping is still valid after channel is closed
+                pages[i] = fc.map(mode, pos, len).order(ByteOrder.nativeOrder());
+                pos += len;
+            }
+            return new PackedArray(pages, size, base, width);
+        }
+
+        private static int getNumPages(long bytes) {
+            return (int) ((bytes + PAGE_SIZE - 1) >>> PAGE_BITS);
+        }
+
+        private static int getPageLength(long bytes, int page) {
+            return (int) Math.min(PAGE_SIZE, bytes - ((long) page << PAGE_BITS));
+        }
+
+        long size() {
+            return size;
+        }
+
+        long getBase() {
+            return base;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        long getSizeInBytes() {
+            return getBytes(size, width);
+        }
+
+        long get(long index) {
+            long pos = index * width;
+            ByteBuffer page = pages[(int) (pos >>> PAGE_BITS)];
+            int p = (int) pos & PAGE_MASK;
+            long v;
+            switch (width) {
+                case 1:
+                    v = page.get(p) & 0xFFL;
+                    break;
+                case 2:
+                    v = page.getShort(p) & 0xFFFFL;
+                    break;
+                case 4:
+                    v = page.getInt(p) & 0xFFFFFFFFL;
+                    break;
+                default:
+                    v = page.getLong(p);
+            }
+            return v + base;
+        }
+
+        /**
+         * Sets a value. Different threads may set different indexes concurrently.
+         */
+        void set(long index, long value) {
+            long pos = index * width;
+            ByteBuffer page = pages[(int) (pos >>> PAGE_BITS)];
+            int p = (int) pos & PAGE_MASK;
+            long v = value - base;
+            switch (width) {
+                case 1:
+                    page.put(p, (byte) v);
+                    break;
+                case 2:
+                    page.putShort(p, (short) v);
+                    break;
+                case 4:
+                    page.putInt(p, (int) v);
+                    break;
+                default:
+                    page.putLong(p, v);
+            }
+        }
+
+        /**
+         * Writes changes of a READ_WRITE mapped array to the storage device.
+         */
+        void force() {
+            for (ByteBuffer page : pages) {
+                if (page instanceof MappedByteBuffer) {
+                    ((MappedByteBuffer) page).force();
+                }
+            }
+        }
+    }
+
+}
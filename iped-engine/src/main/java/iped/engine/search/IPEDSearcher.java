@@ -136,14 +136,18 @@ public MultiSearchResult multiSearch() throws IOException {
         return MultiSearchResult.get((IPEDMultiSource) ipedCase, luceneSearch());
     }
 
+    /**
+     * Counts the matching documents without collecting ids or scores.
+     */
+    public int count() throws IOException {
+        return ipedCase.getSearcher().count(getFinalQuery());
+    }
+
     LuceneSearchResult luceneSearch() throws IOException {
         return searchAll();
     }
 
-    private LuceneSearchResult searchAll() throws IOException {
-
-        // System.out.println("searching");
-
+    private Query getFinalQuery() throws IOException {
         Query query = this.query;
         if (query instanceof MatchAllDocsQuery) {
             query = QueryBuilder.getMatchAllItemsQuery();
@@ -153,6 +157,14 @@ private LuceneSearchResult searchAll() throws IOException {
         if (!treeQuery) {
             query = getNonTreeQuery(query);
         }
+        return query;
+    }
+
+    private LuceneSearchResult searchAll() throws IOException {
+
+        // System.out.println("searching");
+
+        Query query = getFinalQuery();
 
         collector = new NoScoringCollector(ipedCase.getReader().maxDoc());
         try {
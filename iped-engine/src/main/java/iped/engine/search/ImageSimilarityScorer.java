@@ -11,13 +11,13 @@
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.util.BytesRef;
 
 import iped.data.IItem;
 import iped.data.IItemId;
 import iped.engine.data.IPEDSource;
 import iped.engine.lucene.DocValuesUtil;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.task.similarity.ImageSimilarity;
 import iped.engine.task.similarity.ImageSimilarityTask;
 import iped.properties.BasicProps;
@@ -80,7 +80,7 @@ public void score() throws IOException {
         if (len == 0 || refSimilarityFeatures == null) {
             return;
         }
-        LeafReader leafReader = ipedCase.getLeafReader();
+        SegmentDocValues docValues = ipedCase.getDocValues();
         int numThreads = Runtime.getRuntime().availableProcessors();
         Thread[] threads = new Thread[numThreads];
         int evalCut = (int) (100 * refSimilarityFeatures.length / distToScoreMult);
@@ -91,8 +91,7 @@ public void score() throws IOException {
                 public void run() {
                     BinaryDocValues similarityFeaturesValues = null;
                     try {
-                        similarityFeaturesValues = leafReader
-                                .getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
+                        similarityFeaturesValues = docValues.getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
                     } catch (IOException e) {
                         e.printStackTrace();
                         return;
@@ -114,7 +113,7 @@ public void run() {
                                 String refHash = refItem.getHash();
                                 if (refHash != null) {
                                     try {
-                                        Document doc = leafReader.document(luceneId);
+                                        Document doc = ipedCase.getReader().document(luceneId);
                                         String currHash = doc.get(BasicProps.HASH);
                                         if (refHash.equals(currHash)) {
                                             score = identicalScore;
@@ -154,8 +153,7 @@ private void organizeTopResults() {
         
         BinaryDocValues similarityFeaturesValues = null;
         try {
-            similarityFeaturesValues = ipedCase.getLeafReader()
-                    .getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
+            similarityFeaturesValues = ipedCase.getDocValues().getBinaryDocValues(ImageSimilarityTask.IMAGE_FEATURES);
         } catch (IOException e) {
             e.printStackTrace();
             return;
@@ -0,0 +1,225 @@
+package iped.engine.search;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+
+import iped.data.IItem;
+import iped.properties.BasicProps;
+
+/**
+ * In memory hash indexes of processed items, on the keys used by parsers to
+ * look up related items while processing: name, path, hash, evidence uuid +
+ * file system id + meta address and parent id. Items are added when they are
+ * indexed, so lookups don't need to parse lucene queries nor run them against
+ * the index.
+ *
+ * Keys are kept as 64 bits hashes of the normalized (lower case) values, not
+ * the values themselves, so memory usage does not depend on name or path
+ * lengths. Returned ids must be checked against the case snapshot, because
+ * items indexed after it was opened are not visible yet.
+ */
+public class ItemLookupIndex {
+
+    private static final long NAME_SALT = 0x9E3779B97F4A7C15L;
+    private static final long PATH_SALT = 0xC2B2AE3D27D4EB4FL;
+    private static final long HASH_SALT = 0x165667B19E3779F9L;
+    private static final long META_ADDRESS_SALT = 0x85EBCA77C2B2AE63L;
+
+    private final LongIntMultiMap names = new LongIntMultiMap();
+    private final LongIntMultiMap paths = new LongIntMultiMap();
+    private final LongIntMultiMap hashes = new LongIntMultiMap();
+    private final LongIntMultiMap metaAddresses = new LongIntMultiMap();
+    private final LongIntMultiMap children = new LongIntMultiMap();
+
+    /**
+     * Adds an indexed item. Can be called concurrently by workers.
+     */
+    public void add(IItem item) {
+        int id = item.getId();
+        if (item.getName() != null) {
+            names.add(hash(NAME_SALT, item.getName()), id);
+        }
+        if (item.getPath() != null) {
+            paths.add(hash(PATH_SALT, item.getPath()), id);
+        }
+        if (item.getHash() != null && !item.getHash().isEmpty()) {
+            hashes.add(hash(HASH_SALT, item.getHash()), id);
+        }
+        Object metaAddress = item.getExtraAttribute(BasicProps.META_ADDRESS);
+        if (metaAddress != null && item.getDataSource() != null) {
+            Object fsId = item.getExtraAttribute(BasicProps.FILESYSTEM_ID);
+            metaAddresses.add(metaAddressKey(item.getDataSource().getUUID(), fsId != null ? fsId.toString() : null,
+                    metaAddress.toString()), id);
+        }
+        if (item.getParentId() != null) {
+            children.add(item.getParentId(), id);
+        }
+    }
+
+    /**
+     * @return ids of items with the name, ignoring case, in ascending order
+     */
+    public int[] getByName(String name) {
+        return names.get(hash(NAME_SALT, name));
+    }
+
+    /**
+     * @return ids of items with the path, ignoring case, in ascending order
+     */
+    public int[] getByPath(String path) {
+        return paths.get(hash(PATH_SALT, path));
+    }
+
+    /**
+     * @return ids of items with the (default algorithm) hash, in ascending order
+     */
+    public int[] getByHash(String hash) {
+        return hashes.get(hash(HASH_SALT, hash));
+    }
+
+    /**
+     * @return ids of items of the file system with any of the meta addresses, in
+     *         ascending order
+     */
+    public int[] getByMetaAddress(String evidenceUUID, String fileSystemId, Collection<Long> metaAddresses) {
+        int[] result = new int[metaAddresses.size()];
+        int size = 0;
+        for (Long metaAddress : metaAddresses) {
+            int[] ids = this.metaAddresses.get(metaAddressKey(evidenceUUID, fileSystemId, metaAddress.toString()));
+            if (size + ids.length > result.length) {
+                result = Arrays.copyOf(result, Math.max(result.length * 2, size + ids.length));
+            }
+            System.arraycopy(ids, 0, result, size, ids.length);
+            size += ids.length;
+        }
+        result = Arrays.copyOf(result, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return ids of children of the item, in ascending order
+     */
+    public int[] getChildren(int parentId) {
+        return children.get(parentId);
+    }
+
+    /**
+     * @return approximate heap bytes used by the indexes
+     */
+    public long getSizeInBytes() {
+        return names.getSizeInBytes() + paths.getSizeInBytes() + hashes.getSizeInBytes()
+                + metaAddresses.getSizeInBytes() + children.getSizeInBytes();
+    }
+
+    private static long metaAddressKey(String evidenceUUID, String fileSystemId, String metaAddress) {
+        long h = hash(META_ADDRESS_SALT, evidenceUUID);
+        h = hash(h, fileSystemId != null ? fileSystemId : ""); //$NON-NLS-1$
+        return hash(h, metaAddress);
+    }
+
+    /**
+     * 64 bits FNV-1a hash of lower case chars, starting from seed.
+     */
+    private static long hash(long seed, String value) {
+        String lower = value.toLowerCase(Locale.ROOT);
+        long h = seed ^ 0xCBF29CE484222325L;
+        for (int i = 0; i < lower.length(); i++) {
+            h ^= lower.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        // separates concatenated values
+        h ^= 0xFFFF;
+        h *= 0x100000001B3L;
+        return h;
+    }
+
+    /**
+     * Open addressing hash map from long keys to lists of int values. Lists are
+     * linked through parallel arrays, so each value uses 8 bytes and there is no
+     * object per key or value.
+     */
+    static class LongIntMultiMap {
+
+        private static final double MAX_LOAD = 0.6;
+
+        private long[] keys = new long[1 << 10];
+        // index + 1 of last entry of each key, 0 for empty slots
+        private int[] heads = new int[keys.length];
+        private int numKeys = 0;
+
+        private int[] values = new int[1 << 10];
+        private int[] next = new int[values.length];
+        private int numValues = 0;
+
+        private static int mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+
+        private int slot(long[] keys, int[] heads, long key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (heads[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        synchronized void add(long key, int value) {
+            if (numValues == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                next = Arrays.copyOf(next, next.length * 2);
+            }
+            int slot = slot(keys, heads, key);
+            if (heads[slot] == 0) {
+                keys[slot] = key;
+                numKeys++;
+            }
+            values[numValues] = value;
+            next[numValues] = heads[slot] - 1;
+            heads[slot] = ++numValues;
+
+            if (numKeys > keys.length * MAX_LOAD) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            long[] newKeys = new long[keys.length * 2];
+            int[] newHeads = new int[newKeys.length];
+            for (int i = 0; i < keys.length; i++) {
+                if (heads[i] != 0) {
+                    int slot = slot(newKeys, newHeads, keys[i]);
+                    newKeys[slot] = keys[i];
+                    newHeads[slot] = heads[i];
+                }
+            }
+            keys = newKeys;
+            heads = newHeads;
+        }
+
+        synchronized int[] get(long key) {
+            int entry = heads[slot(keys, heads, key)] - 1;
+            int count = 0;
+            for (int e = entry; e >= 0; e = next[e]) {
+                count++;
+            }
+            int[] result = new int[count];
+            // entries are linked from last to first added
+            for (int e = entry; e >= 0; e = next[e]) {
+                result[--count] = values[e];
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        synchronized long getSizeInBytes() {
+            return keys.length * (long) (Long.BYTES + Integer.BYTES) + values.length * (long) (2 * Integer.BYTES);
+        }
+    }
+
+}
@@ -3,6 +3,7 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
@@ -18,6 +19,7 @@ public class ItemSearcher implements IItemSearcher {
     File caseFolder;
     IndexWriter iw;
     IPEDSource iSource;
+    ItemLookupIndex lookupIndex;
 
     public ItemSearcher(IPEDSource iSource) {
         this.iSource = iSource;
@@ -29,6 +31,16 @@ public ItemSearcher(File caseFolder, IndexWriter iw) {
         this.iSource = new IPEDSource(caseFolder, iw);
     }
 
+    /**
+     * @param lookupIndex
+     *            index of all items added to the case, used instead of lucene
+     *            queries by typed searches (searchByName, searchByPath...)
+     */
+    public ItemSearcher(File caseFolder, IndexWriter iw, ItemLookupIndex lookupIndex) {
+        this(caseFolder, iw);
+        this.lookupIndex = lookupIndex;
+    }
+
     @Override
     public List<IItemReader> search(String luceneQuery) {
 
@@ -79,6 +91,62 @@ private SearchResult getResult(String luceneQuery) {
         }
     }
 
+    @Override
+    public List<IItemReader> searchByName(String name) {
+        if (lookupIndex == null) {
+            return IItemSearcher.super.searchByName(name);
+        }
+        return getVisibleItems(lookupIndex.getByName(name));
+    }
+
+    @Override
+    public List<IItemReader> searchByPath(String path) {
+        if (lookupIndex == null) {
+            return IItemSearcher.super.searchByPath(path);
+        }
+        return getVisibleItems(lookupIndex.getByPath(path));
+    }
+
+    @Override
+    public List<IItemReader> searchByHash(String hash) {
+        if (lookupIndex == null) {
+            return IItemSearcher.super.searchByHash(hash);
+        }
+        return getVisibleItems(lookupIndex.getByHash(hash));
+    }
+
+    @Override
+    public List<IItemReader> searchByMetaAddress(String evidenceUUID, String fileSystemId,
+            Collection<Long> metaAddresses) {
+        if (lookupIndex == null) {
+            return IItemSearcher.super.searchByMetaAddress(evidenceUUID, fileSystemId, metaAddresses);
+        }
+        return getVisibleItems(lookupIndex.getByMetaAddress(evidenceUUID, fileSystemId, metaAddresses));
+    }
+
+    @Override
+    public List<IItemReader> searchChildren(int parentId) {
+        if (lookupIndex == null) {
+            return IItemSearcher.super.searchChildren(parentId);
+        }
+        return getVisibleItems(lookupIndex.getChildren(parentId));
+    }
+
+    /**
+     * Returns items found in the lookup index which are in this searcher snapshot,
+     * like lucene queries would do. Items are loaded only when accessed.
+     */
+    private List<IItemReader> getVisibleItems(int[] ids) {
+        List<IItemReader> items = new ArrayList<>(ids.length);
+        int lastId = iSource.getLastId();
+        for (int id : ids) {
+            if (id <= lastId && iSource.getLuceneId(id) != -1) {
+                items.add(new LazyItemReader(iSource, id));
+            }
+        }
+        return items;
+    }
+
     @Override
     public void close() throws IOException {
         if (iSource != null)
@@ -0,0 +1,227 @@
+package iped.engine.search;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+
+import iped.data.IItem;
+import iped.data.IItemReader;
+import iped.datasource.IDataSource;
+import iped.engine.data.IPEDSource;
+import iped.io.ISeekableInputStreamFactory;
+import iped.io.SeekableInputStream;
+
+/**
+ * Item returned by lookups of {@link ItemLookupIndex}. Id and parent id are
+ * known without loading the item, its stored document is loaded from the case
+ * snapshot only when other properties are accessed.
+ */
+class LazyItemReader implements IItemReader {
+
+    private final IPEDSource iSource;
+    private final int id;
+    private volatile IItem item;
+
+    LazyItemReader(IPEDSource iSource, int id) {
+        this.iSource = iSource;
+        this.id = id;
+    }
+
+    private IItem getItem() {
+        IItem result = item;
+        if (result == null) {
+            synchronized (this) {
+                if ((result = item) == null) {
+                    item = result = iSource.getItemByID(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public Integer getParentId() {
+        int parentId = iSource.getParentId(id);
+        return parentId != -1 ? parentId : null;
+    }
+
+    @Override
+    public Integer getSubitemId() {
+        return getItem().getSubitemId();
+    }
+
+    @Override
+    public String getName() {
+        return getItem().getName();
+    }
+
+    @Override
+    public String getExt() {
+        return getItem().getExt();
+    }
+
+    @Override
+    public String getType() {
+        return getItem().getType();
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return getItem().getMediaType();
+    }
+
+    @Override
+    public HashSet<String> getCategorySet() {
+        return getItem().getCategorySet();
+    }
+
+    @Override
+    public String getPath() {
+        return getItem().getPath();
+    }
+
+    @Override
+    public Long getLength() {
+        return getItem().getLength();
+    }
+
+    @Override
+    public String getHash() {
+        return getItem().getHash();
+    }
+
+    @Override
+    public boolean isDeleted() {
+        return getItem().isDeleted();
+    }
+
+    @Override
+    public boolean isCarved() {
+        return getItem().isCarved();
+    }
+
+    @Override
+    public boolean isSubItem() {
+        return getItem().isSubItem();
+    }
+
+    @Override
+    public boolean isDir() {
+        return getItem().isDir();
+    }
+
+    @Override
+    public boolean isRoot() {
+        return getItem().isRoot();
+    }
+
+    @Override
+    public boolean isTimedOut() {
+        return getItem().isTimedOut();
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return getItem().hasChildren();
+    }
+
+    @Override
+    public File getTempFile() throws IOException {
+        return getItem().getTempFile();
+    }
+
+    @Override
+    public SeekableInputStream getSeekableInputStream() throws IOException {
+        return getItem().getSeekableInputStream();
+    }
+
+    @Override
+    public SeekableByteChannel getSeekableByteChannel() throws IOException {
+        return getItem().getSeekableByteChannel();
+    }
+
+    @Override
+    public String getIdInDataSource() {
+        return getItem().getIdInDataSource();
+    }
+
+    @Override
+    public ISeekableInputStreamFactory getInputStreamFactory() {
+        return getItem().getInputStreamFactory();
+    }
+
+    @Override
+    public File getViewFile() {
+        return getItem().getViewFile();
+    }
+
+    @Override
+    public byte[] getThumb() {
+        return getItem().getThumb();
+    }
+
+    @Override
+    public BufferedInputStream getBufferedInputStream() throws IOException {
+        return getItem().getBufferedInputStream();
+    }
+
+    @Override
+    public ImageInputStream getImageInputStream() throws IOException {
+        return getItem().getImageInputStream();
+    }
+
+    @Override
+    public Date getModDate() {
+        return getItem().getModDate();
+    }
+
+    @Override
+    public Date getCreationDate() {
+        return getItem().getCreationDate();
+    }
+
+    @Override
+    public Date getAccessDate() {
+        return getItem().getAccessDate();
+    }
+
+    @Override
+    public Date getChangeDate() {
+        return getItem().getChangeDate();
+    }
+
+    @Override
+    public Object getExtraAttribute(String key) {
+        return getItem().getExtraAttribute(key);
+    }
+
+    @Override
+    public Map<String, Object> getExtraAttributeMap() {
+        return getItem().getExtraAttributeMap();
+    }
+
+    @Override
+    public IDataSource getDataSource() {
+        return getItem().getDataSource();
+    }
+
+    @Override
+    public Metadata getMetadata() {
+        return getItem().getMetadata();
+    }
+
+}
@@ -1,5 +1,7 @@
 package iped.engine.search;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -12,26 +14,51 @@
 import iped.engine.data.ItemId;
 import iped.search.IMultiSearchResult;
 
+/**
+ * Search result of a multicase. Items are kept in parallel primitive arrays of
+ * source ids, item ids and scores, {@link IItemId} objects are created on
+ * demand by {@link #getItem(int)}. Results with specialized item ids, like
+ * timeline ones, also keep the item id objects.
+ */
 public class MultiSearchResult implements IMultiSearchResult {
 
-    private IItemId[] ids;
+    private static final int[] EMPTY = new int[0];
+
+    private int[] sourceIds;
+    private int[] ids;
     private float[] scores;
+    private IItemId[] itemViews;
     IPEDSearcher ipedSearcher;
     IIPEDSource ipedSource;
     RoaringBitmap docids;
     RoaringBitmap[] casesBitSet = null;
 
     public MultiSearchResult() {
-        this.ids = new ItemId[0];
-        this.scores = new float[0];
+        this(EMPTY, EMPTY, new float[0]);
     }
 
     public MultiSearchResult(IItemId[] ids, float[] scores) {
-        this.ids = ids;
+        this.sourceIds = new int[ids.length];
+        this.ids = new int[ids.length];
         this.scores = scores;
+        for (int i = 0; i < ids.length; i++) {
+            this.sourceIds[i] = ids[i].getSourceId();
+            this.ids[i] = ids[i].getId();
+            if (itemViews == null && ids[i].getClass() != ItemId.class) {
+                itemViews = ids;
+            }
+        }
     }
 
     public MultiSearchResult(IIPEDSource ipedSource, IItemId[] ids, float[] scores) {
+        this(ids, scores);
+    }
+
+    /**
+     * Creates a result from parallel arrays, which are not copied.
+     */
+    public MultiSearchResult(int[] sourceIds, int[] ids, float[] scores) {
+        this.sourceIds = sourceIds;
         this.ids = ids;
         this.scores = scores;
     }
@@ -41,6 +68,27 @@ public final int getLength() {
     }
 
     public final IItemId getItem(int i) {
+        if (itemViews != null) {
+            return itemViews[i];
+        }
+        return new ItemId(sourceIds[i], ids[i]);
+    }
+
+    /**
+     * @return true if item id objects are kept, so {@link #getItem(int)} does not
+     *         create them
+     */
+    public final boolean keepsItemIds() {
+        return itemViews != null;
+    }
+
+    @Override
+    public final int getSourceId(int i) {
+        return sourceIds[i];
+    }
+
+    @Override
+    public final int getId(int i) {
         return ids[i];
     }
 
@@ -53,7 +101,17 @@ public final void setScore(int i, float score) {
     }
 
     public final void setItem(int i, IItemId itemId) {
-        ids[i] = itemId;
+        if (itemViews == null && itemId.getClass() != ItemId.class) {
+            itemViews = new IItemId[ids.length];
+            for (int j = 0; j < ids.length; j++) {
+                itemViews[j] = new ItemId(sourceIds[j], ids[j]);
+            }
+        }
+        if (itemViews != null) {
+            itemViews[i] = itemId;
+        }
+        sourceIds[i] = itemId.getSourceId();
+        ids[i] = itemId.getId();
     }
 
     public Iterable<IItemId> getIterator() {
@@ -76,7 +134,7 @@ public final boolean hasNext() {
 
         @Override
         public final IItemId next() {
-            return ids[pos++];
+            return getItem(pos++);
         }
 
         @Override
@@ -93,40 +151,84 @@ public void setPos(int pos) {
         }
     }
 
+    /**
+     * Keeps the items contained (or not contained) in the per source bitmaps,
+     * without creating item id objects. Repeated items are kept just once, items
+     * with specialized ids (e.g. timeline events of the same item) are compared
+     * using their own equals().
+     *
+     * @param bitmaps
+     *            item ids indexed by source id
+     * @param exclude
+     *            if items contained in the bitmaps must be removed instead of kept
+     */
+    public MultiSearchResult filter(RoaringBitmap[] bitmaps, boolean exclude) {
+        int[] newSourceIds = new int[ids.length];
+        int[] newIds = new int[ids.length];
+        float[] newScores = new float[ids.length];
+        IItemId[] newViews = itemViews != null ? new IItemId[ids.length] : null;
+        RoaringBitmap[] added = newViews == null ? new RoaringBitmap[bitmaps.length] : null;
+        HashSet<IItemId> addedViews = newViews != null ? new HashSet<>() : null;
+        int len = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int sourceId = sourceIds[i];
+            if (bitmaps[sourceId].contains(ids[i]) == exclude) {
+                continue;
+            }
+            if (addedViews != null) {
+                if (!addedViews.add(itemViews[i])) {
+                    continue;
+                }
+            } else {
+                if (added[sourceId] == null) {
+                    added[sourceId] = new RoaringBitmap();
+                }
+                if (!added[sourceId].checkedAdd(ids[i])) {
+                    continue;
+                }
+            }
+            newSourceIds[len] = sourceId;
+            newIds[len] = ids[i];
+            newScores[len] = scores[i];
+            if (newViews != null) {
+                newViews[len] = itemViews[i];
+            }
+            len++;
+        }
+        MultiSearchResult result = new MultiSearchResult(Arrays.copyOf(newSourceIds, len), Arrays.copyOf(newIds, len),
+                Arrays.copyOf(newScores, len));
+        if (newViews != null) {
+            result.itemViews = Arrays.copyOf(newViews, len);
+        }
+        return result;
+    }
+
     public static MultiSearchResult get(IPEDMultiSource iSource, LuceneSearchResult luceneResult) {
 
         // System.out.println("multi Result");
 
-        MultiSearchResult result = new MultiSearchResult();
-        result.scores = luceneResult.getScores();
-        result.ids = new ItemId[luceneResult.getLength()];
-
-        if (luceneResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                result.ids[i] = iSource.getItemId(docs[i]);
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            int maxdoc = 0;
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                if (atomicSource == null || docs[i] >= baseDoc + maxdoc) {
-                    atomicSource = iSource.getAtomicSource(docs[i]);
-                    sourceId = atomicSource.getSourceId();
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                    maxdoc = atomicSource.getReader().maxDoc();
-                }
-                result.ids[i] = new ItemId(sourceId, atomicSource.getId(docs[i] - baseDoc));
+        int[] docs = luceneResult.getLuceneIds();
+        int[] sourceIds = new int[docs.length];
+        int[] ids = new int[docs.length];
+
+        // Otimização: itens geralmente estão em ordem crescente do LuceneId (qdo não
+        // usa scores), assim o caso atômico raramente muda
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        int maxdoc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (atomicSource == null || docs[i] < baseDoc || docs[i] >= baseDoc + maxdoc) {
+                atomicSource = iSource.getAtomicSource(docs[i]);
+                sourceId = atomicSource.getSourceId();
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
+                maxdoc = atomicSource.getReader().maxDoc();
             }
+            sourceIds[i] = sourceId;
+            ids[i] = atomicSource.getId(docs[i] - baseDoc);
         }
 
-        return result;
+        return new MultiSearchResult(sourceIds, ids, luceneResult.getScores());
     }
 
     public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSource iSource) {
@@ -134,30 +236,17 @@ public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSou
         float[] scores = lResult.getScores();
         int[] docs = lResult.getLuceneIds();
 
-        int i = 0;
-        if (ipedResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            for (IItemId item : ipedResult.getIterator()) {
-                scores[i] = ipedResult.getScore(i);
-                docs[i] = iSource.getLuceneId(item);
-                i++;
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            for (IItemId item : ipedResult.getIterator()) {
-                if (atomicSource == null || item.getSourceId() != sourceId) {
-                    sourceId = item.getSourceId();
-                    atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                }
-                docs[i] = atomicSource.getLuceneId(item.getId()) + baseDoc;
-                scores[i] = ipedResult.getScore(i);
-                i++;
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (atomicSource == null || ipedResult.getSourceId(i) != sourceId) {
+                sourceId = ipedResult.getSourceId(i);
+                atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
             }
+            docs[i] = atomicSource.getLuceneId(ipedResult.getId(i)) + baseDoc;
+            scores[i] = ipedResult.getScore(i);
         }
 
         return lResult;
@@ -165,9 +254,8 @@ public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSou
 
     @Override
     public MultiSearchResult clone() {
-        MultiSearchResult result = new MultiSearchResult();
-        result.ids = this.ids.clone();
-        result.scores = this.scores.clone();
+        MultiSearchResult result = new MultiSearchResult(sourceIds.clone(), ids.clone(), scores.clone());
+        result.itemViews = itemViews != null ? itemViews.clone() : null;
         return result;
     }
 
@@ -197,7 +285,12 @@ public void setIPEDSource(IIPEDSource ipedSource) {
             this.ipedSource = ipedSource;
             this.docids = new RoaringBitmap();
             for (int i = 0; i < ids.length; i++) {
-                int lucId = ipedSource.getLuceneId(ids[i]);
+                int lucId;
+                if (ipedSource instanceof IPEDMultiSource) {
+                    lucId = ((IPEDMultiSource) ipedSource).getLuceneId(sourceIds[i], ids[i]);
+                } else {
+                    lucId = ipedSource.getLuceneId(ids[i]);
+                }
                 docids.add(lucId);
             }
         }
@@ -205,7 +298,7 @@ public void setIPEDSource(IIPEDSource ipedSource) {
 
     public RoaringBitmap[] getCasesBitSets(IPEDMultiSource multiSource) {
         if (casesBitSet == null) {
-            Integer lastSourceId = -1;
+            int lastSourceId = -1;
             RoaringBitmap bitset = null;
             int maxSrcId = 0;
 
@@ -225,12 +318,12 @@ public RoaringBitmap[] getCasesBitSets(IPEDMultiSource multiSource) {
             }
 
             for (int i = 0; i < ids.length; i++) {
-                int sourceId = ids[i].getSourceId();
+                int sourceId = sourceIds[i];
                 if (sourceId != lastSourceId) {
-                    bitset = casesBitSet[ids[i].getSourceId()];
+                    bitset = casesBitSet[sourceId];
                     lastSourceId = sourceId;
                 }
-                bitset.add(ids[i].getId());
+                bitset.add(ids[i]);
             }
         }
         return casesBitSet;
@@ -16,7 +16,9 @@
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.MultiTerms;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.flexible.standard.QueryParserUtil;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
@@ -137,7 +139,8 @@ public int compare(String o1, String o2) {
                 if (query instanceof MultiTermQuery) {
                     MultiTermQuery mtq = (MultiTermQuery) query;
                     try {
-                        TermsEnum terms = mtq.getTermsEnum(ipedCase.getLeafReader().terms(mtq.getField()));
+                        Terms fieldTerms = MultiTerms.getTerms(ipedCase.getReader(), mtq.getField());
+                        TermsEnum terms = fieldTerms != null ? mtq.getTermsEnum(fieldTerms) : TermsEnum.EMPTY;
                         int maxTerms = IndexSearcher.getMaxClauseCount();
                         BytesRef br;
                         while (termSet.size() < maxTerms && (br = terms.next()) != null) {
@@ -3,18 +3,18 @@
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.util.BytesRef;
 
 import iped.data.IItem;
-import iped.data.IItemId;
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.data.IPEDSource;
+import iped.engine.lucene.SegmentDocValues;
 
 public class SimilarFacesSearch {
 
@@ -60,7 +60,7 @@ private static final float squaredDistToScore(float squaredDist) {
 
     private void score(MultiSearchResult result) throws IOException {
 
-        LeafReader leafReader = ipedCase.getLeafReader();
+        SegmentDocValues docValues = ipedCase.getDocValues();
         int numThreads = Runtime.getRuntime().availableProcessors();
         Thread[] threads = new Thread[numThreads];
         int len = result.getLength();
@@ -69,25 +69,41 @@ private void score(MultiSearchResult result) throws IOException {
             int threadIdx = k;
             (threads[k] = new Thread() {
                 public void run() {
-                    SortedSetDocValues similarityFeaturesValues = null;
+                    SortedSetDocValues[] leafValues = null;
                     try {
-                        similarityFeaturesValues = leafReader.getSortedSetDocValues(FACE_FEATURES);
+                        leafValues = docValues.getLeafSortedSetDocValues(FACE_FEATURES);
                     } catch (IOException e) {
                         e.printStackTrace();
                         return;
                     }
                     int i0 = Math.min(len, itemsPerThread * threadIdx);
                     int i1 = Math.min(len, i0 + itemsPerThread);
+                    if (leafValues == null) {
+                        for (int i = i0; i < i1; i++) {
+                            result.setScore(i, 0);
+                        }
+                        return;
+                    }
+                    // visit docs in increasing order, doc values are forward only iterators
+                    long[] docAndIndex = new long[i1 - i0];
                     for (int i = i0; i < i1; i++) {
-                        if (i % 1000 == 0 && this.isInterrupted()) {
+                        int luceneId = ipedCase.getLuceneId(result.getSourceId(i), result.getId(i));
+                        docAndIndex[i - i0] = ((long) luceneId << 32) | i;
+                    }
+                    Arrays.sort(docAndIndex);
+                    for (int j = 0; j < docAndIndex.length; j++) {
+                        if (j % 1000 == 0 && this.isInterrupted()) {
                             return;
                         }
-                        IItemId itemId = result.getItem(i);
-                        int luceneId = ipedCase.getLuceneId(itemId);
+                        int luceneId = (int) (docAndIndex[j] >>> 32);
+                        int i = (int) docAndIndex[j];
+                        int leaf = docValues.getLeafIndex(luceneId);
+                        SortedSetDocValues similarityFeaturesValues = leafValues[leaf];
                         long ordinal;
                         float score = 0;
                         try {
-                            boolean hasVal = similarityFeaturesValues.advanceExact(luceneId);
+                            int doc = luceneId - docValues.leaves().get(leaf).docBase;
+                            boolean hasVal = similarityFeaturesValues.advanceExact(doc);
                             while (hasVal && (ordinal = similarityFeaturesValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
                                 BytesRef bytesRef = similarityFeaturesValues.lookupOrd(ordinal);
                                 float[] currentFeatures = convToFloatVec(bytesRef.bytes);
@@ -3,12 +3,15 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -17,8 +20,13 @@
 import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.tika.utils.SystemUtils;
 import org.slf4j.Logger;
@@ -33,12 +41,19 @@
 import iped.engine.sleuthkit.SleuthkitServer.FLAGS;
 import iped.io.SeekableInputStream;
 
+/**
+ * Client of a {@link SleuthkitServer} process. Requests of different streams
+ * run in parallel, each one using a free slot of the shared memory. A response
+ * dispatcher thread reads the indexes of completed slots from the server stdout
+ * and wakes up the threads waiting for them.
+ */
 public class SleuthkitClient implements Comparable<SleuthkitClient> {
 
     private static Logger logger = LoggerFactory.getLogger(SleuthkitClient.class);
 
     private static final int MAX_STREAMS = 10000;
     private static final int TIMEOUT_SECONDS = 3600;
+    private static final int MEMORY_WRITE_TIMEOUT = 10000;
 
     private static PriorityQueue<SleuthkitClient> clientPriorityQueue = new PriorityQueue<>();
     private static Object lock = new Object();
@@ -66,11 +81,36 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
     OutputStream os;
     Random rand = new Random();
 
-    private boolean serverError = false;
+    private volatile boolean serverError = false;
     private int openedStreams = 0;
     private Set<SleuthkitClientInputStream> currentStreams = new HashSet<>();
     private int priority = 0;
-    private long requestTime = 0;
+
+    private final Slot[] slots = new Slot[SleuthkitServer.NUM_SLOTS];
+    private final BlockingQueue<Slot> freeSlots = new ArrayBlockingQueue<>(SleuthkitServer.NUM_SLOTS);
+
+    /**
+     * Requests hold the read lock, restarts the write lock, so the server is
+     * never restarted with requests in flight.
+     */
+    private final ReadWriteLock processLock = new ReentrantReadWriteLock();
+    private volatile int generation = 0;
+    private volatile boolean processExited = false;
+
+    static class Slot {
+
+        private static final int IDLE = 0, WAITING = 1, DONE = 2, FAILED = 3;
+
+        final int index;
+        ByteBuffer buf;
+        volatile int state = IDLE;
+        volatile Thread waiter;
+        volatile long requestTime = 0;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+    }
 
     static class TimeoutMonitor extends Thread {
         public void run() {
@@ -86,36 +126,33 @@ public void run() {
         }
     }
 
-    synchronized boolean isServerError() {
+    boolean isServerError() {
         return serverError;
     }
 
-    synchronized void setServerError(boolean error) {
+    void setServerError(boolean error) {
         serverError = error;
     }
 
     private synchronized void checkTimeout() {
-        if (requestTime == 0)
-            return;
-        if (SleuthkitServer.getByte(mbb, 0) != FLAGS.SQLITE_READ) {
-            logger.info("Waiting SleuthkitServer {} database read...", id); //$NON-NLS-1$
-            return;
-        }
-        if (System.currentTimeMillis() / 1000 - requestTime >= TIMEOUT_SECONDS) {
-            logger.error("Timeout waiting SleuthkitServer " + id + " response! Restarting...");
-            serverError = true;
-            requestTime = 0;
-            finishProcess(false);
+        for (Slot slot : slots) {
+            long requestTime = slot.requestTime;
+            if (requestTime == 0 || slot.state != Slot.WAITING)
+                continue;
+            if (SleuthkitServer.getByte(slot.buf, SleuthkitServer.CMD) != FLAGS.SQLITE_READ) {
+                logger.info("Waiting SleuthkitServer {} database read...", id); //$NON-NLS-1$
+                continue;
+            }
+            if (System.currentTimeMillis() / 1000 - requestTime >= TIMEOUT_SECONDS) {
+                logger.error("Timeout waiting SleuthkitServer " + id + " response! Restarting...");
+                serverError = true;
+                // waiting requests will fail when the process exits
+                finishProcess(false);
+                return;
+            }
         }
     }
 
-    synchronized void enableTimeoutCheck(boolean enable) {
-        if (enable)
-            requestTime = System.currentTimeMillis() / 1000;
-        else
-            requestTime = 0;
-    }
-
     public static synchronized void addEnvVar(String key, String value) {
         newEnvVars.put(key, value);
     }
@@ -162,6 +199,10 @@ public static void shutDownServers() {
     }
 
     private SleuthkitClient() {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(i);
+            freeSlots.add(slots[i]);
+        }
         while (process == null || !isAlive(process)) {
             start();
         }
@@ -203,6 +244,10 @@ private synchronized void start() {
                 fc = raf.getChannel();
                 mbb = fc.map(MapMode.READ_WRITE, 0, size);
                 mbb.load();
+                ByteBuffer[] slotBuffers = SleuthkitServer.getSlots(mbb);
+                for (int i = 0; i < slots.length; i++) {
+                    slots[i].buf = slotBuffers[i];
+                }
             } catch (ClosedByInterruptException e) {
                 // clear interrupt status
                 Thread.interrupted();
@@ -220,6 +265,9 @@ private synchronized void start() {
                 throw new Exception("Error starting SleuthkitServer " + id); //$NON-NLS-1$
             }
 
+            processExited = false;
+            new ResponseDispatcher(is, ++generation).start();
+
             logger.info("Starting SleuthkitServer {} started.", id);
 
         } catch (Exception e) {
@@ -247,27 +295,12 @@ public void run() {
         }.start();
     }
 
-    private synchronized boolean ping() {
-        int i = rand.nextInt(255) + 1;
-        try {
-            os.write(i);
-            os.flush();
-            int r = is.read();
-            if (r == i)
-                return true;
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return false;
-    }
-
     private synchronized boolean isFineToUse() {
         if (serverError) {
             return false;
         }
-        if (!ping()) {
-            logger.warn("Ping SleuthkitServer " + this.id + " failed! Restarting..."); //$NON-NLS-1$ //$NON-NLS-2$
+        if (process == null || !isAlive(process)) {
+            logger.warn("SleuthkitServer " + this.id + " is not running! Restarting..."); //$NON-NLS-1$ //$NON-NLS-2$
             return false;
         }
         if (openedStreams > MAX_STREAMS && currentStreams.size() == 0) {
@@ -277,29 +310,192 @@ private synchronized boolean isFineToUse() {
         return true;
     }
 
-    public synchronized SeekableInputStream getInputStream(int id, String path) throws IOException {
+    public SeekableInputStream getInputStream(int id, String path) throws IOException {
 
         if (!isFineToUse()) {
             restartServer();
         }
 
-        SleuthkitClientInputStream stream = new SleuthkitClientInputStream(id, path, this);
-        currentStreams.add(stream);
-        openedStreams++;
-        return stream;
+        synchronized (this) {
+            SleuthkitClientInputStream stream = new SleuthkitClientInputStream(id, path, this);
+            currentStreams.add(stream);
+            openedStreams++;
+            return stream;
+        }
     }
 
-    synchronized void restartServer() throws IOException {
+    void restartServer() throws IOException {
 
-        finishProcess(false);
+        processLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                if (isFineToUse()) {
+                    // already restarted by other thread
+                    return;
+                }
+                finishProcess(false);
 
-        while (process == null || !isAlive(process)) {
-            start();
+                while (process == null || !isAlive(process)) {
+                    start();
+                }
+
+                openedStreams = 0;
+                currentStreams.forEach(s -> s.seekAfterRestart = true);
+                serverError = false;
+            }
+        } finally {
+            processLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Acquires a free slot to send a request, restarting the server if needed.
+     * Must be followed by {@link #endRequest(Slot)}.
+     */
+    Slot beginRequest() throws IOException {
+        while (true) {
+            processLock.readLock().lock();
+            if (!serverError) {
+                break;
+            }
+            processLock.readLock().unlock();
+            restartServer();
+        }
+        try {
+            return freeSlots.take();
+        } catch (InterruptedException e) {
+            processLock.readLock().unlock();
+            throw new InterruptedIOException(e.toString());
         }
+    }
 
-        openedStreams = 0;
-        currentStreams.forEach(s -> s.seekAfterRestart = true);
-        serverError = false;
+    void endRequest(Slot slot) {
+        slot.state = Slot.IDLE;
+        slot.waiter = null;
+        freeSlots.add(slot);
+        processLock.readLock().unlock();
+    }
+
+    /**
+     * Sends the command written into the slot and blocks until the server
+     * responds.
+     *
+     * @return the server response flag
+     */
+    byte sendRequest(Slot slot, byte cmd, String path) throws IOException {
+        slot.waiter = Thread.currentThread();
+        slot.state = Slot.WAITING;
+        SleuthkitServer.commitByte(slot.buf, SleuthkitServer.CMD, cmd);
+        try {
+            SleuthkitServer.notify(os, slot.index);
+        } catch (IOException e) {
+            serverError = true;
+            logger.error("Notify error: " + getCrashMsg(path));
+            throw e;
+        }
+
+        slot.requestTime = System.currentTimeMillis() / 1000;
+        boolean interrupted = false;
+        try {
+            // the server is using the slot, so we must wait even if interrupted
+            while (slot.state == Slot.WAITING) {
+                if (processExited && slot.state == Slot.WAITING) {
+                    slot.state = Slot.FAILED;
+                    break;
+                }
+                LockSupport.parkNanos(slot, 1000000000L);
+                if (Thread.interrupted()) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            slot.requestTime = 0;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (slot.state == Slot.FAILED) {
+            serverError = true;
+            logger.error("Wait response error: " + getCrashMsg(path));
+            throw new IOException(getServerId() + " pipe closed!"); //$NON-NLS-1$
+        }
+
+        byte response;
+        long time = 0;
+        while (FLAGS.isClientCmd(response = SleuthkitServer.getByte(slot.buf, SleuthkitServer.CMD))
+                || response == FLAGS.SQLITE_READ) {
+            if (time == 0) {
+                time = System.currentTimeMillis();
+                logger.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
+            }
+            Thread.onSpinWait();
+            if (System.currentTimeMillis() - time >= MEMORY_WRITE_TIMEOUT) {
+                serverError = true;
+                logger.error("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
+                throw new IOException("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
+            }
+        }
+
+        if (response == FLAGS.EXCEPTION) {
+            int len = slot.buf.getInt(SleuthkitServer.ARG);
+            byte[] b = new byte[len];
+            slot.buf.position(SleuthkitServer.DATA);
+            slot.buf.get(b);
+            throw new IOException(getServerId() + " error: " + new String(b, StandardCharsets.UTF_8)); //$NON-NLS-1$
+        }
+
+        return response;
+    }
+
+    String getServerId() {
+        return "SleuthkitServer " + id;
+    }
+
+    private String getCrashMsg(String path) {
+        return "Possible " + getServerId() + " crash reading " + path; //$NON-NLS-1$
+    }
+
+    /**
+     * Reads the indexes of slots with responses ready from the server stdout.
+     */
+    private class ResponseDispatcher extends Thread {
+
+        private final InputStream is;
+        private final int gen;
+
+        private ResponseDispatcher(InputStream is, int gen) {
+            super("SleuthkitClient-" + id + "-" + gen); //$NON-NLS-1$ //$NON-NLS-2$
+            this.is = is;
+            this.gen = gen;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                int b;
+                while ((b = is.read()) != -1) {
+                    if (b < slots.length && gen == generation) {
+                        Slot slot = slots[b];
+                        slot.state = Slot.DONE;
+                        LockSupport.unpark(slot.waiter);
+                    }
+                }
+            } catch (IOException e) {
+                // process was killed
+            }
+            synchronized (SleuthkitClient.this) {
+                if (gen != generation) {
+                    return;
+                }
+                processExited = true;
+                serverError = true;
+            }
+            for (Slot slot : slots) {
+                LockSupport.unpark(slot.waiter);
+            }
+        }
     }
 
     synchronized void removeStream(SleuthkitClientInputStream stream) {
@@ -1,34 +1,28 @@
 package iped.engine.sleuthkit;
 
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
+import iped.engine.sleuthkit.SleuthkitClient.Slot;
 import iped.engine.sleuthkit.SleuthkitServer.FLAGS;
 import iped.io.SeekableInputStream;
 
 public class SleuthkitClientInputStream extends SeekableInputStream {
 
-    private static Logger LOGGER = LoggerFactory.getLogger(SleuthkitClientInputStream.class);
-
     private static AtomicLong next = new AtomicLong();
 
-    private static int TIMEOUT = 10000;
-
     int sleuthId;
     String path;
     SleuthkitClient client;
     long streamId = next.getAndIncrement();
     int bufPos = 0;
+    int bufLen = 0;
     byte[] buf;
     boolean closed = false, empty = true;
     long position = 0;
     Long size;
-    boolean seekAfterRestart = false;
+    volatile boolean seekAfterRestart = false;
 
     public SleuthkitClientInputStream(int id, String path, SleuthkitClient client) {
         this.sleuthId = id;
@@ -36,12 +30,8 @@ public SleuthkitClientInputStream(int id, String path, SleuthkitClient client) {
         this.client = client;
     }
 
-    private String getServerId() {
-        return "SleuthkitServer " + client.id;
-    }
-
     @Override
-    public int read(byte b[], int off, int len) throws IOException {
+    public synchronized int read(byte b[], int off, int len) throws IOException {
 
         if (closed) {
             throw new IOException("Stream is closed!"); //$NON-NLS-1$
@@ -55,32 +45,33 @@ public int read(byte b[], int off, int len) throws IOException {
     private int readIn(byte b[], int off, int len) throws IOException {
 
         if (empty) {
-            synchronized (client) {
-                if (client.isServerError()) {
-                    client.restartServer();
-                }
-                if (seekAfterRestart) {
-                    seek(position);
-                    seekAfterRestart = false;
-                }
-                byte cmd = sendRead(len);
+            Slot slot = beginRequest();
+            try {
+                ByteBuffer sbuf = slot.buf;
+                sbuf.putInt(SleuthkitServer.ARG, len);
+                byte cmd = client.sendRequest(slot, FLAGS.READ, path);
                 if (cmd == FLAGS.EOF) {
                     return -1;
                 }
-                int size = client.mbb.getInt(13);
-                buf = new byte[size];
-                client.mbb.position(17);
-                client.mbb.get(buf, 0, size);
+                int size = sbuf.getInt(SleuthkitServer.ARG);
+                if (buf == null || buf.length < size) {
+                    buf = new byte[size];
+                }
+                sbuf.position(SleuthkitServer.DATA);
+                sbuf.get(buf, 0, size);
+                bufLen = size;
                 bufPos = 0;
                 empty = false;
+            } finally {
+                client.endRequest(slot);
             }
         }
 
-        int copyLen = Math.min(len, buf.length - bufPos);
+        int copyLen = Math.min(len, bufLen - bufPos);
         System.arraycopy(buf, bufPos, b, off, copyLen);
 
         bufPos += copyLen;
-        if (bufPos == buf.length) {
+        if (bufPos == bufLen) {
             empty = true;
         }
         position += copyLen;
@@ -88,106 +79,50 @@ private int readIn(byte b[], int off, int len) throws IOException {
         return copyLen;
     }
 
-    private byte sendRead(int len) throws IOException {
-        client.mbb.putInt(1, sleuthId);
-        client.mbb.putLong(5, streamId);
-        client.mbb.putInt(13, len);
-        SleuthkitServer.commitByte(client.mbb, 0, FLAGS.READ);
-        notifyServer();
-        return waitServerResponse();
-    }
-
-    private byte waitServerResponse() throws IOException {
-
-        client.enableTimeoutCheck(true);
+    /**
+     * Acquires a slot with the stream identification written, seeking to the
+     * current position first if the server was restarted.
+     */
+    private Slot beginRequest() throws IOException {
+        Slot slot = client.beginRequest();
         try {
-            int b = client.is.read();
-            if (b == -1)
-                throw new IOException(getServerId() + " pipe closed!"); //$NON-NLS-1$
-
-        } catch (IOException e) {
-            client.setServerError(true);
-            LOGGER.error("Wait response error: " + getCrashMsg());
-            throw e;
-
-        } finally {
-            client.enableTimeoutCheck(false);
-        }
-
-        byte cmd;
-        long time = 0;
-        while (FLAGS.isClientCmd(cmd = SleuthkitServer.getByte(client.mbb, 0)) || cmd == FLAGS.SQLITE_READ) {
-            try {
-                if (time == 0) {
-                    time = System.currentTimeMillis();
-                }
-                Thread.sleep(1);
-                LOGGER.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
-
-                if (System.currentTimeMillis() - time >= TIMEOUT) {
-                    client.setServerError(true);
-                    LOGGER.error("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
-                    throw new IOException("MemoryReadTimeout waiting " + getServerId() + ": " + path); //$NON-NLS-1$
-                }
-
-            } catch (InterruptedException e) {
-                throw new InterruptedIOException(e.toString());
+            slot.buf.putInt(SleuthkitServer.CONTENT_ID, sleuthId);
+            slot.buf.putLong(SleuthkitServer.STREAM_ID, streamId);
+            if (seekAfterRestart) {
+                slot.buf.putLong(SleuthkitServer.ARG, position);
+                client.sendRequest(slot, FLAGS.SEEK, path);
+                seekAfterRestart = false;
             }
-        }
+            return slot;
 
-        if (cmd == FLAGS.EXCEPTION) {
-            int len = client.mbb.getInt(13);
-            byte[] b = new byte[len];
-            client.mbb.position(17);
-            client.mbb.get(b);
-            try {
-                throw new IOException(getServerId() + " error: " + new String(b, "UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
-            } catch (UnsupportedEncodingException e) {
-            }
-        }
-
-        return cmd;
-    }
-
-    private void notifyServer() throws IOException {
-        try {
-            SleuthkitServer.notify(client.os);
-        } catch (IOException e) {
-            client.setServerError(true);
-            LOGGER.error("Notify error: " + getCrashMsg());
+        } catch (IOException | RuntimeException e) {
+            client.endRequest(slot);
             throw e;
         }
     }
 
-    private String getCrashMsg() {
-        return "Possible " + getServerId() + " crash reading " + path; //$NON-NLS-1$
-    }
-
     @Override
-    public void seek(long pos) throws IOException {
+    public synchronized void seek(long pos) throws IOException {
 
         if (closed) {
             throw new IOException("Stream is closed!"); //$NON-NLS-1$
         }
 
         long dif = pos - position;
-        if (!empty && bufPos + dif >= 0 && bufPos + dif < buf.length) {
+        if (!empty && bufPos + dif >= 0 && bufPos + dif < bufLen) {
             bufPos += dif;
 
         } else {
-            synchronized (client) {
-                if (client.isServerError()) {
-                    client.restartServer();
-                }
-                client.mbb.putInt(1, sleuthId);
-                client.mbb.putLong(5, streamId);
-                client.mbb.putLong(13, pos);
-                SleuthkitServer.commitByte(client.mbb, 0, FLAGS.SEEK);
-                notifyServer();
-                waitServerResponse();
+            // a pending seek after restart is not needed anymore
+            seekAfterRestart = false;
+            Slot slot = beginRequest();
+            try {
+                slot.buf.putLong(SleuthkitServer.ARG, pos);
+                client.sendRequest(slot, FLAGS.SEEK, path);
                 empty = true;
                 bufPos = 0;
-                seekAfterRestart = false;
+            } finally {
+                client.endRequest(slot);
             }
         }
         position = pos;
@@ -195,12 +130,12 @@ public void seek(long pos) throws IOException {
     }
 
     @Override
-    public long position() throws IOException {
+    public synchronized long position() throws IOException {
         return position;
     }
 
     @Override
-    public long size() throws IOException {
+    public synchronized long size() throws IOException {
 
         if (size != null)
             return size;
@@ -209,17 +144,13 @@ public long size() throws IOException {
             throw new IOException("Stream is closed!"); //$NON-NLS-1$
         }
 
-        synchronized (client) {
-            if (client.isServerError()) {
-                client.restartServer();
-            }
-            client.mbb.putInt(1, sleuthId);
-            client.mbb.putLong(5, streamId);
-            SleuthkitServer.commitByte(client.mbb, 0, FLAGS.SIZE);
-            notifyServer();
-            waitServerResponse();
-            size = client.mbb.getLong(13);
+        Slot slot = beginRequest();
+        try {
+            client.sendRequest(slot, FLAGS.SIZE, path);
+            size = slot.buf.getLong(SleuthkitServer.ARG);
             return size;
+        } finally {
+            client.endRequest(slot);
         }
 
     }
@@ -245,23 +176,27 @@ public int read() throws IOException {
     }
 
     @Override
-    public void close() throws IOException {
+    public synchronized void close() throws IOException {
 
         if (closed) {
             return;
         }
-        synchronized (client) {
+        try {
             if (!client.isServerError()) {
-                client.mbb.putInt(1, sleuthId);
-                client.mbb.putLong(5, streamId);
-                SleuthkitServer.commitByte(client.mbb, 0, FLAGS.CLOSE);
-                notifyServer();
-                waitServerResponse();
+                Slot slot = client.beginRequest();
+                try {
+                    slot.buf.putInt(SleuthkitServer.CONTENT_ID, sleuthId);
+                    slot.buf.putLong(SleuthkitServer.STREAM_ID, streamId);
+                    client.sendRequest(slot, FLAGS.CLOSE, path);
+                } finally {
+                    client.endRequest(slot);
+                }
             }
+        } finally {
             client.removeStream(this);
+            empty = true;
+            closed = true;
         }
-        empty = true;
-        closed = true;
 
     }
 
@@ -1,16 +1,25 @@
 package iped.engine.sleuthkit;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.SleuthkitCase;
@@ -20,10 +29,37 @@
 import iped.engine.config.LocalConfig;
 import iped.engine.util.DirectMemory;
 
+/**
+ * Process serving reads of sleuthkit contents to {@link SleuthkitClient}.
+ *
+ * The shared memory file is divided into a small header and {@link #NUM_SLOTS}
+ * slots, each one holding a request and its response, so many streams can have
+ * requests in flight at the same time. The client writes the slot index to the
+ * server stdin when a request is ready, the server processes it in a thread pool
+ * and writes the same slot index to stdout when the response is ready. Both
+ * sides block on the pipes instead of polling the shared memory.
+ *
+ * Sequential streams are read ahead: after a read, the next block is read in
+ * background, so it is ready when the client asks for it.
+ */
 public class SleuthkitServer {
 
-    public static final int MMAP_FILE_SIZE = 10 * 1024 * 1024;
-    private static final int MAX_BUF_SIZE = 8 * 1024 * 1024; // must be less than MMAP_FILE_SIZE
+    static final int NUM_SLOTS = 16;
+    static final int HEADER_SIZE = 64;
+    private static final int MAX_BUF_SIZE = 1024 * 1024;
+    static final int SLOT_SIZE = MAX_BUF_SIZE + 64; // must be greater than MAX_BUF_SIZE + DATA
+    public static final int MMAP_FILE_SIZE = HEADER_SIZE + NUM_SLOTS * SLOT_SIZE;
+
+    // positions inside each slot
+    static final int CMD = 0;
+    static final int CONTENT_ID = 1;
+    static final int STREAM_ID = 5;
+    static final int ARG = 13;
+    static final int DATA = 17;
+
+    private static final int MIN_TO_READ = 64 * 1024;
+    private static final long MAX_READ_AHEAD_MEMORY = 32 * 1024 * 1024;
+    private static final int MIN_SEQUENTIAL_READS = 2;
 
     static class FLAGS {
 
@@ -49,6 +85,13 @@ final static boolean isClientCmd(int cmd) {
 
     static boolean useUnsafe = true;
 
+    private static SleuthkitCase sleuthCase;
+    private static final Map<Long, ServerStream> streams = new ConcurrentHashMap<>();
+    private static final Set<Long> warmedDataSources = Collections.synchronizedSet(new HashSet<>());
+    private static final AtomicLong readAheadMemory = new AtomicLong();
+    private static ExecutorService readAheadExecutor;
+    private static OutputStream os;
+
     public static void main(String args[]) {
 
         String dbPath = args[0];
@@ -56,8 +99,8 @@ public static void main(String args[]) {
         String pipePath = args[2];
         MappedByteBuffer out = null;
 
-        InputStream in = System.in;
-        OutputStream os = System.out;
+        InputStream in = new BufferedInputStream(System.in);
+        os = System.out;
         System.setIn(new ByteArrayInputStream(new byte[0]));
         System.setOut(System.err);
 
@@ -76,95 +119,121 @@ public static void main(String args[]) {
             cm.loadConfigs();
             Configuration.getInstance().loadNativeLibs();
 
-            SleuthkitCase sleuthCase = SleuthkitInputStreamFactory.openSleuthkitCase(dbPath);
-            HashMap<Long, SleuthkitInputStream> sisMap = new HashMap<>();
+            sleuthCase = SleuthkitInputStreamFactory.openSleuthkitCase(dbPath);
 
             java.util.logging.Logger.getLogger("org.sleuthkit").setLevel(java.util.logging.Level.SEVERE); //$NON-NLS-1$
 
-            commitByte(out, 0, FLAGS.DONE);
-            notify(os);
+            ByteBuffer[] slots = getSlots(out);
+            ExecutorService executor = Executors.newFixedThreadPool(NUM_SLOTS, r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+            readAheadExecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
 
-            byte[] buf = new byte[MAX_BUF_SIZE];
-            int minToRead = 64 * 1024;
-            SleuthkitInputStream sis = null;
+            commitByte(out, 0, FLAGS.DONE);
+            notify(os, 0);
 
             while (true) {
-                try {
-                    int read = in.read();
-                    if (read == -1)
-                        break;
-                    if (read > 0) {
-                        // ping response
-                        os.write(read);
-                        os.flush();
-                        continue;
-                    }
-                    byte cmd = waitCmd(out, in);
-                    sis = getSis(out, sleuthCase, sisMap);
-                    commitByte(out, 0, FLAGS.SQLITE_READ);
-
-                    if (cmd == FLAGS.SEEK) {
-                        sis.seek(out.getLong(13));
-                    } else if (cmd == FLAGS.CLOSE) {
-                        sis = sisMap.remove(out.getLong(5));
-                        sis.close();
-                    } else if (cmd == FLAGS.READ) {
-                        int len = out.getInt(13);
-                        len = Math.max(minToRead, Math.min(len, buf.length));
-                        len = readIn(sis, buf, len);
-                        if (len == -1) {
-                            commitByte(out, 0, FLAGS.EOF);
-                            notify(os);
-                            continue;
-                        } else {
-                            writeOut(out, buf, len);
-                        }
-                    } else if (cmd == FLAGS.SIZE) {
-                        out.putLong(13, sis.size());
-                    } else if (cmd == FLAGS.POSITION) {
-                        out.putLong(13, sis.position());
-                    }
-
-                    commitByte(out, 0, FLAGS.DONE);
-                    notify(os);
-
-                } catch (Throwable e) {
-                    // e.printStackTrace(System.err);
-                    byte[] msgBytes = e.getMessage().getBytes("UTF-8"); //$NON-NLS-1$
-                    out.putInt(13, msgBytes.length);
-                    out.position(17);
-                    out.put(msgBytes);
-                    commitByte(out, 0, FLAGS.EXCEPTION);
-                    notify(os);
-                }
+                int slot = in.read();
+                if (slot == -1)
+                    break;
+                if (slot >= NUM_SLOTS)
+                    continue;
+                executor.execute(() -> processRequest(slots[slot], slot));
             }
 
         } catch (Throwable e) {
             e.printStackTrace();
-            commitByte(out, 0, FLAGS.ERROR);
+            if (out != null) {
+                commitByte(out, 0, FLAGS.ERROR);
+            }
             try {
                 if (os != null)
-                    notify(os);
+                    notify(os, 0);
             } catch (IOException e1) {
                 e1.printStackTrace();
             }
         }
     }
 
-    private static HashSet<Long> warmedDataSources = new HashSet<>();
+    static ByteBuffer[] getSlots(MappedByteBuffer mbb) {
+        ByteBuffer[] slots = new ByteBuffer[NUM_SLOTS];
+        for (int i = 0; i < NUM_SLOTS; i++) {
+            ByteBuffer dup = mbb.duplicate();
+            dup.position(HEADER_SIZE + i * SLOT_SIZE);
+            dup.limit(HEADER_SIZE + (i + 1) * SLOT_SIZE);
+            slots[i] = dup.slice();
+        }
+        return slots;
+    }
+
+    private static void processRequest(ByteBuffer slot, int slotIdx) {
+        try {
+            byte cmd = getByte(slot, CMD);
+            ServerStream stream = getStream(slot);
+            commitByte(slot, CMD, FLAGS.SQLITE_READ);
+
+            if (cmd == FLAGS.SEEK) {
+                stream.seek(slot.getLong(ARG));
+            } else if (cmd == FLAGS.CLOSE) {
+                streams.remove(slot.getLong(STREAM_ID));
+                stream.close();
+            } else if (cmd == FLAGS.READ) {
+                int len = slot.getInt(ARG);
+                len = Math.max(MIN_TO_READ, Math.min(len, MAX_BUF_SIZE));
+                slot.position(DATA);
+                len = stream.read(slot, len);
+                if (len == -1) {
+                    commitByte(slot, CMD, FLAGS.EOF);
+                    notify(os, slotIdx);
+                    return;
+                } else {
+                    slot.putInt(ARG, len);
+                }
+            } else if (cmd == FLAGS.SIZE) {
+                slot.putLong(ARG, stream.sis.size());
+            } else if (cmd == FLAGS.POSITION) {
+                slot.putLong(ARG, stream.position());
+            }
+
+            commitByte(slot, CMD, FLAGS.DONE);
+            notify(os, slotIdx);
+
+        } catch (Throwable e) {
+            // e.printStackTrace(System.err);
+            try {
+                byte[] msgBytes = String.valueOf(e.getMessage()).getBytes("UTF-8"); //$NON-NLS-1$
+                int len = Math.min(msgBytes.length, MAX_BUF_SIZE);
+                slot.putInt(ARG, len);
+                slot.position(DATA);
+                slot.put(msgBytes, 0, len);
+                commitByte(slot, CMD, FLAGS.EXCEPTION);
+                notify(os, slotIdx);
+
+            } catch (IOException e1) {
+                e1.printStackTrace();
+            }
+        }
+    }
 
-    private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase sleuthCase,
-            HashMap<Long, SleuthkitInputStream> sisMap) throws Exception {
-        long streamId = out.getLong(5);
-        SleuthkitInputStream sis = sisMap.get(streamId);
-        if (sis == null) {
-            int id = out.getInt(1);
+    private static ServerStream getStream(ByteBuffer slot) throws Exception {
+        long streamId = slot.getLong(STREAM_ID);
+        ServerStream stream = streams.get(streamId);
+        if (stream == null) {
+            // requests of the same stream are never concurrent
+            int id = slot.getInt(CONTENT_ID);
             Content content = sleuthCase.getAbstractFileById(id);
             if (content == null) {
                 content = sleuthCase.getContentById(id);
             }
-            sis = new SleuthkitInputStream(content);
-            sisMap.put(streamId, sis);
+            SleuthkitInputStream sis = new SleuthkitInputStream(content);
+            stream = new ServerStream(sis);
+            streams.put(streamId, stream);
 
             // first read can take a long time, so do it here to prevent timeouts on client
             // side
@@ -175,39 +244,131 @@ private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase s
                 warmedDataSources.add(sourceId);
             }
         }
-        return sis;
+        return stream;
     }
 
-    private static byte waitCmd(MappedByteBuffer out, InputStream in) throws Exception {
-        byte cmd;
-        long t = 0;
-        while (!FLAGS.isClientCmd(cmd = getByte(out, 0))) {
-            if (t == 0)
-                t = System.currentTimeMillis();
-            long time = (System.currentTimeMillis() - t) / 1000;
-            if (time >= 10)
-                throw new IOException("MemoryReadTimeout waiting SleuthkitClient!"); //$NON-NLS-1$
-            Thread.sleep(1);
-        }
-        return cmd;
-    }
+    /**
+     * Server side state of a client stream, with the block read ahead.
+     */
+    private static class ServerStream {
 
-    private static int readIn(SleuthkitInputStream sis, byte[] buf, int len) throws IOException {
-        return sis.read(buf, 0, len);
-    }
+        private final SleuthkitInputStream sis;
+
+        private Future<?> readAhead;
+        private byte[] aheadBuf;
+        private int aheadLen;
+        private long aheadPos = -1;
+        private IOException aheadError;
+        private int sequentialReads = 0;
+
+        private ServerStream(SleuthkitInputStream sis) {
+            this.sis = sis;
+        }
+
+        private int read(ByteBuffer dest, int len) throws Exception {
+            waitReadAhead();
+            int read;
+            if (aheadBuf != null) {
+                if (aheadError != null) {
+                    IOException e = aheadError;
+                    discardReadAhead();
+                    throw e;
+                }
+                read = aheadLen;
+                if (read > 0) {
+                    dest.put(aheadBuf, 0, read);
+                }
+            } else {
+                byte[] buf = new byte[len];
+                read = sis.read(buf, 0, len);
+                if (read > 0) {
+                    dest.put(buf, 0, read);
+                }
+            }
+            if (read > 0 && ++sequentialReads >= MIN_SEQUENTIAL_READS) {
+                startReadAhead(len);
+            } else {
+                discardReadAhead();
+            }
+            return read;
+        }
+
+        private void startReadAhead(int len) {
+            if (aheadBuf == null || aheadBuf.length != len) {
+                releaseReadAheadBuf();
+                if (readAheadMemory.addAndGet(len) > MAX_READ_AHEAD_MEMORY) {
+                    readAheadMemory.addAndGet(-len);
+                    return;
+                }
+                aheadBuf = new byte[len];
+            }
+            aheadPos = sis.position();
+            aheadLen = 0;
+            aheadError = null;
+            readAhead = readAheadExecutor.submit(() -> {
+                try {
+                    aheadLen = sis.read(aheadBuf, 0, aheadBuf.length);
+                } catch (IOException e) {
+                    aheadError = e;
+                }
+            });
+        }
+
+        private void waitReadAhead() throws Exception {
+            if (readAhead != null) {
+                try {
+                    readAhead.get();
+                } finally {
+                    readAhead = null;
+                }
+            }
+        }
+
+        private void discardReadAhead() {
+            aheadPos = -1;
+            aheadError = null;
+            releaseReadAheadBuf();
+        }
+
+        private void releaseReadAheadBuf() {
+            if (aheadBuf != null) {
+                readAheadMemory.addAndGet(-aheadBuf.length);
+                aheadBuf = null;
+            }
+        }
 
-    private static void writeOut(MappedByteBuffer out, byte[] buf, int len) throws Exception {
-        out.position(17);
-        out.put(buf, 0, len);
-        out.putInt(13, len);
+        private long position() throws Exception {
+            waitReadAhead();
+            if (aheadBuf != null) {
+                return aheadPos;
+            }
+            return sis.position();
+        }
+
+        private void seek(long pos) throws Exception {
+            if (pos == position()) {
+                return;
+            }
+            discardReadAhead();
+            sequentialReads = 0;
+            sis.seek(pos);
+        }
+
+        private void close() throws Exception {
+            waitReadAhead();
+            discardReadAhead();
+            sis.close();
+        }
     }
 
-    static void notify(OutputStream os) throws IOException {
-        os.write(0);
-        os.flush();
+    static void notify(OutputStream os, int slot) throws IOException {
+        synchronized (os) {
+            os.write(slot);
+            os.flush();
+        }
     }
 
-    static final void commitByte(MappedByteBuffer mbb, int pos, byte val) {
+    static final void commitByte(ByteBuffer mbb, int pos, byte val) {
         if (useUnsafe) {
             try {
                 DirectMemory.putByteVolatile(mbb, pos, val);
@@ -222,7 +383,7 @@ static final void commitByte(MappedByteBuffer mbb, int pos, byte val) {
 
     }
 
-    static final Byte getByte(MappedByteBuffer mbb, int pos) {
+    static final Byte getByte(ByteBuffer mbb, int pos) {
         if (useUnsafe) {
             try {
                 return DirectMemory.getByteVolatile(mbb, pos);
@@ -11,8 +11,11 @@
 import iped.data.IItem;
 import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.core.ProcessingProfiler;
+import iped.engine.core.ProcessingProfiler.TaskProfile;
 import iped.engine.core.QueuesProcessingOrder;
 import iped.engine.core.Statistics;
+import iped.engine.core.TaskConcurrencyLimit;
 import iped.engine.core.Worker;
 import iped.engine.core.Worker.STATE;
 import iped.engine.data.CaseData;
@@ -64,6 +67,8 @@ public abstract class AbstractTask {
 
     private long taskTime;
 
+    private TaskProfile taskProfile;
+
     private HashMap<Integer, Long> subitemProcessingTime = new HashMap<Integer, Long>();
 
     public long getTaskTime() {
@@ -79,6 +84,13 @@ public void addSubitemProcessingTime(long time) {
         subitemProcessingTime.put(worker.evidence.getId(), prevTime);
     }
 
+    private TaskProfile getTaskProfile() {
+        if (taskProfile == null) {
+            taskProfile = ProcessingProfiler.get().getTaskProfile(getName());
+        }
+        return taskProfile;
+    }
+
     /**
      * Define a próxima tarefa no pipeline.
      *
@@ -187,18 +199,32 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
         boolean sendToNextTask = true;
 
         if (this.isEnabled() && (!evidence.isToIgnore() || processIgnoredItem())) {
+            // time waiting for other workers running a limited task is not accounted
+            TaskConcurrencyLimit limit = evidence.isQueueEnd() ? null : TaskConcurrencyLimit.get(this);
+            if (limit != null) {
+                limit.acquire();
+            }
             long t = System.nanoTime() / 1000;
             try {
                 processMonitorTimeout(evidence);
 
             } catch (ItemReEnqueuedException e) {
                 sendToNextTask = false;
+
+            } finally {
+                if (limit != null) {
+                    limit.release();
+                }
             }
             Long subitensTime = subitemProcessingTime.remove(evidence.getId());
             if (subitensTime == null) {
                 subitensTime = 0L;
             }
-            taskTime += System.nanoTime() / 1000 - t - subitensTime;
+            long time = System.nanoTime() / 1000 - t - subitensTime;
+            taskTime += time;
+            if (!evidence.isQueueEnd()) {
+                getTaskProfile().record(evidence, time);
+            }
         }
 
         if (sendToNextTask) {
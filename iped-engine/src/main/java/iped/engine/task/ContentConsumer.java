@@ -0,0 +1,328 @@
+package iped.engine.task;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypes;
+
+import iped.data.IItem;
+import iped.engine.task.carver.BaseCarveTask;
+import iped.engine.task.video.VideoThumbTask;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Receives the item content read once by {@link HashTask}, together with the
+ * digests, so later tasks can reuse its results instead of opening and reading
+ * the item again, which is costly for items in disk images.
+ *
+ * Tasks register the consumers they need at init. Each HashTask creates its
+ * own consumer instances, so they don't need to be thread safe. Results are set
+ * as item temp attributes, so they are not indexed, and are missing if the item
+ * was not read by HashTask (e.g. hash disabled or already computed) or was
+ * declined by the consumer.
+ */
+public abstract class ContentConsumer {
+
+    /**
+     * First bytes of the item content (byte[]), up to {@link Head#HEAD_SIZE}.
+     */
+    public static final String CONTENT_HEAD = "contentHead"; //$NON-NLS-1$
+
+    /**
+     * MD5 of the first 512 bytes (byte[]), if the item has at least 512 bytes.
+     */
+    public static final String MD5_512 = "md5_512"; //$NON-NLS-1$
+
+    /**
+     * MD5 of the first 64 KB (byte[]), if the item has at least 64 KB.
+     */
+    public static final String MD5_64K = "md5_64k"; //$NON-NLS-1$
+
+    /**
+     * Compress ratio (Double) of content, computed like RandomFilterInputStream,
+     * NaN if content is too small to compute it.
+     */
+    public static final String COMPRESS_RATIO = "contentCompressRatio"; //$NON-NLS-1$
+
+    private static final Map<String, Supplier<ContentConsumer>> registered = new LinkedHashMap<>();
+
+    /**
+     * Registers a consumer to be fed by HashTask. Registering the same consumer
+     * class again has no effect.
+     */
+    public static synchronized void register(Class<? extends ContentConsumer> clazz,
+            Supplier<ContentConsumer> supplier) {
+        registered.putIfAbsent(clazz.getName(), supplier);
+    }
+
+    /**
+     * @return new instances of registered consumers
+     */
+    static synchronized List<ContentConsumer> createRegistered() {
+        List<ContentConsumer> consumers = new ArrayList<>();
+        for (Supplier<ContentConsumer> supplier : registered.values()) {
+            consumers.add(supplier.get());
+        }
+        return consumers;
+    }
+
+    /**
+     * @return false if the results are not needed for the item, so its content is
+     *         not fed to this consumer.
+     */
+    boolean accept(IItem item) {
+        return true;
+    }
+
+    /**
+     * @return max number of content bytes used by this consumer. Consumers using
+     *         just a prefix of the content do not need their own hashing lane.
+     */
+    long getMaxLength() {
+        return Long.MAX_VALUE;
+    }
+
+    abstract void update(byte[] buf, int off, int len) throws IOException;
+
+    abstract void update(ByteBuffer buf) throws IOException;
+
+    /**
+     * Sets the results into the item and resets the consumer for the next item.
+     */
+    abstract void finish(IItem item) throws IOException;
+
+    /**
+     * Discards partial results, used if reading the item failed.
+     */
+    abstract void reset();
+
+    /**
+     * Keeps the first bytes of content, used by signature detection.
+     */
+    public static class Head extends ContentConsumer {
+
+        public static final int HEAD_SIZE = 64 * 1024;
+
+        private final byte[] head = new byte[HEAD_SIZE];
+        private int len = 0;
+
+        @Override
+        long getMaxLength() {
+            return HEAD_SIZE;
+        }
+
+        @Override
+        void update(byte[] buf, int off, int len) {
+            int n = Math.min(len, HEAD_SIZE - this.len);
+            System.arraycopy(buf, off, head, this.len, n);
+            this.len += n;
+        }
+
+        @Override
+        void update(ByteBuffer buf) {
+            int n = Math.min(buf.remaining(), HEAD_SIZE - this.len);
+            buf.get(head, this.len, n);
+            this.len += n;
+        }
+
+        @Override
+        void finish(IItem item) {
+            item.setTempAttribute(CONTENT_HEAD, Arrays.copyOf(head, len));
+            reset();
+        }
+
+        @Override
+        void reset() {
+            len = 0;
+        }
+    }
+
+    /**
+     * MD5 of the first 512 bytes and 64 KB, like LED hash sets.
+     */
+    public static class PrefixHashes extends ContentConsumer {
+
+        private static final int SIZE_512 = 512;
+        private static final int SIZE_64K = 64 * 1024;
+
+        private final MessageDigest digest;
+        private byte[] md5_512;
+        private int len = 0;
+
+        public PrefixHashes() {
+            try {
+                digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        long getMaxLength() {
+            return SIZE_64K;
+        }
+
+        @Override
+        void update(byte[] buf, int off, int len) {
+            if (this.len < SIZE_64K) {
+                update(ByteBuffer.wrap(buf, off, len));
+            }
+        }
+
+        @Override
+        void update(ByteBuffer buf) {
+            int limit = buf.limit();
+            while (buf.hasRemaining() && this.len < SIZE_64K) {
+                int end = this.len < SIZE_512 ? SIZE_512 : SIZE_64K;
+                int n = Math.min(buf.remaining(), end - this.len);
+                buf.limit(buf.position() + n);
+                digest.update(buf);
+                buf.limit(limit);
+                this.len += n;
+                if (this.len == SIZE_512) {
+                    try {
+                        // clone keeps the state to continue up to 64 KB
+                        md5_512 = ((MessageDigest) digest.clone()).digest();
+                    } catch (CloneNotSupportedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void finish(IItem item) {
+            if (md5_512 != null) {
+                item.setTempAttribute(MD5_512, md5_512);
+            }
+            if (len == SIZE_64K) {
+                item.setTempAttribute(MD5_64K, digest.digest());
+            }
+            reset();
+        }
+
+        @Override
+        void reset() {
+            digest.reset();
+            md5_512 = null;
+            len = 0;
+        }
+    }
+
+    /**
+     * Average LZ4 compress ratio of content windows, used to detect random
+     * (compressed or encrypted) data. Uses the same window rules as
+     * RandomFilterInputStream: 64 KB windows overlapping by 1 KB, except after
+     * random windows, and a last window counted if it has at least 32 KB. Windows
+     * here are always aligned to 64 KB of content, while RandomFilterInputStream
+     * windows depend on the sizes returned by the underlying reads, so results
+     * may differ slightly.
+     */
+    public static class CompressRatio extends ContentConsumer {
+
+        private static final int WINDOW = 64 * 1024;
+        private static final int OVERLAP = 1024;
+
+        private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+        private final byte[] window = new byte[WINDOW];
+        private final byte[] compressed = new byte[compressor.maxCompressedLength(WINDOW)];
+        private int count = 0;
+        private double compressRatioSum = 0;
+        private long numCompressions = 0;
+
+        /**
+         * Declines items skipped by EntropyTask. Signature is not detected yet when
+         * content is hashed, so images and videos, which usually get thumbnails,
+         * are recognized by name.
+         */
+        @Override
+        boolean accept(IItem item) {
+            if (!item.isToAddToCase()) {
+                return false;
+            }
+            MediaType type = item.getMediaType();
+            if (type == null && item.getName() != null) {
+                Metadata metadata = new Metadata();
+                metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, item.getName());
+                try {
+                    type = MimeTypes.getDefaultMimeTypes().detect(null, metadata);
+                } catch (IOException e) {
+                    // not thrown without input stream
+                }
+            }
+            return type == null || !(type.equals(BaseCarveTask.UNALLOCATED_MIMETYPE) || ImageThumbTask.isImageType(type)
+                    || VideoThumbTask.isVideoType(type));
+        }
+
+        @Override
+        void update(byte[] buf, int off, int len) {
+            while (len > 0) {
+                int n = Math.min(len, WINDOW - count);
+                System.arraycopy(buf, off, window, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == WINDOW) {
+                    compressWindow();
+                }
+            }
+        }
+
+        @Override
+        void update(ByteBuffer buf) {
+            while (buf.hasRemaining()) {
+                int n = Math.min(buf.remaining(), WINDOW - count);
+                buf.get(window, count, n);
+                count += n;
+                if (count == WINDOW) {
+                    compressWindow();
+                }
+            }
+        }
+
+        private void compressWindow() {
+            int compressedLength = compressor.compress(window, 0, count, compressed, 0, compressed.length);
+            float compressRatio = (float) compressedLength / count;
+            compressRatioSum += compressRatio;
+            numCompressions++;
+            if (compressRatio > 1) {
+                count = 0;
+            } else {
+                System.arraycopy(window, count - OVERLAP, window, 0, OVERLAP);
+                count = OVERLAP;
+            }
+        }
+
+        @Override
+        void finish(IItem item) {
+            if (count >= WINDOW / 2) {
+                compressWindow();
+            }
+            // NaN if content is too small, so it is not read again
+            item.setTempAttribute(COMPRESS_RATIO,
+                    numCompressions > 0 ? compressRatioSum / numCompressions : Double.NaN);
+            reset();
+        }
+
+        @Override
+        void reset() {
+            count = 0;
+            compressRatioSum = 0;
+            numCompressions = 0;
+        }
+    }
+
+}
@@ -0,0 +1,702 @@
+package iped.engine.task;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tika.metadata.Metadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.data.IHashValue;
+import iped.data.IItem;
+import iped.engine.task.regex.RegexHits;
+
+/**
+ * Case wide cache of results computed from item content, keyed by item hash.
+ * Cases usually have the same content many times (attachments, app caches,
+ * shared media...), so later copies reuse the extracted text and parsing
+ * metadata, regex hits, detected languages and image similarity features of
+ * the first processed copy, instead of computing them again. Each copy is still
+ * indexed as its own item.
+ *
+ * Results are kept in a LRU map bounded by estimated memory usage. Evicted
+ * entries are spilled to files in the temp folder, whose total size is also
+ * bounded, so the oldest spilled entries are just discarded.
+ */
+public class ContentResultCache {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ContentResultCache.class);
+
+    public static final String TEXT_FROM_CACHE = "textFromContentCache"; //$NON-NLS-1$
+
+    private static final String SPILL_FOLDER = "contentResultCache"; //$NON-NLS-1$
+
+    private static final int ENTRY_OVERHEAD = 256;
+
+    /**
+     * Results which can be cached, each one computed by a different task.
+     */
+    public enum ResultType {
+        TEXT, REGEX, LANGUAGE, IMAGE_FEATURES
+    }
+
+    private static ContentResultCache instance;
+
+    private final long maxMemory;
+    private final long maxDiskSize;
+    private final int maxTextChars;
+    private final File spillDir;
+
+    private final LinkedHashMap<IHashValue, Entry> memoryMap = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<IHashValue, Long> spilledMap = new LinkedHashMap<>(16, 0.75f, true);
+    private long memorySize = 0;
+    private long spilledSize = 0;
+
+    private final LongAdder[] hits = new LongAdder[ResultType.values().length];
+    private final LongAdder[] misses = new LongAdder[ResultType.values().length];
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * @return the case wide instance or null if the cache is disabled.
+     */
+    public static synchronized ContentResultCache get() {
+        return instance;
+    }
+
+    static synchronized void init(long maxMemory, long maxDiskSize, int maxTextChars, File tempDir) {
+        if (instance == null) {
+            instance = new ContentResultCache(maxMemory, maxDiskSize, maxTextChars, new File(tempDir, SPILL_FOLDER));
+            LOGGER.info("Content result cache enabled: maxMemory={}MB maxDisk={}MB maxTextChars={}", //$NON-NLS-1$
+                    maxMemory >> 20, maxDiskSize >> 20, maxTextChars);
+        }
+    }
+
+    /**
+     * Releases cached results and deletes spilled ones. Hit statistics are kept.
+     */
+    static synchronized void close() {
+        if (instance != null) {
+            instance.clear();
+        }
+    }
+
+    private void clear() {
+        synchronized (this) {
+            memoryMap.clear();
+            spilledMap.clear();
+            memorySize = 0;
+            spilledSize = 0;
+        }
+        try {
+            FileUtils.deleteDirectory(spillDir);
+        } catch (IOException e) {
+            LOGGER.warn("Error deleting " + spillDir.getAbsolutePath(), e); //$NON-NLS-1$
+        }
+    }
+
+    ContentResultCache(long maxMemory, long maxDiskSize, int maxTextChars, File spillDir) {
+        this.maxMemory = maxMemory;
+        this.maxDiskSize = maxDiskSize;
+        this.maxTextChars = maxTextChars;
+        this.spillDir = spillDir;
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongAdder();
+            misses[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Text and metadata produced by parsing some content.
+     */
+    public static class CachedText {
+
+        private final String mediaType;
+        private final String text;
+        private final Map<String, String[]> metadata;
+
+        public CachedText(String mediaType, String text, Map<String, String[]> metadata) {
+            this.mediaType = mediaType;
+            this.text = text;
+            this.metadata = metadata;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return metadata values set or changed by the parser.
+         */
+        public Map<String, String[]> getMetadata() {
+            return metadata;
+        }
+
+        private long getMemorySize() {
+            long size = 2L * text.length() + mediaType.length() * 2;
+            for (Map.Entry<String, String[]> e : metadata.entrySet()) {
+                size += 2 * e.getKey().length() + 32;
+                for (String val : e.getValue()) {
+                    size += 2 * val.length() + 16;
+                }
+            }
+            return size;
+        }
+    }
+
+    private static class Entry {
+
+        private CachedText text;
+
+        private final Map<ResultType, Map<String, Object>> attributes = new HashMap<>();
+
+        private long getMemorySize() {
+            long size = ENTRY_OVERHEAD;
+            if (text != null) {
+                size += text.getMemorySize();
+            }
+            for (Map<String, Object> map : attributes.values()) {
+                for (Map.Entry<String, Object> e : map.entrySet()) {
+                    size += 2 * e.getKey().length() + 32 + getMemorySize(e.getValue());
+                }
+            }
+            return size;
+        }
+
+        private static long getMemorySize(Object value) {
+            if (value instanceof String) {
+                return 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                return ((byte[]) value).length;
+            } else if (value instanceof Collection) {
+                long size = 16;
+                for (Object o : (Collection<?>) value) {
+                    if (o instanceof RegexHits) {
+                        RegexHits hits = (RegexHits) o;
+                        size += 48 + 2 * hits.getHit().length() + 8 * hits.getOffsets().length;
+                    } else {
+                        size += 16 + getMemorySize(o);
+                    }
+                }
+                return size;
+            }
+            return 16;
+        }
+    }
+
+    public int getMaxTextChars() {
+        return maxTextChars;
+    }
+
+    private static IHashValue getKey(IItem item) {
+        if (item.getHashValue() == null || item.getLength() == null || item.getLength() == 0) {
+            return null;
+        }
+        return item.getHashValue();
+    }
+
+    /**
+     * @return cached text of the item content parsed as the same media type, or
+     *         null if not found.
+     */
+    public CachedText getText(IItem item) {
+        IHashValue key = getKey(item);
+        if (key == null) {
+            return null;
+        }
+        Entry entry = getEntry(key);
+        CachedText text = null;
+        if (entry != null) {
+            synchronized (this) {
+                text = entry.text;
+            }
+        }
+        if (text != null && !text.mediaType.equals(item.getMediaType().toString())) {
+            text = null;
+        }
+        (text != null ? hits : misses)[ResultType.TEXT.ordinal()].increment();
+        return text;
+    }
+
+    /**
+     * Caches the text and metadata produced by parsing the item content.
+     *
+     * @param mediaType
+     *            item media type before parsing
+     */
+    public void putText(IItem item, String mediaType, String text, Map<String, String[]> metadata) {
+        IHashValue key = getKey(item);
+        if (key == null || text.length() > maxTextChars) {
+            return;
+        }
+        CachedText cachedText = new CachedText(mediaType, text, metadata);
+        update(key, entry -> entry.text = cachedText);
+    }
+
+    /**
+     * Returns the extra attributes previously set by some task when processing
+     * the same content. TEXT derived results (REGEX and LANGUAGE) are just
+     * returned if the item text was also taken from the cache, so they were
+     * computed from the same text.
+     *
+     * @return the cached attributes, possibly empty if the task did not set any
+     *         attribute, or null if not found.
+     */
+    public Map<String, Object> getAttributes(IItem item, ResultType type) {
+        IHashValue key = getKey(item);
+        if (key == null || (type != ResultType.IMAGE_FEATURES && item.getTempAttribute(TEXT_FROM_CACHE) == null)) {
+            return null;
+        }
+        Entry entry = getEntry(key);
+        Map<String, Object> attributes = null;
+        if (entry != null) {
+            synchronized (this) {
+                attributes = entry.attributes.get(type);
+            }
+        }
+        (attributes != null ? hits : misses)[type.ordinal()].increment();
+        return attributes;
+    }
+
+    /**
+     * Copies cached attributes to the item. Mutable values are copied, so they
+     * can be changed by the item processing.
+     */
+    public static void setAttributes(IItem item, Map<String, Object> attributes) {
+        for (Map.Entry<String, Object> e : attributes.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Collection && !((Collection<?>) value).isEmpty()
+                    && ((Collection<?>) value).iterator().next() instanceof RegexHits) {
+                List<RegexHits> list = new ArrayList<>();
+                for (Object o : (Collection<?>) value) {
+                    RegexHits hits = new RegexHits(((RegexHits) o).getHit());
+                    hits.addAll(((RegexHits) o).getOffsets());
+                    list.add(hits);
+                }
+                value = list;
+            } else if (value instanceof Collection) {
+                value = new ArrayList<>((Collection<?>) value);
+            } else if (value instanceof byte[]) {
+                value = ((byte[]) value).clone();
+            }
+            item.setExtraAttribute(e.getKey(), value);
+        }
+    }
+
+    /**
+     * Caches the extra attributes set by some task when processing the item
+     * content. TEXT derived results are just cached if the item text is cached.
+     */
+    public void putAttributes(IItem item, ResultType type, Map<String, Object> attributes) {
+        IHashValue key = getKey(item);
+        if (key == null) {
+            return;
+        }
+        Map<String, Object> copy = new HashMap<>(attributes);
+        update(key, entry -> {
+            if (type == ResultType.IMAGE_FEATURES || entry.text != null) {
+                entry.attributes.put(type, copy);
+            }
+        });
+    }
+
+    private Entry getEntry(IHashValue key) {
+        File spillFile;
+        synchronized (this) {
+            Entry entry = memoryMap.get(key);
+            if (entry != null) {
+                return entry;
+            }
+            Long size = spilledMap.remove(key);
+            if (size == null) {
+                return null;
+            }
+            spilledSize -= size;
+            spillFile = getSpillFile(key);
+        }
+        // disk IO is done without holding the lock
+        Entry entry = null;
+        try {
+            entry = readEntry(spillFile);
+        } catch (IOException e) {
+            LOGGER.warn("Error reading spilled content result " + spillFile.getAbsolutePath(), e); //$NON-NLS-1$
+        } finally {
+            spillFile.delete();
+        }
+        if (entry != null) {
+            Entry finalEntry = entry;
+            entry = update(key, e -> {
+                if (e.text == null) {
+                    e.text = finalEntry.text;
+                }
+                for (Map.Entry<ResultType, Map<String, Object>> attr : finalEntry.attributes.entrySet()) {
+                    e.attributes.putIfAbsent(attr.getKey(), attr.getValue());
+                }
+            });
+        }
+        return entry;
+    }
+
+    private Entry update(IHashValue key, Consumer<Entry> updater) {
+        Entry entry;
+        List<Map.Entry<IHashValue, Entry>> evicted = new ArrayList<>();
+        synchronized (this) {
+            entry = memoryMap.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                memoryMap.put(key, entry);
+            } else {
+                memorySize -= entry.getMemorySize();
+            }
+            updater.accept(entry);
+            memorySize += entry.getMemorySize();
+
+            Iterator<Map.Entry<IHashValue, Entry>> iterator = memoryMap.entrySet().iterator();
+            while (memorySize > maxMemory && iterator.hasNext()) {
+                Map.Entry<IHashValue, Entry> eldest = iterator.next();
+                if (eldest.getValue() == entry) {
+                    continue;
+                }
+                iterator.remove();
+                memorySize -= eldest.getValue().getMemorySize();
+                evicted.add(eldest);
+            }
+        }
+        for (Map.Entry<IHashValue, Entry> e : evicted) {
+            spill(e.getKey(), e.getValue());
+        }
+        return entry;
+    }
+
+    private File getSpillFile(IHashValue key) {
+        String hash = key.toString();
+        return new File(spillDir, hash.substring(0, 2) + File.separator + hash);
+    }
+
+    private void spill(IHashValue key, Entry entry) {
+        if (maxDiskSize <= 0) {
+            discarded.increment();
+            return;
+        }
+        File file = getSpillFile(key);
+        try {
+            file.getParentFile().mkdirs();
+            writeEntry(file, entry);
+        } catch (IOException e) {
+            LOGGER.warn("Error spilling content result to " + file.getAbsolutePath(), e); //$NON-NLS-1$
+            file.delete();
+            discarded.increment();
+            return;
+        }
+        long size = file.length();
+        List<IHashValue> toDelete = new ArrayList<>();
+        synchronized (this) {
+            Long prev = spilledMap.put(key, size);
+            spilledSize += size - (prev != null ? prev : 0);
+            Iterator<Map.Entry<IHashValue, Long>> iterator = spilledMap.entrySet().iterator();
+            while (spilledSize > maxDiskSize && iterator.hasNext()) {
+                Map.Entry<IHashValue, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                iterator.remove();
+                spilledSize -= eldest.getValue();
+                toDelete.add(eldest.getKey());
+            }
+        }
+        spilled.increment();
+        for (IHashValue k : toDelete) {
+            getSpillFile(k).delete();
+            discarded.increment();
+        }
+    }
+
+    private static final byte STRING = 0, FLOAT = 1, BOOLEAN = 2, BYTES = 3, STRING_LIST = 4, REGEX_HITS = 5,
+            INTEGER = 6, LONG = 7, DOUBLE = 8;
+
+    private static void writeEntry(File file, Entry entry) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeBoolean(entry.text != null);
+            if (entry.text != null) {
+                out.writeUTF(entry.text.mediaType);
+                writeLongString(out, entry.text.text);
+                out.writeInt(entry.text.metadata.size());
+                for (Map.Entry<String, String[]> e : entry.text.metadata.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().length);
+                    for (String val : e.getValue()) {
+                        writeLongString(out, val);
+                    }
+                }
+            }
+            int numTypes = 0;
+            for (Map<String, Object> attributes : entry.attributes.values()) {
+                if (isSerializable(attributes)) {
+                    numTypes++;
+                }
+            }
+            out.writeInt(numTypes);
+            for (Map.Entry<ResultType, Map<String, Object>> e : entry.attributes.entrySet()) {
+                if (!isSerializable(e.getValue())) {
+                    continue;
+                }
+                out.writeByte(e.getKey().ordinal());
+                out.writeInt(e.getValue().size());
+                for (Map.Entry<String, Object> attr : e.getValue().entrySet()) {
+                    out.writeUTF(attr.getKey());
+                    writeValue(out, attr.getValue());
+                }
+            }
+        }
+    }
+
+    private static boolean isSerializable(Map<String, Object> attributes) {
+        for (Object value : attributes.values()) {
+            if (getValueType(value) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getValueType(Object value) {
+        if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof byte[]) {
+            return BYTES;
+        } else if (value instanceof Integer) {
+            return INTEGER;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof Collection) {
+            Collection<?> col = (Collection<?>) value;
+            if (col.stream().allMatch(o -> o instanceof RegexHits)) {
+                return REGEX_HITS;
+            } else if (col.stream().allMatch(o -> o instanceof String)) {
+                return STRING_LIST;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        int type = getValueType(value);
+        out.writeByte(type);
+        switch (type) {
+            case STRING:
+                writeLongString(out, (String) value);
+                break;
+            case FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case BYTES:
+                out.writeInt(((byte[]) value).length);
+                out.write((byte[]) value);
+                break;
+            case INTEGER:
+                out.writeInt((Integer) value);
+                break;
+            case LONG:
+                out.writeLong((Long) value);
+                break;
+            case DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case STRING_LIST:
+                out.writeInt(((Collection<?>) value).size());
+                for (Object o : (Collection<?>) value) {
+                    writeLongString(out, (String) o);
+                }
+                break;
+            case REGEX_HITS:
+                out.writeInt(((Collection<?>) value).size());
+                for (Object o : (Collection<?>) value) {
+                    RegexHits hits = (RegexHits) o;
+                    writeLongString(out, hits.getHit());
+                    long[] offsets = hits.getOffsets();
+                    out.writeInt(offsets.length);
+                    for (long offset : offsets) {
+                        out.writeLong(offset);
+                    }
+                }
+                break;
+            default:
+                throw new IOException("Unsupported value " + value.getClass()); //$NON-NLS-1$
+        }
+    }
+
+    private static Entry readEntry(File file) throws IOException {
+        Entry entry = new Entry();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readBoolean()) {
+                String mediaType = in.readUTF();
+                String text = readLongString(in);
+                int numMeta = in.readInt();
+                Map<String, String[]> metadata = new HashMap<>();
+                for (int i = 0; i < numMeta; i++) {
+                    String name = in.readUTF();
+                    String[] values = new String[in.readInt()];
+                    for (int j = 0; j < values.length; j++) {
+                        values[j] = readLongString(in);
+                    }
+                    metadata.put(name, values);
+                }
+                entry.text = new CachedText(mediaType, text, metadata);
+            }
+            int numTypes = in.readInt();
+            for (int i = 0; i < numTypes; i++) {
+                ResultType type = ResultType.values()[in.readByte()];
+                int numAttrs = in.readInt();
+                Map<String, Object> attributes = new HashMap<>();
+                for (int j = 0; j < numAttrs; j++) {
+                    attributes.put(in.readUTF(), readValue(in));
+                }
+                entry.attributes.put(type, attributes);
+            }
+        }
+        return entry;
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case STRING:
+                return readLongString(in);
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING_LIST:
+                int size = in.readInt();
+                List<String> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readLongString(in));
+                }
+                return list;
+            case REGEX_HITS:
+                size = in.readInt();
+                List<RegexHits> hitsList = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    RegexHits hits = new RegexHits(readLongString(in));
+                    int numOffsets = in.readInt();
+                    for (int j = 0; j < numOffsets; j++) {
+                        hits.addOffset(in.readLong());
+                    }
+                    hitsList.add(hits);
+                }
+                return hitsList;
+            default:
+                throw new IOException("Unknown value type " + type); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * writeUTF() is limited to 64KB strings.
+     */
+    private static void writeLongString(DataOutputStream out, String str) throws IOException {
+        out.writeInt(str.length());
+        out.writeChars(str);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        int len = in.readInt();
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    public long getHits(ResultType type) {
+        return hits[type.ordinal()].sum();
+    }
+
+    public long getMisses(ResultType type) {
+        return misses[type.ordinal()].sum();
+    }
+
+    public synchronized long getMemorySize() {
+        return memorySize;
+    }
+
+    public synchronized long getSpilledSize() {
+        return spilledSize;
+    }
+
+    public void logStatistics() {
+        for (ResultType type : ResultType.values()) {
+            long hit = getHits(type), miss = getMisses(type);
+            if (hit + miss > 0) {
+                LOGGER.info("Content result cache {}: {} hits, {} misses ({}% hit ratio)", type, hit, miss, //$NON-NLS-1$
+                        hit * 100 / (hit + miss));
+            }
+        }
+        LOGGER.info("Content result cache: {} entries spilled to disk, {} discarded", spilled.sum(), //$NON-NLS-1$
+                discarded.sum());
+    }
+
+    /**
+     * Returns the names and values of metadata set or changed since the snapshot.
+     */
+    public static Map<String, String[]> diffMetadata(Map<String, String[]> before, Metadata after,
+            Collection<String> ignoredNames) {
+        Map<String, String[]> diff = new HashMap<>();
+        for (String name : after.names()) {
+            if (ignoredNames.contains(name)) {
+                continue;
+            }
+            String[] values = after.getValues(name);
+            String[] prev = before.get(name);
+            if (prev == null || !Arrays.equals(prev, values)) {
+                diff.put(name, values);
+            }
+        }
+        return diff.isEmpty() ? Collections.emptyMap() : diff;
+    }
+
+    public static Map<String, String[]> snapshotMetadata(Metadata metadata) {
+        Map<String, String[]> snapshot = new HashMap<>();
+        for (String name : metadata.names()) {
+            snapshot.put(name, metadata.getValues(name));
+        }
+        return snapshot;
+    }
+
+}
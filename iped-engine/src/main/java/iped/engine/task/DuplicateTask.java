@@ -7,7 +7,7 @@
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SortedDocValues;
 
 import iped.configuration.Configurable;
@@ -15,7 +15,6 @@
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
-import iped.engine.lucene.SlowCompositeReaderWrapper;
 import iped.engine.task.index.IndexItem;
 import iped.utils.HashValue;
 
@@ -77,9 +76,12 @@ public void init(ConfigurationManager configurationManager) throws Exception {
             caseData.putCaseObject(HASH_MAP, hashMap);
 
             try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
-                LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
-                SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
-                if (sdv != null) {
+                // segment values are enough, map removes repeated hashes
+                for (LeafReaderContext context : reader.leaves()) {
+                    SortedDocValues sdv = context.reader().getSortedDocValues(IndexItem.HASH);
+                    if (sdv == null) {
+                        continue;
+                    }
                     for (int ord = 0; ord < sdv.getValueCount(); ord++) {
                         String hash = sdv.lookupOrd(ord).utf8ToString();
                         if (hash != null && !hash.isEmpty()) {
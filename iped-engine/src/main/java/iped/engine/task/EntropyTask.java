@@ -25,6 +25,9 @@ public class EntropyTask extends AbstractTask {
     @Override
     public void init(ConfigurationManager configurationManager) throws Exception {
         enableOption = configurationManager.getEnableTaskProperty(ENABLE_PARAM);
+        if (enableOption) {
+            ContentConsumer.register(ContentConsumer.CompressRatio.class, ContentConsumer.CompressRatio::new);
+        }
     }
 
     @Override
@@ -52,6 +55,15 @@ protected void process(IItem evidence) throws Exception {
                 || Boolean.TRUE.equals(evidence.getExtraAttribute(ThumbTask.HAS_THUMB)))
             return;
 
+        // computed when content was read by HashTask
+        Double ratio = (Double) evidence.getTempAttribute(ContentConsumer.COMPRESS_RATIO);
+        if (ratio != null) {
+            if (!ratio.isNaN()) {
+                evidence.setExtraAttribute(COMPRESS_RATIO, ratio);
+            }
+            return;
+        }
+
         try (RandomFilterInputStream rfis = new RandomFilterInputStream(evidence.getBufferedInputStream())) {
 
             while (rfis.read(buf) != -1)
@@ -25,7 +25,6 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -40,24 +39,19 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.Deflater;
 
 import iped.properties.BasicProps;
 import iped.properties.ExtraProperties;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
-import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
-import org.apache.commons.compress.compressors.gzip.GzipParameters;
-import org.apache.commons.compress.utils.IOUtils;
-import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -85,6 +79,7 @@
 import iped.engine.config.HtmlReportTaskConfig;
 import iped.engine.data.Category;
 import iped.engine.data.IPEDSource;
+import iped.engine.io.ChunkedBlobCodec;
 import iped.engine.localization.Messages;
 import iped.engine.task.index.IndexItem;
 import iped.engine.util.UIPropertyListenerProvider;
@@ -96,7 +91,6 @@
 import iped.utils.FileInputStreamFactory;
 import iped.utils.HashValue;
 import iped.utils.IOUtil;
-import iped.utils.SeekableFileInputStream;
 import iped.utils.SeekableInputStreamFactory;
 
 /**
@@ -132,9 +126,14 @@ public class ExportFileTask extends AbstractTask {
 
     private static final String CLEAR_DATA = "DELETE FROM t1 WHERE id=?;";
 
+    private static final int MAX_BATCH_BYTES = 1 << 22;
+
+    private static final int MAX_BATCH_SIZE = 512;
+
     // maps below are used to track different storages/connections in multicases
     private static HashMap<File, HashMap<Integer, File>> storage = new HashMap<>();
     private static HashMap<File, HashMap<Integer, Connection>> storageCon = new HashMap<>();
+    private static Map<Connection, StorageBatch> storageBatches = new ConcurrentHashMap<>();
 
     private static AtomicInteger counter = new AtomicInteger();
 
@@ -226,6 +225,7 @@ private static synchronized void configureSQLiteStorage(File output) {
                     stmt.executeUpdate(CREATE_TABLE2);
                 }
                 tempStorageCon.put(i, con);
+                storageBatches.put(con, new StorageBatch(con));
 
             } catch (SQLException e) {
                 throw new RuntimeException(e);
@@ -608,8 +608,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
 
     }
 
-    private void insertIntoStorage(IItem evidence, byte[] buf, int len)
-            throws InterruptedException, IOException, SQLException, CompressorException {
+    private void insertIntoStorage(IItem evidence, byte[] buf, int len) throws IOException, SQLException {
         byte[] hash = null;
         String hashString = (String) evidence.getExtraAttribute(HashTask.HASH.MD5.toString());
         if (hashString != null) {
@@ -618,41 +617,88 @@ private void insertIntoStorage(IItem evidence, byte[] buf, int len)
             hash = DigestUtils.md5(new ByteArrayInputStream(buf, 0, len));
         }
         int k = getStorageSuffix(hash);
-        boolean alreadyInDB = false;
         String id = hashString != null ? hashString : new HashValue(hash).toString();
-        try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(CHECK_HASH)) {
-            ps.setString(1, id);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                alreadyInDB = true;
-            }
-        }
-        if (!alreadyInDB) {
-            try (PreparedStatement ps = storageCon.get(output).get(k).prepareStatement(INSERT_DATA)) {
-                ps.setString(1, id);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                OutputStream gzippedOut = new GzipCompressorOutputStream(baos, getGzipParams());
-                // OutputStream gzippedOut = new LZ4BlockOutputStream(baos);
-                gzippedOut.write(buf, 0, len);
-                gzippedOut.close();
-                byte[] bytes = baos.toByteArray();
-                baos = null;
-                ps.setBytes(2, bytes);
-                ps.setBytes(3, bytes);
-                ps.executeUpdate();
-            }
+        Connection con = storageCon.get(output).get(k);
+        StorageBatch batch = storageBatches.get(con);
+        if (!batch.contains(id)) {
+            // compress outside the batch lock, the same content may be rarely compressed
+            // twice by different workers, the later insert is ignored by the db
+            batch.add(id, ChunkedBlobCodec.encode(buf, len));
         }
         evidence.setIdInDataSource(id);
-        evidence.setInputStreamFactory(
-                new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), storageCon.get(output).get(k)));
+        evidence.setInputStreamFactory(new SQLiteInputStreamFactory(storage.get(output).get(k).toPath(), con));
         evidence.setFileOffset(-1);
         evidence.setLength((long) len);
     }
 
-    private GzipParameters getGzipParams() {
-        GzipParameters compression = new GzipParameters();
-        compression.setCompressionLevel(Deflater.BEST_SPEED);
-        return compression;
+    /**
+     * Groups inserts into a storage db in batches, executed with a single reused
+     * statement. Blobs not executed yet are kept in memory to be read by
+     * following tasks. Batches are executed when full and before commits.
+     */
+    private static class StorageBatch {
+
+        private final Connection con;
+        private PreparedStatement checkStmt;
+        private PreparedStatement insertStmt;
+        private final HashMap<String, byte[]> pending = new HashMap<>();
+        private long pendingBytes = 0;
+
+        private StorageBatch(Connection con) {
+            this.con = con;
+        }
+
+        private synchronized boolean contains(String id) throws SQLException {
+            if (pending.containsKey(id)) {
+                return true;
+            }
+            if (checkStmt == null) {
+                checkStmt = con.prepareStatement(CHECK_HASH);
+            }
+            checkStmt.setString(1, id);
+            try (ResultSet rs = checkStmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+
+        private synchronized void add(String id, byte[] blob) throws SQLException {
+            if (pending.putIfAbsent(id, blob) != null) {
+                return;
+            }
+            if (insertStmt == null) {
+                insertStmt = con.prepareStatement(INSERT_DATA);
+            }
+            insertStmt.setString(1, id);
+            insertStmt.setBytes(2, blob);
+            insertStmt.setBytes(3, blob);
+            insertStmt.addBatch();
+            pendingBytes += blob.length;
+            if (pendingBytes >= MAX_BATCH_BYTES || pending.size() >= MAX_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private synchronized byte[] getPending(String id) {
+            return pending.get(id);
+        }
+
+        private synchronized void flush() throws SQLException {
+            if (!pending.isEmpty()) {
+                insertStmt.executeBatch();
+                pending.clear();
+                pendingBytes = 0;
+            }
+        }
+
+        private synchronized void close() throws SQLException {
+            flush();
+            if (checkStmt != null) {
+                checkStmt.close();
+            }
+            if (insertStmt != null) {
+                insertStmt.close();
+            }
+        }
     }
 
     public static class SQLiteInputStreamFactory extends SeekableInputStreamFactory {
@@ -685,19 +731,21 @@ public SeekableInputStream getSeekableInputStream(String identifier) throws IOEx
                 if (conn == null || conn.isClosed()) {
                     conn = getSQLiteStorageCon(Paths.get(getDataSourceURI()).toFile());
                 }
-                try (PreparedStatement ps = conn.prepareStatement(SELECT_DATA)) {
-                    ps.setString(1, identifier);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            bytes = rs.getBytes(1);
+                StorageBatch batch = storageBatches.get(conn);
+                if (batch != null) {
+                    bytes = batch.getPending(identifier);
+                }
+                if (bytes == null) {
+                    try (PreparedStatement ps = conn.prepareStatement(SELECT_DATA)) {
+                        ps.setString(1, identifier);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (rs.next()) {
+                                bytes = rs.getBytes(1);
+                            }
                         }
                     }
                 }
-                InputStream gzippedIn = new GzipCompressorInputStream(new ByteArrayInputStream(bytes));
-                // gzippedIn = new LZ4BlockInputStream(new ByteArrayInputStream(bytes));
-                bytes = IOUtils.toByteArray(gzippedIn);
-                gzippedIn.close();
-                return new SeekableFileInputStream(new SeekableInMemoryByteChannel(bytes));
+                return ChunkedBlobCodec.decode(bytes);
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -750,7 +798,11 @@ public void finish() throws Exception {
         if (storageCon.get(output) != null) {
             for (Entry<Integer, Connection> entry : storageCon.get(output).entrySet()) {
                 Connection con = entry.getValue();
+                StorageBatch batch = storageBatches.remove(con);
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
+                    if (batch != null) {
+                        batch.close();
+                    }
                     con.commit();
                     con.close();
                     LOGGER.info("Closed connection to storage " + entry.getKey());
@@ -764,6 +816,10 @@ public static void commitStorage(File output) throws SQLException {
         if (storageCon.get(output) != null) {
             for (Connection con : storageCon.get(output).values()) {
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
+                    StorageBatch batch = storageBatches.get(con);
+                    if (batch != null) {
+                        batch.flush();
+                    }
                     con.commit();
                 }
             }
@@ -847,6 +903,7 @@ public void run() {
                                 deleted.incrementAndGet();
                             }
                         }
+                        storageBatches.remove(con);
                         con.commit();
                         con.setAutoCommit(true);
                         LOGGER.info("Running VACUUM on storage {}", storage);
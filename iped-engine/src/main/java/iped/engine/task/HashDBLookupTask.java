@@ -53,7 +53,8 @@ public class HashDBLookupTask extends AbstractTask {
     private static File hashDBFile;
     private static String[] hashesAttributes;
 
-    private HashDBDataSource hashDBDataSource;
+    // thread safe, shared by all workers
+    private static HashDBDataSource hashDBDataSource;
 
     private byte[][] hashes;
     private final Map<String, String> properties = new HashMap<String, String>();
@@ -124,7 +125,6 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         }
         if (taskEnabled) {
             hashes = new byte[hashesAttributes.length][];
-            if (hashDBDataSource == null) hashDBDataSource = new HashDBDataSource(hashDBFile);
         }
     }
 
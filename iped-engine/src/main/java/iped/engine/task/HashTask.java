@@ -18,18 +18,18 @@
  */
 package iped.engine.task;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,18 +39,24 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.HashTaskConfig;
 import iped.parsers.whatsapp.WhatsAppParser;
+import iped.utils.IOUtil;
 
 /**
  * Classe para calcular e manipular hashes.
+ *
+ * Small items are hashed inline by the worker thread. Large items are read
+ * ahead, directly from the file channel if the item has a file, while each
+ * algorithm is computed by its own long lived thread (see
+ * {@link ParallelHasher}).
+ *
+ * This is the single content pass of items: the same read also feeds the
+ * {@link ContentConsumer}s registered by later tasks (signature head, compress
+ * ratio, prefix hashes), so they don't need to read the item again.
  */
 public class HashTask extends AbstractTask {
 
     private static Logger LOGGER = LoggerFactory.getLogger(HashTask.class);
 
-    private static final int HASH_BUFFER_LEN = 1024 * 1024;
-
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
-
     public enum HASH {
         MD5("md5"), //$NON-NLS-1$
         SHA1("sha-1"), //$NON-NLS-1$
@@ -70,7 +76,9 @@ public String toString() {
         }
     }
 
-    private HashMap<String, MessageDigest> digestMap = new LinkedHashMap<String, MessageDigest>();
+    private List<String> algorithms = new ArrayList<>();
+
+    private ParallelHasher hasher;
 
     private HashTaskConfig hashConfig;
 
@@ -89,24 +97,30 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         hashConfig = configurationManager.findObject(HashTaskConfig.class);
 
         for (String algorithm : hashConfig.getAlgorithms()) {
-            MessageDigest digest = null;
-            if (!algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
-                digest = MessageDigest.getInstance(algorithm.toUpperCase());
-            } else {
-                digest = MessageDigest.getInstance("MD4"); //$NON-NLS-1$
-            }
-            digestMap.put(algorithm, digest);
+            algorithms.add(algorithm);
             if (HASH.SHA256.toString().equals(algorithm)) {
                 System.setProperty(WhatsAppParser.SHA256_ENABLED_SYSPROP, Boolean.TRUE.toString());
             }
         }
+        // fails fast on unknown algorithms
+        new ParallelHasher(algorithms, Collections.emptyList()).close();
+    }
 
+    /**
+     * Created at first item, after all tasks registered their content consumers
+     * at init.
+     */
+    private ParallelHasher getHasher() throws NoSuchAlgorithmException {
+        if (hasher == null) {
+            hasher = new ParallelHasher(algorithms, ContentConsumer.createRegistered());
+        }
+        return hasher;
     }
 
     @Override
     public void finish() throws Exception {
-        if (!executorService.isShutdown()) {
-            executorService.shutdown();
+        if (hasher != null) {
+            hasher.close();
         }
     }
 
@@ -116,7 +130,7 @@ public void process(IItem evidence) {
             return;
         }
 
-        if (evidence.getHash() != null || digestMap.isEmpty()
+        if (evidence.getHash() != null || algorithms.isEmpty()
                 || evidence.getExtraAttribute(IgnoreHardLinkTask.IGNORE_HARDLINK_ATTR) != null) {
             return;
         }
@@ -126,72 +140,25 @@ public void process(IItem evidence) {
             return;
         }
 
-        try (InputStream in = evidence.getBufferedInputStream()) {
-
-            byte[] readBuf = new byte[HASH_BUFFER_LEN];
-            byte[] hashBuf = new byte[HASH_BUFFER_LEN];
-            byte[] tempBuf = null;
-            int len;
-
-            AtomicReference<CountDownLatch> countDown = new AtomicReference<>(null);
-            AtomicReference<Exception> ex = new AtomicReference<Exception>(null);
-
-            while ((len = in.read(readBuf)) >= 0 && !Thread.currentThread().isInterrupted()) {
-
-                if (countDown.get() != null) {
-                    countDown.get().await();
+        try {
+            ParallelHasher hasher = getHasher();
+            byte[][] hashes;
+            if (hasher.useLanes(evidence)) {
+                try (ReadableByteChannel channel = openChannel(evidence)) {
+                    hashes = hasher.hash(channel, evidence);
                 }
-
-                countDown.set(new CountDownLatch(digestMap.size()));
-
-                // swap hashBuf <-> readBuf
-                tempBuf = hashBuf;
-                hashBuf = readBuf;
-                readBuf = tempBuf;
-
-                final int currLen = len;
-                final byte[] currHashBuf = hashBuf;
-                for (String algo : digestMap.keySet()) {
-                    executorService.execute(() -> {
-                        try {
-                            if (!algo.equals(HASH.EDONKEY.toString())) {
-                                digestMap.get(algo).update(currHashBuf, 0, currLen);
-                            } else {
-                                updateEd2k(currHashBuf, currLen);
-                            }
-                        } catch (Exception e) {
-                            ex.set(e);
-                        } finally {
-                            countDown.get().countDown();
-                        }
-                    });
-                }
-
-                if (ex.get() != null) {
-                    throw ex.get();
+            } else {
+                try (InputStream in = evidence.getSeekableInputStream()) {
+                    hashes = hasher.hash(in, evidence);
                 }
             }
 
-            if (countDown.get() != null) {
-                countDown.get().await();
-            }
-
-            boolean defaultHash = true;
-            for (String algo : digestMap.keySet()) {
-                byte[] hash;
-                if (!algo.equals(HASH.EDONKEY.toString())) {
-                    hash = digestMap.get(algo).digest();
-                } else {
-                    hash = digestEd2k();
-                }
-
-                String hashString = getHashString(hash);
-                evidence.setExtraAttribute(algo, hashString);
-
-                if (defaultHash) {
+            for (int i = 0; i < hashes.length; i++) {
+                String hashString = getHashString(hashes[i]);
+                evidence.setExtraAttribute(algorithms.get(i), hashString);
+                if (i == 0) {
                     evidence.setHash(hashString);
                 }
-                defaultHash = false;
             }
 
         } catch (Exception e) {
@@ -207,55 +174,29 @@ public void process(IItem evidence) {
 
     }
 
-    private static int CHUNK_SIZE = 9500 * 1024;
-    private int chunk = 0, total = 0;
-    private ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-    private void updateEd2k(byte[] buffer, int len) throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (chunk + len >= CHUNK_SIZE) {
-            int offset = CHUNK_SIZE - chunk;
-            md4.update(buffer, 0, offset);
-            out.write(md4.digest());
-            chunk = len - offset;
-            md4.update(buffer, offset, chunk);
-        } else {
-            md4.update(buffer, 0, len);
-            chunk += len;
+    /**
+     * Opens a channel directly from the item file if it has one, avoiding copies
+     * through heap buffers, or a channel over the item stream otherwise.
+     */
+    private static ReadableByteChannel openChannel(IItem evidence) throws IOException {
+        if (IOUtil.hasFile(evidence)) {
+            File file = IOUtil.getFile(evidence);
+            if (file != null && file.isFile()) {
+                return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
         }
-        total += len;
+        return Channels.newChannel(evidence.getSeekableInputStream());
     }
 
-    private byte[] digestEd2k() throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (total == 0 || total % CHUNK_SIZE != 0) {
-            out.write(md4.digest());
-        }
-
-        if (out.size() > md4.getDigestLength()) {
-            md4.update(out.toByteArray());
-            out.reset();
-            out.write(md4.digest());
-        }
-
-        byte[] ed2k = out.toByteArray();
-
-        chunk = 0;
-        total = 0;
-        out = new ByteArrayOutputStream();
-
-        return ed2k;
-    }
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray(); //$NON-NLS-1$
 
     public static String getHashString(byte[] hash) {
-        StringBuilder result = new StringBuilder();
-        for (byte b : hash) {
-            result.append(String.format("%1$02X", b)); //$NON-NLS-1$
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            result[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
         }
-
-        return result.toString();
+        return new String(result);
     }
 
 }
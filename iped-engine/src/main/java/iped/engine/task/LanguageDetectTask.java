@@ -4,7 +4,9 @@
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.tika.mime.MediaType;
 import org.slf4j.Logger;
@@ -22,6 +24,7 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
 import iped.engine.data.Item;
+import iped.engine.task.ContentResultCache.ResultType;
 import iped.parsers.standard.StandardParser;
 
 public class LanguageDetectTask extends AbstractTask {
@@ -80,6 +83,31 @@ protected void process(IItem evidence) throws Exception {
         if (((Item) evidence).getTextCache() == null)
             return;
 
+        ContentResultCache contentCache = ContentResultCache.get();
+        Map<String, Object> cachedLangs = contentCache != null
+                ? contentCache.getAttributes(evidence, ResultType.LANGUAGE)
+                : null;
+        if (cachedLangs != null) {
+            ContentResultCache.setAttributes(evidence, cachedLangs);
+            return;
+        }
+
+        if (detectLanguages(evidence) && contentCache != null) {
+            Map<String, Object> langs = new HashMap<>();
+            for (Map.Entry<String, Object> entry : evidence.getExtraAttributeMap().entrySet()) {
+                if (entry.getKey().startsWith(LANGUAGE_PREFIX)) {
+                    langs.put(entry.getKey(), entry.getValue());
+                }
+            }
+            contentCache.putAttributes(evidence, ResultType.LANGUAGE, langs);
+        }
+    }
+
+    /**
+     * @return false if detection failed
+     */
+    private boolean detectLanguages(IItem evidence) throws IOException {
+
         char[] cbuf = new char[MAX_CHARS];
         int i = 0, off = 0;
         try (Reader reader = evidence.getTextReader()) {
@@ -88,7 +116,7 @@ protected void process(IItem evidence) throws Exception {
         }
 
         if (off == 0)
-            return;
+            return true;
 
         String text = new String(cbuf, 0, off);
 
@@ -102,7 +130,7 @@ protected void process(IItem evidence) throws Exception {
             langs = detector.getProbabilities(text);
         } catch (RuntimeException e) {
             LOGGER.info("Error detecting language from " + evidence.getPath(), e); //$NON-NLS-1$
-            return;
+            return false;
         }
 
         List<String> langList = new ArrayList<String>();
@@ -116,6 +144,7 @@ protected void process(IItem evidence) throws Exception {
         if (!langList.isEmpty())
             evidence.setExtraAttribute(LANGUAGE_NAMES, langList);
 
+        return true;
     }
 
     private LanguageDetector loadModels() throws IOException {
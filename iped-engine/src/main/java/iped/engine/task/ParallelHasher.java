@@ -0,0 +1,436 @@
+package iped.engine.task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import iped.data.IItem;
+import iped.engine.task.HashTask.HASH;
+
+/**
+ * Computes several digests of the same content, also feeding registered
+ * {@link ContentConsumer}s accepting the item, so content is read just once.
+ *
+ * Small contents are hashed inline by the calling thread, without any thread
+ * handoff, reusing one heap buffer. Large contents are read ahead into a ring
+ * of direct buffers, and each digest algorithm or consumer of the whole content
+ * runs on its own long lived lane thread, so all of them are computed in
+ * parallel with the read. Consumers of just a content prefix are fed by the
+ * reading thread. No objects are allocated per buffer.
+ *
+ * Instances are not thread safe, each HashTask (so each Worker) has its own.
+ */
+public class ParallelHasher implements Closeable {
+
+    private static final int BUFFER_LEN = 1024 * 1024;
+
+    private static final int RING_SIZE = 3;
+
+    private static final AtomicInteger instanceCounter = new AtomicInteger();
+
+    private final Digester[] digesters;
+
+    // digesters followed by other consumers
+    private final ContentConsumer[] consumers;
+
+    // consumers accepting the current item
+    private final List<ContentConsumer> active = new ArrayList<>();
+
+    // consumers of a content prefix, fed by the reading thread
+    private final List<ContentConsumer> prefixConsumers = new ArrayList<>();
+
+    private final List<Lane> activeLanes = new ArrayList<>();
+
+    private final byte[] inlineBuffer = new byte[BUFFER_LEN];
+
+    private ByteBuffer[] ring;
+
+    private ByteBuffer[] readerViews;
+
+    private int[] ringLengths;
+
+    private AtomicInteger[] pendingLanes;
+
+    private Lane[] lanes;
+
+    private int instance;
+
+    private volatile Thread reader;
+
+    private final AtomicReference<Throwable> laneException = new AtomicReference<>();
+
+    public ParallelHasher(List<String> algorithms, List<ContentConsumer> otherConsumers)
+            throws NoSuchAlgorithmException {
+        digesters = new Digester[algorithms.size()];
+        for (int i = 0; i < digesters.length; i++) {
+            String algorithm = algorithms.get(i);
+            if (algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
+                digesters[i] = new Ed2kDigester();
+            } else {
+                digesters[i] = new Digester(MessageDigest.getInstance(algorithm.toUpperCase()));
+            }
+        }
+        consumers = new ContentConsumer[digesters.length + otherConsumers.size()];
+        System.arraycopy(digesters, 0, consumers, 0, digesters.length);
+        for (int i = 0; i < otherConsumers.size(); i++) {
+            consumers[digesters.length + i] = otherConsumers.get(i);
+        }
+    }
+
+    /**
+     * @return true if the item content is large and more than one digest or
+     *         consumer needs the whole content, so it is worth to hash it using
+     *         lane threads.
+     */
+    public boolean useLanes(IItem item) {
+        Long length = item.getLength();
+        if (length == null || length < RING_SIZE * BUFFER_LEN) {
+            return false;
+        }
+        int wholeContentConsumers = 0;
+        for (ContentConsumer consumer : consumers) {
+            if (consumer.getMaxLength() >= BUFFER_LEN && consumer.accept(item)) {
+                wholeContentConsumers++;
+            }
+        }
+        return wholeContentConsumers > 1;
+    }
+
+    private void selectConsumers(IItem item) {
+        active.clear();
+        for (ContentConsumer consumer : consumers) {
+            if (consumer.accept(item)) {
+                active.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Hashes the content inline, in the calling thread. Results of other
+     * consumers are set into the item.
+     */
+    public byte[][] hash(InputStream in, IItem item) throws IOException {
+        selectConsumers(item);
+        try {
+            int len;
+            while ((len = in.read(inlineBuffer)) != -1) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("Interrupted"); //$NON-NLS-1$
+                }
+                for (int i = 0; i < active.size(); i++) {
+                    active.get(i).update(inlineBuffer, 0, len);
+                }
+            }
+            return digest(item);
+
+        } catch (IOException | RuntimeException e) {
+            reset();
+            throw e;
+        }
+    }
+
+    /**
+     * Hashes the content read from the channel, reading ahead in the calling
+     * thread while lane threads compute each digest or feed each consumer.
+     * Results of other consumers are set into the item.
+     */
+    public byte[][] hash(ReadableByteChannel channel, IItem item) throws IOException, InterruptedException {
+        selectConsumers(item);
+        startRing();
+        prefixConsumers.clear();
+        activeLanes.clear();
+        for (int i = 0; i < consumers.length; i++) {
+            ContentConsumer consumer = consumers[i];
+            if (!active.contains(consumer)) {
+                continue;
+            }
+            if (consumer.getMaxLength() < BUFFER_LEN) {
+                prefixConsumers.add(consumer);
+            } else {
+                activeLanes.add(getLane(i));
+            }
+        }
+        reader = Thread.currentThread();
+        laneException.set(null);
+        long offset = 0;
+        int slot = 0;
+        boolean success = false;
+        try {
+            while (true) {
+                waitLanes(slot);
+                ByteBuffer buffer = ring[slot];
+                buffer.clear();
+                int len;
+                while (buffer.hasRemaining() && (len = channel.read(buffer)) != -1) {
+                    if (len == 0) {
+                        Thread.yield();
+                    }
+                }
+                if (buffer.position() == 0) {
+                    break;
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                ringLengths[slot] = buffer.position();
+                pendingLanes[slot].set(activeLanes.size());
+                for (int i = 0; i < activeLanes.size(); i++) {
+                    // never blocks, lanes have at most RING_SIZE pending slots
+                    activeLanes.get(i).slots.offer(slot);
+                }
+                for (int i = 0; i < prefixConsumers.size(); i++) {
+                    ContentConsumer consumer = prefixConsumers.get(i);
+                    if (offset < consumer.getMaxLength()) {
+                        ByteBuffer view = readerViews[slot];
+                        view.limit(ringLengths[slot]).position(0);
+                        consumer.update(view);
+                    }
+                }
+                offset += ringLengths[slot];
+                checkLaneException();
+                slot = (slot + 1) % RING_SIZE;
+            }
+            for (int i = 0; i < RING_SIZE; i++) {
+                waitLanes(i);
+            }
+            checkLaneException();
+            success = true;
+
+        } finally {
+            if (!success) {
+                for (int i = 0; i < RING_SIZE; i++) {
+                    waitLanes(i);
+                }
+                reset();
+            }
+        }
+        return digest(item);
+    }
+
+    private void checkLaneException() throws IOException {
+        Throwable t = laneException.get();
+        if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    private void reset() {
+        for (ContentConsumer consumer : consumers) {
+            consumer.reset();
+        }
+    }
+
+    private void waitLanes(int slot) {
+        while (pendingLanes[slot].get() != 0) {
+            LockSupport.parkNanos(this, 100000);
+        }
+    }
+
+    private byte[][] digest(IItem item) throws IOException {
+        byte[][] result = new byte[digesters.length][];
+        for (int i = 0; i < digesters.length; i++) {
+            result[i] = digesters[i].digest();
+        }
+        for (int i = digesters.length; i < consumers.length; i++) {
+            if (active.contains(consumers[i])) {
+                consumers[i].finish(item);
+            }
+        }
+        return result;
+    }
+
+    private void startRing() {
+        if (ring != null) {
+            return;
+        }
+        ring = new ByteBuffer[RING_SIZE];
+        readerViews = new ByteBuffer[RING_SIZE];
+        ringLengths = new int[RING_SIZE];
+        pendingLanes = new AtomicInteger[RING_SIZE];
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = ByteBuffer.allocateDirect(BUFFER_LEN);
+            readerViews[i] = ring[i].duplicate();
+            pendingLanes[i] = new AtomicInteger();
+        }
+        lanes = new Lane[consumers.length];
+        instance = instanceCounter.incrementAndGet();
+    }
+
+    /**
+     * Lanes are started when first needed, so consumers declining all large items
+     * never get a thread.
+     */
+    private Lane getLane(int i) {
+        if (lanes[i] == null) {
+            lanes[i] = new Lane(consumers[i], "HashLane-" + instance + "-" + i); //$NON-NLS-1$ //$NON-NLS-2$
+            lanes[i].start();
+        }
+        return lanes[i];
+    }
+
+    @Override
+    public void close() {
+        if (lanes != null) {
+            for (Lane lane : lanes) {
+                if (lane != null) {
+                    lane.interrupt();
+                }
+            }
+        }
+    }
+
+    private class Lane extends Thread {
+
+        private final ContentConsumer consumer;
+
+        private final BlockingQueue<Integer> slots = new ArrayBlockingQueue<>(RING_SIZE);
+
+        /**
+         * Each lane has its own view of ring buffers, so lanes do not share buffer
+         * positions.
+         */
+        private final ByteBuffer[] views = new ByteBuffer[RING_SIZE];
+
+        private Lane(ContentConsumer consumer, String name) {
+            super(name);
+            this.consumer = consumer;
+            this.setDaemon(true);
+            for (int i = 0; i < RING_SIZE; i++) {
+                views[i] = ring[i].duplicate();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                int slot;
+                try {
+                    slot = slots.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                try {
+                    ByteBuffer view = views[slot];
+                    view.limit(ringLengths[slot]).position(0);
+                    consumer.update(view);
+                } catch (Throwable t) {
+                    laneException.compareAndSet(null, t);
+                } finally {
+                    if (pendingLanes[slot].decrementAndGet() == 0) {
+                        LockSupport.unpark(reader);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Digester extends ContentConsumer {
+
+        protected final MessageDigest digest;
+
+        private Digester(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        void update(byte[] buf, int off, int len) throws IOException {
+            digest.update(buf, off, len);
+        }
+
+        @Override
+        void update(ByteBuffer buf) throws IOException {
+            digest.update(buf);
+        }
+
+        byte[] digest() throws IOException {
+            return digest.digest();
+        }
+
+        @Override
+        void finish(IItem item) {
+            // digests are returned by hash()
+        }
+
+        @Override
+        void reset() {
+            digest.reset();
+        }
+    }
+
+    /**
+     * eDonkey hash: MD4 of MD4s of each 9500KB chunk.
+     */
+    private static class Ed2kDigester extends Digester {
+
+        private static final int CHUNK_SIZE = 9500 * 1024;
+
+        private int chunk = 0;
+        private long total = 0;
+        private ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        private Ed2kDigester() throws NoSuchAlgorithmException {
+            super(MessageDigest.getInstance("MD4")); //$NON-NLS-1$
+        }
+
+        @Override
+        void update(byte[] buf, int off, int len) throws IOException {
+            update(ByteBuffer.wrap(buf, off, len));
+        }
+
+        @Override
+        void update(ByteBuffer buf) throws IOException {
+            int len = buf.remaining();
+            int limit = buf.limit();
+            while (buf.hasRemaining()) {
+                int toChunkEnd = CHUNK_SIZE - chunk;
+                if (buf.remaining() >= toChunkEnd) {
+                    buf.limit(buf.position() + toChunkEnd);
+                    digest.update(buf);
+                    buf.limit(limit);
+                    out.write(digest.digest());
+                    chunk = 0;
+                } else {
+                    chunk += buf.remaining();
+                    digest.update(buf);
+                }
+            }
+            total += len;
+        }
+
+        @Override
+        byte[] digest() throws IOException {
+            if (total == 0 || total % CHUNK_SIZE != 0) {
+                out.write(digest.digest());
+            }
+            if (out.size() > digest.getDigestLength()) {
+                digest.update(out.toByteArray());
+                out.reset();
+                out.write(digest.digest());
+            }
+            byte[] ed2k = out.toByteArray();
+            reset();
+            return ed2k;
+        }
+
+        @Override
+        void reset() {
+            digest.reset();
+            chunk = 0;
+            total = 0;
+            out.reset();
+        }
+    }
+
+}
@@ -21,6 +21,7 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
@@ -32,8 +33,10 @@
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.io.IOUtils;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.extractor.EmbeddedDocumentExtractor;
 import org.apache.tika.io.TemporaryResources;
@@ -156,7 +159,10 @@ public class ParsingTask extends ThumbTask implements EmbeddedDocumentExtractor
     private static int max_expanding_containers;
 
     public static AtomicLong totalText = new AtomicLong();
-    private static final Map<String, Long> timesPerParser = new HashMap<String, Long>();
+    private static final Map<String, LongAdder> timesPerParser = new ConcurrentHashMap<>();
+
+    private static final Set<String> ignoredMetadataToCache = new HashSet<>(
+            Arrays.asList(TikaCoreProperties.RESOURCE_NAME_KEY, ExtraProperties.THUMBNAIL_BASE64));
 
     private static Map<Integer, ZipBombStats> zipBombStatsMap = new ConcurrentHashMap<>();
     private static final Set<MediaType> typesToCheckZipBomb = getTypesToCheckZipbomb();
@@ -325,9 +331,11 @@ public void process(IItem evidence) throws Exception {
                     LOGGER.warn("{} Negative Parsing Time: {} {} Diff={} SubItemsTime={}",
                             Thread.currentThread().getName(), evidence.getPath(), parserName, diff, st);
                 }
-                synchronized (timesPerParser) {
-                    timesPerParser.merge(parserName, diff - st, Long::sum);
+                LongAdder parserTime = timesPerParser.get(parserName);
+                if (parserTime == null) {
+                    parserTime = timesPerParser.computeIfAbsent(parserName, k -> new LongAdder());
                 }
+                parserTime.add(diff - st);
             }
 
         }
@@ -368,6 +376,11 @@ private void safeProcess(IItem evidence) throws Exception {
             }
         }
 
+        ContentResultCache contentCache = this.extractEmbedded ? null : ContentResultCache.get();
+        if (contentCache != null && setCachedText(contentCache, evidence)) {
+            return;
+        }
+
         TikaInputStream tis = null;
         try {
             tis = evidence.getTikaStream();
@@ -397,6 +410,10 @@ private void safeProcess(IItem evidence) throws Exception {
             zipBombStatsMap.put(evidence.getId(), new ZipBombStats(evidence.getLength()));
         }
 
+        String prevMediaType = evidence.getMediaType().toString();
+        Map<String, String[]> prevMetadata = contentCache != null ? ContentResultCache.snapshotMetadata(metadata)
+                : null;
+
         try {
             reader = new ParsingReader(this.autoParser, tis, metadata, context);
             reader.startBackgroundParsing();
@@ -415,6 +432,10 @@ private void safeProcess(IItem evidence) throws Exception {
             evidence.setParsed(true);
             totalText.addAndGet(textCache.getSize());
 
+            if (contentCache != null) {
+                cacheText(contentCache, evidence, prevMediaType, prevMetadata, textCache);
+            }
+
         } catch (IOException e) {
             if (e.toString().contains("Write end dead"))
                 LOGGER.error("{} Parsing thread ended without closing pipedWriter {} ({} bytes)", //$NON-NLS-1$
@@ -436,6 +457,58 @@ private void safeProcess(IItem evidence) throws Exception {
 
     }
 
+    /**
+     * Reuses text and metadata of a previously parsed item with the same content,
+     * instead of parsing it again.
+     */
+    private boolean setCachedText(ContentResultCache contentCache, IItem evidence) throws IOException {
+        ContentResultCache.CachedText cachedText = contentCache.getText(evidence);
+        if (cachedText == null) {
+            return false;
+        }
+        Metadata metadata = evidence.getMetadata();
+        for (Map.Entry<String, String[]> entry : cachedText.getMetadata().entrySet()) {
+            metadata.remove(entry.getKey());
+            for (String value : entry.getValue()) {
+                metadata.add(entry.getKey(), value);
+            }
+        }
+        TextCache textCache = new TextCache();
+        textCache.write(cachedText.getText());
+        ((Item) evidence).setParsedTextCache(textCache);
+        evidence.setParsed(true);
+        evidence.setTempAttribute(ContentResultCache.TEXT_FROM_CACHE, true);
+        totalText.addAndGet(textCache.getSize());
+
+        // thumb possibly generated by the parser of first item is stored by hash
+        try {
+            hasThumb(evidence, getThumbFile(evidence));
+        } catch (Exception e) {
+            LOGGER.warn("Error checking item thumbnail: " + evidence.toString(), e);
+        }
+        handleMetadata(evidence);
+        return true;
+    }
+
+    private void cacheText(ContentResultCache contentCache, IItem evidence, String prevMediaType,
+            Map<String, String[]> prevMetadata, TextCache textCache) throws IOException {
+        Metadata metadata = evidence.getMetadata();
+        if (numSubitems > 0 || evidence.isTimedOut() || Thread.currentThread().isInterrupted()
+                || textCache.getSize() > contentCache.getMaxTextChars()
+                || Boolean.valueOf(metadata.get(BasicProps.HASCHILD))
+                || metadata.get(StandardParser.PARSER_EXCEPTION) != null
+                || metadata.get(StandardParser.INDEXER_TIMEOUT) != null) {
+            return;
+        }
+        String text;
+        try (Reader textReader = textCache.getTextReader()) {
+            text = textReader != null ? IOUtils.toString(textReader) : ""; //$NON-NLS-1$
+        }
+        Map<String, String[]> newMetadata = ContentResultCache.diffMetadata(prevMetadata, metadata,
+                ignoredMetadataToCache);
+        contentCache.putText(evidence, prevMediaType, text, newMetadata);
+    }
+
     private final void handleMetadata(IItem evidence) {
         // Ajusta metadados:
         Metadata metadata = evidence.getMetadata();
@@ -785,6 +858,13 @@ public void init(ConfigurationManager configurationManager) {
 
         this.autoParser = new StandardParser();
 
+        if (parsingConfig.isEnableContentResultCache()) {
+            LocalConfig localConfig = configurationManager.findObject(LocalConfig.class);
+            ContentResultCache.init(parsingConfig.getContentResultCacheMemory(),
+                    parsingConfig.getContentResultCacheDiskSize(), parsingConfig.getContentResultCacheMaxTextChars(),
+                    localConfig.getIndexerTemp());
+        }
+
     }
 
     public static void setupParsingOptions(ConfigurationManager configurationManager) {
@@ -868,6 +948,18 @@ private static void setupOCROptions(OCRConfig ocrConfig) {
             System.setProperty(PDFTextParser.MAX_CHARS_TO_OCR, ocrConfig.getMaxPdfTextSize2OCR());
             System.setProperty(OCRParser.PROCESS_NON_STANDARD_FORMATS_PROP, ocrConfig.getProcessNonStandard());
             System.setProperty(OCRParser.MAX_CONV_IMAGE_SIZE_PROP, ocrConfig.getMaxConvImageSize());
+            if (ocrConfig.getNumOCRProcesses() != null) {
+                System.setProperty(OCRParser.NUM_PROCESSES_PROP, ocrConfig.getNumOCRProcesses());
+            }
+            if (ocrConfig.getTimeoutPerPage() != null) {
+                System.setProperty(OCRParser.TIMEOUT_PROP, ocrConfig.getTimeoutPerPage());
+            }
+            if (ocrConfig.getBatchPages() != null) {
+                System.setProperty(OCRParser.BATCH_PAGES_PROP, ocrConfig.getBatchPages());
+            }
+            if (ocrConfig.getSharedOCRCacheDb() != null) {
+                System.setProperty(OCRParser.SHARED_CACHE_PROP, ocrConfig.getSharedOCRCacheDb());
+            }
         }
     }
 
@@ -876,14 +968,15 @@ public void finish() throws Exception {
         if (totalText != null) {
             LOGGER.info("Total extracted text size: " + totalText.get()); //$NON-NLS-1$
             WhatsAppParser.clearStaticResources();
+            ContentResultCache.close();
         }
         totalText = null;
     }
 
     public static void copyTimesPerParser(Map<String,Long> dest) {
         dest.clear();
-        synchronized (timesPerParser) {
-            dest.putAll(timesPerParser);
+        for (Map.Entry<String, LongAdder> entry : timesPerParser.entrySet()) {
+            dest.put(entry.getKey(), entry.getValue().sum());
         }
     }
 }
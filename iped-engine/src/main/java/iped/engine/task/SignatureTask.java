@@ -120,6 +120,11 @@ public void process(IItem evidence) {
             }
         }
         evidence.setMediaType(MediaTypes.getMediaTypeRegistry().normalize(type));
+
+        // head kept by HashTask is not needed anymore
+        if (evidence.getTempAttribute(ContentConsumer.CONTENT_HEAD) != null) {
+            evidence.setTempAttribute(ContentConsumer.CONTENT_HEAD, null);
+        }
     }
 
     private boolean hasVHDFooter(IItem item) {
@@ -149,6 +154,9 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         installCustomSignatures();
         SignatureConfig config = configurationManager.findObject(SignatureConfig.class);
         processFileSignatures = config.isEnabled();
+        if (processFileSignatures) {
+            ContentConsumer.register(ContentConsumer.Head.class, ContentConsumer.Head::new);
+        }
     }
 
     public static void installCustomSignatures() {
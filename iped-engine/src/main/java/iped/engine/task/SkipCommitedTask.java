@@ -1,12 +1,10 @@
 package iped.engine.task;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -17,7 +15,6 @@
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.util.BytesRef;
@@ -26,12 +23,12 @@
 import iped.data.IItem;
 import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.data.CommittedTrackIDs;
 import iped.engine.datasource.UfedXmlReader;
 import iped.engine.lucene.DocValuesUtil;
-import iped.engine.lucene.SlowCompositeReaderWrapper;
+import iped.engine.lucene.SegmentDocValues;
 import iped.engine.task.carver.BaseCarveTask;
 import iped.engine.task.index.IndexItem;
-import iped.engine.task.index.IndexTask;
 import iped.engine.util.Util;
 import iped.exception.IPEDException;
 import iped.properties.BasicProps;
@@ -58,14 +55,12 @@ public class SkipCommitedTask extends AbstractTask {
 
     private static Logger logger = LogManager.getLogger(SkipCommitedTask.class);
 
-    private static HashValue[] commitedtrackIDs;
+    private static CommittedTrackIDs commitedtrackIDs;
 
     private static Set<HashValue> parentsWithLostSubitems = Collections.synchronizedSet(new TreeSet<>());
 
     private static Set<HashValue> removedParents = Collections.synchronizedSet(new TreeSet<>());
 
-    private static Map<HashValue, Integer> globalToIdMap = new HashMap<>();
-
     private static HashMap<String, String> prevRootNameToEvidenceUUID = new HashMap<>();
 
     private static CmdLineArgs args;
@@ -76,8 +71,7 @@ public static boolean isAlreadyCommited(IItem item) {
         if (commitedtrackIDs == null) {
             return false;
         }
-        HashValue trackID = new HashValue(Util.getTrackID(item));
-        boolean isCommitted = Arrays.binarySearch(commitedtrackIDs, trackID) >= 0;
+        boolean isCommitted = commitedtrackIDs.isCommitted(Util.getTrackID(item));
         if (isCommitted) {
             item.setTempAttribute(IS_COMMITTED, Boolean.TRUE.toString());
         }
@@ -97,13 +91,13 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         }
 
         try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
-            LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
+            SegmentDocValues docValues = new SegmentDocValues(reader);
 
-            SortedDocValues evidenceUUIDs = aReader.getSortedDocValues(BasicProps.EVIDENCE_UUID);
-            for (int doc = 0; doc < aReader.maxDoc(); doc++) {
+            SortedDocValues evidenceUUIDs = docValues.getSortedDocValues(BasicProps.EVIDENCE_UUID);
+            for (int doc = 0; doc < docValues.maxDoc(); doc++) {
                 String uuid = DocValuesUtil.getVal(evidenceUUIDs, doc);
                 if (uuid != null && !prevRootNameToEvidenceUUID.containsValue(uuid)) {
-                    Document luceneDoc = aReader.document(doc);
+                    Document luceneDoc = reader.document(doc);
                     String path = luceneDoc.get(BasicProps.PATH);
                     prevRootNameToEvidenceUUID.put(Util.getRootName(path), uuid);
                 }
@@ -120,76 +114,46 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 return;
             }
 
-            SortedDocValues persistIds = aReader.getSortedDocValues(IndexItem.TRACK_ID);
-            int size = persistIds == null ? 0 : persistIds.getValueCount();
-            commitedtrackIDs = new HashValue[size];
-            for (int ord = 0; ord < commitedtrackIDs.length; ord++) {
-                String trackID = persistIds.lookupOrd(ord).utf8ToString();
-                commitedtrackIDs[ord] = new HashValue(trackID);
-            }
-            // Arrays.sort(trackIDs);
-
-            SortedDocValues globalParents = aReader.getSortedDocValues(IndexItem.PARENT_TRACK_ID);
-            SortedDocValues hasChildValues = aReader.getSortedDocValues(IndexItem.HASCHILD);
-            SortedDocValues isDirValues = aReader.getSortedDocValues(IndexItem.ISDIR);
-            SortedDocValues isRootValues = aReader.getSortedDocValues(IndexItem.ISROOT);
-            SortedDocValues hasSplittedText = aReader.getSortedDocValues(IndexTask.TEXT_SPLITTED);
-            NumericDocValues prevParentIds = aReader.getNumericDocValues(IndexItem.PARENTID);
-            NumericDocValues prevIds = aReader.getNumericDocValues(IndexItem.ID);
-            for (int doc = 0; doc < aReader.maxDoc(); doc++) {
-                String hashVal = globalParents == null ? null : DocValuesUtil.getVal(globalParents, doc);
-                if (hashVal != null && !hashVal.isEmpty()) {
-                    HashValue persistParent = new HashValue(hashVal);
-                    if (prevParentIds != null && Arrays.binarySearch(commitedtrackIDs, persistParent) < 0) {
-                        globalToIdMap.put(persistParent, DocValuesUtil.get(prevParentIds, doc).intValue());
-                    }
-                }
-                boolean hasChild = hasChildValues != null && Boolean.valueOf(DocValuesUtil.getVal(hasChildValues, doc));
-                boolean isDir = isDirValues != null && Boolean.valueOf(DocValuesUtil.getVal(isDirValues, doc));
-                boolean isRoot = isRootValues != null && Boolean.valueOf(DocValuesUtil.getVal(isRootValues, doc));
-                boolean isTexSplitted = hasSplittedText != null && Boolean.valueOf(DocValuesUtil.getVal(hasSplittedText, doc));
-                if (prevIds != null && persistIds != null && (hasChild || isDir || isRoot || isTexSplitted)) {
-                    HashValue trackID = new HashValue(DocValuesUtil.getVal(persistIds, doc));
-                    globalToIdMap.put(trackID, DocValuesUtil.get(prevIds, doc).intValue());
-                }
-            }
-
-            caseData.putCaseObject(trackID_ID_MAP, globalToIdMap);
+            // committed trackIDs and previous ids are memory mapped from a file saved at
+            // the end of processing or built now, so they don't use heap nor need to be
+            // loaded from index again
+            commitedtrackIDs = CommittedTrackIDs.load(output, reader, worker.writer.getDirectory());
+            caseData.putCaseObject(trackID_ID_MAP, commitedtrackIDs);
 
-            collectParentsWithoutAllSubitems(aReader, IndexItem.CONTAINER_TRACK_ID, ParsingTask.NUM_SUBITEMS);
-            collectParentsWithoutAllSubitems(aReader, IndexItem.PARENT_TRACK_ID, BaseCarveTask.NUM_CARVED_AND_FRAGS);
+            collectParentsWithoutAllSubitems(docValues, IndexItem.CONTAINER_TRACK_ID, ParsingTask.NUM_SUBITEMS);
+            collectParentsWithoutAllSubitems(docValues, IndexItem.PARENT_TRACK_ID, BaseCarveTask.NUM_CARVED_AND_FRAGS);
 
             caseData.putCaseObject(PARENTS_WITH_LOST_SUBITEMS, parentsWithLostSubitems);
 
-            logger.info("Commited items: {}", commitedtrackIDs.length);
+            logger.info("Commited items: {}", commitedtrackIDs.size());
             logger.info("Parents with lost subitems: {}", parentsWithLostSubitems.size());
 
         } catch (IndexNotFoundException e) {
-            commitedtrackIDs = new HashValue[0];
+            commitedtrackIDs = CommittedTrackIDs.empty();
         }
 
     }
 
-    private void collectParentsWithoutAllSubitems(LeafReader aReader, String parentIdField, String subitemCountField)
+    private void collectParentsWithoutAllSubitems(SegmentDocValues docValues, String parentIdField, String subitemCountField)
             throws IOException {
         // reset doc values to iterate again
-        SortedDocValues persistIds = aReader.getSortedDocValues(IndexItem.TRACK_ID);
-        NumericDocValues ids = aReader.getNumericDocValues(IndexItem.ID);
-        SortedDocValues parentContainers = aReader.getSortedDocValues(parentIdField);
+        SortedDocValues persistIds = docValues.getSortedDocValues(IndexItem.TRACK_ID);
+        NumericDocValues ids = docValues.getNumericDocValues(IndexItem.ID);
+        SortedDocValues parentContainers = docValues.getSortedDocValues(parentIdField);
 
         if (parentContainers == null || persistIds == null || ids == null) {
             return;
         }
-        NumericDocValues numSubitems = aReader.getNumericDocValues(subitemCountField);
+        NumericDocValues numSubitems = docValues.getNumericDocValues(subitemCountField);
         if (numSubitems == null) {
             return;
         }
-        SortedDocValues subitems = aReader.getSortedDocValues(BasicProps.SUBITEM);
+        SortedDocValues subitems = docValues.getSortedDocValues(BasicProps.SUBITEM);
 
         int[] referencingSubitems = new int[parentContainers.getValueCount()];
 
         BitSet countedIds = new BitSet();
-        for (int doc = 0; doc < aReader.maxDoc(); doc++) {
+        for (int doc = 0; doc < docValues.maxDoc(); doc++) {
             Long longId = DocValuesUtil.get(ids, doc);
             if (longId == null) {
                 continue;
@@ -206,7 +170,7 @@ private void collectParentsWithoutAllSubitems(LeafReader aReader, String parentI
             countedIds.set(id);
         }
 
-        for (int doc = 0; doc < aReader.maxDoc(); doc++) {
+        for (int doc = 0; doc < docValues.maxDoc(); doc++) {
             Long subitemsCount = DocValuesUtil.get(numSubitems, doc);
             if (subitemsCount != null) {
                 if (!persistIds.advanceExact(doc))
@@ -235,7 +199,6 @@ public void finish() throws Exception {
         commitedtrackIDs = null;
         parentsWithLostSubitems.clear();
         removedParents.clear();
-        globalToIdMap.clear();
         prevRootNameToEvidenceUUID.clear();
     }
 
@@ -252,7 +215,7 @@ public static void checkAgainLaterProcessedParents(IItem item) {
     protected void process(IItem item) throws Exception {
 
         // must be calculated first, in all cases, to allow recovering in the future
-        HashValue trackID = new HashValue(Util.getTrackID(item));
+        String trackID = Util.getTrackID(item);
 
         if (item.getExtraAttribute(IndexItem.PARENT_TRACK_ID) == null && !item.isRoot()) {
             // this property is needed when resuming processing to get a previous parent id
@@ -268,17 +231,18 @@ protected void process(IItem item) throws Exception {
 
         // ignore already committed items. If they are containers without all their
         // subitems committed, process again
-        if (Arrays.binarySearch(commitedtrackIDs, trackID) >= 0) {
+        if (commitedtrackIDs.isCommitted(trackID)) {
+            HashValue hash = new HashValue(trackID);
             // we must "remove" seen containers from set below. It is possible for the same
             // container to be enqueued twice: if it is a subItem/carved of some allocated
             // parent being processed again, coming from some datasource reader, AND if it
             // was already committed, coming from the index.
-            if (!parentsWithLostSubitems.remove(trackID)) {
+            if (!parentsWithLostSubitems.remove(hash)) {
                 item.setToIgnore(true);
                 item.setTempAttribute(IS_COMMITTED, Boolean.TRUE.toString());
                 return;
             } else {
-                removedParents.add(trackID);
+                removedParents.add(hash);
             }
         }
 
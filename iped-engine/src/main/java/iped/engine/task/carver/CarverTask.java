@@ -5,14 +5,15 @@
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.tika.mime.MediaType;
-import org.arabidopsis.ahocorasick.AhoCorasick;
-import org.arabidopsis.ahocorasick.SearchResult;
-import org.arabidopsis.ahocorasick.Searcher;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick.MatchListener;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick.Matches;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,6 +47,13 @@ public class CarverTask extends BaseCarveTask {
     private static Logger LOGGER = LoggerFactory.getLogger(CarverTask.class);
     private static int largestPatternLen = 100;
 
+    // items smaller than this are scanned by just one thread
+    private static final long PARALLEL_SCAN_MIN_LEN = 64 * 1024 * 1024;
+    private static final int PARALLEL_SCAN_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private static int scanThreads = 1;
+    private static ExecutorService scanExecutor;
+
     protected HashMap<CarverType, Carver> registeredCarvers = new HashMap<CarverType, Carver>();
     private CarvedItemListener carvedItemListener = null;
     IItem evidence;
@@ -53,7 +61,10 @@ public class CarverTask extends BaseCarveTask {
     long prevLen = 0;
     int len = 0, k = 0;
     byte[] buf = new byte[1024 * 1024];
-    byte[] cBuf;
+
+    private CompiledAhoCorasick automaton;
+    private HashMap<CarverType, TreeMap<Long, Integer>> map;
+    private final MatchListener matchListener = (output, end) -> processMatch(output, end);
 
     public static void setEnabled(boolean enabled) {
         enableCarving = enabled;
@@ -137,70 +148,26 @@ private void fillBuf(InputStream in) throws IOException {
         while (k != -1 && (len += k) < buf.length) {
             k = in.read(buf, len, buf.length - len);
         }
-
-        cBuf = new byte[len];
-        System.arraycopy(buf, 0, cBuf, 0, len);
-
     }
 
     private Hit findSig(InputStream in) throws Exception {
-        HashMap<CarverType, TreeMap<Long, Integer>> map = new HashMap<>();
+        map = new HashMap<>();
         for (int i = 0; i < carverTypes.length; i++) {
             map.put(carverTypes[i], new TreeMap<Long, Integer>());
         }
 
-        AhoCorasick tree = carverConfig.getPopulatedTree();
-        SearchResult lastResult = new SearchResult(tree.root, null, 0);
-        do {
-            fillBuf(in);
-            lastResult = new SearchResult(lastResult.lastMatchedState, cBuf, 0);
-            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
-
-            while (searcher.hasNext()) {
-                lastResult = searcher.next();
-
-                for (Object out : lastResult.getOutputs()) {
-                    Object[] oarray = (Object[]) out;
-                    Signature sig = (Signature) oarray[0];
-                    int seq = (int) oarray[1];
-                    int i = lastResult.getLastIndex() - sig.seqEndPos[seq];
-
-                    // tratamento para assinaturas com ? (divididas)
-                    if (sig.seqs.length > 1) {
-                        Integer hits = (Integer) map.get(sig.getCarverType()).get(prevLen + i);
-                        if (hits == null) {
-                            hits = 0;
-                        }
-                        if (hits != seq) {
-                            continue;
-                        }
-                        map.get(sig.getCarverType()).put(prevLen + i, ++hits);
-                        if (map.get(sig.getCarverType()).size() > largestPatternLen) {
-                            map.get(sig.getCarverType()).remove(map.get(sig.getCarverType()).firstKey());
-                        }
-
-                        if (hits < sig.seqs.length) {
-                            continue;
-                        }
-                    }
-
-                    Hit hit = null;
-                    hit = new Hit(sig, prevLen + i);
-
-                    Carver carver = getCarver(sig.getCarverType());
-
-                    try {
-                        carver.notifyHit(this.evidence, hit);
-                    } catch (Exception e) {
-                        LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
-                                Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
-                                carver.getClass().getName());
-                        e.printStackTrace();
-                    }
-                }
-            }
-
-        } while (k != -1);
+        automaton = carverConfig.getCompiledTree();
+        Long length = evidence.getLength();
+        if (scanExecutor != null && length != null && length >= PARALLEL_SCAN_MIN_LEN) {
+            findSigParallel(in);
+        } else {
+            // automaton state is kept between buffers, so signatures crossing them are found
+            int state = CompiledAhoCorasick.INITIAL_STATE;
+            do {
+                fillBuf(in);
+                state = automaton.scan(buf, 0, len, state, prevLen, matchListener);
+            } while (k != -1);
+        }
 
         for (Carver carver : registeredCarvers.values()) {
             carver.notifyEnd(this.evidence);
@@ -209,6 +176,72 @@ private Hit findSig(InputStream in) throws Exception {
         return null;
     }
 
+    /**
+     * Scans big items using multiple threads. Each buffer starts with the last
+     * bytes of the previous one, so signatures crossing buffers are found. Hits
+     * are processed in offset order, as in sequential scanning.
+     */
+    private void findSigParallel(InputStream in) throws Exception {
+        int context = Math.max(0, automaton.getMaxKeywordLength() - 1);
+        byte[] pbuf = new byte[PARALLEL_SCAN_CHUNK_SIZE * scanThreads + context];
+        long offset = prevLen;
+        int contextLen = 0;
+        int n = 0;
+        while (n != -1) {
+            int size = contextLen;
+            while (size < pbuf.length && (n = in.read(pbuf, size, pbuf.length - size)) != -1) {
+                size += n;
+            }
+            Matches matches = automaton.scanParallel(pbuf, 0, size, contextLen, offset, scanExecutor, scanThreads);
+            for (int i = 0; i < matches.size(); i++) {
+                processMatch(matches.getOutput(i), matches.getEnd(i));
+            }
+            contextLen = Math.min(context, size);
+            System.arraycopy(pbuf, size - contextLen, pbuf, 0, contextLen);
+            offset += size - contextLen;
+        }
+    }
+
+    private void processMatch(int output, long end) {
+        Object[] oarray = (Object[]) automaton.getOutput(output);
+        Signature sig = (Signature) oarray[0];
+        int seq = (int) oarray[1];
+        long offset = end - sig.seqEndPos[seq];
+
+        // tratamento para assinaturas com ? (divididas)
+        if (sig.seqs.length > 1) {
+            TreeMap<Long, Integer> seqHits = map.get(sig.getCarverType());
+            Integer hits = seqHits.get(offset);
+            if (hits == null) {
+                hits = 0;
+            }
+            if (hits != seq) {
+                return;
+            }
+            seqHits.put(offset, ++hits);
+            if (seqHits.size() > largestPatternLen) {
+                seqHits.remove(seqHits.firstKey());
+            }
+
+            if (hits < sig.seqs.length) {
+                return;
+            }
+        }
+
+        Hit hit = new Hit(sig, offset);
+
+        Carver carver = getCarver(sig.getCarverType());
+
+        try {
+            carver.notifyHit(this.evidence, hit);
+        } catch (Exception e) {
+            LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
+                    Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
+                    carver.getClass().getName());
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public List<Configurable<?>> getConfigurables() {
         return Arrays.asList(new CarverTaskConfig());
@@ -232,13 +265,28 @@ public void init(ConfigurationManager configurationManager) throws Exception {
             carverConfig.configListener(carvedItemListener);
             carverTypes = carverConfig.getCarverTypes();
             ignoreCorrupted = carverConfig.isToIgnoreCorrupted();
+            scanThreads = ctConfig.getConfiguration().getScanThreads();
+        }
+
+        synchronized (CarverTask.class) {
+            if (enableCarving && scanThreads > 1 && scanExecutor == null) {
+                scanExecutor = Executors.newFixedThreadPool(scanThreads, r -> {
+                    Thread t = new Thread(r, "CarverScanThread"); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
         }
     }
 
     @Override
     public void finish() throws Exception {
-        // TODO Auto-generated method stub
-
+        synchronized (CarverTask.class) {
+            if (scanExecutor != null) {
+                scanExecutor.shutdown();
+                scanExecutor = null;
+            }
+        }
     }
 
     private CarvedItemListener getCarvedItemListener() {
@@ -30,6 +30,7 @@
 import iped.engine.hashdb.HashDBDataSource;
 import iped.engine.hashdb.LedHashDB;
 import iped.engine.hashdb.LedItem;
+import iped.engine.task.ContentConsumer;
 import iped.properties.MediaTypes;
 import iped.utils.IOUtil;
 
@@ -147,7 +148,11 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 init.set(true);
             }
         }
-        if (taskEnabled) digest = MessageDigest.getInstance("MD5");
+        if (taskEnabled) {
+            digest = MessageDigest.getInstance("MD5");
+            // hashes of first block are computed when item is hashed
+            ContentConsumer.register(ContentConsumer.PrefixHashes.class, ContentConsumer.PrefixHashes::new);
+        }
     }
 
     /**
@@ -181,6 +186,8 @@ protected void process(IItem evidence) throws Exception {
         long cnt512total = 0;
         long cntBytesHashed = 0;
         Set<Long> offsets = null;
+        byte[] prefix512 = (byte[]) evidence.getTempAttribute(ContentConsumer.MD5_512);
+        byte[] prefix64K = (byte[]) evidence.getTempAttribute(ContentConsumer.MD5_64K);
         try {
             long offset = 0;
             int read512 = 0;
@@ -197,19 +204,31 @@ protected void process(IItem evidence) throws Exception {
                     }
                 }
                 if (!empty) {
-                    digest.update(buf512, 0, read512);
-                    cntBytesHashed += read512;
-                    byte[] hash512 = digest.digest();
+                    byte[] hash512;
+                    if (offset == 0 && prefix512 != null) {
+                        hash512 = prefix512;
+                    } else {
+                        digest.update(buf512, 0, read512);
+                        cntBytesHashed += read512;
+                        hash512 = digest.digest();
+                    }
                     if (ledHashDB.containsMD5_512(hash512)) {
                         cnt512hit++;
-                        is.mark(65536);
-                        int read64K = is.readNBytes(buf64K, 0, buf64K.length);
-                        is.reset();
-                        if (read64K == buf64K.length) {
-                            cntBytesHashed += read512 + read64K;
-                            digest.update(buf512, 0, read512);
-                            digest.update(buf64K, 0, read64K);
-                            byte[] hash64K = digest.digest();
+                        byte[] hash64K = null;
+                        if (offset == 0 && prefix64K != null) {
+                            hash64K = prefix64K;
+                        } else {
+                            is.mark(65536);
+                            int read64K = is.readNBytes(buf64K, 0, buf64K.length);
+                            is.reset();
+                            if (read64K == buf64K.length) {
+                                cntBytesHashed += read512 + read64K;
+                                digest.update(buf512, 0, read512);
+                                digest.update(buf64K, 0, read64K);
+                                hash64K = digest.digest();
+                            }
+                        }
+                        if (hash64K != null) {
                             int hashId = ledHashDB.hashIdFromMD5_64K(hash64K);
                             if (hashId >= 0) {
                                 LedItem ledItem = hashDBDataSource.getLedItem(hashId);
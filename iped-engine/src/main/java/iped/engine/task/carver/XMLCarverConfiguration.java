@@ -13,6 +13,7 @@
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -35,10 +36,12 @@ public class XMLCarverConfiguration implements CarverConfiguration, Serializable
     private static final long serialVersionUID = 1L;
 
     private static AhoCorasick tree = null;
+    private static CompiledAhoCorasick compiledTree = null;
     private static String CARVE_DIR_INDIVIDUAIS = "carvers";
 
     private ArrayList<String> originalXmls = new ArrayList<>();
     private boolean ignoreCorrupted = true;
+    private int scanThreads = 1;
     protected HashSet<MediaType> TYPES_TO_PROCESS;
     protected HashSet<String> TYPES_TO_NOT_PROCESS = new HashSet<String>();
     protected HashSet<MediaType> TYPES_TO_CARVE = new HashSet<MediaType>();
@@ -87,6 +90,11 @@ public void loadXMLConfigFile(File confFile) throws IOException {
             NodeList ignoreCorruptedEls = root.getElementsByTagName("ignoreCorrupted");
             ignoreCorrupted = Boolean.valueOf(ignoreCorruptedEls.item(0).getTextContent().trim());
 
+            NodeList scanThreadsEls = root.getElementsByTagName("scanThreads");
+            if (scanThreadsEls.getLength() > 0) {
+                scanThreads = Math.max(1, Integer.parseInt(scanThreadsEls.item(0).getTextContent().trim()));
+            }
+
             NodeList carversEls = root.getElementsByTagName("carverTypes");
             for (int i = 0; i < carversEls.getLength(); i++) {
                 Element carverEls = (Element) carversEls.item(i);
@@ -269,6 +277,7 @@ synchronized public void configListener(CarvedItemListener carvedItemListener)
                     }
                 }
                 tree.prepare();
+                compiledTree = tree.compile();
             }
 
         } catch (Exception e) {
@@ -280,6 +289,11 @@ public AhoCorasick getPopulatedTree() {
         return tree;
     }
 
+    @Override
+    public CompiledAhoCorasick getCompiledTree() {
+        return compiledTree;
+    }
+
     @Override
     public Carver createCarverFromJSName(File file) {
         try {
@@ -299,6 +313,13 @@ public boolean isToIgnoreCorrupted() {
         return this.ignoreCorrupted;
     }
 
+    /**
+     * @return number of threads used to scan each big item for signatures
+     */
+    public int getScanThreads() {
+        return this.scanThreads;
+    }
+
     @Override
     public String toString() {
         return originalXmls.toString().replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
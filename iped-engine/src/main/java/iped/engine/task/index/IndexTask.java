@@ -32,6 +32,8 @@
 import iped.engine.io.CloseFilterReader;
 import iped.engine.io.FragmentingReader;
 import iped.engine.io.ParsingReader;
+import iped.engine.lucene.IndexWriterPool;
+import iped.engine.search.ItemLookupIndex;
 import iped.engine.task.AbstractTask;
 import iped.engine.task.ParsingTask;
 import iped.engine.task.SkipCommitedTask;
@@ -82,6 +84,8 @@ private static final FieldType getContentFieldType() {
 
     private IndexTaskConfig indexConfig;
 
+    private ItemLookupIndex lookupIndex;
+
     public static boolean isTreeNodeOnly(IItem item) {
         return (!item.isToAddToCase() && (item.isDir() || item.isRoot() || item.hasChildren()))
                 || item.getExtraAttribute(IndexItem.TREENODE) != null;
@@ -146,7 +150,15 @@ public void process(IItem evidence) throws IOException {
         FragmentingReader fragReader = new FragmentingReader(textReader, indexConfig.getTextSplitSize(),
                 indexConfig.getTextOverlapSize());
         try {
-            worker.writer.addDocuments(new DocumentsIterable(evidence, fragReader));
+            IndexWriterPool writerPool = worker.manager.getIndexWriterPool();
+            if (writerPool != null) {
+                writerPool.addDocuments(worker.id, new DocumentsIterable(evidence, fragReader));
+            } else {
+                worker.writer.addDocuments(new DocumentsIterable(evidence, fragReader));
+            }
+            if (lookupIndex != null) {
+                lookupIndex.add(evidence);
+            }
 
         } catch (IOException e) {
             if (IOUtil.isDiskFull(e))
@@ -246,6 +258,7 @@ public List<Configurable<?>> getConfigurables() {
     public void init(ConfigurationManager configurationManager) throws Exception {
         
         indexConfig = configurationManager.findObject(IndexTaskConfig.class);
+        lookupIndex = (ItemLookupIndex) caseData.getCaseObject(ItemLookupIndex.class.getName());
 
         CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
         if ((args.isAppendIndex() || args.isContinue() || args.isRestart()) && !lastIDLoaded.getAndSet(true)) {
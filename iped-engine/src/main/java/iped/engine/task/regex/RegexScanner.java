@@ -0,0 +1,281 @@
+package iped.engine.task.regex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * Scans text for matches of multiple regexes at once, with the same leftmost
+ * longest semantics of brics AutomatonMatcher applied to the union of the
+ * regexes.
+ *
+ * Instead of minimizing the union automaton, which loses which regex accepts
+ * each state, a product DFA of the individual regexes is built lazily while
+ * scanning. Each product state keeps the live state of each regex, so the
+ * regexes matching a hit are known from the accepting state, without running
+ * them again on the hit. Product states and transitions are cached, the cache
+ * is cleared if it gets too big.
+ *
+ * Text is scanned directly in a char buffer. When a possible match reaches the
+ * end of the buffer, the pending chars are moved to the buffer start and more
+ * text is read, so matches crossing buffer boundaries are not lost.
+ *
+ * Instances are not thread safe.
+ */
+public class RegexScanner {
+
+    /**
+     * Receives the hits found by the scanner.
+     */
+    public interface HitCollector {
+
+        /**
+         * @param regex
+         *            index of the matching regex
+         * @param buf
+         *            buffer with the text, valid just during this call
+         * @param start
+         *            start of the hit in buf
+         * @param end
+         *            end of the hit in buf, exclusive
+         * @param offset
+         *            char offset of the hit start in the whole text
+         */
+        void hit(int regex, char[] buf, int start, int end, long offset);
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final int MAX_CACHED_STATES = 10000;
+
+    private static final int DEAD = -1;
+
+    private static final int UNKNOWN = -2;
+
+    private final RunAutomaton[] automata;
+
+    /**
+     * Maps each char to its class. Chars of the same class have the same
+     * transitions in all automata.
+     */
+    private final char[] charClasses = new char[Character.MAX_VALUE + 1];
+
+    private final char[] classChars;
+
+    private final char[] buf;
+
+    // lazily built product DFA
+    private final HashMap<StateKey, Integer> stateIds = new HashMap<>();
+    private int[][] transitions = new int[64][];
+    private int[][] liveStates = new int[64][];
+    private int[][] accepts = new int[64][];
+    private int numStates;
+    private int initialState;
+
+    private static class StateKey {
+
+        private final int[] live;
+        private final int hash;
+
+        private StateKey(int[] live) {
+            this.live = live;
+            this.hash = Arrays.hashCode(live);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(live, ((StateKey) o).live);
+        }
+    }
+
+    public RegexScanner(RunAutomaton[] automata) {
+        this(automata, DEFAULT_BUFFER_SIZE);
+    }
+
+    public RegexScanner(RunAutomaton[] automata, int bufferSize) {
+        this.automata = automata;
+        this.buf = new char[bufferSize];
+
+        boolean[] classStart = new boolean[Character.MAX_VALUE + 1];
+        classStart[0] = true;
+        for (RunAutomaton automaton : automata) {
+            for (char c : automaton.getCharIntervals()) {
+                classStart[c] = true;
+            }
+        }
+        int numClasses = 0;
+        char[] starts = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (classStart[c]) {
+                starts[numClasses++] = (char) c;
+            }
+            charClasses[c] = (char) (numClasses - 1);
+        }
+        classChars = Arrays.copyOf(starts, numClasses);
+
+        initCache();
+    }
+
+    private void initCache() {
+        stateIds.clear();
+        numStates = 0;
+        int[] live = new int[automata.length * 2];
+        for (int i = 0; i < automata.length; i++) {
+            live[2 * i] = i;
+            live[2 * i + 1] = automata[i].getInitialState();
+        }
+        initialState = addState(live);
+    }
+
+    /**
+     * @param live
+     *            pairs of regex index and its current state, for regexes not dead
+     */
+    private int addState(int[] live) {
+        if (numStates == transitions.length) {
+            int newLen = numStates * 2;
+            transitions = Arrays.copyOf(transitions, newLen);
+            liveStates = Arrays.copyOf(liveStates, newLen);
+            accepts = Arrays.copyOf(accepts, newLen);
+        }
+        int id = numStates++;
+        int[] trans = new int[classChars.length];
+        Arrays.fill(trans, UNKNOWN);
+        transitions[id] = trans;
+        liveStates[id] = live;
+
+        int numAccepts = 0;
+        int[] accept = new int[live.length / 2];
+        for (int i = 0; i < live.length; i += 2) {
+            if (automata[live[i]].isAccept(live[i + 1])) {
+                accept[numAccepts++] = live[i];
+            }
+        }
+        accepts[id] = numAccepts == 0 ? null : Arrays.copyOf(accept, numAccepts);
+        stateIds.put(new StateKey(live), id);
+        return id;
+    }
+
+    private int computeTransition(int state, int charClass) {
+        char c = classChars[charClass];
+        int[] live = liveStates[state];
+        int[] next = new int[live.length];
+        int len = 0;
+        for (int i = 0; i < live.length; i += 2) {
+            int s = automata[live[i]].step(live[i + 1], c);
+            if (s != -1) {
+                next[len++] = live[i];
+                next[len++] = s;
+            }
+        }
+        if (len == 0) {
+            transitions[state][charClass] = DEAD;
+            return DEAD;
+        }
+        next = Arrays.copyOf(next, len);
+        Integer id = stateIds.get(new StateKey(next));
+        if (id == null) {
+            if (numStates >= MAX_CACHED_STATES) {
+                // current state id is not used by the caller after this step
+                initCache();
+                return addState(next);
+            }
+            id = addState(next);
+        }
+        transitions[state][charClass] = id;
+        return id;
+    }
+
+    /**
+     * Reads all the text from reader and reports the hits to the collector.
+     */
+    public void scan(Reader reader, HitCollector collector) throws IOException {
+        long bufOffset = 0;
+        int len = fill(reader, 0);
+        boolean eof = len < buf.length;
+        int begin = 0;
+
+        while (true) {
+            if (begin >= len) {
+                if (eof) {
+                    break;
+                }
+                bufOffset += len;
+                begin = 0;
+                len = fill(reader, 0);
+                eof = len < buf.length;
+                continue;
+            }
+
+            int state = initialState;
+            int pos = begin;
+            int matchEnd = -1;
+            int[] matchRegexes = null;
+            while (true) {
+                if (pos == len) {
+                    if (eof || (begin == 0 && len == buf.length)) {
+                        // end of text or possible match bigger than buffer
+                        break;
+                    }
+                    // carries the pending chars over to the next chunk
+                    System.arraycopy(buf, begin, buf, 0, len - begin);
+                    len -= begin;
+                    pos -= begin;
+                    if (matchEnd != -1) {
+                        matchEnd -= begin;
+                    }
+                    bufOffset += begin;
+                    begin = 0;
+                    len = fill(reader, len);
+                    eof = len < buf.length;
+                    continue;
+                }
+                int next = transitions[state][charClasses[buf[pos]]];
+                if (next == UNKNOWN) {
+                    next = computeTransition(state, charClasses[buf[pos]]);
+                }
+                if (next == DEAD) {
+                    break;
+                }
+                state = next;
+                pos++;
+                if (accepts[state] != null) {
+                    matchEnd = pos;
+                    matchRegexes = accepts[state];
+                }
+            }
+
+            if (matchEnd != -1) {
+                for (int regex : matchRegexes) {
+                    collector.hit(regex, buf, begin, matchEnd, bufOffset + begin);
+                }
+                begin = matchEnd;
+            } else {
+                begin++;
+            }
+        }
+    }
+
+    /**
+     * Reads chars into buffer from position off until it is full or the text
+     * ends.
+     *
+     * @return the number of valid chars in buffer
+     */
+    private int fill(Reader reader, int off) throws IOException {
+        int k;
+        while (off < buf.length && (k = reader.read(buf, off, buf.length - off)) != -1) {
+            off += k;
+        }
+        return off;
+    }
+
+}
@@ -28,8 +28,6 @@
 import org.slf4j.LoggerFactory;
 
 import dk.brics.automaton.Automaton;
-import dk.brics.automaton.AutomatonMatcher;
-import dk.brics.automaton.BasicOperations;
 import dk.brics.automaton.DatatypesAutomatonProvider;
 import dk.brics.automaton.RegExp;
 import dk.brics.automaton.RunAutomaton;
@@ -43,6 +41,8 @@
 import iped.engine.hashdb.HashDBDataSource;
 import iped.engine.lucene.analysis.FastASCIIFoldingFilter;
 import iped.engine.task.AbstractTask;
+import iped.engine.task.ContentResultCache;
+import iped.engine.task.ContentResultCache.ResultType;
 import iped.engine.task.HashDBLookupTask;
 import iped.engine.task.HashTask;
 import iped.engine.task.PhotoDNALookup;
@@ -55,16 +55,16 @@ public class RegexTask extends AbstractTask {
 
     private static final String KEYWORDS_NAME = "KEYWORDS"; //$NON-NLS-1$
 
+    private static final String MAX_HITS_REACHED = "maxHitsReached"; //$NON-NLS-1$
+
     private static final int MAX_RESULTS = 50000; // OOME protection for files with tons of hits
 
     private static Logger logger = LoggerFactory.getLogger(RegexTask.class);
 
-    private static final File cacheFile = new File(System.getProperty("user.home"), ".iped/regexAutomata.cache");
+    private static final File cacheFile = new File(System.getProperty("user.home"), ".iped/regexAutomata2.cache");
 
     private static List<Regex> regexList;
 
-    private static Regex regexFull;
-
     private static FSTConfiguration fastSerializer = FSTConfiguration.createDefaultConfiguration();
 
     private static final Set<String> ignoredKeys = new HashSet<String>();
@@ -87,7 +87,7 @@ public class RegexTask extends AbstractTask {
         ignoredKeys.add(PhotoDNALookup.PHOTO_DNA_NEAREAST_HASH);
     }
 
-    private char[] cbuf = new char[1 << 20];
+    private RegexScanner scanner;
 
     private static RegexValidator regexValidator;
 
@@ -102,7 +102,8 @@ static class Regex implements Serializable {
 
         String name;
         int prefix, sufix;
-        Automaton automaton;
+        // just used while building, matching is done by RegexScanner with the RunAutomaton
+        transient Automaton automaton;
         RunAutomaton pattern;
         boolean ignoreCases;
 
@@ -200,14 +201,6 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                 }
                 logger.info("Created {} automata for each keyword to export configured.", regexList.size() - num);
 
-                ArrayList<Automaton> automatonList = new ArrayList<Automaton>();
-                for (Regex regex : regexList) {
-                    automatonList.add(regex.automaton);
-                }
-                Automaton automata = BasicOperations.union(automatonList);
-                regexFull = new Regex("FULL", automata); //$NON-NLS-1$
-                logger.info("Created the unique automaton for all regexes.");
-
                 writeCache(regexConfig, exportConfig);
                 logger.info("Regex cache saved to {}", cacheFile.getAbsolutePath());
             }
@@ -215,6 +208,10 @@ public void init(ConfigurationManager configurationManager) throws Exception {
             initValidators(new File(output, "scripts"));
         }
 
+        if (regexConfig.isEnabled()) {
+            initScanner();
+        }
+
     }
 
     private void writeCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig exportConfig) throws IOException {
@@ -223,12 +220,9 @@ private void writeCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig expo
                 DataOutputStream dos = new DataOutputStream(bos)) {
             byte[] md5 = getMd5FromConfigs(regexConfig, exportConfig);
             byte[] list = fastSerializer.asByteArray(regexList);
-            byte[] full = fastSerializer.asByteArray(regexFull);
             dos.write(md5);
             dos.writeInt(list.length);
             dos.write(list);
-            dos.writeInt(full.length);
-            dos.write(full);
         }
     }
 
@@ -249,10 +243,6 @@ private boolean loadCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig ex
             byte[] list = new byte[listLen];
             dis.readFully(list);
             regexList = (List<Regex>) fastSerializer.asObject(list);
-            int fullLen = dis.readInt();
-            byte[] full = new byte[fullLen];
-            dis.readFully(full);
-            regexFull = (Regex) fastSerializer.asObject(full);
             return true;
         }
     }
@@ -267,6 +257,14 @@ private byte[] getMd5FromConfigs(RegexTaskConfig regexConfig, ExportByKeywordsCo
         return DigestUtils.md5(baos.toByteArray());
     }
 
+    private void initScanner() {
+        RunAutomaton[] automata = new RunAutomaton[regexList.size()];
+        for (int i = 0; i < automata.length; i++) {
+            automata[i] = regexList.get(i).pattern;
+        }
+        scanner = new RegexScanner(automata);
+    }
+
     private synchronized void initValidators(File confDir) {
         if (regexValidator == null) {
             regexValidator = new RegexValidator();
@@ -276,7 +274,6 @@ private synchronized void initValidators(File confDir) {
 
     @Override
     public void finish() throws Exception {
-        regexFull = null;
         regexList = null;
     }
 
@@ -287,8 +284,22 @@ protected void process(IItem item) throws Exception {
         if (evidence.getTextCache() == null || !evidence.isToAddToCase())
             return;
 
-        try (Reader reader = evidence.getTextReader()) {
-            processRegex(evidence, reader);
+        ContentResultCache contentCache = ContentResultCache.get();
+        Map<String, Object> cachedHits = contentCache != null
+                ? contentCache.getAttributes(evidence, ResultType.REGEX)
+                : null;
+        if (cachedHits != null) {
+            ContentResultCache.setAttributes(evidence, cachedHits);
+            if (cachedHits.containsKey(REGEX_PREFIX + KEYWORDS_NAME)) {
+                evidence.setToExtract(true);
+            }
+        } else {
+            try (Reader reader = evidence.getTextReader()) {
+                processRegex(evidence, reader);
+            }
+            if (contentCache != null) {
+                contentCache.putAttributes(evidence, ResultType.REGEX, getRegexAttributes(evidence));
+            }
         }
 
         processRegex(evidence, new StringReader(evidence.getName()));
@@ -296,6 +307,16 @@ protected void process(IItem item) throws Exception {
         processRegex(evidence, getExtraAttributeReader(evidence));
     }
 
+    private static Map<String, Object> getRegexAttributes(IItem item) {
+        Map<String, Object> attributes = new HashMap<>();
+        for (Map.Entry<String, Object> entry : item.getExtraAttributeMap().entrySet()) {
+            if (entry.getKey().startsWith(REGEX_PREFIX) || entry.getKey().startsWith(MAX_HITS_REACHED)) {
+                attributes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return attributes;
+    }
+
     private Reader getExtraAttributeReader(IItem item) {
         StringBuilder sb = new StringBuilder();
         for (String key : item.getExtraAttributeMap().keySet().toArray(new String[0])) {
@@ -310,76 +331,68 @@ private Reader getExtraAttributeReader(IItem item) {
     @SuppressWarnings("unchecked")
     private void processRegex(IItem evidence, Reader reader) throws IOException {
 
-        int k = 0;
-        long totalOffset = 0;
-        while (k != -1) {
-            int off = 0;
-            k = 0;
-            while (k != -1 && (off += k) < cbuf.length)
-                k = reader.read(cbuf, off, cbuf.length - off);
-
-            String text = new String(cbuf, 0, off);
+        Map<String, RegexHits>[] hitMaps = new Map[regexList.size()];
+        boolean[] maxHitsReached = new boolean[regexList.size()];
 
-            List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
-            for (int i = 0; i < regexList.size(); i++) {
-                hitList.add(new HashMap<>());
+        scanner.scan(reader, (i, buf, start, end, offset) -> {
+            Regex regex = regexList.get(i);
+            int len = end - start - regex.prefix - regex.sufix;
+            if (len <= 0 || maxHitsReached[i]) {
+                return;
             }
-
-            AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
-            while (fullMatcher.find()) {
-                int start = fullMatcher.start();
-                int end = fullMatcher.end();
-                String fullHit = text.substring(start, end);
-                int i = 0;
-                for (Regex regex : regexList) {
-                    if (regex.pattern.run(fullHit)) {
-                        String hit = fullHit.substring(regex.prefix, fullHit.length() - regex.sufix);
-                        if (regex.ignoreCases)
-                            hit = hit.toLowerCase();
-                        if (regexValidator.validate(regex, hit)) {
-                            if (regexConfig.isFormatRegexMatches()) {
-                                hit = regexValidator.format(regex, hit);
-                            }
-                            Map<String, RegexHits> hitMap = hitList.get(i);
-                            RegexHits hits = hitMap.get(hit);
-                            if (hits == null) {
-                                hits = new RegexHits(hit);
-                                hitMap.put(hit, hits);
-                            }
-                            hits.addOffset(totalOffset + start + regex.prefix);
-                        }
+            String hit = new String(buf, start + regex.prefix, len);
+            if (regex.ignoreCases)
+                hit = hit.toLowerCase();
+            if (regexValidator.validate(regex, hit)) {
+                if (regexConfig.isFormatRegexMatches()) {
+                    hit = regexValidator.format(regex, hit);
+                }
+                Map<String, RegexHits> hitMap = hitMaps[i];
+                if (hitMap == null) {
+                    hitMap = hitMaps[i] = new HashMap<>();
+                }
+                RegexHits hits = hitMap.get(hit);
+                if (hits == null) {
+                    if (hitMap.size() >= MAX_RESULTS) {
+                        maxHitsReached[i] = true;
+                        return;
                     }
-                    i++;
+                    hits = new RegexHits(hit);
+                    hitMap.put(hit, hits);
                 }
+                hits.addOffset(offset + regex.prefix);
             }
-            for (int i = 0; i < regexList.size(); i++) {
-                if (hitList.get(i).size() > 0) {
-                    String key = REGEX_PREFIX + regexList.get(i).name;
-                    Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
-                    Map<String, RegexHits> hitsMap = hitList.get(i);
-                    if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
-                        evidence.setExtraAttribute(key, hitsMap.values());
+        });
+
+        for (int i = 0; i < regexList.size(); i++) {
+            String key = REGEX_PREFIX + regexList.get(i).name;
+            if (maxHitsReached[i]) {
+                evidence.setExtraAttribute(MAX_HITS_REACHED + key, "true"); //$NON-NLS-1$
+            }
+            if (hitMaps[i] != null) {
+                Collection<RegexHits> prevHits = (Collection<RegexHits>) evidence.getExtraAttribute(key);
+                Map<String, RegexHits> hitsMap = hitMaps[i];
+                if (prevHits == null || prevHits.isEmpty() || !(prevHits.iterator().next() instanceof RegexHits)) {
+                    evidence.setExtraAttribute(key, hitsMap.values());
+                } else {
+                    if (prevHits.size() >= MAX_RESULTS) {
+                        evidence.setExtraAttribute(MAX_HITS_REACHED + key, "true"); //$NON-NLS-1$
                     } else {
-                        if (prevHits.size() >= MAX_RESULTS) {
-                            evidence.setExtraAttribute("maxHitsReached" + key, "true");
-                        } else {
-                            for (RegexHits hits : prevHits) {
-                                RegexHits prev = hitsMap.get(hits.getHit());
-                                if (prev != null) {
-                                    prev.addAll(hits.getOffsets());
-                                } else {
-                                    hitsMap.put(hits.getHit(), hits);
-                                }
+                        for (RegexHits hits : prevHits) {
+                            RegexHits prev = hitsMap.get(hits.getHit());
+                            if (prev != null) {
+                                prev.addAll(hits.getOffsets());
+                            } else {
+                                hitsMap.put(hits.getHit(), hits);
                             }
-                            evidence.setExtraAttribute(key, hitsMap.values());
                         }
+                        evidence.setExtraAttribute(key, hitsMap.values());
                     }
-
-                    if (regexList.get(i).name.equals(KEYWORDS_NAME))
-                        evidence.setToExtract(true);
                 }
+
+                if (regexList.get(i).name.equals(KEYWORDS_NAME))
+                    evidence.setToExtract(true);
             }
-            totalOffset += off;
         }
     }
 
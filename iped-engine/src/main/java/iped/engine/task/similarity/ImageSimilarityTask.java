@@ -3,7 +3,9 @@
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -18,6 +20,8 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
 import iped.engine.task.AbstractTask;
+import iped.engine.task.ContentResultCache;
+import iped.engine.task.ContentResultCache.ResultType;
 
 /**
  * Image Similarity task.
@@ -100,6 +104,15 @@ protected void process(IItem evidence) throws Exception {
             if (thumb == null) {
                 return;
             }
+            // thumbs are stored by hash, so features of items with same hash are equal
+            ContentResultCache contentCache = ContentResultCache.get();
+            Map<String, Object> cachedFeatures = contentCache != null
+                    ? contentCache.getAttributes(evidence, ResultType.IMAGE_FEATURES)
+                    : null;
+            if (cachedFeatures != null) {
+                ContentResultCache.setAttributes(evidence, cachedFeatures);
+                return;
+            }
             long t = System.currentTimeMillis();
             BufferedImage img = ImageIO.read(new ByteArrayInputStream(thumb));
             byte[] features = imageSimilarity.extractFeatures(img);
@@ -109,6 +122,11 @@ protected void process(IItem evidence) throws Exception {
             } else {
                 totalFailed.incrementAndGet();
             }
+            if (contentCache != null) {
+                contentCache.putAttributes(evidence, ResultType.IMAGE_FEATURES,
+                        features != null ? Collections.singletonMap(IMAGE_FEATURES, features)
+                                : Collections.emptyMap());
+            }
             t = System.currentTimeMillis() - t;
             totalTime.addAndGet(t);
         } catch (Exception e) {
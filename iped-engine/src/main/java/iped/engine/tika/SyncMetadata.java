@@ -7,6 +7,8 @@
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.metadata.Property;
 
+import iped.engine.data.AttributeKeys;
+
 /**
  * Synchronized wrapper around Tika's Metadata class to avoid concurrent access
  * issues.
@@ -50,6 +52,10 @@ public synchronized void setReadOnly(boolean readOnly) {
         this.readOnly = readOnly;
     }
 
+    public synchronized boolean isReadOnly() {
+        return readOnly;
+    }
+
     private synchronized void checkReadOnly() {
         if (readOnly) {
             try {
@@ -109,7 +115,8 @@ public synchronized String[] getValues(final String name) {
     @Override
     public synchronized void add(final String name, final String value) {
         checkReadOnly();
-        super.add(name, value);
+        // names are shared by lots of items
+        super.add(AttributeKeys.intern(name), value);
     }
 
     @Override
@@ -127,7 +134,7 @@ public synchronized void setAll(Properties properties) {
     @Override
     public synchronized void set(String name, String value) {
         checkReadOnly();
-        super.set(name, value);
+        super.set(AttributeKeys.intern(name), value);
     }
 
     @Override
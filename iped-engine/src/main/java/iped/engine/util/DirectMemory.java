@@ -2,8 +2,8 @@
 
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 
 public class DirectMemory {
 
@@ -13,11 +13,11 @@ public class DirectMemory {
         varHandle = MethodHandles.byteBufferViewVarHandle(byte[].class, ByteOrder.LITTLE_ENDIAN);
     }
 
-    public static final void putByteVolatile(MappedByteBuffer bb, long pos, byte val) {
+    public static final void putByteVolatile(ByteBuffer bb, long pos, byte val) {
         varHandle.setVolatile(bb, pos, val);
     }
 
-    public static final byte getByteVolatile(MappedByteBuffer bb, long pos) {
+    public static final byte getByteVolatile(ByteBuffer bb, long pos) {
         return (byte) varHandle.getVolatile(bb, pos);
     }
 }
@@ -0,0 +1,131 @@
+package iped.engine.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe, allocation free histogram of non negative long values (e.g.
+ * processing times in microseconds), similar to HdrHistogram. Values are
+ * recorded in log-linear buckets: each power of 2 range is split in
+ * {@link #SUB_BUCKETS} linear sub buckets, so percentiles have a relative error
+ * below 1 / SUB_BUCKETS.
+ *
+ * It is recorded by all workers for every processed item, so count, sum and
+ * max use LongAdder and LongAccumulator, which do not contend on a single
+ * memory location like CAS loops.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values up to 2^MAX_EXPONENT are tracked, bigger values go to the last bucket
+     * (2^40 microseconds is about 12 days).
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    static int getBucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the highest value which falls in the bucket
+     */
+    static long getBucketUpperValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        counts.incrementAndGet(getBucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : getSum() / count;
+    }
+
+    /**
+     * @param percentile
+     *            value between 0 and 100
+     * @return the approximate value below which the percentile of recorded values
+     *         fall.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        long[] snapshot = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long accum = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            accum += snapshot[i];
+            if (accum >= target) {
+                return Math.min(getBucketUpperValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Adds all values recorded by other histogram into this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.add(other.getCount());
+        sum.add(other.getSum());
+        max.accumulate(other.getMax());
+    }
+
+}
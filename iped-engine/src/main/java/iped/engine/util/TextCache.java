@@ -86,6 +86,14 @@ public long getSize() {
         return size;
     }
 
+    /**
+     * @return approximate heap bytes used by the text kept in memory.
+     */
+    public long getMemorySize() {
+        StringBuilder sb = this.sb;
+        return sb != null ? 2L * sb.capacity() : 0;
+    }
+
     public Reader getTextReader() throws IOException {
         if (writer != null) {
             writer.close();
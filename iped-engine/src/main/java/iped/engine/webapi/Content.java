@@ -6,43 +6,167 @@
 import java.net.URISyntaxException;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.StreamingOutput;
 
-import org.apache.commons.io.IOUtils;
 import org.sleuthkit.datamodel.TskCoreException;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import iped.data.IIPEDSource;
 import iped.data.IItem;
+import iped.io.SeekableInputStream;
 
 @Api(value = "Documents")
 @Path("sources/{sourceID}/docs/{id}/content")
 public class Content {
 
-    @ApiOperation(value = "Get document's raw content")
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @ApiOperation(value = "Get document's raw content", notes = "Supports single byte range requests")
     @GET
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
-            throws TskCoreException, IOException, URISyntaxException {
+    public Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange,
+            @Context Request request) throws TskCoreException, IOException, URISyntaxException {
 
         IIPEDSource source = Sources.getSource(sourceID);
         final IItem item = source.getItemByID(id);
-        return Response.status(200).header("Content-Length", String.valueOf(item.getLength()))
-                .header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\"")
-                .entity(new StreamingOutput() {
-                    @Override
-                    public void write(OutputStream arg0) throws IOException, WebApplicationException {
-                        try (InputStream is = item.getBufferedInputStream()) {
-                            IOUtils.copy(is, arg0);
-                        }
+
+        EntityTag etag = getETag(item);
+        if (etag != null) {
+            ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+        }
+
+        long size = item.getLength() != null ? item.getLength() : -1;
+        if (size == -1) {
+            try (SeekableInputStream sis = item.getSeekableInputStream()) {
+                size = sis.size();
+            }
+        }
+
+        // a range of an old version of the content must not be returned
+        if (ifRange != null && (etag == null || !ifRange.equals(etag.toString()))) {
+            range = null;
+        }
+
+        long start = 0, end = size - 1;
+        boolean partial = false;
+        if (range != null) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + size).build();
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                partial = true;
+            }
+        }
+
+        final long offset = start;
+        final long length = end - start + 1;
+        ResponseBuilder builder = Response.status(partial ? Response.Status.PARTIAL_CONTENT : Response.Status.OK)
+                .header("Accept-Ranges", "bytes").header(HttpHeaders.CONTENT_LENGTH, String.valueOf(length))
+                .header("Content-Disposition", "attachment; filename=\"" + item.getName() + "\"");
+        if (partial) {
+            builder.header("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        if (etag != null) {
+            builder.tag(etag);
+        }
+        return builder.entity(new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                try (SeekableInputStream is = item.getSeekableInputStream()) {
+                    if (offset > 0) {
+                        is.seek(offset);
                     }
-                }).build();
+                    copy(is, out, length);
+                }
+            }
+        }).build();
+    }
+
+    /**
+     * Parses a single range "bytes=start-end", "bytes=start-" or "bytes=-suffix".
+     *
+     * @return null if the range is not satisfiable, an empty array if the header
+     *         must be ignored and the whole content returned, or the inclusive
+     *         start and end positions.
+     */
+    static long[] parseRange(String range, long size) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            // multiple ranges are not supported, it is allowed to send all the content
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return new long[0];
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+                if (end < start) {
+                    return last.isEmpty() || start >= size ? null : new long[0];
+                }
+            }
+            if (start >= size) {
+                return null;
+            }
+            return new long[] { start, end };
+
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static void copy(InputStream is, OutputStream out, long length) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = is.read(buf, 0, (int) Math.min(buf.length, remaining))) != -1) {
+            out.write(buf, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * @return an entity tag based on the content hash, if it was computed.
+     */
+    static EntityTag getETag(IItem item) {
+        String hash = item.getHash();
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        return new EntityTag(hash);
     }
 }
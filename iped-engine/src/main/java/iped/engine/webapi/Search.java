@@ -1,23 +1,32 @@
 package iped.engine.webapi;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiParam;
 import iped.data.IItemId;
 import iped.engine.data.IPEDSource;
 import iped.engine.search.IPEDSearcher;
-import iped.engine.webapi.json.DocIDJSON;
 import iped.engine.webapi.json.SourceToIDsJSON;
-import iped.search.IIPEDSearcher;
 import iped.search.IMultiSearchResult;
 import iped.search.SearchResult;
 
@@ -25,34 +34,241 @@
 @Path("search")
 public class Search {
 
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     @DefaultValue("")
     @QueryParam("q")
     String q;
     @DefaultValue("")
     @QueryParam("sourceID")
     String sourceID;
+    @ApiParam(value = "nextCursor returned by the previous page, valid for some minutes")
+    @DefaultValue("")
+    @QueryParam("cursor")
+    String cursor;
+    @ApiParam(value = "max number of documents to return, 0 returns only the total count, all if absent")
+    @QueryParam("limit")
+    Integer limit;
+
+    private static final int MAX_CACHED_RESULTS = 32;
 
-    @ApiOperation(value = "Search documents")
+    private static final long CURSOR_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * Results being paginated, by cursor token. The search runs once, next pages
+     * are just read from the cached result.
+     */
+    private static final LinkedHashMap<String, CachedResult> cachedResults = new LinkedHashMap<String, CachedResult>(16,
+            0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > MAX_CACHED_RESULTS;
+        }
+    };
+
+    private static class CachedResult {
+
+        private final String q, sourceID;
+        private final IMultiSearchResult multiResult;
+        private final SearchResult result;
+        private String token;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private CachedResult(String q, String sourceID, IMultiSearchResult multiResult, SearchResult result) {
+            this.q = q;
+            this.sourceID = sourceID;
+            this.multiResult = multiResult;
+            this.result = result;
+        }
+
+        private int getLength() {
+            return multiResult != null ? multiResult.getLength() : result.getLength();
+        }
+    }
+
+    @ApiOperation(value = "Search documents", response = SourceToIDsJSON.class, notes = "Results are paginated if limit is set, "
+            + "nextCursor is returned while there are more documents.")
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public SourceToIDsJSON doSearch() throws Exception {
+    public StreamingOutput doSearch() throws Exception {
+        if (limit != null && limit < 0) {
+            throw new BadRequestException("Invalid limit: " + limit);
+        }
+        if (limit != null && limit == 0) {
+            int total = createSearcher().count();
+            return output(new String[0], new int[0][], total, null);
+        }
+
+        CachedResult cached;
+        int start;
+        if (cursor.isEmpty()) {
+            IPEDSearcher searcher = createSearcher();
+            if (sourceID.equals("")) {
+                cached = new CachedResult(q, sourceID, searcher.multiSearch(), null);
+            } else {
+                cached = new CachedResult(q, sourceID, null, searcher.search());
+            }
+            start = 0;
+        } else {
+            int sep = cursor.lastIndexOf(':');
+            start = sep == -1 ? -1 : parseOffset(cursor.substring(sep + 1));
+            cached = sep == -1 ? null : getCachedResult(cursor.substring(0, sep));
+            if (start < 0 || cached == null) {
+                throw new BadRequestException("Invalid or expired cursor: " + cursor);
+            }
+            if (!cached.q.equals(q) || !cached.sourceID.equals(sourceID)) {
+                throw new BadRequestException("Cursor of another search: " + cursor);
+            }
+        }
+
+        int total = cached.getLength();
+        int end = getPageEnd(start, total);
+        String[] sources;
+        int[][] ids;
+        if (cached.multiResult != null) {
+            IMultiSearchResult result = cached.multiResult;
+            int[] pageIds = new int[Math.max(0, end - start)];
+            int[] pageSources = new int[pageIds.length];
+            for (int i = 0; i < pageIds.length; i++) {
+                IItemId id = result.getItem(start + i);
+                pageIds[i] = id.getId();
+                pageSources[i] = id.getSourceId();
+            }
+            // groups ids by source in order of first appearance
+            LinkedHashMap<Integer, Integer> groups = new LinkedHashMap<>();
+            int[] group = new int[pageIds.length];
+            for (int i = 0; i < pageIds.length; i++) {
+                Integer g = groups.get(pageSources[i]);
+                if (g == null) {
+                    g = groups.size();
+                    groups.put(pageSources[i], g);
+                }
+                group[i] = g;
+            }
+            int[] counts = new int[groups.size()];
+            for (int g : group) {
+                counts[g]++;
+            }
+            sources = new String[groups.size()];
+            ids = new int[groups.size()][];
+            for (Map.Entry<Integer, Integer> entry : groups.entrySet()) {
+                int g = entry.getValue();
+                sources[g] = Sources.sourceIntToString.get(entry.getKey());
+                ids[g] = new int[counts[g]];
+                counts[g] = 0;
+            }
+            for (int i = 0; i < pageIds.length; i++) {
+                ids[group[i]][counts[group[i]]++] = pageIds[i];
+            }
+
+        } else {
+            int[] pageIds = Arrays.copyOfRange(cached.result.getIds(), Math.min(start, end), end);
+            sources = pageIds.length == 0 ? new String[0] : new String[] { sourceID };
+            ids = pageIds.length == 0 ? new int[0][] : new int[][] { pageIds };
+        }
+
+        String nextCursor = null;
+        if (end < total) {
+            nextCursor = putCachedResult(cached) + ":" + end;
+        }
+        return output(sources, ids, total, nextCursor);
+    }
+
+    private IPEDSearcher createSearcher() {
         String escapeq = q.replaceAll("/", "\\\\/");
-        List<DocIDJSON> docs = new ArrayList<DocIDJSON>();
+        IPEDSearcher searcher;
         if (sourceID.equals("")) {
-            IPEDSearcher searcher = new IPEDSearcher(Sources.multiSource, escapeq);
-            IMultiSearchResult result = searcher.multiSearch();
-            for (IItemId id : result.getIterator()) {
-                docs.add(new DocIDJSON(Sources.sourceIntToString.get(id.getSourceId()), id.getId()));
-            }
+            searcher = new IPEDSearcher(Sources.multiSource, escapeq);
         } else {
-            IPEDSource source = (IPEDSource) Sources.getSource(sourceID);
-            IIPEDSearcher searcher = new IPEDSearcher(source, escapeq);
-            SearchResult result = searcher.search();
-            for (int id : result.getIds()) {
-                docs.add(new DocIDJSON(sourceID, id));
+            searcher = new IPEDSearcher((IPEDSource) Sources.getSource(sourceID), escapeq);
+        }
+        // ids are returned without scores
+        searcher.setNoScoring(true);
+        return searcher;
+    }
+
+    private static StreamingOutput output(String[] sources, int[][] ids, int total, String nextCursor) {
+        return new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                writeJson(out, sources, ids, total, nextCursor);
             }
+        };
+    }
+
+    private static int parseOffset(String offset) {
+        try {
+            return Integer.parseInt(offset);
+        } catch (NumberFormatException e) {
+            return -1;
         }
+    }
 
-        return new SourceToIDsJSON(docs);
+    private static CachedResult getCachedResult(String token) {
+        synchronized (cachedResults) {
+            CachedResult cached = cachedResults.get(token);
+            if (cached != null && System.currentTimeMillis() - cached.lastAccess > CURSOR_TIMEOUT_MILLIS) {
+                cachedResults.remove(token);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    /**
+     * Caches the result, if not cached yet, removing expired ones.
+     *
+     * @return the token of the cached result
+     */
+    private static String putCachedResult(CachedResult cached) {
+        long now = System.currentTimeMillis();
+        cached.lastAccess = now;
+        synchronized (cachedResults) {
+            cachedResults.values().removeIf(c -> now - c.lastAccess > CURSOR_TIMEOUT_MILLIS);
+            if (cached.token == null) {
+                cached.token = UUID.randomUUID().toString();
+            }
+            cachedResults.put(cached.token, cached);
+            return cached.token;
+        }
+    }
+
+    private int getPageEnd(int start, int total) {
+        if (limit == null) {
+            return total;
+        }
+        return (int) Math.min(total, (long) start + limit);
+    }
+
+    /**
+     * Writes documents grouped by source, in the same format of
+     * {@link SourceToIDsJSON}, without creating intermediate objects.
+     */
+    private static void writeJson(OutputStream out, String[] sources, int[][] ids, int total, String nextCursor)
+            throws IOException {
+        JsonGenerator gen = jsonFactory.createGenerator(out);
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("data");
+        for (int g = 0; g < sources.length; g++) {
+            gen.writeStartObject();
+            gen.writeStringField("source", sources[g]);
+            gen.writeArrayFieldStart("ids");
+            for (int id : ids[g]) {
+                gen.writeNumber(id);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        gen.writeNumberField("total", total);
+        if (nextCursor != null) {
+            gen.writeStringField("nextCursor", nextCursor);
+        }
+        gen.writeEndObject();
+        gen.flush();
     }
 }
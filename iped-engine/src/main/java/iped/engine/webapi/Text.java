@@ -8,7 +8,12 @@
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.tika.io.TikaInputStream;
@@ -34,11 +39,22 @@ public class Text {
     @ApiOperation(value = "Get document's content converted as text")
     @GET
     @Produces(MediaType.TEXT_PLAIN + "; charset=UTF-8")
-    public static StreamingOutput content(@PathParam("sourceID") String sourceID, @PathParam("id") int id)
-            throws Exception {
+    public static Response content(@PathParam("sourceID") String sourceID, @PathParam("id") int id,
+            @Context Request request) throws Exception {
 
         IIPEDSource source = Sources.getSource(sourceID);
         final IItem item = source.getItemByID(id);
+
+        // text depends on the content and also on the parsers configuration
+        EntityTag etag = Content.getETag(item);
+        if (etag != null) {
+            etag = new EntityTag(etag.getValue(), true);
+            ResponseBuilder notModified = request.evaluatePreconditions(etag);
+            if (notModified != null) {
+                return notModified.build();
+            }
+        }
+
         final StandardParser parser = new StandardParser();
         final ParseContext context = getTikaContext(item, parser, (IPEDSource) source);
         final Metadata metadata = new Metadata();
@@ -46,7 +62,7 @@ public static StreamingOutput content(@PathParam("sourceID") String sourceID, @P
         ParsingTask.fillMetadata(item, metadata);
         parser.setPrintMetadata(false);
 
-        return new StreamingOutput() {
+        StreamingOutput output = new StreamingOutput() {
             @Override
             public void write(OutputStream arg0) throws IOException, WebApplicationException {
                 ContentHandler handler = new ToTextContentHandler(arg0, "UTF-8");
@@ -57,6 +73,11 @@ public void write(OutputStream arg0) throws IOException, WebApplicationException
                 }
             }
         };
+        ResponseBuilder builder = Response.ok(output);
+        if (etag != null) {
+            builder.tag(etag);
+        }
+        return builder.build();
     }
 
     public static ParseContext getTikaContext(IItem item, Parser parser, IPEDSource source) throws Exception {
@@ -5,15 +5,20 @@
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import io.swagger.annotations.ApiModelProperty;
 
 /**
  * SourceToIDsModel lists documents grouped by source: { "data": [ { "source":
- * "A", "ids": [ 1, 2, 3 ] }, { "source": 1, "ids": [ 1, 2, 3 ] } ] }
+ * "A", "ids": [ 1, 2, 3 ] }, { "source": 1, "ids": [ 1, 2, 3 ] } ],
+ * "total": 10, "nextCursor": "3" }
  */
 public class SourceToIDsJSON {
 
     private Map<String, List<Integer>> sourceToids;
+    private int total;
+    private String nextCursor;
 
     public SourceToIDsJSON() {
         this.sourceToids = new HashMap<String, List<Integer>>();
@@ -46,4 +51,23 @@ public void setData(List<DocIDGroupJSON> data) {
             this.sourceToids.put(grp.getSource(), grp.getIds());
         }
     }
+
+    @ApiModelProperty(value = "total number of matching documents")
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    @ApiModelProperty(value = "cursor to get the next page, absent in the last page")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
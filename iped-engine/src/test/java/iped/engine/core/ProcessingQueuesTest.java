@@ -0,0 +1,94 @@
+package iped.engine.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import iped.data.IItem;
+import iped.engine.data.CaseData;
+import iped.engine.data.Item;
+import iped.engine.task.index.IndexItem;
+
+public class ProcessingQueuesTest {
+
+    private static class TestQueues extends ProcessingQueues {
+
+        private int workerId = -1;
+
+        private TestQueues() {
+            super(new CaseData(), 100000, 1 << 30, false);
+        }
+
+        @Override
+        int getCurrentWorkerId() {
+            return workerId;
+        }
+    }
+
+    private static Item newItem(int i) {
+        Item item = new Item();
+        item.setExtraAttribute(IndexItem.TRACK_ID, Integer.toString(i));
+        return item;
+    }
+
+    @Test
+    public void testQueueSizeAfterLastQueue() {
+        ProcessingQueues queues = new TestQueues();
+        while (queues.changeToNextQueue() != null) {
+            // go to the last queue
+        }
+        assertNull(queues.getCurrentQueuePriority());
+        assertEquals(0, queues.getCurrentQueueSize());
+        assertEquals(0, queues.getCurrentQueueMemorySize());
+    }
+
+    @Test
+    public void testSubitemsOverflowToSharedQueue() throws Exception {
+        TestQueues queues = new TestQueues();
+        queues.setNumWorkers(2);
+        Item newItem = newItem(-1);
+        queues.addItemNonBlocking(newItem);
+
+        int numSubitems = ProcessingQueues.MAX_LOCAL_ITEMS + 10;
+        Item[] subitems = new Item[numSubitems];
+        queues.workerId = 0;
+        for (int i = 0; i < numSubitems; i++) {
+            subitems[i] = newItem(i);
+            queues.addItemFirstNonBlocking(subitems[i]);
+        }
+
+        // other workers take subitems not kept locally before new items
+        queues.workerId = 1;
+        for (int i = numSubitems - 1; i >= ProcessingQueues.MAX_LOCAL_ITEMS; i--) {
+            assertSame(subitems[i], queues.pollFirstFromCurrentQueue());
+        }
+        assertSame(newItem, queues.pollFirstFromCurrentQueue());
+
+        queues.workerId = 0;
+        for (int i = ProcessingQueues.MAX_LOCAL_ITEMS - 1; i >= 0; i--) {
+            assertSame(subitems[i], queues.pollFirstFromCurrentQueue());
+        }
+        assertEquals(0, queues.getCurrentQueueSize());
+    }
+
+    @Test
+    public void testItemsAddedToNextQueueArePending() throws Exception {
+        ProcessingQueues queues = new TestQueues();
+        queues.setNumWorkers(1);
+        int next = QueuesProcessingOrder.getProcessingQueues().iterator().next();
+        queues.addItemToQueue(newItem(0), next);
+        assertTrue(queues.isNoItemInQueueOrBeingProcessed());
+
+        assertEquals(next, (int) queues.changeToNextQueue());
+        assertFalse(queues.isNoItemInQueueOrBeingProcessed());
+        IItem item = queues.pollFirstFromCurrentQueue();
+        assertFalse(item == null);
+        queues.decItemsBeingProcessed();
+        assertTrue(queues.isNoItemInQueueOrBeingProcessed());
+    }
+
+}
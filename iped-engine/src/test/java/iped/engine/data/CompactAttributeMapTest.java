@@ -0,0 +1,140 @@
+package iped.engine.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompactAttributeMapTest {
+
+    @BeforeClass
+    public static void initSpillArena() {
+        SpillArena.init(16 << 20);
+    }
+
+    private static Map<String, Object> createValues() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("int", 10);
+        values.put("long", 1L << 40);
+        values.put("double", 0.5d);
+        values.put("float", 1.5f);
+        values.put("bool", true);
+        values.put("string", "value");
+        values.put("date", new Date(1000));
+        values.put("list", new ArrayList<>(Arrays.asList("a", "b")));
+        return values;
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        Map<String, Object> values = createValues();
+        CompactAttributeMap map = new CompactAttributeMap();
+        map.putAll(values);
+        assertEquals(values, map);
+        assertEquals(Integer.class, map.get("int").getClass());
+        assertEquals(Float.class, map.get("float").getClass());
+
+        assertEquals(10, map.put("int", "replaced"));
+        assertEquals("replaced", map.get("int"));
+        assertEquals(values.size(), map.size());
+
+        assertEquals(true, map.remove("bool"));
+        assertNull(map.get("bool"));
+        assertFalse(map.containsKey("bool"));
+        assertEquals(values.size() - 1, map.size());
+        assertEquals(0.5d, map.get("double"));
+    }
+
+    @Test
+    public void testLookupDoesNotAddKey() {
+        CompactAttributeMap map = new CompactAttributeMap();
+        assertNull(map.get("never-put-key"));
+        assertFalse(map.containsKey("never-put-key"));
+        assertNull(map.remove("never-put-key"));
+        assertEquals(-1, AttributeKeys.findIndex("never-put-key"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullValue() {
+        new CompactAttributeMap().put("key", null);
+    }
+
+    @Test
+    public void testIteratorIsSnapshot() {
+        CompactAttributeMap map = new CompactAttributeMap();
+        map.putAll(createValues());
+        Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object> entry = it.next();
+            if (entry.getKey().equals("string")) {
+                it.remove();
+            } else if (entry.getKey().equals("int")) {
+                entry.setValue(20);
+            }
+            // changes during iteration must not throw
+            map.put("new", 1);
+        }
+        assertNull(map.get("string"));
+        assertEquals(20, map.get("int"));
+        assertEquals(1, map.get("new"));
+    }
+
+    @Test
+    public void testSpillAndRestore() {
+        Map<String, Object> values = createValues();
+        values.put("bytes", new byte[] { 1, 2, 3 });
+        CompactAttributeMap map = new CompactAttributeMap();
+        map.putAll(values);
+        assertTrue(map.spill());
+        assertTrue(map.isSpilled());
+
+        assertArrayEquals((byte[]) values.remove("bytes"), (byte[]) map.remove("bytes"));
+        assertFalse(map.isSpilled());
+        assertEquals(values, map);
+    }
+
+    @Test
+    public void testUnsupportedValueIsNotSpilled() {
+        CompactAttributeMap map = new CompactAttributeMap();
+        map.put("string", "value");
+        map.put("object", new Object());
+        assertFalse(map.spill());
+        assertFalse(map.isSpilled());
+        assertEquals("value", map.get("string"));
+    }
+
+    @Test
+    public void testItemSpill() {
+        Item item = new Item();
+        item.setExtraAttribute("count", 5);
+        Metadata metadata = item.getMetadata();
+        metadata.add("key", "v1");
+        metadata.add("key", "v2");
+        metadata.set("other", "v3");
+        long size = item.estimateMemorySize();
+
+        item.spillAttributes();
+        assertTrue(item.estimateMemorySize() < size);
+
+        assertEquals(5, item.getExtraAttribute("count"));
+        // same instance is refilled
+        List<String> values = Arrays.asList(item.getMetadata().getValues("key"));
+        assertTrue(metadata == item.getMetadata());
+        assertEquals(Arrays.asList("v1", "v2"), values);
+        assertEquals("v3", metadata.get("other"));
+    }
+
+}
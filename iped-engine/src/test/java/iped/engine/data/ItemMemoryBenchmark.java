@@ -0,0 +1,118 @@
+package iped.engine.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tika.metadata.Metadata;
+
+/**
+ * Memory benchmark of item attributes, to be run manually with a fixed heap,
+ * e.g. -Xmx2g.
+ *
+ * Usage: ItemMemoryBenchmark [numItems] [attributesPerItem]
+ *
+ * Creates synthetic items with typical extra attributes and metadata and prints
+ * the heap used by them with a ConcurrentHashMap (previous storage), with the
+ * compact attribute map and after spilling the attributes off-heap.
+ */
+public class ItemMemoryBenchmark {
+
+    private static final String[] METADATA_KEYS = { "Content-Type", "dc:title", "dcterms:created",
+            "dcterms:modified", "meta:author", "xmpTPg:NPages", "Exif:Image Width", "Exif:Image Height" };
+
+    public static void main(String[] args) throws Exception {
+        int numItems = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int numAttributes = args.length > 1 ? Integer.parseInt(args[1]) : 12;
+
+        List<Object> items = new ArrayList<>(numItems);
+        long base = usedMemory();
+        for (int i = 0; i < numItems; i++) {
+            Map<String, Object> map = new ConcurrentHashMap<>();
+            fillAttributes(map, i, numAttributes);
+            Metadata metadata = new Metadata();
+            fillMetadata(metadata, i);
+            items.add(new Object[] { map, metadata });
+        }
+        long hashMapMemory = usedMemory() - base;
+        System.out.println("ConcurrentHashMap + Metadata: " + (hashMapMemory >> 20) + "MB, "
+                + hashMapMemory / numItems + " bytes/item");
+
+        items.clear();
+        base = usedMemory();
+        for (int i = 0; i < numItems; i++) {
+            Item item = new Item();
+            fillAttributes(item.getExtraAttributeMap(), i, numAttributes);
+            fillMetadata(item.getMetadata(), i);
+            items.add(item);
+        }
+        long compactMemory = usedMemory() - base;
+        System.out.println("Item with compact attributes: " + (compactMemory >> 20) + "MB, "
+                + compactMemory / numItems + " bytes/item (including other item fields)");
+
+        SpillArena.init(Long.MAX_VALUE);
+        long t = System.currentTimeMillis();
+        for (Object item : items) {
+            ((Item) item).spillAttributes();
+        }
+        long spillTime = System.currentTimeMillis() - t;
+        long spilledMemory = usedMemory() - base;
+        System.out.println("Item with spilled attributes: " + (spilledMemory >> 20) + "MB, "
+                + spilledMemory / numItems + " bytes/item, spill time " + spillTime + "ms");
+
+        t = System.currentTimeMillis();
+        for (Object item : items) {
+            ((Item) item).restoreAttributes();
+        }
+        System.out.println("Restore time " + (System.currentTimeMillis() - t) + "ms");
+        System.out.println("Check: " + ((Item) items.get(0)).getMetadata().get(METADATA_KEYS[0]));
+    }
+
+    private static void fillAttributes(Map<String, Object> map, int i, int numAttributes) {
+        for (int j = 0; j < numAttributes; j++) {
+            String key = "attribute" + j;
+            switch (j % 6) {
+                case 0:
+                    map.put(key, i + j);
+                    break;
+                case 1:
+                    map.put(key, (long) i * j);
+                    break;
+                case 2:
+                    map.put(key, (j & 1) == 0);
+                    break;
+                case 3:
+                    map.put(key, i / (double) (j + 1));
+                    break;
+                case 4:
+                    map.put(key, new Date(1600000000000L + i));
+                    break;
+                default:
+                    map.put(key, "value " + i);
+            }
+        }
+        map.put("hashes", new ArrayList<>(Arrays.asList(Integer.toHexString(i), Integer.toOctalString(i))));
+    }
+
+    private static void fillMetadata(Metadata metadata, int i) {
+        Random random = new Random(i);
+        for (String key : METADATA_KEYS) {
+            // keys created by parsers are new String instances
+            metadata.add(new String(key), Integer.toString(random.nextInt(100000)));
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+}
@@ -0,0 +1,58 @@
+package iped.engine.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SpillArenaTest {
+
+    private static byte[] read(SpillArena.Block block) {
+        ByteBuffer buffer = block.getBuffer();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testAllocateAndRead() {
+        SpillArena arena = new SpillArena(SpillArena.SLAB_SIZE);
+        SpillArena.Block b1 = arena.allocate(new byte[] { 0, 1, 2, 3 }, 1, 3);
+        SpillArena.Block b2 = arena.allocate(new byte[] { 4, 5 }, 0, 2);
+        assertArrayEquals(new byte[] { 1, 2, 3 }, read(b1));
+        assertArrayEquals(new byte[] { 4, 5 }, read(b2));
+        // reading twice returns the same bytes
+        assertArrayEquals(new byte[] { 1, 2, 3 }, read(b1));
+        assertEquals(5, arena.getUsedBytes());
+
+        arena.free(b1);
+        arena.free(b2);
+        assertEquals(0, arena.getUsedBytes());
+    }
+
+    @Test
+    public void testLimitAndSlabReuse() {
+        SpillArena arena = new SpillArena(2L * SpillArena.SLAB_SIZE);
+        byte[] half = new byte[SpillArena.SLAB_SIZE / 2];
+        SpillArena.Block[] blocks = new SpillArena.Block[4];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = arena.allocate(half, 0, half.length);
+            assertNotNull(blocks[i]);
+        }
+        // limit reached
+        assertNull(arena.allocate(half, 0, half.length));
+        assertNull(arena.allocate(new byte[SpillArena.SLAB_SIZE + 1], 0, SpillArena.SLAB_SIZE + 1));
+
+        // first slab is reused after all its blocks are freed
+        arena.free(blocks[0]);
+        assertNull(arena.allocate(half, 0, half.length));
+        arena.free(blocks[1]);
+        assertNotNull(arena.allocate(half, 0, half.length));
+        assertEquals(2L * SpillArena.SLAB_SIZE, arena.getAllocatedBytes());
+    }
+
+}
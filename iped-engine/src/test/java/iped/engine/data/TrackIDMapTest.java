@@ -0,0 +1,101 @@
+package iped.engine.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class TrackIDMapTest {
+
+    private static final String ZERO_KEY = "00000000000000000000000000000000";
+
+    private static String trackID(int i) {
+        return DigestUtils.md5Hex(Integer.toString(i));
+    }
+
+    @Test
+    public void testPutGetAndGrow() {
+        TrackIDMap map = new TrackIDMap(0);
+        for (int i = 0; i < 10000; i++) {
+            map.put(trackID(i), i);
+        }
+        map.put(ZERO_KEY, -1);
+        assertEquals(10001, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, map.get(trackID(i)));
+            assertEquals(i, map.get(new BytesRef(trackID(i))));
+        }
+        assertEquals(-1, map.get(ZERO_KEY));
+        assertEquals(TrackIDMap.MISSING, map.get(trackID(10000)));
+
+        map.put(trackID(5).toUpperCase(), 50);
+        assertEquals(10001, map.size());
+        assertEquals(50, map.get(trackID(5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTrackID() {
+        new TrackIDMap(0).get("not a trackID");
+    }
+
+    @Test
+    public void testMappedRoundTrip() throws IOException {
+        File file = File.createTempFile("trackIDMap", ".dat");
+        try {
+            long capacity = TrackIDMap.getCapacity(1000);
+            TrackIDMap heapMap = new TrackIDMap(16);
+            heapMap.put(trackID(-1), 7);
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                TrackIDMap map = TrackIDMap.map(fc, 0, capacity, 0, TrackIDMap.MISSING, MapMode.READ_WRITE);
+                for (int i = 0; i < 1000; i++) {
+                    map.put(trackID(i), i);
+                }
+                map.force();
+                fc.position(TrackIDMap.getSlotsBytes(capacity));
+                heapMap.writeSlots(fc);
+            }
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                TrackIDMap map = TrackIDMap.map(fc, 0, capacity, 1000, TrackIDMap.MISSING, MapMode.READ_ONLY);
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals(i, map.get(trackID(i)));
+                }
+                assertFalse(map.containsKey(trackID(1000)));
+
+                TrackIDMap written = TrackIDMap.map(fc, TrackIDMap.getSlotsBytes(capacity),
+                        heapMap.getCapacity(), heapMap.size(), heapMap.getZeroKeyValue(), MapMode.READ_ONLY);
+                assertTrue(written.containsKey(trackID(-1)));
+                assertEquals(7, written.get(trackID(-1)));
+            }
+        } finally {
+            // mapped files can't be deleted on Windows until unmapped
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFixedCapacityExceeded() throws IOException {
+        File file = File.createTempFile("trackIDMap", ".dat");
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            TrackIDMap map = TrackIDMap.map(fc, 0, 16, 0, TrackIDMap.MISSING, MapMode.READ_WRITE);
+            for (int i = 0; i < 16; i++) {
+                map.put(trackID(i), i);
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package iped.engine.hashdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class HashDBDataSourceTest {
+
+    private static final int NUM_HASHES = 1000;
+
+    private static File dbFile;
+
+    private static byte[] md5(int i) {
+        return DigestUtils.md5(Integer.toString(i));
+    }
+
+    @BeforeClass
+    public static void createDB() throws Exception {
+        dbFile = File.createTempFile("hashdb", ".db");
+        dbFile.delete();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+                Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("create table HASHES (HASH_ID integer primary key, MD5 blob, SHA1 blob, SHA256 blob, SHA512 blob, EDONKEY blob)");
+            stmt.executeUpdate("create table HASHES_PROPERTIES (HASH_ID integer, PROPERTY_ID integer, VALUE text NOT NULL, primary key (HASH_ID, PROPERTY_ID))");
+            stmt.executeUpdate("create table PROPERTIES (PROPERTY_ID integer, PROPERTY_NAME text NOT NULL, primary key (PROPERTY_ID))");
+            stmt.executeUpdate("insert into PROPERTIES values (1, 'status')");
+            conn.setAutoCommit(false);
+            try (PreparedStatement ins = conn.prepareStatement("insert into HASHES (HASH_ID, MD5) values (?, ?)");
+                    PreparedStatement insProp = conn
+                            .prepareStatement("insert into HASHES_PROPERTIES values (?, 1, ?)")) {
+                for (int i = 0; i < NUM_HASHES; i++) {
+                    ins.setInt(1, i + 1);
+                    ins.setBytes(2, md5(i));
+                    ins.executeUpdate();
+                    insProp.setInt(1, i + 1);
+                    insProp.setString(2, i % 2 == 0 ? "known" : "pedo");
+                    insProp.executeUpdate();
+                }
+            }
+            conn.commit();
+        }
+        HashDBIndex.create(dbFile);
+    }
+
+    @AfterClass
+    public static void deleteDB() {
+        HashDBIndex.getIndexFile(dbFile).deleteOnExit();
+        dbFile.deleteOnExit();
+    }
+
+    private static Map<String, String> lookup(HashDBDataSource dataSource, byte[] md5) throws Exception {
+        byte[][] hashes = new byte[HashDB.hashTypes.length][];
+        hashes[0] = md5;
+        Map<String, String> properties = new HashMap<>();
+        dataSource.lookup(hashes, properties);
+        return properties;
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        HashDBIndex index = HashDBIndex.load(dbFile);
+        assertNotNull(index);
+        assertEquals(NUM_HASHES, index.getCount(0));
+        assertEquals(0, index.getCount(1));
+        for (int i = 0; i < NUM_HASHES; i++) {
+            assertTrue(index.mayContain(0, md5(i)));
+            assertFalse(index.mayContain(1, DigestUtils.sha1(Integer.toString(i))));
+        }
+        int falsePositives = 0;
+        for (int i = NUM_HASHES; i < 2 * NUM_HASHES; i++) {
+            if (index.mayContain(0, md5(i)))
+                falsePositives++;
+        }
+        assertEquals(0, falsePositives);
+    }
+
+    @Test
+    public void testSameResultsWithAndWithoutIndex() throws Exception {
+        HashDBDataSource indexed = new HashDBDataSource(dbFile, true);
+        HashDBDataSource notIndexed = new HashDBDataSource(dbFile, false);
+        try {
+            for (int i = 0; i < 2 * NUM_HASHES; i++) {
+                Map<String, String> props = lookup(indexed, md5(i));
+                assertEquals(lookup(notIndexed, md5(i)), props);
+                assertEquals(i < NUM_HASHES ? 1 : 0, props.size());
+            }
+            assertNotNull(indexed.lookupSets("md5", DigestUtils.md5Hex("1")));
+            assertNull(indexed.lookupSets("md5", DigestUtils.md5Hex("0")));
+        } finally {
+            indexed.close();
+            notIndexed.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        HashDBDataSource dataSource = new HashDBDataSource(dbFile);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    int found = 0;
+                    for (int i = 0; i < 2 * NUM_HASHES; i++) {
+                        if (!lookup(dataSource, md5(i)).isEmpty())
+                            found++;
+                    }
+                    return found;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(NUM_HASHES, future.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+            dataSource.close();
+        }
+    }
+
+}
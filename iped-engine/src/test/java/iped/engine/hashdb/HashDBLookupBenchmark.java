@@ -0,0 +1,93 @@
+package iped.engine.hashdb;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark of concurrent hash database lookups, to be run manually.
+ *
+ * Usage: HashDBLookupBenchmark dbFile [threads] [lookupsPerThread] [hitRatio]
+ *
+ * Looks up random MD5 hashes (misses) mixed with hashes sampled from the
+ * database (hits), with and without the lookup index created by HashDBTool.
+ */
+public class HashDBLookupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: HashDBLookupBenchmark dbFile [threads] [lookupsPerThread] [hitRatio]");
+            return;
+        }
+        File dbFile = new File(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        double hitRatio = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+
+        List<byte[]> hits = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getAbsolutePath());
+                Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("select MD5 from HASHES where MD5 is not null limit 100000");
+            while (rs.next()) {
+                hits.add(rs.getBytes(1));
+            }
+        }
+        System.out.println("Sampled hashes: " + hits.size() + ", threads: " + threads);
+
+        if (!HashDBIndex.getIndexFile(dbFile).exists()) {
+            long t = System.currentTimeMillis();
+            HashDBIndex.create(dbFile);
+            System.out.println("Index created in " + (System.currentTimeMillis() - t) + "ms");
+        }
+
+        for (boolean useIndex : new boolean[] { false, true }) {
+            HashDBDataSource dataSource = new HashDBDataSource(dbFile, useIndex);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long t = System.nanoTime();
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int k = 0; k < threads; k++) {
+                int seed = k;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    byte[][] hashes = new byte[HashDB.hashTypes.length][];
+                    Map<String, String> properties = new HashMap<>();
+                    int found = 0;
+                    for (int i = 0; i < lookups; i++) {
+                        if (!hits.isEmpty() && random.nextDouble() < hitRatio) {
+                            hashes[0] = hits.get(random.nextInt(hits.size()));
+                        } else {
+                            hashes[0] = new byte[16];
+                            random.nextBytes(hashes[0]);
+                        }
+                        properties.clear();
+                        dataSource.lookup(hashes, properties);
+                        if (!properties.isEmpty()) {
+                            found++;
+                        }
+                    }
+                    return found;
+                }));
+            }
+            long found = 0;
+            for (Future<Integer> future : futures) {
+                found += future.get();
+            }
+            long time = (System.nanoTime() - t) / 1000000;
+            executor.shutdown();
+            dataSource.close();
+            System.out.println((useIndex ? "With" : "Without") + " index: " + time + "ms, "
+                    + (long) threads * lookups * 1000 / Math.max(1, time) + " lookups/s, " + found + " found");
+        }
+    }
+
+}
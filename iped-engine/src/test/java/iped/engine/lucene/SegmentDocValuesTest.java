@@ -0,0 +1,77 @@
+package iped.engine.lucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class SegmentDocValuesTest {
+
+    private static final String[] VALUES = { "c", "a", null, "b", "a", "d" };
+
+    private static Directory createIndex() throws IOException {
+        Directory dir = new ByteBuffersDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer());
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(dir, config)) {
+            for (int i = 0; i < VALUES.length; i++) {
+                Document doc = new Document();
+                doc.add(new NumericDocValuesField("num", i));
+                if (VALUES[i] != null) {
+                    doc.add(new SortedDocValuesField("str", new BytesRef(VALUES[i])));
+                    doc.add(new SortedSetDocValuesField("set", new BytesRef(VALUES[i])));
+                    doc.add(new SortedSetDocValuesField("set", new BytesRef("z")));
+                }
+                writer.addDocument(doc);
+                // creates one segment for every two docs
+                if (i % 2 == 1) {
+                    writer.commit();
+                }
+            }
+        }
+        return dir;
+    }
+
+    @Test
+    public void testGlobalOrdsOfMultipleSegments() throws IOException {
+        try (Directory dir = createIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(3, reader.leaves().size());
+            SegmentDocValues docValues = new SegmentDocValues(reader);
+
+            // global ords of a, b, c, d, z are 0, 1, 2, 3, 4
+            assertArrayEquals(new int[] { 2, 0, -1, 1, 0, 3 }, docValues.loadSortedOrds("str"));
+
+            int[][] setOrds = docValues.loadSortedSetOrds("set");
+            assertArrayEquals(new int[] { 2, 4 }, setOrds[0]);
+            assertArrayEquals(new int[0], setOrds[2]);
+            assertArrayEquals(new int[] { 3, 4 }, setOrds[5]);
+
+            assertArrayEquals(new long[] { 0, 1, 2, 3, 4, 5 }, docValues.loadNumeric("num", -1));
+            assertNull(docValues.loadNumeric("missing", -1));
+            assertNull(docValues.loadSortedOrds("missing"));
+
+            SortedDocValues sdv = docValues.getSortedDocValues("str");
+            assertEquals(4, sdv.getValueCount());
+            for (int doc = 0; doc < VALUES.length; doc++) {
+                assertEquals(VALUES[doc], DocValuesUtil.getVal(sdv, doc));
+            }
+        }
+    }
+
+}
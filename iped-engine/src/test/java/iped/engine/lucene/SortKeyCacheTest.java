@@ -0,0 +1,134 @@
+package iped.engine.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class SortKeyCacheTest {
+
+    private static final String[] VALUES = { "c", "a", null, "b", "a", "d" };
+
+    private static void createIndex(Directory dir) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer());
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        try (IndexWriter writer = new IndexWriter(dir, config)) {
+            for (int i = 0; i < VALUES.length; i++) {
+                Document doc = new Document();
+                if (i != 2) {
+                    doc.add(new NumericDocValuesField("num", i * 1000L));
+                    doc.add(new SortedNumericDocValuesField("nums", -i));
+                    doc.add(new SortedNumericDocValuesField("nums", i));
+                }
+                if (VALUES[i] != null) {
+                    doc.add(new SortedDocValuesField("str", new BytesRef(VALUES[i])));
+                    doc.add(new SortedSetDocValuesField("set", new BytesRef(VALUES[i])));
+                    doc.add(new SortedSetDocValuesField("set", new BytesRef("z")));
+                }
+                writer.addDocument(doc);
+                // creates one segment for every two docs
+                if (i % 2 == 1) {
+                    writer.commit();
+                }
+            }
+        }
+    }
+
+    private static void assertSameOfLoaders(SegmentDocValues docValues, SortKeyCache cache) throws IOException {
+        int[] ords = docValues.loadSortedOrds("str");
+        SortKeyColumn column = cache.getSortedOrds("str");
+        assertFalse(column.isMultiValued());
+        for (int doc = 0; doc < ords.length; doc++) {
+            assertEquals(ords[doc], column.getValue(doc));
+        }
+
+        int[][] setOrds = docValues.loadSortedSetOrds("set");
+        column = cache.getSortedSetOrds("set");
+        assertTrue(column.isMultiValued());
+        for (int doc = 0; doc < setOrds.length; doc++) {
+            assertEquals(setOrds[doc].length, column.getValueCount(doc));
+            for (int i = 0; i < setOrds[doc].length; i++) {
+                assertEquals(setOrds[doc][i], column.getValue(doc, i));
+            }
+        }
+
+        long[] nums = docValues.loadNumeric("num", Long.MIN_VALUE);
+        column = cache.getNumeric("num", Long.MIN_VALUE);
+        for (int doc = 0; doc < nums.length; doc++) {
+            assertEquals(nums[doc], column.getValue(doc));
+        }
+
+        long[][] multiNums = docValues.loadSortedNumeric("nums");
+        column = cache.getSortedNumeric("nums");
+        for (int doc = 0; doc < multiNums.length; doc++) {
+            assertEquals(multiNums[doc].length, column.getValueCount(doc));
+            for (int i = 0; i < multiNums[doc].length; i++) {
+                assertEquals(multiNums[doc][i], column.getValue(doc, i));
+            }
+        }
+
+        assertNull(cache.getSortedOrds("missing"));
+        assertNull(cache.getNumeric("str", -1));
+    }
+
+    @Test
+    public void testHeapColumns() throws IOException {
+        File tmp = Files.createTempDirectory("sortkeys").toFile();
+        try (Directory dir = FSDirectory.open(new File(tmp, "index").toPath())) {
+            createIndex(dir);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                SegmentDocValues docValues = new SegmentDocValues(reader);
+                assertSameOfLoaders(docValues, docValues.getSortKeyCache());
+            }
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    @Test
+    public void testPersistedColumns() throws IOException {
+        File tmp = Files.createTempDirectory("sortkeys").toFile();
+        File sortKeysDir = new File(tmp, "sortkeys");
+        try (Directory dir = FSDirectory.open(new File(tmp, "index").toPath())) {
+            createIndex(dir);
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                SegmentDocValues docValues = new SegmentDocValues(reader, sortKeysDir);
+                assertSameOfLoaders(docValues, docValues.getSortKeyCache());
+                assertEquals(4, sortKeysDir.list().length);
+
+                // new session reuses the files
+                long lastModified = new File(sortKeysDir, sortKeysDir.list()[0]).lastModified();
+                SortKeyCache cache = new SortKeyCache(docValues, sortKeysDir);
+                assertNotNull(cache.getSortedSetOrds("set"));
+                assertSameOfLoaders(docValues, cache);
+                assertEquals(4, sortKeysDir.list().length);
+                assertEquals(lastModified, new File(sortKeysDir, sortKeysDir.list()[0]).lastModified());
+            }
+        } finally {
+            // mapped files can't be deleted on Windows until unmapped
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+}
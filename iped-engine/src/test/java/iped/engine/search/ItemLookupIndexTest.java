@@ -0,0 +1,65 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import iped.engine.data.DataSource;
+import iped.engine.data.Item;
+import iped.properties.BasicProps;
+
+public class ItemLookupIndexTest {
+
+    private static Item createItem(DataSource dataSource, int id, Integer parentId, String name, String hash,
+            Long metaAddress) {
+        Item item = new Item();
+        item.setId(id);
+        item.setParentId(parentId);
+        item.setName(name);
+        item.setPath("/root/" + name);
+        item.setHash(hash);
+        item.setDataSource(dataSource);
+        if (metaAddress != null) {
+            item.setExtraAttribute(BasicProps.META_ADDRESS, metaAddress.toString());
+            item.setExtraAttribute(BasicProps.FILESYSTEM_ID, "1");
+        }
+        return item;
+    }
+
+    @Test
+    public void testLookups() {
+        DataSource dataSource = new DataSource(new File("image.dd"));
+        ItemLookupIndex index = new ItemLookupIndex();
+        index.add(createItem(dataSource, 0, null, "root", null, null));
+        index.add(createItem(dataSource, 3, 0, "a.jpg", "AABB", 30L));
+        index.add(createItem(dataSource, 1, 0, "A.JPG", "aabb", 10L));
+        index.add(createItem(dataSource, 2, 1, "b.db", "ccdd", 20L));
+
+        assertArrayEquals(new int[] { 1, 3 }, index.getByName("a.jpg"));
+        assertArrayEquals(new int[0], index.getByName("a.jp"));
+        assertArrayEquals(new int[] { 2 }, index.getByPath("/ROOT/b.db"));
+        assertArrayEquals(new int[] { 1, 3 }, index.getByHash("aabb"));
+        assertArrayEquals(new int[] { 1, 3 }, index.getChildren(0));
+        assertArrayEquals(new int[] { 2 }, index.getChildren(1));
+        assertArrayEquals(new int[] { 2, 3 },
+                index.getByMetaAddress(dataSource.getUUID(), "1", Arrays.asList(30L, 20L, 40L)));
+        assertArrayEquals(new int[0], index.getByMetaAddress(dataSource.getUUID(), "2", Arrays.asList(30L)));
+    }
+
+    @Test
+    public void testMultiMapRehash() {
+        ItemLookupIndex.LongIntMultiMap map = new ItemLookupIndex.LongIntMultiMap();
+        int numKeys = 100000;
+        for (int i = 0; i < numKeys * 2; i++) {
+            map.add(i % numKeys * 31L, i);
+        }
+        for (int i = 0; i < numKeys; i++) {
+            assertArrayEquals(new int[] { i, i + numKeys }, map.get(i * 31L));
+        }
+        assertArrayEquals(new int[0], map.get(-1));
+    }
+
+}
@@ -0,0 +1,114 @@
+package iped.engine.task.regex;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.DatatypesAutomatonProvider;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+/**
+ * Benchmark of multi regex scanning, to be run manually.
+ *
+ * Usage: RegexScannerBenchmark regexFile [textFile] [iterations]
+ *
+ * regexFile uses the RegexConfig.txt format (NAME = regex lines). If textFile is
+ * not provided, a synthetic text with some hits is generated. It compares the
+ * previous approach (union automaton matcher over String chunks, running each
+ * regex again on each hit) with RegexScanner.
+ */
+public class RegexScannerBenchmark {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: RegexScannerBenchmark regexFile [textFile] [iterations]");
+            return;
+        }
+        List<RunAutomaton> automata = new ArrayList<>();
+        List<Automaton> list = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            int idx = line.indexOf('=');
+            if (line.startsWith("#") || idx == -1) {
+                continue;
+            }
+            Automaton a = new RegExp(line.substring(idx + 1).trim()).toAutomaton(new DatatypesAutomatonProvider());
+            list.add(a);
+            automata.add(new RunAutomaton(a));
+        }
+        System.out.println("Regexes: " + automata.size());
+
+        String text = args.length > 1 ? new String(Files.readAllBytes(Paths.get(args[1])), StandardCharsets.UTF_8)
+                : createText(64 << 20);
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        System.out.println("Text chars: " + text.length());
+
+        long t = System.currentTimeMillis();
+        RunAutomaton union = new RunAutomaton(BasicOperations.union(list));
+        System.out.println("Union automaton built in " + (System.currentTimeMillis() - t) + "ms");
+
+        RegexScanner scanner = new RegexScanner(automata.toArray(new RunAutomaton[0]));
+
+        for (int it = 0; it < iterations; it++) {
+            t = System.nanoTime();
+            long hits = scanUnion(union, automata, text);
+            long unionTime = (System.nanoTime() - t) / 1000000;
+
+            t = System.nanoTime();
+            long[] scannerHits = new long[1];
+            scanner.scan(new StringReader(text), (regex, buf, start, end, offset) -> scannerHits[0]++);
+            long scannerTime = (System.nanoTime() - t) / 1000000;
+
+            System.out.println("Iteration " + it + ": union matcher " + unionTime + "ms (" + hits + " hits), scanner "
+                    + scannerTime + "ms (" + scannerHits[0] + " hits)");
+        }
+    }
+
+    private static long scanUnion(RunAutomaton union, List<RunAutomaton> automata, String text) throws IOException {
+        long hits = 0;
+        char[] cbuf = new char[CHUNK_SIZE];
+        StringReader reader = new StringReader(text);
+        int k = 0;
+        while (k != -1) {
+            int off = 0;
+            k = 0;
+            while (k != -1 && (off += k) < cbuf.length)
+                k = reader.read(cbuf, off, cbuf.length - off);
+            String chunk = new String(cbuf, 0, off);
+            AutomatonMatcher matcher = union.newMatcher(chunk);
+            while (matcher.find()) {
+                String hit = chunk.substring(matcher.start(), matcher.end());
+                for (RunAutomaton automaton : automata) {
+                    if (automaton.run(hit)) {
+                        hits++;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static String createText(int len) {
+        Random random = new Random(0);
+        String[] words = { "the", "report", "was", "sent", "to", "john.doe@example.com", "on", "2021-05-03", "value",
+                "R$ 1.234,56", "phone", "+55 61 99999-8888", "ip", "192.168.0.1", "http://www.example.com/index.html",
+                "card", "4111 1111 1111 1111" };
+        StringBuilder sb = new StringBuilder(len + 64);
+        while (sb.length() < len) {
+            sb.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        return sb.toString();
+    }
+
+}
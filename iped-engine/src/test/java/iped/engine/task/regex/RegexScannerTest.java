@@ -0,0 +1,86 @@
+package iped.engine.task.regex;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import dk.brics.automaton.RegExp;
+import dk.brics.automaton.RunAutomaton;
+
+public class RegexScannerTest {
+
+    private static final String[] REGEXES = { "[0-9]{3}\\.[0-9]{3}", "[0-9]+", "[a-z]+[@][a-z]+\\.com",
+            "abc" };
+
+    private static final String TEXT = "x 123.456 y 7890 abc mail@test.com 12 abcd 123.45 .abc@abc.com";
+
+    private static RunAutomaton[] createAutomata() {
+        RunAutomaton[] automata = new RunAutomaton[REGEXES.length];
+        for (int i = 0; i < REGEXES.length; i++) {
+            automata[i] = new RunAutomaton(new RegExp(REGEXES[i]).toAutomaton());
+        }
+        return automata;
+    }
+
+    private static List<String> scan(String text, int bufferSize) throws IOException {
+        List<String> hits = new ArrayList<>();
+        RegexScanner scanner = new RegexScanner(createAutomata(), bufferSize);
+        scanner.scan(new StringReader(text), (regex, buf, start, end, offset) -> {
+            String hit = new String(buf, start, end - start);
+            assertEquals(text.substring((int) offset, (int) offset + hit.length()), hit);
+            hits.add(regex + ":" + hit + "@" + offset);
+        });
+        return hits;
+    }
+
+    /**
+     * Matches of the union automaton, checking each regex on each full match.
+     */
+    private static List<String> unionMatches(String text) {
+        List<String> hits = new ArrayList<>();
+        List<Automaton> list = new ArrayList<>();
+        RunAutomaton[] automata = createAutomata();
+        for (String regex : REGEXES) {
+            list.add(new RegExp(regex).toAutomaton());
+        }
+        AutomatonMatcher matcher = new RunAutomaton(BasicOperations.union(list)).newMatcher(text);
+        while (matcher.find()) {
+            String hit = matcher.group();
+            for (int i = 0; i < automata.length; i++) {
+                if (automata[i].run(hit)) {
+                    hits.add(i + ":" + hit + "@" + matcher.start());
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    public void testSameHitsOfUnionMatcher() throws IOException {
+        List<String> expected = unionMatches(TEXT);
+        assertEquals(expected, scan(TEXT, 1 << 10));
+    }
+
+    @Test
+    public void testHitsCrossingBufferBoundaries() throws IOException {
+        List<String> expected = unionMatches(TEXT);
+        // buffers must be bigger than the longest hit
+        for (int bufferSize = 14; bufferSize < 24; bufferSize++) {
+            assertEquals(expected, scan(TEXT, bufferSize));
+        }
+    }
+
+    @Test
+    public void testEmptyText() throws IOException {
+        assertEquals(0, scan("", 16).size());
+    }
+
+}
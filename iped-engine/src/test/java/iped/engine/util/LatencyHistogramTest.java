@@ -0,0 +1,46 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketsContainValues() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.getBucket(value);
+            assertTrue(value <= LatencyHistogram.getBucketUpperValue(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.getBucketUpperValue(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getMean());
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * (1 + 1.0 / LatencyHistogram.SUB_BUCKETS));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram h1 = new LatencyHistogram();
+        LatencyHistogram h2 = new LatencyHistogram();
+        h1.record(10);
+        h2.record(Long.MAX_VALUE / 2);
+        h1.add(h2);
+        assertEquals(2, h1.getCount());
+        assertEquals(Long.MAX_VALUE / 2, h1.getMax());
+    }
+
+}
@@ -0,0 +1,37 @@
+package iped.engine.webapi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class ContentRangeTest {
+
+    private static final long[] WHOLE = new long[0];
+
+    @Test
+    public void testValidRanges() {
+        assertArrayEquals(new long[] { 0, 99 }, Content.parseRange("bytes=0-99", 1000));
+        assertArrayEquals(new long[] { 500, 999 }, Content.parseRange("bytes=500-", 1000));
+        assertArrayEquals(new long[] { 900, 999 }, Content.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] { 0, 999 }, Content.parseRange("bytes=-2000", 1000));
+        assertArrayEquals(new long[] { 990, 999 }, Content.parseRange("bytes=990-5000", 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() {
+        assertNull(Content.parseRange("bytes=1000-", 1000));
+        assertNull(Content.parseRange("bytes=1000-1100", 1000));
+        assertNull(Content.parseRange("bytes=-0", 1000));
+        assertNull(Content.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    public void testIgnoredRanges() {
+        assertArrayEquals(WHOLE, Content.parseRange("bytes=0-10,20-30", 1000));
+        assertArrayEquals(WHOLE, Content.parseRange("items=0-10", 1000));
+        assertArrayEquals(WHOLE, Content.parseRange("bytes=10-5", 1000));
+        assertArrayEquals(WHOLE, Content.parseRange("bytes=a-b", 1000));
+    }
+
+}
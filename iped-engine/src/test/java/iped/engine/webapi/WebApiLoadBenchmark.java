@@ -0,0 +1,118 @@
+package iped.engine.webapi;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Small load benchmark of the web api, to be run manually against a server
+ * started with a local test case.
+ *
+ * Usage: WebApiLoadBenchmark baseUrl [query] [threads] [pageSize] [rangeReads]
+ *
+ * It pages through the search results of the query and does concurrent random
+ * range reads of the content of the returned documents, printing throughput and
+ * latency.
+ */
+public class WebApiLoadBenchmark {
+
+    private static final Pattern SOURCE_PATTERN = Pattern.compile("\"source\":\"([^\"]+)\",\"ids\":\\[([0-9,]*)\\]");
+    private static final Pattern CURSOR_PATTERN = Pattern.compile("\"nextCursor\":\"([^\"]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: WebApiLoadBenchmark baseUrl [query] [threads] [pageSize] [rangeReads]");
+            return;
+        }
+        String baseUrl = args[0].endsWith("/") ? args[0] : args[0] + "/";
+        String query = args.length > 1 ? args[1] : "*:*";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int pageSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        int rangeReads = args.length > 4 ? Integer.parseInt(args[4]) : 10000;
+
+        HttpClient client = HttpClient.newBuilder().build();
+
+        List<String> docs = new ArrayList<>();
+        String cursor = "";
+        int pages = 0;
+        long t = System.nanoTime();
+        do {
+            String url = baseUrl + "search?q=" + URLEncoder.encode(query, StandardCharsets.UTF_8) + "&limit="
+                    + pageSize + "&cursor=" + cursor;
+            String json = client.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            Matcher m = SOURCE_PATTERN.matcher(json);
+            while (m.find()) {
+                if (m.group(2).isEmpty()) {
+                    continue;
+                }
+                for (String id : m.group(2).split(",")) {
+                    docs.add("sources/" + m.group(1) + "/docs/" + id);
+                }
+            }
+            Matcher c = CURSOR_PATTERN.matcher(json);
+            cursor = c.find() ? c.group(1) : null;
+            pages++;
+        } while (cursor != null);
+        long searchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t);
+        System.out.println("Search: " + docs.size() + " docs in " + pages + " pages, " + searchMillis + "ms");
+
+        if (docs.isEmpty()) {
+            return;
+        }
+
+        AtomicLong bytes = new AtomicLong(), errors = new AtomicLong(), maxLatency = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        t = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            futures.add(executor.submit(() -> {
+                Random random = new Random(seed);
+                for (int j = 0; j < rangeReads / threads; j++) {
+                    String doc = docs.get(random.nextInt(docs.size()));
+                    long start = random.nextInt(1 << 20);
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + doc + "/content"))
+                            .header("Range", "bytes=" + start + "-" + (start + 65535)).build();
+                    long t0 = System.nanoTime();
+                    try {
+                        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                        if (response.statusCode() != 206 && response.statusCode() != 200
+                                && response.statusCode() != 416) {
+                            errors.incrementAndGet();
+                        }
+                        bytes.addAndGet(response.body().length);
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    maxLatency.accumulateAndGet(System.nanoTime() - t0, Math::max);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        long rangeMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t));
+        int requests = rangeReads / threads * threads;
+        System.out.println("Range reads: " + requests + " requests in " + rangeMillis + "ms, "
+                + (requests * 1000L / rangeMillis) + " req/s, " + (bytes.get() / 1024 * 1000 / rangeMillis / 1024)
+                + " MB/s, max latency " + TimeUnit.NANOSECONDS.toMillis(maxLatency.get()) + "ms, errors "
+                + errors.get());
+    }
+
+}
@@ -24,7 +24,6 @@
 import iped.parsers.discord.json.DiscordRoot;
 import iped.parsers.discord.json.DiscordSticker;
 import iped.parsers.util.Messages;
-import iped.properties.BasicProps;
 import iped.search.IItemSearcher;
 import iped.utils.IOUtil;
 import iped.utils.SimpleHTMLEncoder;
@@ -159,8 +158,7 @@ public byte[] convertToHTML(List<DiscordRoot> drl, IItemSearcher searcher, boole
             if (stickers != null) {
                 for (DiscordSticker sticker : stickers) {
                     String hash = sticker.getMediaHash();
-                    String query = BasicProps.HASH + ":" + hash;
-                    Iterator<IItemReader> it = searcher.searchIterable(query).iterator();
+                    Iterator<IItemReader> it = searcher.searchByHash(hash).iterator();
                     // if hash exists, at least 1 item will be returned
                     IItemReader item = it.next();
                     byte buff[] = item.getBufferedInputStream().readAllBytes();
@@ -221,8 +219,7 @@ public byte[] convertToHTML(List<DiscordRoot> drl, IItemSearcher searcher, boole
                     out.println("<TR>");
                     out.println("	<TD>");
                     if (att.getMediaHash() != null) {
-                        String query = BasicProps.HASH + ":" + att.getMediaHash();
-                        Iterator<IItemReader> it = searcher.searchIterable(query).iterator();
+                        Iterator<IItemReader> it = searcher.searchByHash(att.getMediaHash()).iterator();
                         // if hash exists, at least 1 item will be returned
                         IItemReader item = it.next();
                         printCheckbox(out, att.getMediaHash());
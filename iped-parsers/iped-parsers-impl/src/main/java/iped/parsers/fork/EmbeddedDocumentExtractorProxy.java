@@ -82,7 +82,8 @@ private void sendObject(Object object, List<ForkResource> resources) throws IOEx
         int n = resources.size();
         if (object instanceof InputStream) {
             resources.add(new InputStreamResource2((InputStream) object));
-            object = new InputStreamProxy2(n, null);
+            // file backed streams are opened directly by the other process
+            object = new InputStreamProxy2(n, (InputStream) object);
 
         } else if (object instanceof ContentHandler) {
             resources.add(new ContentHandlerResource2((ContentHandler) object));
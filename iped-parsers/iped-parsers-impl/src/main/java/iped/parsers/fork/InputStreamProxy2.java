@@ -25,11 +25,23 @@
 import org.apache.tika.fork.ForkProxy;
 import org.apache.tika.io.TikaInputStream;
 
+/**
+ * Proxy of an InputStream of the other process. If the stream is backed by a
+ * file, it is opened directly by this process. Otherwise content is
+ * transferred through the pipe in chunks of at least {@link #READ_AHEAD} bytes,
+ * buffered here, so small reads don't need a round trip each. Large reads are
+ * transferred directly into the caller array, in chunks of up to
+ * {@link #MAX_CHUNK} bytes, so no large buffers are kept.
+ */
 class InputStreamProxy2 extends InputStream implements ForkProxy {
 
     /** Serial version UID */
     private static final long serialVersionUID = 4350939227765568438L;
 
+    static final int READ_AHEAD = 64 * 1024;
+
+    static final int MAX_CHUNK = 4 * READ_AHEAD;
+
     private final int resource;
 
     private transient DataInputStream input;
@@ -40,11 +52,21 @@ class InputStreamProxy2 extends InputStream implements ForkProxy {
 
     private transient TikaInputStream tis;
 
+    private transient boolean fileError = false;
+
+    private transient byte[] buffer;
+
+    private transient int bufPos, bufLen;
+
+    private transient boolean eof = false;
+
     public TikaInputStream getTikaInputStream() {
-        if (file != null && tis == null) {
+        if (file != null && tis == null && !fileError) {
             try {
                 tis = TikaInputStream.get(file.toPath());
             } catch (IOException e) {
+                // falls back to pipe
+                fileError = true;
                 e.printStackTrace();
             }
         }
@@ -54,7 +76,8 @@ public TikaInputStream getTikaInputStream() {
     public InputStreamProxy2(int resource, InputStream is) {
         this.resource = resource;
 
-        if (is instanceof TikaInputStream)
+        // do not spool the stream to a temp file just to send its path
+        if (is instanceof TikaInputStream && ((TikaInputStream) is).hasFile())
             try {
                 file = ((TikaInputStream) is).getFile();
 
@@ -71,42 +94,90 @@ public void init(DataInputStream input, DataOutputStream output) {
     @Override
     public int read() throws IOException {
 
-        if (tis != null) {
+        if (getTikaInputStream() != null) {
             return tis.read();
         }
 
-        output.writeByte(ForkServer.RESOURCE);
-        output.writeByte(resource);
-        output.writeInt(1);
-        output.flush();
-        int n = input.readInt();
-        if (n == 1) {
-            return input.readUnsignedByte();
-        } else if (n == 0) {
-            return this.read();
-        } else {
+        if (bufPos == bufLen && !fillBuffer()) {
             return -1;
         }
+        return buffer[bufPos++] & 0xFF;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
 
-        if (tis != null) {
+        if (getTikaInputStream() != null) {
             return tis.read(b, off, len);
         }
+        if (len == 0) {
+            return 0;
+        }
+
+        if (bufPos == bufLen) {
+            if (len >= READ_AHEAD) {
+                return request(b, off, Math.min(len, MAX_CHUNK));
+            }
+            if (!fillBuffer()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, bufLen - bufPos);
+        System.arraycopy(buffer, bufPos, b, off, n);
+        bufPos += n;
+        return n;
+    }
+
+    /**
+     * Requests READ_AHEAD bytes from the other process into the buffer.
+     * 
+     * @return false if end of stream was reached
+     */
+    private boolean fillBuffer() throws IOException {
+        if (buffer == null) {
+            buffer = new byte[READ_AHEAD];
+        }
+        int n = request(buffer, 0, READ_AHEAD);
+        bufPos = 0;
+        bufLen = Math.max(n, 0);
+        return n > 0;
+    }
+
+    /**
+     * Requests up to size bytes from the other process.
+     * 
+     * @return number of bytes read or -1 if end of stream was reached
+     */
+    private int request(byte[] b, int off, int size) throws IOException {
+        if (eof) {
+            return -1;
+        }
+        int n;
+        do {
+            output.writeByte(ForkServer.RESOURCE);
+            output.writeByte(resource);
+            output.writeInt(size);
+            output.flush();
+            n = input.readInt();
+            if (n > 0) {
+                input.readFully(b, off, n);
+            }
+        } while (n == 0);
 
-        output.writeByte(ForkServer.RESOURCE);
-        output.writeByte(resource);
-        output.writeInt(len);
-        output.flush();
-        int n = input.readInt();
-        if (n > 0) {
-            input.readFully(b, off, n);
+        if (n < 0) {
+            eof = true;
         }
         return n;
     }
 
+    @Override
+    public int available() throws IOException {
+        if (tis != null) {
+            return tis.available();
+        }
+        return bufLen - bufPos;
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
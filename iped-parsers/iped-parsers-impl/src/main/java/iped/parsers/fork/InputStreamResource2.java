@@ -27,24 +27,39 @@ class InputStreamResource2 implements ForkResource {
 
     private final InputStream stream;
 
+    private byte[] buffer;
+
     public InputStreamResource2(InputStream stream) {
         this.stream = stream;
     }
 
     public Throwable process(DataInputStream input, DataOutputStream output) throws IOException {
 
-        int n = input.readInt();
-        byte[] buffer = new byte[n];
-        int m;
+        // large requests are limited, so large buffers are not kept
+        int n = Math.min(input.readInt(), InputStreamProxy2.MAX_CHUNK);
+        if (buffer == null || buffer.length < n) {
+            buffer = new byte[n];
+        }
+        int m = 0;
         try {
-            m = stream.read(buffer);
+            // fills the requested size, so the proxy needs less round trips
+            int k = 0;
+            while (m < n && (k = stream.read(buffer, m, n - m)) > 0) {
+                m += k;
+            }
+            if (m == 0 && k == -1) {
+                m = -1;
+            }
 
             // Runtime exceptions are possible, eg: OLEParser
         } catch (Exception e) {
             // returning causes deadlock
             // return e;
             e.printStackTrace();
-            m = -1;
+            // bytes already read are sent, the error will probably happen again next call
+            if (m == 0) {
+                m = -1;
+            }
         }
         output.writeInt(m);
         if (m > 0) {
@@ -22,9 +22,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -39,6 +38,7 @@
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
@@ -57,6 +57,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
 import org.sqlite.SQLiteConfig.SynchronousMode;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -88,8 +89,6 @@ public class OCRParser extends AbstractParser implements AutoCloseable {
 
     private static Logger LOGGER;
 
-    private static final String OUTPUT_REGEX = "Tesseract Open Source OCR Engine v.* with Leptonica"; //$NON-NLS-1$
-
     public static final String OCR_CHAR_COUNT = "ocrCharCount"; //$NON-NLS-1$
 
     private static final String TOOL_NAME = "tesseract"; //$NON-NLS-1$
@@ -104,13 +103,18 @@ public class OCRParser extends AbstractParser implements AutoCloseable {
 
     private static final String SELECT_EXACT = "SELECT text FROM ocr WHERE id=?;"; //$NON-NLS-1$
 
+    private static final int SHARED_DB_BUSY_TIMEOUT = 30000;
+
     private static final String SELECT_ALL = "SELECT id, text FROM ocr WHERE id >= ? AND id < ?"; //$NON-NLS-1$
 
-    private static final String TESSERACT_ERROR_MSG = "tesseract returned error code ";
+    private static final String TESSERACT_ERROR_MSG = TesseractPool.TESSERACT_ERROR_MSG;
+
+    private static final String INPUT_FILE_TOKEN = TesseractPool.INPUT_FILE_TOKEN;
 
-    private static final String INPUT_FILE_TOKEN = "${INPUT}"; //$NON-NLS-1$
+    private static final String OUTPUT_FILE_TOKEN = TesseractPool.OUTPUT_FILE_TOKEN;
 
-    private static final String OUTPUT_FILE_TOKEN = "${OUTPUT}"; //$NON-NLS-1$
+    // tesseract ends the text of each page with a form feed
+    private static final Pattern PAGE_SEPARATOR = Pattern.compile("\f"); //$NON-NLS-1$
 
     public static final String ENABLE_PROP = TOOL_NAME + ".enabled"; //$NON-NLS-1$
     public static final String TOOL_PATH_PROP = TOOL_NAME + ".path"; //$NON-NLS-1$
@@ -124,6 +128,10 @@ public class OCRParser extends AbstractParser implements AutoCloseable {
     public static final String TEXT_DIR = "text"; //$NON-NLS-1$
     public static final String PROCESS_NON_STANDARD_FORMATS_PROP = "ocr.processNonStandard"; //$NON-NLS-1$
     public static final String MAX_CONV_IMAGE_SIZE_PROP = "ocr.maxConvImageSize"; //$NON-NLS-1$
+    public static final String NUM_PROCESSES_PROP = "ocr.numProcesses"; //$NON-NLS-1$
+    public static final String TIMEOUT_PROP = "ocr.timeoutPerPage"; //$NON-NLS-1$
+    public static final String BATCH_PAGES_PROP = "ocr.batchPages"; //$NON-NLS-1$
+    public static final String SHARED_CACHE_PROP = "ocr.sharedCacheDb"; //$NON-NLS-1$
 
     private boolean ENABLED = Boolean.valueOf(System.getProperty(ENABLE_PROP, "false")); //$NON-NLS-1$
     private String TOOL_PATH = System.getProperty(TOOL_PATH_PROP, ""); //$NON-NLS-1$
@@ -136,6 +144,10 @@ public class OCRParser extends AbstractParser implements AutoCloseable {
             .asList(System.getProperty(SUBSET_TO_OCR, SUBSET_SEPARATOR).split(SUBSET_SEPARATOR)); // $NON-NLS-1$;
     private boolean PROCESS_NON_STANDARD_FORMATS = Boolean.valueOf(System.getProperty(PROCESS_NON_STANDARD_FORMATS_PROP, "true")); //$NON-NLS-1$
     private int MAX_CONV_IMAGE_SIZE = Integer.valueOf(System.getProperty(MAX_CONV_IMAGE_SIZE_PROP, "3000")); //$NON-NLS-1$
+    private int NUM_PROCESSES = Integer.valueOf(System.getProperty(NUM_PROCESSES_PROP, "0")); //$NON-NLS-1$
+    private long TIMEOUT_PER_PAGE = Long.valueOf(System.getProperty(TIMEOUT_PROP, "300")); //$NON-NLS-1$
+    private int BATCH_PAGES = Integer.valueOf(System.getProperty(BATCH_PAGES_PROP, "10")); //$NON-NLS-1$
+    private String SHARED_CACHE_DB = System.getProperty(SHARED_CACHE_PROP, ""); //$NON-NLS-1$
 
     private static AtomicBoolean checked = new AtomicBoolean();
     private static String tessVersion = "";
@@ -154,6 +166,8 @@ public class OCRParser extends AbstractParser implements AutoCloseable {
     // Root folder to store ocr results
     private File outputBase;
     private String[] command;
+    private TesseractPool pool;
+    private boolean batchSupported;
     private Random random = new Random();
 
     static {
@@ -280,6 +294,12 @@ public OCRParser() {
                     if (command[i].equals("-psm")) //$NON-NLS-1$
                         command[i] = "--psm"; //$NON-NLS-1$
             }
+            if (ENABLED) {
+                int numProcesses = NUM_PROCESSES > 0 ? NUM_PROCESSES : Runtime.getRuntime().availableProcessors();
+                pool = TesseractPool.get(command, numProcesses, TIMEOUT_PER_PAGE);
+                // list files as input are well supported since tesseract 4
+                batchSupported = BATCH_PAGES > 1 && Character.getNumericValue(tessVersion.charAt(0)) >= 4;
+            }
 
         } catch (IOException | InterruptedException e) {
             throw new RuntimeException("Error running " + cmd[0], e); //$NON-NLS-1$
@@ -303,8 +323,21 @@ private boolean isFromBookmarkToOCR(ItemInfo ocrContext) {
         return false;
     }
 
-    private static synchronized Connection getConnection(File outputBase) {
-        File db = new File(outputBase, OCR_STORAGE);
+    private static Connection getConnection(File outputBase) {
+        return getConnectionToDb(new File(outputBase, OCR_STORAGE));
+    }
+
+    private static Connection getConnectionToDb(File db) {
+        return getConnectionToDb(db, false);
+    }
+
+    /**
+     * The shared db is used by concurrent cases, so it is opened in WAL mode,
+     * where readers do not block the writer, with a short busy timeout. WAL needs
+     * shared memory between processes, so the shared db must be in a local
+     * filesystem, not in a network share.
+     */
+    private static synchronized Connection getConnectionToDb(File db, boolean shared) {
         Connection conn = connMap.get(db);
         if (conn != null) {
             return conn;
@@ -313,7 +346,12 @@ private static synchronized Connection getConnection(File outputBase) {
         try {
             SQLiteConfig config = new SQLiteConfig();
             config.setSynchronous(SynchronousMode.NORMAL);
-            config.setBusyTimeout(3600000);
+            if (shared) {
+                config.setJournalMode(JournalMode.WAL);
+                config.setBusyTimeout(SHARED_DB_BUSY_TIMEOUT);
+            } else {
+                config.setBusyTimeout(3600000);
+            }
             conn = config.createConnection("jdbc:sqlite:" + db.getAbsolutePath());
             connMap.put(db, conn);
 
@@ -378,6 +416,13 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
                     }
 
                     String ocrText = getOcrTextFromDb(outFileName, outputBase);
+                    if (ocrText == null && !SHARED_CACHE_DB.isEmpty()) {
+                        ocrText = getOcrTextFromSharedDb(outFileName);
+                        if (ocrText != null) {
+                            // keeps the case db complete, it is copied to reports
+                            storeOcrTextInDb(outFileName, ocrText, outputBase);
+                        }
+                    }
                     if (ocrText != null) {
                         extractOutput(ocrText, xhtml); //$NON-NLS-1$
                         return;
@@ -427,6 +472,9 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
 
                     String ocrText = new String(bytes, "UTF-8").trim(); //$NON-NLS-1$
                     storeOcrTextInDb(outFileName, ocrText, outputBase);
+                    if (outFileName != null && !SHARED_CACHE_DB.isEmpty()) {
+                        storeOcrTextInSharedDb(outFileName, ocrText);
+                    }
 
                 } else {
                     extractOutput(output, xhtml);
@@ -446,7 +494,11 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
     }
 
     private static String getOcrTextFromDb(String id, File outputBase) throws IOException {
-        try (PreparedStatement ps = getConnection(outputBase).prepareStatement(SELECT_EXACT)) {
+        return getOcrTextFromDb(id, getConnection(outputBase));
+    }
+
+    private static String getOcrTextFromDb(String id, Connection conn) throws IOException {
+        try (PreparedStatement ps = conn.prepareStatement(SELECT_EXACT)) {
             ps.setString(1, id);
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
@@ -459,7 +511,11 @@ private static String getOcrTextFromDb(String id, File outputBase) throws IOExce
     }
 
     private static void storeOcrTextInDb(String id, String ocrText, File outputBase) throws IOException {
-        try (PreparedStatement ps = getConnection(outputBase).prepareStatement(INSERT_DATA)) {
+        storeOcrTextInDb(id, ocrText, getConnection(outputBase));
+    }
+
+    private static void storeOcrTextInDb(String id, String ocrText, Connection conn) throws IOException {
+        try (PreparedStatement ps = conn.prepareStatement(INSERT_DATA)) {
             ps.setString(1, id);
             ps.setString(2, ocrText);
             ps.executeUpdate();
@@ -468,6 +524,35 @@ private static void storeOcrTextInDb(String id, String ocrText, File outputBase)
         }
     }
 
+    /**
+     * The shared db is used by different cases, which may be processed with other
+     * OCR settings, so they are part of the id.
+     */
+    private String getSharedDbId(String id) {
+        return id + "_" + LANGUAGE + "_" + PAGESEGMODE; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * Errors accessing the shared db, e.g. if it is busy for too long, are just
+     * logged, the item is OCRed as if it was not cached.
+     */
+    private String getOcrTextFromSharedDb(String id) {
+        try {
+            return getOcrTextFromDb(getSharedDbId(id), getConnectionToDb(new File(SHARED_CACHE_DB), true));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Error reading shared OCR db {}: {}", SHARED_CACHE_DB, e.toString()); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private void storeOcrTextInSharedDb(String id, String ocrText) {
+        try {
+            storeOcrTextInDb(getSharedDbId(id), ocrText, getConnectionToDb(new File(SHARED_CACHE_DB), true));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Error writing shared OCR db {}: {}", SHARED_CACHE_DB, e.toString()); //$NON-NLS-1$
+        }
+    }
+
     public static void copyOcrResults(String hash, File inputBase, File outputBase) throws IOException {
         File sourceDb = new File(inputBase, OCRParser.TEXT_DIR + File.separator + OCRParser.OCR_STORAGE);
         File targetDb = new File(outputBase, OCRParser.TEXT_DIR + File.separator + OCRParser.OCR_STORAGE);
@@ -492,11 +577,12 @@ private void parseTiff(XHTMLContentHandler xhtml, TemporaryResources tmp, File i
             throws IOException, SAXException, TikaException {
 
         ImageReader reader = null;
+        List<File> images = new ArrayList<>();
         try (ImageInputStream iis = ImageIO.createImageInputStream(input)) {
             reader = ImageIO.getImageReaders(iis).next();
             reader.setInput(iis, false, true);
             int numPages = reader.getNumImages(true);
-            // OCR tiff per page to avoid timeouts
+            // OCR tiff per page or batch of pages to avoid timeouts
             for (int page = 0; page < numPages; page++) {
                 File imageFile = null;
                 try {
@@ -520,23 +606,28 @@ private void parseTiff(XHTMLContentHandler xhtml, TemporaryResources tmp, File i
                         image = ImageUtil.resizeImage(image, MAX_CONV_IMAGE_SIZE, MAX_CONV_IMAGE_SIZE, BufferedImage.TYPE_3BYTE_BGR);
                     
                     imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
+                    images.add(imageFile);
                     ImageIO.write(image, PDFToImage.EXT, imageFile);
-                    File imageText = new File(imageFile.getAbsolutePath() + ".txt"); //$NON-NLS-1$
-                    parse(xhtml, imageFile, imageText, itemPath);
-                    if (imageText.exists()) {
-                        if (outputBase != null)
-                            IOUtil.copyFile(imageText, output, true);
-                        imageText.delete();
-                    }
                 } catch (IOException e) {
                     // ignore and try next page
-                } finally {
-                    if (imageFile != null)
+                    if (imageFile != null) {
+                        images.remove(imageFile);
                         imageFile.delete();
+                    }
+                }
+                if (images.size() >= BATCH_PAGES || page == numPages - 1) {
+                    try {
+                        parseImages(xhtml, images, output, itemPath);
+                    } catch (IOException e) {
+                        // ignore and try next pages
+                    } finally {
+                        deleteImages(images);
+                    }
                 }
             }
 
         } finally {
+            deleteImages(images);
             if (reader != null)
                 reader.dispose();
         }
@@ -573,76 +664,134 @@ private void parsePDF(XHTMLContentHandler xhtml, TemporaryResources tmp, File in
             throws IOException, SAXException, TikaException {
 
         PDFToImage pdfConverter = new PDFToImage();
+        List<File> images = new ArrayList<>();
         try {
             pdfConverter.load(input);
-            for (int page = 0; page < pdfConverter.getNumPages(); page++) {
-                File imageFile = null;
-                try {
-                    imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
-                    boolean success = pdfConverter.convert(page, imageFile);
-                    if (!success || !imageFile.exists())
-                        continue;
-                    File imageText = new File(imageFile.getAbsolutePath() + ".txt"); //$NON-NLS-1$
-                    parse(xhtml, imageFile, imageText, itemPath);
-                    if (imageText.exists()) {
-                        if (outputBase != null)
-                            IOUtil.copyFile(imageText, output, true);
-                        imageText.delete();
+            int numPages = pdfConverter.getNumPages();
+            for (int page = 0; page < numPages; page++) {
+                File imageFile = File.createTempFile("iped-ocr", "." + PDFToImage.EXT); //$NON-NLS-1$ //$NON-NLS-2$
+                images.add(imageFile);
+                boolean success = pdfConverter.convert(page, imageFile);
+                if (!success || !imageFile.exists()) {
+                    images.remove(imageFile);
+                    imageFile.delete();
+                }
+                if (images.size() >= BATCH_PAGES || page == numPages - 1) {
+                    try {
+                        parseImages(xhtml, images, output, itemPath);
+                    } finally {
+                        deleteImages(images);
                     }
-                } finally {
-                    if (imageFile != null)
-                        imageFile.delete();
                 }
             }
         } finally {
+            deleteImages(images);
             pdfConverter.close();
         }
     }
 
-    private void parse(XHTMLContentHandler xhtml, File input, File output, String itemPath)
+    private static void deleteImages(List<File> images) {
+        for (File image : images) {
+            image.delete();
+        }
+        images.clear();
+    }
+
+    /**
+     * OCRs page images with a single tesseract process if possible, appending
+     * their text to output. Falls back to one process per page if the batch
+     * fails, so a bad page does not lose the text of the others. If the batch
+     * times out, pages finished before it are kept and the remaining ones are
+     * retried one by one, each with the per page timeout. Pages timing out again
+     * are skipped, so the next ones are still OCRed.
+     */
+    private void parseImages(XHTMLContentHandler xhtml, List<File> images, File output, String itemPath)
             throws IOException, SAXException, TikaException {
 
-        // Build our command
-        String[] cmd = new String[command.length];
-        System.arraycopy(command, 0, cmd, 0, command.length);
-        for (int i = 0; i < cmd.length; i++) {
-            if (cmd[i].indexOf(INPUT_FILE_TOKEN) != -1) {
-                cmd[i] = cmd[i].replace(INPUT_FILE_TOKEN, input.getPath());
-            }
-            if (cmd[i].indexOf(OUTPUT_FILE_TOKEN) != -1) {
-                String outputPrefix = output.getPath().substring(0, output.getPath().length() - 4);
-                cmd[i] = cmd[i].replace(OUTPUT_FILE_TOKEN, outputPrefix);
-            }
+        if (images.isEmpty()) {
+            return;
         }
+        if (batchSupported && images.size() > 1) {
+            File batchText = File.createTempFile("iped-ocr", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+            try {
+                pool.runBatch(images, batchText, itemPath);
+                if (batchText.exists()) {
+                    String text = new String(Files.readAllBytes(batchText.toPath()), "UTF-8"); //$NON-NLS-1$
+                    for (String pageText : PAGE_SEPARATOR.split(text)) {
+                        extractOutput(pageText.trim(), xhtml);
+                    }
+                    if (outputBase != null)
+                        IOUtil.copyFile(batchText, output, true);
+                }
+                return;
 
-        ProcessBuilder pb = new ProcessBuilder(cmd);
-        Map<String, String> env = pb.environment();
-        // try to disable OpenMP
-        env.put("OMP_THREAD_LIMIT", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+            } catch (TesseractPool.TimeoutException e) {
+                int donePages = extractFinishedPages(batchText, xhtml, output);
+                images = images.subList(donePages, images.size());
+                LOGGER.warn("OCR timeout, retrying {} remaining pages of {} one by one: {}", images.size(), itemPath, //$NON-NLS-1$
+                        e.getMessage());
 
-        Process process = pb.start();
+            } catch (TikaException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                LOGGER.debug("Batch OCR failed, trying page by page: " + itemPath + " " + e); //$NON-NLS-1$ //$NON-NLS-2$
 
-        process.getOutputStream().close();
+            } finally {
+                batchText.delete();
+            }
+        }
+        for (File imageFile : images) {
+            File imageText = new File(imageFile.getAbsolutePath() + ".txt"); //$NON-NLS-1$
+            try {
+                parse(xhtml, imageFile, imageText, itemPath);
+                if (imageText.exists() && outputBase != null)
+                    IOUtil.copyFile(imageText, output, true);
+
+            } catch (TesseractPool.TimeoutException e) {
+                LOGGER.warn("OCR timeout, skipping a page of {}: {}", itemPath, e.getMessage()); //$NON-NLS-1$
+
+            } finally {
+                imageText.delete();
+            }
+        }
+    }
 
-        InputStream out = process.getInputStream();
-        InputStream err = process.getErrorStream();
+    /**
+     * Extracts the text of pages written by a batch before it was killed. Text of
+     * each page is followed by a form feed, so text after the last one is from an
+     * unfinished page and is discarded.
+     * 
+     * @return number of finished pages
+     */
+    private int extractFinishedPages(File batchText, XHTMLContentHandler xhtml, File output)
+            throws IOException, SAXException {
+        if (!batchText.exists()) {
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(batchText.toPath()), "UTF-8"); //$NON-NLS-1$
+        text = text.substring(0, text.lastIndexOf('\f') + 1);
+        int donePages = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\f') {
+                donePages++;
+            }
+        }
+        for (String pageText : PAGE_SEPARATOR.split(text)) {
+            extractOutput(pageText.trim(), xhtml);
+        }
+        if (outputBase != null && !text.isEmpty()) {
+            Files.write(output.toPath(), text.getBytes("UTF-8"), StandardOpenOption.CREATE, //$NON-NLS-1$
+                    StandardOpenOption.APPEND);
+        }
+        return donePages;
+    }
 
-        logStream("OCR MSG", out, itemPath); //$NON-NLS-1$
-        logStream("OCR ERROR", err, itemPath); //$NON-NLS-1$
+    private void parse(XHTMLContentHandler xhtml, File input, File output, String itemPath)
+            throws IOException, SAXException, TikaException {
 
-        try {
-            int status = process.waitFor();
-            if (status != 0) {
-                throw new TikaException(TESSERACT_ERROR_MSG + status);
-            }
-        } catch (InterruptedException e) {
-            // System.out.println(new Date() + "\t[AVISO]\t" +
-            // "Interrompendo OCRParsing of " + input.getPath());
-            process.destroyForcibly();
-            Thread.currentThread().interrupt();
-            throw new TikaException(this.getClass().getSimpleName() + " interrupted", e); //$NON-NLS-1$
+        pool.run(input, output, 1, itemPath);
 
-        }
         if (output.exists())
             extractOutput(output, xhtml);
 
@@ -658,38 +807,6 @@ private void extractOutput(String ocrText, XHTMLContentHandler xhtml) throws SAX
         xhtml.characters(ocrText);
     }
 
-    /**
-     * 
-     * @param process
-     *            process
-     * @param stream
-     *            input stream
-     */
-    private void logStream(final String logType, final InputStream stream, String itemPath) {
-        new Thread() {
-            @Override
-            public void run() {
-                Reader reader = new InputStreamReader(stream);
-                StringBuilder out = new StringBuilder();
-                char[] buffer = new char[1024];
-                try {
-                    for (int n = reader.read(buffer); n != -1; n = reader.read(buffer))
-                        out.append(buffer, 0, n);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } finally {
-                    IOUtil.closeQuietly(stream);
-                }
-
-                String msg = out.toString().replaceAll(OUTPUT_REGEX, "").replaceAll("\r?\n", " ").trim();
-                if (!msg.isEmpty())
-                    LOGGER.debug("OCR msg from " + itemPath + "\t" + msg);
-
-                return;
-            }
-        }.start();
-    }
-
     public static List<String> checkVersionInfo(String... checkCmd) throws IOException, InterruptedException {
         Process process = Runtime.getRuntime().exec(checkCmd);
         int result = process.waitFor();
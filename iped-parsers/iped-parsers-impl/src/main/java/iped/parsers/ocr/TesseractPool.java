@@ -0,0 +1,250 @@
+package iped.parsers.ocr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.tika.exception.TikaException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.utils.IOUtil;
+
+/**
+ * Runs tesseract processes for OCRParser. There is one pool for each command
+ * line (language set and page segmentation mode), all sharing a limit of
+ * concurrent processes, which is independent of the number of processing
+ * workers.
+ *
+ * Tesseract command line has no server mode, so the cost of starting it and
+ * loading the language models is paid once per batch: many images (e.g. pages
+ * of a PDF) can be OCRed by a single process using a list file as input.
+ *
+ * Each run has a timeout proportional to the number of images. After some
+ * consecutive failures, the tesseract executable is checked again and, if it
+ * stops working, runs fail fast until a later check succeeds.
+ */
+class TesseractPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TesseractPool.class);
+
+    static final String INPUT_FILE_TOKEN = "${INPUT}"; //$NON-NLS-1$
+
+    static final String OUTPUT_FILE_TOKEN = "${OUTPUT}"; //$NON-NLS-1$
+
+    static final String TESSERACT_ERROR_MSG = "tesseract returned error code "; //$NON-NLS-1$
+
+    private static final String OUTPUT_REGEX = "Tesseract Open Source OCR Engine v.* with Leptonica"; //$NON-NLS-1$
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 5;
+
+    private static final long HEALTH_CHECK_INTERVAL = 60000;
+
+    private static final Map<String, TesseractPool> pools = new HashMap<>();
+
+    private static Semaphore processes;
+
+    private final String[] command;
+    private final long timeoutPerImage;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile boolean healthy = true;
+    private volatile long lastHealthCheck = 0;
+
+    /**
+     * Thrown if tesseract does not finish before the timeout.
+     */
+    static class TimeoutException extends TikaException {
+
+        private static final long serialVersionUID = 1L;
+
+        TimeoutException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * @param command
+     *            tesseract command line, with input and output tokens
+     * @param maxProcesses
+     *            max concurrent tesseract processes, the first value used is kept
+     * @param timeoutPerImage
+     *            timeout in seconds to OCR one image, 0 disables it
+     */
+    static synchronized TesseractPool get(String[] command, int maxProcesses, long timeoutPerImage) {
+        if (processes == null) {
+            processes = new Semaphore(maxProcesses, true);
+            LOGGER.info("Max concurrent tesseract processes: {}", maxProcesses); //$NON-NLS-1$
+        }
+        String key = String.join(" ", command) + " " + timeoutPerImage; //$NON-NLS-1$ //$NON-NLS-2$
+        return pools.computeIfAbsent(key, k -> new TesseractPool(command, timeoutPerImage));
+    }
+
+    private TesseractPool(String[] command, long timeoutPerImage) {
+        this.command = command;
+        this.timeoutPerImage = timeoutPerImage;
+    }
+
+    /**
+     * OCRs the images listed in a text file, one path per line, with a single
+     * tesseract process. Text of each page is followed by a form feed.
+     */
+    void runBatch(List<File> images, File output, String itemPath) throws IOException, TikaException {
+        File listFile = File.createTempFile("iped-ocr", ".lst"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (File image : images) {
+                sb.append(image.getAbsolutePath()).append('\n');
+            }
+            Files.write(listFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+            run(listFile, output, images.size(), itemPath);
+        } finally {
+            listFile.delete();
+        }
+    }
+
+    /**
+     * OCRs an image file or list file, writing text to output.
+     */
+    void run(File input, File output, int numImages, String itemPath) throws IOException, TikaException {
+        checkHealth();
+
+        String[] cmd = new String[command.length];
+        for (int i = 0; i < cmd.length; i++) {
+            cmd[i] = command[i];
+            if (cmd[i].indexOf(INPUT_FILE_TOKEN) != -1) {
+                cmd[i] = cmd[i].replace(INPUT_FILE_TOKEN, input.getPath());
+            }
+            if (cmd[i].indexOf(OUTPUT_FILE_TOKEN) != -1) {
+                String outputPrefix = output.getPath().substring(0, output.getPath().length() - 4);
+                cmd[i] = cmd[i].replace(OUTPUT_FILE_TOKEN, outputPrefix);
+            }
+        }
+
+        try {
+            processes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TikaException(OCRParser.class.getSimpleName() + " interrupted", e); //$NON-NLS-1$
+        }
+        Process process = null;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            Map<String, String> env = pb.environment();
+            // try to disable OpenMP
+            env.put("OMP_THREAD_LIMIT", "1"); //$NON-NLS-1$ //$NON-NLS-2$
+
+            process = pb.start();
+            process.getOutputStream().close();
+
+            logStream(process.getInputStream(), itemPath);
+            logStream(process.getErrorStream(), itemPath);
+
+            if (timeoutPerImage > 0) {
+                long timeout = timeoutPerImage * numImages;
+                if (!process.waitFor(timeout, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                    failed();
+                    throw new TimeoutException("tesseract timeout after " + timeout + "s"); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            } else {
+                process.waitFor();
+            }
+            int status = process.exitValue();
+            if (status != 0) {
+                failed();
+                throw new TikaException(TESSERACT_ERROR_MSG + status);
+            }
+            consecutiveFailures.set(0);
+
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new TikaException(OCRParser.class.getSimpleName() + " interrupted", e); //$NON-NLS-1$
+
+        } catch (IOException e) {
+            failed();
+            throw e;
+
+        } finally {
+            processes.release();
+        }
+    }
+
+    private void failed() {
+        consecutiveFailures.incrementAndGet();
+    }
+
+    /**
+     * Failures are usually caused by corrupted images, so the executable is
+     * checked only after some consecutive failures and at most once per interval.
+     */
+    private void checkHealth() throws TikaException {
+        if (healthy && consecutiveFailures.get() < MAX_CONSECUTIVE_FAILURES) {
+            return;
+        }
+        synchronized (this) {
+            if (System.currentTimeMillis() - lastHealthCheck < HEALTH_CHECK_INTERVAL) {
+                if (!healthy) {
+                    throw new TikaException("tesseract is not working, see previous errors"); //$NON-NLS-1$
+                }
+                return;
+            }
+            lastHealthCheck = System.currentTimeMillis();
+            try {
+                OCRParser.checkVersionInfo(command[0], "-v"); //$NON-NLS-1$
+                if (!healthy) {
+                    LOGGER.info("tesseract is working again"); //$NON-NLS-1$
+                }
+                healthy = true;
+                consecutiveFailures.set(0);
+
+            } catch (IOException | InterruptedException e) {
+                if (healthy) {
+                    LOGGER.error("Error running " + command[0] + ", OCR will fail until it works again", e); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                healthy = false;
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new TikaException("tesseract is not working", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static void logStream(final InputStream stream, String itemPath) {
+        new Thread() {
+            @Override
+            public void run() {
+                Reader reader = new InputStreamReader(stream);
+                StringBuilder out = new StringBuilder();
+                char[] buffer = new char[1024];
+                try {
+                    for (int n = reader.read(buffer); n != -1; n = reader.read(buffer))
+                        out.append(buffer, 0, n);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    IOUtil.closeQuietly(stream);
+                }
+
+                String msg = out.toString().replaceAll(OUTPUT_REGEX, "").replaceAll("\r?\n", " ").trim();
+                if (!msg.isEmpty())
+                    LOGGER.debug("OCR msg from " + itemPath + "\t" + msg);
+
+                return;
+            }
+        }.start();
+    }
+
+}
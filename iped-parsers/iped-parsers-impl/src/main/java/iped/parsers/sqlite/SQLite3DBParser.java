@@ -41,7 +41,6 @@
 import iped.parsers.jdbc.AbstractDBParser;
 import iped.parsers.jdbc.JDBCTableReader;
 import iped.parsers.util.DelegatingConnection;
-import iped.properties.BasicProps;
 import iped.search.IItemSearcher;
 import iped.utils.IOUtil;
 
@@ -137,8 +136,7 @@ private static File exportRelatedFile(File theFile, String suffix, ParseContext
             if (parsingItem != null) {
                 String parsingFilePath = parsingItem.getPath();
                 String relatedFileName = parsingItem.getName() + suffix;
-                String relatedFileQuery = BasicProps.PATH + ":\"" + searcher.escapeQuery(parsingFilePath + suffix) + "\"";
-                List<IItemReader> items = searcher.search(relatedFileQuery);
+                List<IItemReader> items = searcher.searchByPath(parsingFilePath + suffix);
                 if (items.size() > 0) {
                     IItemReader relatedItem = null;
                     // Pick the journal/wal, prioritizing the same deleted status.
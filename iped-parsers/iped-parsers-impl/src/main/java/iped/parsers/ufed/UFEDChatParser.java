@@ -109,11 +109,9 @@ public void parse(InputStream inputStream, ContentHandler handler, Metadata meta
             if (chat == null || searcher == null)
                 return;
 
-            String query = BasicProps.PARENTID + ":" + chat.getId(); //$NON-NLS-1$
-
             List<UfedMessage> messages = new ArrayList<>();
 
-            for (IItemReader msg : searcher.searchIterable(query)) {
+            for (IItemReader msg : searcher.searchChildren(chat.getId())) {
                 Iterator<IItemReader> subItems = null;
                 String[] attachRefs = msg.getMetadata().getValues(ExtraProperties.LINKED_ITEMS);
                 if (attachRefs.length > 0) {
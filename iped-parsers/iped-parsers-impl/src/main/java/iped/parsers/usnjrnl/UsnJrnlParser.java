@@ -267,32 +267,33 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
     }
 
     private void rebuildFullPaths(List<UsnJrnlEntry> entries, IItemSearcher searcher, IItemReader item) {
-        StringBuilder query = new StringBuilder();
-        query.append(BasicProps.EVIDENCE_UUID + ":" + item.getDataSource().getUUID());
-        query.append(" && ");
-        query.append(BasicProps.FILESYSTEM_ID + ":" + item.getExtraAttribute(BasicProps.FILESYSTEM_ID));
-        query.append(" && (");
         HashSet<Long> parentRefs = new HashSet<>();
         for (UsnJrnlEntry entry : entries) {
             parentRefs.add(entry.getParentMftRefAsLong());
         }
+        HashSet<Long> metaAddrs = new HashSet<>();
         for (Long parentRef : parentRefs) {
             long metaAddr = parentRef.longValue() & 0xFFFFFFFFFFFFl;
             long metaSeq = parentRef.longValue() >> 48;
             if (metaAddr >= 0 && metaSeq >= 0) {
-                query.append("(");
-                query.append(BasicProps.META_ADDRESS + ":" + metaAddr);
-                query.append(" && ");
-                query.append(BasicProps.MFT_SEQUENCE + ":" + metaSeq);
-                query.append(") ");
+                metaAddrs.add(metaAddr);
             }
         }
-        query.append(")");
-        List<IItemReader> parents = searcher.search(query.toString());
+        Object fsId = item.getExtraAttribute(BasicProps.FILESYSTEM_ID);
+        if (fsId == null || metaAddrs.isEmpty()) {
+            return;
+        }
+        List<IItemReader> parents = searcher.searchByMetaAddress(item.getDataSource().getUUID(), fsId.toString(),
+                metaAddrs);
         HashMap<Long, IItemReader> map = new HashMap<>();
         for (IItemReader parent : parents) {
+            Object mftSeq = parent.getExtraAttribute(BasicProps.MFT_SEQUENCE);
+            if (mftSeq == null) {
+                // only set if sequence is not 0, the old search did not return these items
+                continue;
+            }
             long meta = Long.parseLong((String) parent.getExtraAttribute(BasicProps.META_ADDRESS));
-            long seq = Long.parseLong((String) parent.getExtraAttribute(BasicProps.MFT_SEQUENCE));
+            long seq = Long.parseLong((String) mftSeq);
             long fullRef = seq << 48 | meta;
             map.put(fullRef, parent);
         }
@@ -1040,20 +1040,18 @@ private void storeLocations(List<Message> messages, Metadata metadata) {
 
     private void getAvatar(IItemSearcher searcher, WAContact contact) {
         if (searcher != null && contact.getAvatar() == null) {
-            List<IItemReader> result = searcher
-                    .search(BasicProps.NAME + ":\"" + escape(searcher, contact.getFullId()) + ".j\""); //$NON-NLS-1$ //$NON-NLS-2$
+            List<IItemReader> result = searcher.searchByName(contact.getFullId() + ".j"); //$NON-NLS-1$
             if (result.isEmpty()) {
                 if (contact.getAvatarPath() != null) {
                     String avatarFileBase = contact.getAvatarPath();
                     if (avatarFileBase.contains("/")) { //$NON-NLS-1$
                         avatarFileBase = avatarFileBase.substring(avatarFileBase.lastIndexOf('/') + 1); // $NON-NLS-1$
                     }
-                    avatarFileBase = escape(searcher, avatarFileBase);
                     // Try file .jpg
-                    result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".jpg\""); //$NON-NLS-1$ //$NON-NLS-2$
+                    result = searcher.searchByName(avatarFileBase + ".jpg"); //$NON-NLS-1$
                     if (result.isEmpty()) {
                         // Try file .thumb
-                        result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".thumb\""); //$NON-NLS-1$ //$NON-NLS-2$
+                        result = searcher.searchByName(avatarFileBase + ".thumb"); //$NON-NLS-1$
                     }
                 }
             }
@@ -193,6 +193,38 @@ public void testOCRParserTIFF() throws IOException, SAXException, TikaException,
         }
     }
 
+    @Test
+    public void testOCRParserTIFFPageByPage() throws IOException, SAXException, TikaException, SQLException {
+        Metadata metadata = new Metadata();
+        ContentHandler handler = new BodyContentHandler();
+        ParseContext context = new ParseContext();
+        ItemInfo itemInfo = new ItemInfo(0, testName.getMethodName(), null, null, testName.getMethodName(), false);
+        context.set(ItemInfo.class, itemInfo);
+        metadata.add(StandardParser.INDEXER_CONTENT_TYPE, "image/tiff");
+        context.set(OCROutputFolder.class, new OCROutputFolder(new File(OCR_OUTPUT_FOLDER_NAME)));
+        System.setProperty(OCRParser.LANGUAGE_PROP, "eng");
+        System.setProperty(OCRParser.BATCH_PAGES_PROP, "1");
+
+        String hts = "";
+        try (OCRParser parser = new OCRParser();
+            InputStream stream = this.getClass().getResourceAsStream("/test-files/test_OCR.tiff")) {
+            assumeTrue(parser.isEnabled());
+
+            parser.parse(stream, handler, metadata, context);
+            hts = handler.toString();
+
+            assertTrue(hts.contains("Literature must rest always on a principle"));
+            assertTrue(hts.contains("The Quick Brown"));
+            assertTrue(hts.contains("01234567890 01234567890"));
+
+        } catch (Throwable e) {
+            System.out.println(hts);
+            throw e;
+        } finally {
+            System.clearProperty(OCRParser.BATCH_PAGES_PROP);
+        }
+    }
+
     @Test
     public void testOCRParserPSD() throws IOException, SAXException, TikaException, SQLException {
         Metadata metadata = new Metadata();